@@ -0,0 +1,109 @@
+package atomic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.LockFreeLinkedDeque;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * LockFreeLinkedDeque 测试
+ */
+public class LockFreeLinkedDequeTest {
+
+    @Test
+    public void bothEnds() {
+        LockFreeLinkedDeque<Integer> d = new LockFreeLinkedDeque<Integer>();
+        Assert.assertTrue(d.isEmpty());
+        Assert.assertNull(d.pollFirst());
+        Assert.assertNull(d.pollLast());
+        d.addLast(2);
+        d.addFirst(1);
+        d.addLast(3);
+        Assert.assertEquals(3, d.size());
+        Assert.assertEquals(Integer.valueOf(1), d.peekFirst());
+        Assert.assertEquals(Integer.valueOf(3), d.peekLast());
+        Assert.assertEquals(Integer.valueOf(1), d.pollFirst());
+        Assert.assertEquals(Integer.valueOf(3), d.pollLast());
+        Assert.assertEquals(Integer.valueOf(2), d.pollLast());
+        Assert.assertTrue(d.isEmpty());
+
+        /** push/pop 在队头，后进先出 **/
+        d.push(1);
+        d.push(2);
+        Assert.assertEquals(Integer.valueOf(2), d.pop());
+        Assert.assertEquals(Integer.valueOf(1), d.pop());
+        Assert.assertNull(d.pop());
+        try {
+            d.addFirst(null);
+            Assert.fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    /**
+     * 多个线程随机在两端插入、删除，每个元素恰好被取出一次：
+     * 并发期间取出的元素加上最后剩下的元素等于插入的全部元素，没有丢失也没有重复
+     */
+    @Test
+    public void concurrentConservation() throws Exception {
+        final int threads = 4, perThread = 50000;
+        for (int round = 0; round < 5; round++) {
+            final LockFreeLinkedDeque<Integer> d = new LockFreeLinkedDeque<Integer>();
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<List<Integer>> polled = new ArrayList<List<Integer>>();
+            Thread[] ts = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int base = t * perThread;
+                final List<Integer> mine = new ArrayList<Integer>();
+                polled.add(mine);
+                ts[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        for (int i = 0; i < perThread; i++) {
+                            if (rnd.nextBoolean())
+                                d.addFirst(base + i);
+                            else
+                                d.addLast(base + i);
+                            if (rnd.nextInt(3) != 0) {
+                                Integer e = rnd.nextBoolean() ? d.pollFirst() : d.pollLast();
+                                if (e != null)
+                                    mine.add(e);
+                            }
+                        }
+                    }
+                });
+                ts[t].start();
+            }
+            start.countDown();
+            for (Thread t : ts)
+                t.join();
+
+            BitSet seen = new BitSet(threads * perThread);
+            int count = 0;
+            for (List<Integer> mine : polled)
+                for (Integer e : mine) {
+                    Assert.assertFalse("duplicate " + e, seen.get(e));
+                    seen.set(e);
+                    count++;
+                }
+            Assert.assertEquals(threads * perThread - count, d.size());
+            for (Integer e; (e = d.pollFirst()) != null; ) {
+                Assert.assertFalse("duplicate " + e, seen.get(e));
+                seen.set(e);
+            }
+            Assert.assertEquals("round " + round, threads * perThread, seen.cardinality());
+            Assert.assertTrue(d.isEmpty());
+        }
+    }
+}
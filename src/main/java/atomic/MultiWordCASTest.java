@@ -0,0 +1,170 @@
+package atomic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.MCASReference;
+import sourcecode.MultiWordCAS;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MultiWordCAS / MCASReference 测试
+ */
+public class MultiWordCASTest {
+
+    /**
+     * 按引用比较的金额，相同金额的两个对象不相等，用来制造单字CAS对多字CAS的干扰
+     */
+    static final class Amount {
+        final int value;
+
+        Amount(int value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void allOrNothing() {
+        MCASReference<String> a = new MCASReference<String>("a");
+        MCASReference<String> b = new MCASReference<String>("b");
+        MCASReference<String> c = new MCASReference<String>("c");
+
+        Assert.assertTrue(MultiWordCAS.compareAndSet(a, "a", "a1", b, "b", "b1"));
+        Assert.assertEquals("a1", a.get());
+        Assert.assertEquals("b1", b.get());
+
+        /** 一个引用不等于期望值时全部不修改 **/
+        Assert.assertFalse(MultiWordCAS.compareAndSet(a, "a1", "a2", b, "b1", "b2", c, "x", "c2"));
+        Assert.assertEquals("a1", a.get());
+        Assert.assertEquals("b1", b.get());
+        Assert.assertEquals("c", c.get());
+
+        Assert.assertTrue(MultiWordCAS.compareAndSet(
+                new MCASReference<?>[] {c, a, b},
+                new Object[] {"c", "a1", "b1"},
+                new Object[] {"c3", "a3", "b3"}));
+        Assert.assertEquals("a3", a.get());
+        Assert.assertEquals("b3", b.get());
+        Assert.assertEquals("c3", c.get());
+
+        /** 单字操作看到的是多字CAS之后的值 **/
+        Assert.assertTrue(a.compareAndSet("a3", "a4"));
+        Assert.assertEquals("a4", a.getAndSet("a5"));
+        Assert.assertTrue(MultiWordCAS.compareAndSet(a, "a5", "a6", b, "b3", "b6"));
+    }
+
+    @Test
+    public void invalidArguments() {
+        MCASReference<String> a = new MCASReference<String>("a");
+        MCASReference<String> b = new MCASReference<String>("b");
+        try {
+            MultiWordCAS.compareAndSet(a, "a", "x", a, "a", "y");
+            Assert.fail("duplicate reference should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            MultiWordCAS.compareAndSet(new MCASReference<?>[] {a, b}, new Object[] {"a"}, new Object[] {"x", "y"});
+            Assert.fail("length mismatch should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            MultiWordCAS.compareAndSet(a, "a", "x", null, "b", "y");
+            Assert.fail("null reference should be rejected");
+        } catch (NullPointerException expected) {
+        }
+        /** 被拒绝的调用不修改任何引用 **/
+        Assert.assertEquals("a", a.get());
+        Assert.assertEquals("b", b.get());
+    }
+
+    /**
+     * 转账线程用三字CAS在两个账户之间转账，同时要求版本引用保持不变；
+     * 干扰线程用单字CAS把账户换成金额相同的新对象，另一个线程不断set版本引用。
+     * 结束时总金额不变，版本引用没有被多字CAS回退为旧值
+     */
+    @Test
+    public void concurrentTransfersWithSingleWordUpdates() throws Exception {
+        final int accounts = 4, initial = 1000, transferThreads = 4, transfers = 20000;
+        @SuppressWarnings("unchecked")
+        final MCASReference<Amount>[] refs = new MCASReference[accounts];
+        for (int i = 0; i < accounts; i++)
+            refs[i] = new MCASReference<Amount>(new Amount(initial));
+        final MCASReference<Integer> version = new MCASReference<Integer>(0);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger reverted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[transferThreads + 2];
+        for (int t = 0; t < transferThreads; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (int done = 0; done < transfers; ) {
+                        int i = rnd.nextInt(accounts), j = rnd.nextInt(accounts - 1);
+                        if (j >= i)
+                            j++;
+                        Amount from = refs[i].get(), to = refs[j].get();
+                        Integer v = version.get();
+                        if (MultiWordCAS.compareAndSet(
+                                new MCASReference<?>[] {refs[i], refs[j], version},
+                                new Object[] {from, to, v},
+                                new Object[] {new Amount(from.value - 1), new Amount(to.value + 1), v}))
+                            done++;
+                    }
+                }
+            });
+        }
+        /** 单字CAS：金额不变，对象改变 **/
+        threads[transferThreads] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    MCASReference<Amount> r = refs[rnd.nextInt(accounts)];
+                    Amount a = r.get();
+                    r.compareAndSet(a, new Amount(a.value));
+                }
+            }
+        });
+        /** 单字set：版本单调递增，读回的值不能变小 **/
+        threads[transferThreads + 1] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                for (int k = 1; !stop.get(); k++) {
+                    version.set(k);
+                    if (version.get() < k)
+                        reverted.incrementAndGet();
+                }
+            }
+        });
+        for (Thread t : threads)
+            t.start();
+        start.countDown();
+        for (int t = 0; t < transferThreads; t++)
+            threads[t].join();
+        stop.set(true);
+        threads[transferThreads].join();
+        threads[transferThreads + 1].join();
+
+        int sum = 0;
+        for (MCASReference<Amount> r : refs)
+            sum += r.get().value;
+        Assert.assertEquals(accounts * initial, sum);
+        Assert.assertEquals(0, reverted.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package atomic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.PackedAtomicStampedReference;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PackedAtomicStampedReference 测试：登记数量上限，以及用它实现的复用节点无锁栈不受ABA影响
+ */
+public class PackedAtomicStampedReferenceTest {
+
+    /**
+     * 不同引用超过 maxReferences 时抛出IllegalStateException，null不占用名额，已经登记的引用可以继续使用
+     */
+    @Test
+    public void maxReferencesIsEnforced() {
+        Object[] refs = {new Object(), new Object(), new Object(), new Object()};
+        PackedAtomicStampedReference<Object> ref = new PackedAtomicStampedReference<Object>(null, 0, 4);
+        for (int i = 0; i < refs.length; i++)
+            ref.set(refs[i], i);
+        try {
+            ref.set(new Object(), 100);
+            Assert.fail("fifth distinct reference should be rejected");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertSame(refs[3], ref.getReference());
+        Assert.assertTrue(ref.compareAndSet(refs[3], refs[0], 3, 4));
+        ref.set(null, 5);
+        Assert.assertTrue(ref.compareAndSet(null, refs[1], 5, 6));
+        Assert.assertSame(refs[1], ref.getReference());
+    }
+
+    /**
+     * 栈节点
+     */
+    static final class Node {
+        final int id;
+        volatile Node next;
+
+        Node(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * 节点循环复用的无锁栈，栈顶用 PackedAtomicStampedReference 保存，每次修改时间戳加1
+     */
+    static final class Stack {
+        final PackedAtomicStampedReference<Node> top;
+
+        Stack(int capacity) {
+            top = new PackedAtomicStampedReference<Node>(null, 0, capacity);
+        }
+
+        void push(Node n) {
+            int[] stamp = new int[1];
+            for (;;) {
+                Node t = top.get(stamp);
+                n.next = t;
+                if (top.compareAndSet(t, n, stamp[0], stamp[0] + 1))
+                    return;
+            }
+        }
+
+        Node pop() {
+            int[] stamp = new int[1];
+            for (;;) {
+                Node t = top.get(stamp);
+                if (t == null)
+                    return null;
+                if (top.compareAndSet(t, t.next, stamp[0], stamp[0] + 1))
+                    return t;
+            }
+        }
+    }
+
+    /**
+     * 经典ABA：读到栈顶A(next为B)后，A、B被弹出，A又被压回；
+     * 栈顶引用仍然是A，但时间戳已经变化，旧的pop不能把栈顶改成已经弹出的B
+     */
+    @Test
+    public void abaIsDetected() {
+        Stack stack = new Stack(8);
+        Node a = new Node(1), b = new Node(2), c = new Node(3);
+        stack.push(c);
+        stack.push(b);
+        stack.push(a);
+
+        int[] stamp = new int[1];
+        Node seen = stack.top.get(stamp);
+        Node seenNext = seen.next;
+        Assert.assertSame(a, seen);
+        Assert.assertSame(b, seenNext);
+
+        Assert.assertSame(a, stack.pop());
+        Assert.assertSame(b, stack.pop());
+        stack.push(a);
+
+        Assert.assertSame(a, stack.top.getReference());
+        Assert.assertFalse(stack.top.compareAndSet(seen, seenNext, stamp[0], stamp[0] + 1));
+        Assert.assertSame(a, stack.pop());
+        Assert.assertSame(c, stack.pop());
+        Assert.assertNull(stack.pop());
+    }
+
+    /**
+     * 多个线程反复弹出、压回同一批节点，结束后每个节点恰好在栈中出现一次
+     */
+    @Test
+    public void recycledNodesUnderContention() throws Exception {
+        final int nodes = 16, threads = 4, rounds = 200000;
+        final Stack stack = new Stack(nodes);
+        for (int i = 0; i < nodes; i++)
+            stack.push(new Node(i));
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger empty = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < rounds; i++) {
+                        Node n = stack.pop();
+                        if (n == null) {
+                            empty.incrementAndGet();
+                            continue;
+                        }
+                        stack.push(n);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+
+        /** 每个线程最多持有一个节点，节点数多于线程数时栈不会为空 **/
+        Assert.assertEquals(0, empty.get());
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Node n; (n = stack.pop()) != null; )
+            Assert.assertTrue("node " + n.id + " appears twice", ids.add(n.id));
+        Assert.assertEquals(nodes, ids.size());
+    }
+}
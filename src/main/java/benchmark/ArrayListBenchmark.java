@@ -0,0 +1,80 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.ArrayList 与 java.util.ArrayList 的 add/get 对比
+ *
+ * add 每追加 size 个元素后 clear 一次，包含 ensureCapacityInternal 扩容开销；
+ * get 在预先填充好的列表上顺序随机访问
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayListBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    int size;
+
+    private static final Integer VALUE = 1;
+
+    private List<Integer> sourcecodeList;
+
+    private List<Integer> jdkList;
+
+    private List<Integer> sourcecodeFilled;
+
+    private List<Integer> jdkFilled;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        sourcecodeList = new sourcecode.ArrayList<Integer>();
+        jdkList = new java.util.ArrayList<Integer>();
+        sourcecodeFilled = new sourcecode.ArrayList<Integer>();
+        jdkFilled = new java.util.ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            sourcecodeFilled.add(i);
+            jdkFilled.add(i);
+        }
+    }
+
+    @Benchmark
+    public boolean sourcecodeAdd() {
+        return add(sourcecodeList);
+    }
+
+    @Benchmark
+    public boolean jdkAdd() {
+        return add(jdkList);
+    }
+
+    @Benchmark
+    public Integer sourcecodeGet() {
+        return sourcecodeFilled.get(nextIndex());
+    }
+
+    @Benchmark
+    public Integer jdkGet() {
+        return jdkFilled.get(nextIndex());
+    }
+
+    private boolean add(List<Integer> list) {
+        if (list.size() == size)
+            list.clear();
+        return list.add(VALUE);
+    }
+
+    private int nextIndex() {
+        int i = index;
+        index = (i + 1 == size) ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sourcecode.AtomicIntegerArray;
+import sourcecode.AtomicLongArray;
+import sourcecode.PaddedAtomicIntegerArray;
+import sourcecode.PaddedAtomicLongArray;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 伪共享对比：每个线程累加数组中属于自己的下标(互不相同)
+ *
+ * AtomicIntegerArray/AtomicLongArray 元素紧密排列，相邻线程的下标在同一个缓存行，
+ * PaddedAtomicIntegerArray/PaddedAtomicLongArray 相邻下标相隔 stride 字节，
+ * 配合BenchmarkRunner从1线程逐级增加到N线程，观察紧密排列的数组吞吐量随线程数增加而下降
+ *
+ * sourcecode.AtomicIntegerArray 使用Unsafe.getUnsafe()，forked JVM将benchmarks.jar追加到bootclasspath(需要在项目根目录运行)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xbootclasspath/a:target/benchmarks.jar")
+public class AtomicArrayBenchmark {
+
+    /** 数组长度，不小于线程数 **/
+    static final int SLOTS = 64;
+
+    @Param({"64", "128"})
+    int stride;
+
+    private AtomicIntegerArray denseInts;
+
+    private AtomicLongArray denseLongs;
+
+    private PaddedAtomicIntegerArray paddedInts;
+
+    private PaddedAtomicLongArray paddedLongs;
+
+    private final java.util.concurrent.atomic.AtomicInteger nextIndex = new java.util.concurrent.atomic.AtomicInteger();
+
+    @Setup
+    public void setup() {
+        denseInts = new AtomicIntegerArray(SLOTS);
+        denseLongs = new AtomicLongArray(SLOTS);
+        paddedInts = new PaddedAtomicIntegerArray(SLOTS, stride);
+        paddedLongs = new PaddedAtomicLongArray(SLOTS, stride);
+    }
+
+    /**
+     * 每个线程一个下标，按线程启动顺序分配，相邻线程的下标相邻
+     */
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        int index;
+
+        @Setup
+        public void setup(AtomicArrayBenchmark b) {
+            index = b.nextIndex.getAndIncrement() % SLOTS;
+        }
+    }
+
+    @Benchmark
+    public int denseInt(ThreadIndex t) {
+        return denseInts.incrementAndGet(t.index);
+    }
+
+    @Benchmark
+    public int paddedInt(ThreadIndex t) {
+        return paddedInts.incrementAndGet(t.index);
+    }
+
+    @Benchmark
+    public long denseLong(ThreadIndex t) {
+        return denseLongs.incrementAndGet(t.index);
+    }
+
+    @Benchmark
+    public long paddedLong(ThreadIndex t) {
+        return paddedLongs.incrementAndGet(t.index);
+    }
+}
@@ -0,0 +1,113 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sourcecode.AtomicStampedReference;
+import sourcecode.PackedAtomicStampedReference;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于带时间戳引用的无锁栈(Treiber stack)，对比 sourcecode.AtomicStampedReference 与 PackedAtomicStampedReference
+ *
+ * 栈中预先放入 NODES 个节点，每次操作弹出一个节点再压回，节点循环复用，时间戳防止ABA，
+ * AtomicStampedReference 每次CAS分配一个Pair，PackedAtomicStampedReference 不分配对象，
+ * 使用 BenchmarkRunner AtomicStampedReferenceBenchmark gc 运行，对比 gc.alloc.rate.norm(每次操作分配的字节数)和GC次数
+ *
+ * sourcecode.AtomicStampedReference 使用Unsafe.getUnsafe()，forked JVM将benchmarks.jar追加到bootclasspath(需要在项目根目录运行)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xbootclasspath/a:target/benchmarks.jar")
+public class AtomicStampedReferenceBenchmark {
+
+    static final int NODES = 64;
+
+    static final class Node {
+        final int value;
+        Node next;
+
+        Node(int value) {
+            this.value = value;
+        }
+    }
+
+    private AtomicStampedReference<Node> pairHead;
+
+    private PackedAtomicStampedReference<Node> packedHead;
+
+    @Setup
+    public void setup() {
+        pairHead = new AtomicStampedReference<Node>(null, 0);
+        packedHead = new PackedAtomicStampedReference<Node>(null, 0, NODES);
+        for (int i = 0; i < NODES; i++) {
+            pairPush(new Node(i));
+            packedPush(new Node(i));
+        }
+    }
+
+    @Benchmark
+    public int pairStack() {
+        Node n = pairPop();
+        if (n == null)
+            return -1;
+        pairPush(n);
+        return n.value;
+    }
+
+    @Benchmark
+    public int packedStack() {
+        Node n = packedPop();
+        if (n == null)
+            return -1;
+        packedPush(n);
+        return n.value;
+    }
+
+    /**
+     * 先读时间戳再读引用，两次读取之间栈被修改时时间戳已经变化，CAS失败重试
+     */
+    private Node pairPop() {
+        for (;;) {
+            int stamp = pairHead.getStamp();
+            Node h = pairHead.getReference();
+            if (h == null)
+                return null;
+            if (pairHead.compareAndSet(h, h.next, stamp, stamp + 1))
+                return h;
+        }
+    }
+
+    private void pairPush(Node n) {
+        for (;;) {
+            int stamp = pairHead.getStamp();
+            Node h = pairHead.getReference();
+            n.next = h;
+            if (pairHead.compareAndSet(h, n, stamp, stamp + 1))
+                return;
+        }
+    }
+
+    private Node packedPop() {
+        for (;;) {
+            int stamp = packedHead.getStamp();
+            Node h = packedHead.getReference();
+            if (h == null)
+                return null;
+            if (packedHead.compareAndSet(h, h.next, stamp, stamp + 1))
+                return h;
+        }
+    }
+
+    private void packedPush(Node n) {
+        for (;;) {
+            int stamp = packedHead.getStamp();
+            Node h = packedHead.getReference();
+            n.next = h;
+            if (packedHead.compareAndSet(h, n, stamp, stamp + 1))
+                return;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试启动入口
+ *
+ * 以 1,2,4...N(N=CPU核数) 个线程逐级运行匹配的基准测试，
+ * 同时输出吞吐量(ops/s)和采样耗时(包含p99分位)。
+ *
+ * java -cp target/benchmarks.jar benchmark.BenchmarkRunner [正则，默认全部] [gc]
+ * 第二个参数为gc时同时开启GC profiler，输出每次操作分配的字节数(gc.alloc.rate.norm)和GC次数
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        /** 需要运行的基准测试类(正则)，默认运行benchmark包下全部 **/
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+        boolean gc = args.length > 1 && "gc".equals(args[1]);
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads << 1, maxThreads)) {
+            ChainedOptionsBuilder options = options(include, threads);
+            if (gc)
+                options.addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+            if (threads == maxThreads)
+                break;
+        }
+    }
+
+    /**
+     * 统一的运行参数，保证每次测试结果可以相互比较
+     */
+    static ChainedOptionsBuilder options(String include, int threads) {
+        return new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .threads(threads)
+                .forks(1)
+                .warmupIterations(5)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .shouldDoGC(true);
+    }
+}
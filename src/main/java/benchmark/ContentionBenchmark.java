@@ -0,0 +1,136 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sourcecode.ContentionStrategy;
+import unsafe.BackoffCASCounter;
+import unsafe.CASCounter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * CAS重试循环的竞争管理策略对比：none(立即重试)、spinWait、yieldAfter、exponentialBackoff
+ *
+ * 所有线程更新同一个 sourcecode.AtomicInteger / sourcecode.AtomicReference(Scope.Benchmark)，
+ * Counters 对比 unsafe.CASCounter(立即重试) 和 unsafe.BackoffCASCounter(默认park指数退避，或通过IntConsumer使用上面的策略)，
+ * 线程数逐级增加(BenchmarkRunner 1..N 线程，或 java -jar target/benchmarks.jar ContentionBenchmark -t 线程数)，
+ * 观察高竞争下立即重试的吞吐量下降，退避策略减少失败CAS后的吞吐量
+ *
+ * sourcecode.AtomicInteger 使用Unsafe.getUnsafe()，forked JVM将benchmarks.jar追加到bootclasspath(需要在项目根目录运行)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xbootclasspath/a:target/benchmarks.jar")
+public class ContentionBenchmark {
+
+    private static final IntUnaryOperator INCREMENT = new IntUnaryOperator() {
+        @Override
+        public int applyAsInt(int x) {
+            return x + 1;
+        }
+    };
+
+    private static final UnaryOperator<Long> INCREMENT_BOXED = new UnaryOperator<Long>() {
+        @Override
+        public Long apply(Long x) {
+            return x + 1;
+        }
+    };
+
+    @Param({"none", "spinWait", "yieldAfter", "backoff"})
+    String strategy;
+
+    private ContentionStrategy contention;
+
+    private sourcecode.AtomicInteger atomicInteger;
+
+    private sourcecode.AtomicReference<Long> atomicReference;
+
+    @Setup
+    public void setup() throws Exception {
+        contention = strategy(strategy);
+        atomicInteger = new sourcecode.AtomicInteger();
+        atomicReference = new sourcecode.AtomicReference<Long>(0L);
+    }
+
+    static ContentionStrategy strategy(String name) {
+        switch (name) {
+            case "none":
+                return ContentionStrategy.none();
+            case "spinWait":
+                return ContentionStrategy.spinWait();
+            case "yieldAfter":
+                return ContentionStrategy.yieldAfter(8);
+            case "backoff":
+                return ContentionStrategy.exponentialBackoff(4, 1 << 10);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    @Benchmark
+    public int atomicInteger() {
+        return atomicInteger.updateAndGet(INCREMENT, contention);
+    }
+
+    @Benchmark
+    public Long atomicReference() {
+        return atomicReference.updateAndGet(INCREMENT_BOXED, contention);
+    }
+
+    /**
+     * unsafe包不依赖sourcecode，BackoffCASCounter通过IntConsumer使用ContentionStrategy
+     */
+    static IntConsumer onFailure(final ContentionStrategy contention) {
+        return new IntConsumer() {
+            @Override
+            public void accept(int failures) {
+                contention.onFailure(failures);
+            }
+        };
+    }
+
+    /**
+     * unsafe包中的计数器：CASCounter立即重试，与strategy参数无关；
+     * BackoffCASCounter在strategy为backoff时使用自带的默认指数退避，其他取值使用对应的ContentionStrategy
+     * 嵌套类不继承外部类的JMH注解，需要单独声明；ContentionStrategy通过反射获取Unsafe，不需要bootclasspath
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Counters {
+
+        @Param({"none", "spinWait", "yieldAfter", "backoff"})
+        String strategy;
+
+        private CASCounter casCounter;
+
+        private BackoffCASCounter backoffCasCounter;
+
+        @Setup
+        public void setup() throws Exception {
+            casCounter = new CASCounter();
+            backoffCasCounter = "backoff".equals(strategy)
+                    ? new BackoffCASCounter()
+                    : new BackoffCASCounter(onFailure(strategy(strategy)));
+        }
+
+        @Benchmark
+        public void casCounter() {
+            casCounter.increment();
+        }
+
+        @Benchmark
+        public void backoffCasCounter() {
+            backoffCasCounter.increment();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.CountDownLatch 与 java.util.concurrent.CountDownLatch 对比
+ *
+ * 每次操作创建一个计数为 count 的闭锁，逐次 countDown 到0后 await(此时不会阻塞)，
+ * 度量 tryReleaseShared 的CAS循环以及 releaseShared/acquireShared 快路径开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountDownLatchBenchmark {
+
+    @Param({"1", "16"})
+    int count;
+
+    @Benchmark
+    public long sourcecode() throws InterruptedException {
+        sourcecode.CountDownLatch latch = new sourcecode.CountDownLatch(count);
+        for (int i = 0; i < count; i++)
+            latch.countDown();
+        latch.await();
+        return latch.getCount();
+    }
+
+    @Benchmark
+    public long jdk() throws InterruptedException {
+        java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(count);
+        for (int i = 0; i < count; i++)
+            latch.countDown();
+        latch.await();
+        return latch.getCount();
+    }
+}
@@ -0,0 +1,62 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import unsafe.CASCounter;
+import unsafe.StripedCounter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并发计数器对比：unsafe.StripedCounter、unsafe.CASCounter、sourcecode.AtomicInteger、java.util.concurrent.atomic.LongAdder
+ *
+ * 所有线程累加同一个计数器(Scope.Benchmark)，配合BenchmarkRunner从1线程逐级增加到N线程，
+ * 观察单点CAS在线程增多后吞吐量下降，分段计数器吞吐量随线程数增长
+ *
+ * sourcecode.AtomicInteger 使用Unsafe.getUnsafe()，只允许启动类加载器加载的类调用，
+ * 因此forked JVM将benchmarks.jar追加到bootclasspath(需要在项目根目录运行)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xbootclasspath/a:target/benchmarks.jar")
+public class CounterBenchmark {
+
+    private StripedCounter stripedCounter;
+
+    private CASCounter casCounter;
+
+    private sourcecode.AtomicInteger atomicInteger;
+
+    private LongAdder longAdder;
+
+    @Setup
+    public void setup() throws Exception {
+        stripedCounter = new StripedCounter();
+        casCounter = new CASCounter();
+        atomicInteger = new sourcecode.AtomicInteger();
+        longAdder = new LongAdder();
+    }
+
+    @Benchmark
+    public void stripedCounter() {
+        stripedCounter.increment();
+    }
+
+    @Benchmark
+    public void casCounter() {
+        casCounter.increment();
+    }
+
+    @Benchmark
+    public int sourcecodeAtomicInteger() {
+        return atomicInteger.incrementAndGet();
+    }
+
+    @Benchmark
+    public void jdkLongAdder() {
+        longAdder.increment();
+    }
+}
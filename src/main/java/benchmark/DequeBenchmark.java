@@ -0,0 +1,108 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sourcecode.LinkedList;
+import sourcecode.LockFreeLinkedDeque;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 双端队列对比：sourcecode.LockFreeLinkedDeque(多字CAS) 与 sourcecode.LinkedList + sourcecode.ReentrantLock，
+ * java.util.concurrent.ConcurrentLinkedDeque 作为参照
+ *
+ * 所有线程操作同一个双端队列(Scope.Benchmark)，预先放入 PREFILL 个元素，
+ * queue：队尾入队 + 队头出队；stack：队头入栈 + 队头出栈(所有线程竞争同一端)
+ *
+ * 配合BenchmarkRunner从1线程逐级增加到N线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DequeBenchmark {
+
+    static final int PREFILL = 1024;
+
+    private static final Integer ELEMENT = 1;
+
+    private LockFreeLinkedDeque<Integer> lockFree;
+
+    private LinkedList<Integer> list;
+
+    private Lock lock;
+
+    private ConcurrentLinkedDeque<Integer> jdkDeque;
+
+    @Setup
+    public void setup() {
+        lockFree = new LockFreeLinkedDeque<Integer>();
+        list = new LinkedList<Integer>();
+        lock = new sourcecode.ReentrantLock();
+        jdkDeque = new ConcurrentLinkedDeque<Integer>();
+        for (int i = 0; i < PREFILL; i++) {
+            lockFree.addLast(i);
+            list.addLast(i);
+            jdkDeque.addLast(i);
+        }
+    }
+
+    @Benchmark
+    public Integer lockFreeQueue() {
+        lockFree.addLast(ELEMENT);
+        return lockFree.pollFirst();
+    }
+
+    @Benchmark
+    public Integer lockedQueue() {
+        lock.lock();
+        try {
+            list.addLast(ELEMENT);
+        } finally {
+            lock.unlock();
+        }
+        lock.lock();
+        try {
+            return list.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public Integer jdkQueue() {
+        jdkDeque.addLast(ELEMENT);
+        return jdkDeque.pollFirst();
+    }
+
+    @Benchmark
+    public Integer lockFreeStack() {
+        lockFree.push(ELEMENT);
+        return lockFree.pop();
+    }
+
+    @Benchmark
+    public Integer lockedStack() {
+        lock.lock();
+        try {
+            list.push(ELEMENT);
+        } finally {
+            lock.unlock();
+        }
+        lock.lock();
+        try {
+            return list.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public Integer jdkStack() {
+        jdkDeque.push(ELEMENT);
+        return jdkDeque.pop();
+    }
+}
@@ -0,0 +1,113 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sourcecode.AtomicReferenceFieldUpdater;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字段更新器对比：在大量小节点对象上用字段更新器代替AtomicReference包装
+ *
+ * sourcecode.AtomicReferenceFieldUpdater 在JDK 8上使用Unsafe，每次调用检查对象和值的类型，
+ * 在JDK 9+ 上由多版本jar中的实现替换，访问权限只在newUpdater时检查一次，
+ * CAS和volatile读写仍然使用Unsafe，acquire/release/opaque 使用VarHandle，
+ * 对照组为 java.util.concurrent.atomic.AtomicReferenceFieldUpdater
+ *
+ * 同时对比 volatile / acquire-release / opaque 三种访问模式的读写开销
+ *
+ * 更新器保存在static final字段中，但更新器内部的VarHandle是实例final字段，JIT默认不把它当作常量，
+ * TrustedFinals 使用 -XX:+TrustFinalNonStaticFields 再跑一遍，观察VarHandle被常量折叠后的吞吐量
+ * (CAS如果也经过VarHandle，默认情况下只有JDK更新器的2/3左右，这也是CAS保留Unsafe的原因)
+ *
+ * JDK 8 上 newUpdater 依赖 Reflection.getCallerClass()，forked JVM将benchmarks.jar追加到bootclasspath(需要在项目根目录运行)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xbootclasspath/a:target/benchmarks.jar")
+public class FieldUpdaterBenchmark {
+
+    /** 每个线程操作的节点数，超出缓存，模拟大量小对象 **/
+    static final int NODES = 1 << 16;
+
+    static final class Node {
+        volatile Node next;
+    }
+
+    static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    static final java.util.concurrent.atomic.AtomicReferenceFieldUpdater<Node, Node> JDK_NEXT =
+        java.util.concurrent.atomic.AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    private Node[] nodes;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        nodes = new Node[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = new Node();
+        }
+    }
+
+    private Node nextNode() {
+        return nodes[index++ & (NODES - 1)];
+    }
+
+    @Benchmark
+    public boolean casUpdater() {
+        Node n = nextNode();
+        return NEXT.compareAndSet(n, n.next, n);
+    }
+
+    @Benchmark
+    public boolean casJdkUpdater() {
+        Node n = nextNode();
+        return JDK_NEXT.compareAndSet(n, n.next, n);
+    }
+
+    @Benchmark
+    public Node getVolatile() {
+        return NEXT.get(nextNode());
+    }
+
+    @Benchmark
+    public Node getAcquire() {
+        return NEXT.getAcquire(nextNode());
+    }
+
+    @Benchmark
+    public Node getOpaque() {
+        return NEXT.getOpaque(nextNode());
+    }
+
+    @Benchmark
+    public void setVolatile() {
+        Node n = nextNode();
+        NEXT.set(n, n);
+    }
+
+    @Benchmark
+    public void setRelease() {
+        Node n = nextNode();
+        NEXT.setRelease(n, n);
+    }
+
+    @Benchmark
+    public void setOpaque() {
+        Node n = nextNode();
+        NEXT.setOpaque(n, n);
+    }
+
+    /**
+     * 同样的基准方法，JIT信任实例final字段(更新器中的VarHandle可以常量折叠)
+     */
+    @Fork(value = 1, jvmArgsAppend = {"-Xbootclasspath/a:target/benchmarks.jar",
+        "-XX:+UnlockExperimentalVMOptions", "-XX:+TrustFinalNonStaticFields"})
+    public static class TrustedFinals extends FieldUpdaterBenchmark {
+    }
+}
@@ -0,0 +1,75 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.HashMap 与 java.util.HashMap 的 get/put 对比
+ *
+ * HashMap 非线程安全，每个线程持有独立实例(Scope.Thread)，
+ * 多线程运行时用来观察内存带宽/缓存对单线程热点路径的影响
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashMapBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    int size;
+
+    private Integer[] keys;
+
+    private Map<Integer, Integer> sourcecodeMap;
+
+    private Map<Integer, Integer> jdkMap;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        keys = new Integer[size];
+        sourcecodeMap = new sourcecode.HashMap<Integer, Integer>();
+        jdkMap = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = ThreadLocalRandom.current().nextInt();
+            sourcecodeMap.put(keys[i], i);
+            jdkMap.put(keys[i], i);
+        }
+    }
+
+    /** 循环取下一个已存在的key **/
+    private Integer nextKey() {
+        int i = index;
+        index = (i + 1 == size) ? 0 : i + 1;
+        return keys[i];
+    }
+
+    @Benchmark
+    public Integer sourcecodeGet() {
+        return sourcecodeMap.get(nextKey());
+    }
+
+    @Benchmark
+    public Integer jdkGet() {
+        return jdkMap.get(nextKey());
+    }
+
+    /** 覆盖已存在的key，map大小保持不变 **/
+    @Benchmark
+    public Integer sourcecodePut() {
+        Integer key = nextKey();
+        return sourcecodeMap.put(key, key);
+    }
+
+    @Benchmark
+    public Integer jdkPut() {
+        Integer key = nextKey();
+        return jdkMap.put(key, key);
+    }
+}
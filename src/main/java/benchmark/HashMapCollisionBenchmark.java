@@ -0,0 +1,100 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hash冲突场景下 sourcecode.HashMap 的 get 延迟
+ *
+ * 所有key的hashCode相同(全部落入同一个桶)，
+ * 链表实现查找为O(n)，转换为红黑树后为O(log n)(Comparable key)。
+ * comparable=false 时key无法比较，树中只能靠hash区分，用来观察最坏情况
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashMapCollisionBenchmark {
+
+    @Param({"8", "64", "1024", "16384"})
+    int size;
+
+    @Param({"true", "false"})
+    boolean comparable;
+
+    private Object[] keys;
+
+    private Map<Object, Integer> sourcecodeMap;
+
+    private Map<Object, Integer> jdkMap;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        keys = new Object[size];
+        sourcecodeMap = new sourcecode.HashMap<Object, Integer>();
+        jdkMap = new java.util.HashMap<Object, Integer>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = comparable ? new ComparableKey(i) : new CollidingKey(i);
+            sourcecodeMap.put(keys[i], i);
+            jdkMap.put(keys[i], i);
+        }
+    }
+
+    private Object nextKey() {
+        int i = index;
+        index = (i + 1 == size) ? 0 : i + 1;
+        return keys[i];
+    }
+
+    @Benchmark
+    public Integer sourcecodeGet() {
+        return sourcecodeMap.get(nextKey());
+    }
+
+    @Benchmark
+    public Integer jdkGet() {
+        return jdkMap.get(nextKey());
+    }
+
+    /**
+     * hashCode恒定的key
+     */
+    static class CollidingKey {
+        final int value;
+
+        CollidingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).value == value;
+        }
+    }
+
+    /**
+     * hashCode恒定但可比较的key
+     */
+    static final class ComparableKey extends CollidingKey implements Comparable<ComparableKey> {
+
+        ComparableKey(int value) {
+            super(value);
+        }
+
+        @Override
+        public int compareTo(ComparableKey o) {
+            return Integer.compare(value, o.value);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.HashMap 一次性扩容与渐进式扩容的put延迟分布对比
+ *
+ * 每轮迭代从空Map开始不断put新key，关注SampleTime结果中p99.99/p100，
+ * 一次性扩容时触发扩容的那次put需要迁移全部Entry
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class HashMapResizeBenchmark {
+
+    @Param({"false", "true"})
+    boolean incremental;
+
+    private sourcecode.HashMap<Integer, Integer> map;
+
+    private int key;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        map = new sourcecode.HashMap<Integer, Integer>(16, 0.75f, incremental);
+        key = 0;
+    }
+
+    @Benchmark
+    public Integer put() {
+        Integer k = key++;
+        return map.put(k, k);
+    }
+}
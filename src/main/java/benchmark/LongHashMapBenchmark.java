@@ -0,0 +1,85 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sourcecode.LongHashMap;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.LongHashMap(开放寻址,long[]存储key) 与 sourcecode.HashMap<Long,V>(链表,装箱key) 的 get/遍历对比
+ *
+ * 配合 -prof gc 观察每次操作的分配量(gc.alloc.rate.norm)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongHashMapBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int size;
+
+    private long[] keys;
+
+    private LongHashMap<Object> longMap;
+
+    private LongHashMap<Object>.Cursor cursor;
+
+    private Map<Long, Object> boxedMap;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        keys = new long[size];
+        longMap = new LongHashMap<Object>();
+        boxedMap = new sourcecode.HashMap<Long, Object>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = ThreadLocalRandom.current().nextLong();
+            longMap.put(keys[i], Boolean.TRUE);
+            boxedMap.put(keys[i], Boolean.TRUE);
+        }
+        cursor = longMap.cursor();
+    }
+
+    /** 循环取下一个已存在的key **/
+    private long nextKey() {
+        int i = index;
+        index = (i + 1 == size) ? 0 : i + 1;
+        return keys[i];
+    }
+
+    @Benchmark
+    public Object longMapGet() {
+        return longMap.get(nextKey());
+    }
+
+    @Benchmark
+    public Object boxedMapGet() {
+        return boxedMap.get(nextKey());
+    }
+
+    /** 游标遍历，不分配对象 **/
+    @Benchmark
+    public void longMapIterate(Blackhole bh) {
+        LongHashMap<Object>.Cursor c = cursor;
+        c.reset();
+        while (c.advance()) {
+            bh.consume(c.key());
+            bh.consume(c.value());
+        }
+    }
+
+    @Benchmark
+    public void boxedMapIterate(Blackhole bh) {
+        for (Map.Entry<Long, Object> e : boxedMap.entrySet()) {
+            bh.consume(e.getKey());
+            bh.consume(e.getValue());
+        }
+    }
+}
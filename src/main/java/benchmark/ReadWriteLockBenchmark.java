@@ -0,0 +1,82 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * sourcecode.ReentrantReadWriteLock 与 java.util.concurrent.locks.ReentrantReadWriteLock 对比
+ *
+ * 模拟读多写少的配置表：所有线程共享同一把读写锁和同一个HashMap，
+ * 每次操作在读锁下读取一个配置项，每个线程每 writeInterval 次操作在写锁下更新一次(0 表示只读)，
+ * 参数 readerStriped 开启 sourcecode.ReentrantReadWriteLock 的分段读模式
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteLockBenchmark {
+
+    private static final int KEYS = 64;
+
+    @Param({"false", "true"})
+    boolean readerStriped;
+
+    @Param({"0", "1000"})
+    int writeInterval;
+
+    private ReadWriteLock sourcecodeLock;
+
+    private ReadWriteLock jdkLock;
+
+    private final Map<Integer, Long> config = new HashMap<>();
+
+    /**
+     * 每个线程自己的操作计数，决定本次读还是写
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        int n;
+    }
+
+    @Setup
+    public void setup() {
+        sourcecodeLock = new sourcecode.ReentrantReadWriteLock(false, readerStriped);
+        jdkLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+        for (int i = 0; i < KEYS; i++)
+            config.put(i, (long) i);
+    }
+
+    @Benchmark
+    public Long sourcecode(Ops ops) {
+        return access(sourcecodeLock, ops);
+    }
+
+    @Benchmark
+    public Long jdk(Ops ops) {
+        return access(jdkLock, ops);
+    }
+
+    private Long access(ReadWriteLock lock, Ops ops) {
+        Integer key = ops.n++ & (KEYS - 1);
+        if (writeInterval > 0 && ops.n % writeInterval == 0) {
+            lock.writeLock().lock();
+            try {
+                return config.put(key, (long) ops.n);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.readLock().lock();
+        try {
+            return config.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * sourcecode.ReentrantLock 与 java.util.concurrent.locks.ReentrantLock 对比
+ *
+ * 所有线程竞争同一把锁(Scope.Benchmark)，临界区内仅对共享计数+1，
+ * 用来度量 lock/unlock 本身的开销，参数 fair 区分公平锁与非公平锁，
+ * 参数 metrics 开启 sourcecode.ReentrantLock 的运行指标统计，用来度量埋点开销，
+ * 参数 adaptiveSpin 开启 sourcecode.ReentrantLock 阻塞前的自适应自旋
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReentrantLockBenchmark {
+
+    @Param({"false", "true"})
+    boolean fair;
+
+    @Param({"false", "true"})
+    boolean metrics;
+
+    @Param({"false", "true"})
+    boolean adaptiveSpin;
+
+    private Lock sourcecodeLock;
+
+    private Lock jdkLock;
+
+    private long counter;
+
+    @Setup
+    public void setup() {
+        sourcecode.ReentrantLock lock = new sourcecode.ReentrantLock(fair, adaptiveSpin);
+        lock.setMetricsEnabled(metrics);
+        sourcecodeLock = lock;
+        jdkLock = new java.util.concurrent.locks.ReentrantLock(fair);
+    }
+
+    @Benchmark
+    public long sourcecode() {
+        return lockAndIncrement(sourcecodeLock);
+    }
+
+    @Benchmark
+    public long jdk() {
+        return lockAndIncrement(jdkLock);
+    }
+
+    private long lockAndIncrement(Lock lock) {
+        lock.lock();
+        try {
+            return ++counter;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sourcecode.AsyncTask;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * sourcecode.ThreadPoolExecutor 上 FAN_OUT 路扇出/汇总(scatter-gather)的对比
+ *
+ * blockingFutures  submit() 提交 FAN_OUT 个子任务，调用线程依次 Future.get() 阻塞等待并汇总
+ * asyncAllOf       supplyAsync() 提交 FAN_OUT 个子任务，allOf().thenApply() 在最后完成的work中汇总，
+ *                  调用线程只在最终结果上 join() 一次
+ * 参数 tokens 为每个子任务消耗的CPU(Blackhole.consumeCPU)，0时主要度量调度和等待开销，
+ * 每次调用为一次完整的扇出/汇总，@Threads(4) 的方法模拟同时处理多个请求
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScatterGatherBenchmark {
+
+    static final int FAN_OUT = 100;
+
+    @Param({"4"})
+    int poolSize;
+
+    @Param({"0", "100"})
+    int tokens;
+
+    private ThreadPoolExecutor pool;
+
+    @Setup
+    public void setup() {
+        pool = new ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        pool.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public long blockingFutures() throws InterruptedException, ExecutionException {
+        return blocking();
+    }
+
+    @Benchmark
+    public long asyncAllOf() {
+        return async();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long blockingFuturesConcurrent() throws InterruptedException, ExecutionException {
+        return blocking();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long asyncAllOfConcurrent() {
+        return async();
+    }
+
+    private long blocking() throws InterruptedException, ExecutionException {
+        List<Future<Long>> parts = new ArrayList<Future<Long>>(FAN_OUT);
+        for (int i = 0; i < FAN_OUT; i++)
+            parts.add(pool.submit(part(i, tokens)));
+        long sum = 0;
+        for (Future<Long> f : parts)
+            sum += f.get();
+        return sum;
+    }
+
+    private long async() {
+        final List<AsyncTask<Long>> parts = new ArrayList<AsyncTask<Long>>(FAN_OUT);
+        for (int i = 0; i < FAN_OUT; i++)
+            parts.add(pool.supplyAsync(part(i, tokens)));
+        return AsyncTask.allOf(parts).thenApply(new Function<Void, Long>() {
+            @Override
+            public Long apply(Void ignore) {
+                long sum = 0;
+                for (AsyncTask<Long> f : parts)
+                    sum += f.join();
+                return sum;
+            }
+        }).join();
+    }
+
+    static Callable<Long> part(final long value, final int tokens) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() {
+                if (tokens > 0)
+                    Blackhole.consumeCPU(tokens);
+                return value;
+            }
+        };
+    }
+}
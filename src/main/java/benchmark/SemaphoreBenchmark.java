@@ -0,0 +1,52 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.Semaphore 与 java.util.concurrent.Semaphore 对比
+ *
+ * 所有线程共享同一个信号量，每次操作 acquire + release 一个许可，
+ * permits 控制许可数量(1 时退化为互斥锁，许可越多竞争越小)，
+ * adaptiveSpin 开启 sourcecode.Semaphore 阻塞前的自适应自旋
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemaphoreBenchmark {
+
+    @Param({"1", "4"})
+    int permits;
+
+    @Param({"false", "true"})
+    boolean fair;
+
+    @Param({"false", "true"})
+    boolean adaptiveSpin;
+
+    private sourcecode.Semaphore sourcecodeSemaphore;
+
+    private java.util.concurrent.Semaphore jdkSemaphore;
+
+    @Setup
+    public void setup() {
+        sourcecodeSemaphore = new sourcecode.Semaphore(permits, fair, adaptiveSpin);
+        jdkSemaphore = new java.util.concurrent.Semaphore(permits, fair);
+    }
+
+    @Benchmark
+    public void sourcecode() {
+        sourcecodeSemaphore.acquireUninterruptibly();
+        sourcecodeSemaphore.release();
+    }
+
+    @Benchmark
+    public void jdk() {
+        jdkSemaphore.acquireUninterruptibly();
+        jdkSemaphore.release();
+    }
+}
@@ -0,0 +1,144 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.StampedLock 乐观读与读锁对比
+ *
+ * 所有线程读取同一个点的坐标(x, y)，每个线程每 writeInterval 次操作在写锁下移动一次(0 表示只读)，
+ * optimisticRead 使用 tryOptimisticRead/validate，校验失败退回读锁；
+ * readLock 每次都获取 sourcecode.StampedLock 读锁；
+ * readWriteLock 每次都获取 sourcecode.ReentrantReadWriteLock 读锁；
+ * jdkOptimisticRead 为 java.util.concurrent.locks.StampedLock 乐观读，
+ * 配合 BenchmarkRunner 逐级增加线程数观察读线程扩展性
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StampedLockBenchmark {
+
+    @Param({"0", "1000"})
+    int writeInterval;
+
+    private sourcecode.StampedLock sourcecodeLock;
+
+    private sourcecode.ReentrantReadWriteLock readWriteLock;
+
+    private java.util.concurrent.locks.StampedLock jdkLock;
+
+    private double x, y;
+
+    /**
+     * 每个线程自己的操作计数，决定本次读还是写
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        int n;
+    }
+
+    @Setup
+    public void setup() {
+        sourcecodeLock = new sourcecode.StampedLock();
+        readWriteLock = new sourcecode.ReentrantReadWriteLock();
+        jdkLock = new java.util.concurrent.locks.StampedLock();
+    }
+
+    @Benchmark
+    public double optimisticRead(Ops ops) {
+        if (shouldWrite(ops)) {
+            long stamp = sourcecodeLock.writeLock();
+            try {
+                return move();
+            } finally {
+                sourcecodeLock.unlockWrite(stamp);
+            }
+        }
+        long stamp = sourcecodeLock.tryOptimisticRead();
+        double cx = x, cy = y;
+        if (!sourcecodeLock.validate(stamp)) {
+            stamp = sourcecodeLock.readLock();
+            try {
+                cx = x;
+                cy = y;
+            } finally {
+                sourcecodeLock.unlockRead(stamp);
+            }
+        }
+        return cx + cy;
+    }
+
+    @Benchmark
+    public double readLock(Ops ops) {
+        if (shouldWrite(ops)) {
+            long stamp = sourcecodeLock.writeLock();
+            try {
+                return move();
+            } finally {
+                sourcecodeLock.unlockWrite(stamp);
+            }
+        }
+        long stamp = sourcecodeLock.readLock();
+        try {
+            return x + y;
+        } finally {
+            sourcecodeLock.unlockRead(stamp);
+        }
+    }
+
+    @Benchmark
+    public double readWriteLock(Ops ops) {
+        if (shouldWrite(ops)) {
+            readWriteLock.writeLock().lock();
+            try {
+                return move();
+            } finally {
+                readWriteLock.writeLock().unlock();
+            }
+        }
+        readWriteLock.readLock().lock();
+        try {
+            return x + y;
+        } finally {
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Benchmark
+    public double jdkOptimisticRead(Ops ops) {
+        if (shouldWrite(ops)) {
+            long stamp = jdkLock.writeLock();
+            try {
+                return move();
+            } finally {
+                jdkLock.unlockWrite(stamp);
+            }
+        }
+        long stamp = jdkLock.tryOptimisticRead();
+        double cx = x, cy = y;
+        if (!jdkLock.validate(stamp)) {
+            stamp = jdkLock.readLock();
+            try {
+                cx = x;
+                cy = y;
+            } finally {
+                jdkLock.unlockRead(stamp);
+            }
+        }
+        return cx + cy;
+    }
+
+    private boolean shouldWrite(Ops ops) {
+        return writeInterval > 0 && ++ops.n % writeInterval == 0;
+    }
+
+    private double move() {
+        x += 1.0;
+        y -= 1.0;
+        return x + y;
+    }
+}
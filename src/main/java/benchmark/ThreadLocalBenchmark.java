@@ -0,0 +1,43 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.ThreadLocal 与 java.lang.ThreadLocal 的 get 对比
+ *
+ * ThreadLocal 实例在所有线程间共享(Scope.Benchmark)，每个线程读取自己的副本
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadLocalBenchmark {
+
+    private final sourcecode.ThreadLocal<Object> sourcecodeThreadLocal = new sourcecode.ThreadLocal<Object>() {
+        @Override
+        protected Object initialValue() {
+            return new Object();
+        }
+    };
+
+    private final java.lang.ThreadLocal<Object> jdkThreadLocal = new java.lang.ThreadLocal<Object>() {
+        @Override
+        protected Object initialValue() {
+            return new Object();
+        }
+    };
+
+    @Benchmark
+    public Object sourcecode() {
+        return sourcecodeThreadLocal.get();
+    }
+
+    @Benchmark
+    public Object jdk() {
+        return jdkThreadLocal.get();
+    }
+}
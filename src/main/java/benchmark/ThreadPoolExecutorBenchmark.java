@@ -0,0 +1,107 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.ThreadPoolExecutor 与 java.util.concurrent.ThreadPoolExecutor 的 execute 对比
+ *
+ * 每次调用提交 TASKS 个极小任务并等待全部执行完成，
+ * 结果按单个任务计算(@OperationsPerInvocation)，度量 execute->workQueue->getTask->runWorker 整条链路开销，
+ * 参数 drainBatchSize 设置 sourcecode.ThreadPoolExecutor 的work每次从workQueue取出的任务数，
+ * sourcecodeExecuteAll 用 executeAll() 一次提交全部任务，
+ * 参数 metrics 开启 sourcecode.ThreadPoolExecutor 的排队/执行时间直方图，用来度量埋点开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadPoolExecutorBenchmark {
+
+    static final int TASKS = 1000;
+
+    @Param({"1", "4"})
+    int poolSize;
+
+    @Param({"1", "64"})
+    int drainBatchSize;
+
+    @Param({"false", "true"})
+    boolean metrics;
+
+    private sourcecode.ThreadPoolExecutor sourcecodePool;
+
+    private java.util.concurrent.ThreadPoolExecutor jdkPool;
+
+    @Setup
+    public void setup() {
+        sourcecodePool = new sourcecode.ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        jdkPool = new java.util.concurrent.ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        sourcecodePool.setDrainBatchSize(drainBatchSize);
+        sourcecodePool.setMetricsEnabled(metrics);
+        sourcecodePool.prestartAllCoreThreads();
+        jdkPool.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        sourcecodePool.shutdown();
+        jdkPool.shutdown();
+        sourcecodePool.awaitTermination(10, TimeUnit.SECONDS);
+        jdkPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void sourcecode(Blackhole bh) throws InterruptedException {
+        executeAndWait(sourcecodePool, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void sourcecodeExecuteAll(final Blackhole bh) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        List<Runnable> tasks = new ArrayList<Runnable>(TASKS);
+        for (int i = 0; i < TASKS; i++)
+            tasks.add(task(i, bh, done));
+        sourcecodePool.executeAll(tasks);
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void jdk(Blackhole bh) throws InterruptedException {
+        executeAndWait(jdkPool, bh);
+    }
+
+    /**
+     * 提交 TASKS 个任务，等待全部执行完成
+     */
+    static void executeAndWait(AbstractExecutorService pool, final Blackhole bh) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++)
+            pool.execute(task(i, bh, done));
+        done.await();
+    }
+
+    static Runnable task(final int value, final Blackhole bh, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                bh.consume(value);
+                done.countDown();
+            }
+        };
+    }
+}
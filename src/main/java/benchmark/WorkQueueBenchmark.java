@@ -0,0 +1,77 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sourcecode.RingBufferBlockingQueue;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sourcecode.ThreadPoolExecutor 使用不同 workQueue 的 execute 对比
+ *
+ * linked      LinkedBlockingQueue，put/take两把锁，每个任务分配一个节点
+ * array       ArrayBlockingQueue，put/take共用一把锁
+ * ringBuffer  RingBufferBlockingQueue，CAS推进head/tail，不加锁也不分配节点
+ *
+ * 队列容量都是 CAPACITY，每次调用提交 TASKS 个极小任务并等待全部执行完成，
+ * 结果按单个任务计算(@OperationsPerInvocation)，
+ * singleProducer 单线程提交，multiProducer 4个线程同时提交，主要度量 offer 与 getTask 之间的竞争
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkQueueBenchmark {
+
+    static final int TASKS = ThreadPoolExecutorBenchmark.TASKS;
+
+    static final int CAPACITY = 4096;
+
+    @Param({"linked", "array", "ringBuffer"})
+    String queue;
+
+    @Param({"1", "4"})
+    int poolSize;
+
+    private ThreadPoolExecutor pool;
+
+    @Setup
+    public void setup() {
+        BlockingQueue<Runnable> workQueue;
+        if ("linked".equals(queue))
+            workQueue = new LinkedBlockingQueue<Runnable>(CAPACITY);
+        else if ("array".equals(queue))
+            workQueue = new ArrayBlockingQueue<Runnable>(CAPACITY);
+        else
+            workQueue = new RingBufferBlockingQueue<Runnable>(CAPACITY);
+        /** 4个提交线程同时最多有 4 * TASKS 个任务排队，不超过CAPACITY，CallerRunsPolicy只是兜底 **/
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                workQueue, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void singleProducer(Blackhole bh) throws InterruptedException {
+        ThreadPoolExecutorBenchmark.executeAndWait(pool, bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(TASKS)
+    public void multiProducer(Blackhole bh) throws InterruptedException {
+        ThreadPoolExecutorBenchmark.executeAndWait(pool, bh);
+    }
+}
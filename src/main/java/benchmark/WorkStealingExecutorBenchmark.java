@@ -0,0 +1,132 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sourcecode.WorkStealingThreadPoolExecutor 与 sourcecode.ThreadPoolExecutor 对比
+ *
+ * 每次调用执行 TASKS(一百万)个极小任务并等待全部执行完成，结果按单个任务计算(@OperationsPerInvocation)：
+ *  1 external：调用线程逐个提交全部任务，ThreadPoolExecutor 所有work竞争同一个workQueue
+ *  2 fanOut：调用线程只提交 TASKS / FAN_OUT 个父任务，父任务在work线程中再提交 FAN_OUT 个子任务，
+ *    工作窃取线程池的子任务进入work本地队列
+ * 任务完成时对共享计数器做一次原子减，最后一个任务唤醒调用线程，避免CountDownLatch本身成为瓶颈
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkStealingExecutorBenchmark {
+
+    static final int TASKS = 1000000;
+
+    static final int FAN_OUT = 100;
+
+    @Param({"1", "4"})
+    int poolSize;
+
+    private sourcecode.ThreadPoolExecutor sourcecodePool;
+
+    private sourcecode.WorkStealingThreadPoolExecutor workStealingPool;
+
+    @Setup
+    public void setup() {
+        sourcecodePool = new sourcecode.ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        workStealingPool = new sourcecode.WorkStealingThreadPoolExecutor(poolSize);
+        sourcecodePool.prestartAllCoreThreads();
+        workStealingPool.prestartAllCoreThreads();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        sourcecodePool.shutdown();
+        workStealingPool.shutdown();
+        sourcecodePool.awaitTermination(10, TimeUnit.SECONDS);
+        workStealingPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void sourcecodeExternal(Blackhole bh) throws InterruptedException {
+        external(sourcecodePool, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void workStealingExternal(Blackhole bh) throws InterruptedException {
+        external(workStealingPool, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void sourcecodeFanOut(Blackhole bh) throws InterruptedException {
+        fanOut(sourcecodePool, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void workStealingFanOut(Blackhole bh) throws InterruptedException {
+        fanOut(workStealingPool, bh);
+    }
+
+    /**
+     * 调用线程逐个提交 TASKS 个任务，等待全部执行完成
+     */
+    static void external(AbstractExecutorService pool, Blackhole bh) throws InterruptedException {
+        Tasks tasks = new Tasks(bh);
+        for (int i = 0; i < TASKS; i++)
+            pool.execute(tasks.leaf(i));
+        tasks.done.await();
+    }
+
+    /**
+     * 调用线程提交 TASKS / FAN_OUT 个父任务，每个父任务在work线程中提交 FAN_OUT 个子任务
+     */
+    static void fanOut(final AbstractExecutorService pool, Blackhole bh) throws InterruptedException {
+        final Tasks tasks = new Tasks(bh);
+        for (int i = 0; i < TASKS; i += FAN_OUT) {
+            final int from = i;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int k = from; k < from + FAN_OUT; k++)
+                        pool.execute(tasks.leaf(k));
+                }
+            });
+        }
+        tasks.done.await();
+    }
+
+    /**
+     * 一次调用的全部任务，最后一个完成的任务唤醒调用线程
+     */
+    static final class Tasks {
+        final Blackhole bh;
+        final AtomicInteger remaining = new AtomicInteger(TASKS);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Tasks(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        Runnable leaf(final int value) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    bh.consume(value);
+                    if (remaining.decrementAndGet() == 0)
+                        done.countDown();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.ReentrantReadWriteLock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReentrantReadWriteLock 分段读模式(readerStriped)测试
+ */
+public class ReentrantReadWriteLockTest {
+
+    /**
+     * 读写混合：重入读、锁降级、tryLock(timeout)写，任何时刻不会同时存在写线程和其他读写线程
+     */
+    @Test
+    public void mutualExclusion() throws Exception {
+        mutualExclusion(new ReentrantReadWriteLock(false, true));
+        mutualExclusion(new ReentrantReadWriteLock(true, true));
+    }
+
+    private void mutualExclusion(final ReentrantReadWriteLock lock) throws Exception {
+        final int threads = 4, ops = 20000;
+        final AtomicInteger readers = new AtomicInteger();
+        final AtomicInteger writers = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            ts[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        for (int i = 0; i < ops; i++) {
+                            int op = rnd.nextInt(20);
+                            if (op < 15) {
+                                lock.readLock().lock();
+                                try {
+                                    read();
+                                    if (op == 0) {
+                                        /** 重入读 **/
+                                        lock.readLock().lock();
+                                        read();
+                                        lock.readLock().unlock();
+                                    }
+                                } finally {
+                                    lock.readLock().unlock();
+                                }
+                            } else if (op < 17) {
+                                lock.writeLock().lock();
+                                try {
+                                    write();
+                                } finally {
+                                    lock.writeLock().unlock();
+                                }
+                            } else if (op < 19) {
+                                if (lock.writeLock().tryLock(1, TimeUnit.MILLISECONDS)) {
+                                    try {
+                                        write();
+                                    } finally {
+                                        lock.writeLock().unlock();
+                                    }
+                                }
+                            } else {
+                                /** 锁降级：持有写锁时获取读锁，再释放写锁 **/
+                                lock.writeLock().lock();
+                                write();
+                                lock.readLock().lock();
+                                lock.writeLock().unlock();
+                                try {
+                                    read();
+                                } finally {
+                                    lock.readLock().unlock();
+                                }
+                            }
+                        }
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+
+                private void read() {
+                    readers.incrementAndGet();
+                    if (writers.get() != 0)
+                        violations.incrementAndGet();
+                    readers.decrementAndGet();
+                }
+
+                private void write() {
+                    if (writers.incrementAndGet() != 1 || readers.get() != 0)
+                        violations.incrementAndGet();
+                    writers.decrementAndGet();
+                }
+            });
+            ts[t].start();
+        }
+        start.countDown();
+        for (Thread t : ts)
+            t.join();
+        Assert.assertEquals(0, violations.get());
+        Assert.assertFalse(lock.isWriteLocked());
+        Assert.assertEquals(0, lock.getReadLockCount());
+    }
+
+    /**
+     * 锁降级后其他线程可以获取读锁，不能获取写锁
+     */
+    @Test
+    public void downgrade() throws Exception {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(false, true);
+        lock.writeLock().lock();
+        lock.readLock().lock();
+        lock.writeLock().unlock();
+        Assert.assertFalse(lock.isWriteLocked());
+        Assert.assertEquals(1, lock.getReadLockCount());
+
+        final boolean[] result = new boolean[2];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = lock.readLock().tryLock();
+                if (result[0])
+                    lock.readLock().unlock();
+                result[1] = lock.writeLock().tryLock();
+            }
+        });
+        other.start();
+        other.join();
+        Assert.assertTrue(result[0]);
+        Assert.assertFalse(result[1]);
+        lock.readLock().unlock();
+        Assert.assertTrue(lock.writeLock().tryLock());
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * 读线程持有计数单元时，tryLock(timeout)写超时返回false、lockInterruptibly写响应中断，
+     * 两者都释放已经获取的写锁，新的读线程不会被阻塞；读线程退出后写锁可以获取
+     */
+    @Test
+    public void timedWriteWhileReadersHoldStripes() throws Exception {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(false, true);
+        final int readers = 3;
+        final CountDownLatch held = new CountDownLatch(readers);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread[] ts = new Thread[readers];
+        for (int i = 0; i < readers; i++) {
+            ts[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    lock.readLock().lock();
+                    try {
+                        held.countDown();
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            });
+            ts[i].start();
+        }
+        Assert.assertTrue(held.await(5, TimeUnit.SECONDS));
+
+        long begin = System.nanoTime();
+        Assert.assertFalse(lock.writeLock().tryLock(50, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertFalse(lock.isWriteLocked());
+        assertReadable(lock);
+
+        final AtomicInteger interrupted = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.writeLock().lockInterruptibly();
+                    lock.writeLock().unlock();
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        /** 等待写线程获取写锁，进入等待计数单元清零的阶段 **/
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!lock.isWriteLocked() && System.nanoTime() < deadline)
+            Thread.yield();
+        writer.interrupt();
+        writer.join(5000);
+        Assert.assertEquals(1, interrupted.get());
+        Assert.assertFalse(lock.isWriteLocked());
+        assertReadable(lock);
+
+        release.countDown();
+        for (Thread t : ts)
+            t.join();
+        Assert.assertTrue(lock.writeLock().tryLock(5, TimeUnit.SECONDS));
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * 另一个线程可以立即获取读锁
+     */
+    private static void assertReadable(final ReentrantReadWriteLock lock) throws InterruptedException {
+        final boolean[] acquired = new boolean[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired[0] = lock.readLock().tryLock(5, TimeUnit.SECONDS);
+                    if (acquired[0])
+                        lock.readLock().unlock();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        reader.start();
+        reader.join();
+        Assert.assertTrue(acquired[0]);
+    }
+}
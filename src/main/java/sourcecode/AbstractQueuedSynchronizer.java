@@ -37,6 +37,9 @@ package sourcecode;
 
 import sun.misc.Unsafe;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -154,6 +157,17 @@ public abstract class AbstractQueuedSynchronizer
      */
     private volatile int state;
 
+    /**
+     * 运行指标，为null表示未开启
+     */
+    private transient volatile SynchronizerMetrics metrics;
+
+    /**
+     * 自适应自旋上限，0表示不自旋(默认)
+     * 多个线程并发更新，只是启发式的估计值，不需要保证准确
+     */
+    private transient int spinLimit;
+
 
     /**
      * 获取同步状态
@@ -180,6 +194,35 @@ public abstract class AbstractQueuedSynchronizer
 
     static final long spinForTimeoutThreshold = 1000L;
 
+    /**
+     * 开启/关闭运行指标统计，关闭后之前的统计数据丢弃
+     */
+    public final void setMetricsEnabled(boolean enabled) {
+        if (enabled) {
+            if (metrics == null)
+                metrics = new SynchronizerMetrics();
+        } else {
+            metrics = null;
+        }
+    }
+
+    /**
+     * 返回运行指标，未开启返回null
+     */
+    public final SynchronizerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 记录一次没有进入同步队列的获取，
+     * 子类在AQS之外直接CAS获取同步状态成功时调用(例如ReentrantLock非公平锁的lock())
+     */
+    protected final void recordFastPathAcquire() {
+        SynchronizerMetrics m = metrics;
+        if (m != null)
+            m.fastPathAcquires.increment();
+    }
+
 
     /**
      * 如果同步队列未初始化，则初始化
@@ -199,6 +242,7 @@ public abstract class AbstractQueuedSynchronizer
                     t.next = node;
                     return t;
                 }
+                recordEnqCasFailure();
             }
         }
     }
@@ -212,6 +256,9 @@ public abstract class AbstractQueuedSynchronizer
     private Node addWaiter(Node mode) {
         /**  1. 将当前线程构建成Node **/
         Node node = new Node(Thread.currentThread(), mode);
+        SynchronizerMetrics m = metrics;
+        if (m != null)
+            m.queuedAcquires.increment();
         /** 2. 将尾节点设置给一个中间引用变量pred **/
         Node pred = tail;
         /**  3. 判断尾节点是否为null,如果为null说明同步队列未初始化 **/
@@ -224,6 +271,7 @@ public abstract class AbstractQueuedSynchronizer
                 pred.next = node;
                 return node;
             }
+            recordEnqCasFailure();
         }
         /** 同步队列未初始化 **/
         enq(node);
@@ -231,6 +279,15 @@ public abstract class AbstractQueuedSynchronizer
     }
 
 
+    /**
+     * 记录一次入队CAS失败
+     */
+    private void recordEnqCasFailure() {
+        SynchronizerMetrics m = metrics;
+        if (m != null)
+            m.enqCasFailures.increment();
+    }
+
     /**
      * 将传入节点设置未同步队列头部节点
      * 头部节点内部不存在等待线程
@@ -323,6 +380,10 @@ public abstract class AbstractQueuedSynchronizer
         if (node == null)
             return;
 
+        SynchronizerMetrics m = metrics;
+        if (m != null)
+            m.cancelledNodes.increment();
+
         node.thread = null;
 
         Node pred = node.prev;
@@ -391,13 +452,105 @@ public abstract class AbstractQueuedSynchronizer
      * 返回true 表示中断导致线程阻塞被唤醒
      */
     private final boolean parkAndCheckInterrupt() {
-        /** 阻塞当前线程（可响应中断）**/
-        LockSupport.park(this);
+        SynchronizerMetrics m = metrics;
+        if (m == null) {
+            /** 阻塞当前线程（可响应中断）**/
+            LockSupport.park(this);
+        } else {
+            long start = System.nanoTime();
+            LockSupport.park(this);
+            m.recordPark(System.nanoTime() - start);
+        }
         /** 如果线程是中断从阻塞唤醒返回true **/
         return Thread.interrupted();
     }
 
 
+    /** CPU核数大于1时自旋才有意义 **/
+    static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+
+    /** 自适应自旋上限的下界/上界/初始值 **/
+    static final int MIN_SPINS = 16;
+    static final int MAX_SPINS = 1 << 12;
+    static final int INITIAL_SPINS = 1 << 8;
+
+    /**
+     * JDK9+的Thread.onSpinWait()(x86上为PAUSE指令)，JDK8不存在时为null
+     * static final的MethodHandle会被JIT当作常量内联
+     */
+    private static final MethodHandle ON_SPIN_WAIT;
+
+    static {
+        MethodHandle mh = null;
+        try {
+            mh = MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException ignore) {
+        }
+        ON_SPIN_WAIT = mh;
+    }
+
+    /**
+     * 自旋等待提示
+     */
+    static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable ignore) {
+            }
+        }
+    }
+
+    /**
+     * 开启/关闭自适应自旋(单核CPU上开启无效)
+     * 开启后同步队列head的后置节点获取失败时，先自旋重试一段时间再阻塞，
+     * 临界区很短时可以避免park/unpark的线程切换开销
+     */
+    protected final void setAdaptiveSpin(boolean enabled) {
+        spinLimit = enabled && MULTIPROCESSOR ? INITIAL_SPINS : 0;
+    }
+
+    /**
+     * 同步队列head的后置节点阻塞前自旋获取同步状态，返回值>=0表示获取成功(共享式为tryAcquireShared的返回值)
+     *
+     * 自旋上限根据最近的结果调整：
+     * 自旋成功说明持有时间与自旋次数i相当，上限向2*i靠拢(持有时间变长时上限随之增长)；
+     * 自旋失败说明持有时间超过上限，上限减半，避免长临界区白白消耗CPU
+     */
+    private int spinForAcquire(int arg, boolean shared) {
+        int limit = spinLimit;
+        if (limit <= 0)
+            return -1;
+        for (int i = 1; i <= limit; i++) {
+            onSpinWait();
+            int r = shared ? tryAcquireShared(arg) : (tryAcquire(arg) ? 0 : -1);
+            if (r >= 0) {
+                spinLimit = Math.min(MAX_SPINS, Math.max(MIN_SPINS, (limit * 3 + (i << 1)) >>> 2));
+                SynchronizerMetrics m = metrics;
+                if (m != null)
+                    m.spinAcquires.increment();
+                return r;
+            }
+        }
+        spinLimit = Math.max(MIN_SPINS, limit >>> 1);
+        return -1;
+    }
+
+    /**
+     * 超时阻塞当前线程（可响应中断）
+     */
+    private void parkNanos(long nanosTimeout) {
+        SynchronizerMetrics m = metrics;
+        if (m == null) {
+            LockSupport.parkNanos(this, nanosTimeout);
+        } else {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(this, nanosTimeout);
+            m.recordPark(System.nanoTime() - start);
+        }
+    }
+
+
     /**
      * 自旋,找到头部后置第一个节点，尝试获取同步状态,成功则设置其为新head节点.失败则阻塞.
      */
@@ -411,8 +564,8 @@ public abstract class AbstractQueuedSynchronizer
             for (;;) {
                 /** 1. 获得当前节点的先驱节点  **/
                 final Node p = node.predecessor();
-                 /** 如果当前节点的先驱节点是头结点并且成功获取同步状态，即可以获得独占式锁  **/
-                if (p == head && tryAcquire(arg)) {
+                 /** 如果当前节点的先驱节点是头结点并且成功获取同步状态(开启自适应自旋时失败先自旋重试)，即可以获得独占式锁  **/
+                if (p == head && (tryAcquire(arg) || spinForAcquire(arg, false) >= 0)) {
                      /** 并将当前节点设置为head节点  **/
                     setHead(node);
                      /** 释放当前节前驱节点指针(这里前驱节点也相当于原始的head节点)等待GC回收  **/
@@ -449,8 +602,8 @@ public abstract class AbstractQueuedSynchronizer
             for (;;) {
                 /** 1. 获得当前节点的先驱节点  **/
                 final Node p = node.predecessor();
-                /** 如果当前节点的先驱节点是头结点并且成功获取同步状态 **/
-                if (p == head && tryAcquire(arg)) {
+                /** 如果当前节点的先驱节点是头结点并且成功获取同步状态(开启自适应自旋时失败先自旋重试) **/
+                if (p == head && (tryAcquire(arg) || spinForAcquire(arg, false) >= 0)) {
                     /** 并将当前节点设置为head节点  **/
                     setHead(node);
                     p.next = null; // help GC
@@ -506,7 +659,7 @@ public abstract class AbstractQueuedSynchronizer
                  * **/
                 if (shouldParkAfterFailedAcquire(p, node) &&
                     nanosTimeout > spinForTimeoutThreshold)
-                    LockSupport.parkNanos(this, nanosTimeout);
+                    parkNanos(nanosTimeout);
                 if (Thread.interrupted())
                     throw new InterruptedException();
             }
@@ -538,6 +691,9 @@ public abstract class AbstractQueuedSynchronizer
                 if (p == head) {
                     /** 如果当前节点的先驱节点是头结点并且成功获取同步状态 **/
                     int r = tryAcquireShared(arg);
+                    /** 获取失败，开启自适应自旋时先自旋重试 **/
+                    if (r < 0)
+                        r = spinForAcquire(arg, true);
                     if (r >= 0) {
                         /** 将当前节点设置为head,同时只要同步队列中存在等待的节点,
                          * 且节点为共享节点则唤醒head节点后置节点阻塞去竞争同步状态. **/
@@ -582,6 +738,9 @@ public abstract class AbstractQueuedSynchronizer
                 if (p == head) {
                     /** 如果当前节点的先驱节点是头结点并且成功获取同步状态 **/
                     int r = tryAcquireShared(arg);
+                    /** 获取失败，开启自适应自旋时先自旋重试 **/
+                    if (r < 0)
+                        r = spinForAcquire(arg, true);
                     if (r >= 0) {
                         /** 将当前节点设置为head,同时只要同步队列中存在等待的节点,
                          * 且节点为共享节点则唤醒head节点后置节点阻塞去竞争同步状态. **/
@@ -646,7 +805,7 @@ public abstract class AbstractQueuedSynchronizer
                  * **/
                 if (shouldParkAfterFailedAcquire(p, node) &&
                     nanosTimeout > spinForTimeoutThreshold)
-                    LockSupport.parkNanos(this, nanosTimeout);
+                    parkNanos(nanosTimeout);
                 if (Thread.interrupted())
                     throw new InterruptedException();
             }
@@ -695,10 +854,11 @@ public abstract class AbstractQueuedSynchronizer
          *如果返回true则获取同步状态成功方法直接返回
          *如果返回false则获取同步状态失败进入if语句
          */
-        if (!tryAcquire(arg) &&
-                /** addWaiter创建一个独占式节点node,添加到同步队列尾部. */
-                /** acquireQueued自旋,同步队列头部后置第一个节点线程尝试获取同步状态,成功则设置其为head节点.失败则阻塞 */
-                acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
+        if (tryAcquire(arg))
+            recordFastPathAcquire();
+        /** addWaiter创建一个独占式节点node,添加到同步队列尾部. */
+        /** acquireQueued自旋,同步队列头部后置第一个节点线程尝试获取同步状态,成功则设置其为head节点.失败则阻塞 */
+        else if (acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
             selfInterrupt();
     }
 
@@ -716,7 +876,9 @@ public abstract class AbstractQueuedSynchronizer
          *如果返回true则获取同步状态成功方法直接返回
          *如果返回false则获取同步状态失败进入if语句
          */
-        if (!tryAcquire(arg))
+        if (tryAcquire(arg))
+            recordFastPathAcquire();
+        else
             /** 创建一个独占式节点node,添加到同步队列尾部.进入自旋,同步队列头部后置第一个节点线程尝试获取同步状态,成功则设置其为head节点.失败则阻塞
              * 如果发生中断，抛出异常线程退出自旋 **/
             doAcquireInterruptibly(arg);
@@ -737,8 +899,11 @@ public abstract class AbstractQueuedSynchronizer
          *如果返回true则获取同步状态成功方法直接返回
          *如果返回false则获取同步状态失败进入if语句
          */
-        return tryAcquire(arg) ||
-            doAcquireNanos(arg, nanosTimeout);
+        if (tryAcquire(arg)) {
+            recordFastPathAcquire();
+            return true;
+        }
+        return doAcquireNanos(arg, nanosTimeout);
     }
 
 
@@ -780,6 +945,8 @@ public abstract class AbstractQueuedSynchronizer
          */
         if (tryAcquireShared(arg) < 0)
             doAcquireShared(arg);
+        else
+            recordFastPathAcquire();
     }
 
     /**
@@ -798,6 +965,8 @@ public abstract class AbstractQueuedSynchronizer
          */
         if (tryAcquireShared(arg) < 0)
             doAcquireSharedInterruptibly(arg);
+        else
+            recordFastPathAcquire();
     }
 
     /**
@@ -809,8 +978,11 @@ public abstract class AbstractQueuedSynchronizer
         if (Thread.interrupted())
             /** 抛出异常 **/
             throw new InterruptedException();
-        return tryAcquireShared(arg) >= 0 ||
-            doAcquireSharedNanos(arg, nanosTimeout);
+        if (tryAcquireShared(arg) >= 0) {
+            recordFastPathAcquire();
+            return true;
+        }
+        return doAcquireSharedNanos(arg, nanosTimeout);
     }
 
 
@@ -1117,7 +1289,7 @@ public abstract class AbstractQueuedSynchronizer
     }
 
 
-    public class ConditionObject implements Condition, java.io.Serializable {
+    public class ConditionObject implements Condition, java.util.concurrent.locks.Condition, java.io.Serializable {
         private static final long serialVersionUID = 1173984872572414699L;
         /** First node of condition queue. */
         private transient Node firstWaiter;
@@ -1539,7 +1711,10 @@ public abstract class AbstractQueuedSynchronizer
     }
 
 
-    private static final Unsafe unsafe = Unsafe.getUnsafe();
+    /**
+     * Unsafe.getUnsafe()只允许启动类加载器加载的类调用，这里通过反射获取theUnsafe
+     */
+    private static final Unsafe unsafe = getUnsafe();
     /**
      * 状态在内存中的偏移位置
      */
@@ -1577,6 +1752,16 @@ public abstract class AbstractQueuedSynchronizer
         } catch (Exception ex) { throw new Error(ex); }
     }
 
+    private static Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
     /**
      * 使用CAS 初始化同步对了头节点
      */
@@ -0,0 +1,776 @@
+package sourcecode;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 可以组合的异步任务，由 ThreadPoolExecutor.supplyAsync()/runAsync() 创建，用法类似 CompletableFuture
+ *
+ * 调用方不需要在 get() 上阻塞等待每个任务，而是注册后续操作：
+ *  thenApply      任务正常完成后对结果做转换
+ *  thenAccept     任务正常完成后消费结果
+ *  thenCompose    任务正常完成后用结果发起另一个异步任务，返回该任务的结果
+ *  whenComplete   任务完成(正常或异常)后执行，结果不变
+ *  exceptionally  任务异常完成时用函数的返回值作为结果
+ *  orTimeout / completeOnTimeout  超时后以TimeoutException/默认值完成
+ *  allOf          所有任务都完成后完成
+ * 任务异常完成时，thenApply/thenAccept/thenCompose 不执行，依赖任务以同样的异常完成。
+ *
+ * 后续操作在完成任务的线程中直接执行，不会重新提交到线程池：
+ *  任务由work执行完成时，后续操作在该work中紧接着执行，省去一次入队出队和线程切换；
+ *  注册时任务已经完成，后续操作在注册线程中立即执行；
+ *  超时由 delayer 线程完成，后续操作在 delayer 线程中执行。
+ * 因此后续操作应当是很短的非阻塞逻辑，耗时的操作应当再提交给线程池。
+ *
+ * 实现：
+ *  result 为null表示未完成，正常结果为null时保存NIL，异常结果保存AltResult，只能被CAS设置一次
+ *  stack  为等待完成的后续操作(Completion)组成的Treiber栈，完成后由完成线程逐个弹出执行；
+ *         入栈后再检查一次result，避免与完成线程弹栈竞争时遗漏
+ * 后续操作只CAS设置依赖任务的结果并返回它，由 postComplete() 循环继续执行依赖任务的后续操作，
+ * 很长的 thenApply 链也不会随链长递归导致栈溢出
+ * get()阻塞的线程同样以Completion(Signaller)入栈，完成时被唤醒，超时或被中断时从栈中清除
+ */
+public class AsyncTask<T> implements RunnableFuture<T> {
+
+    /** 任务结果，null表示未完成 **/
+    volatile Object result;
+
+    /** 等待完成的后续操作 **/
+    volatile Completion stack;
+
+    /** run()执行的任务，由后续操作完成的任务为null **/
+    private Callable<T> callable;
+
+    /**
+     * 创建由 complete()/completeExceptionally() 或依赖任务完成的任务
+     */
+    public AsyncTask() {
+    }
+
+    /**
+     * 创建由 run() 执行 callable 完成的任务
+     */
+    public AsyncTask(Callable<T> callable) {
+        if (callable == null)
+            throw new NullPointerException();
+        this.callable = callable;
+    }
+
+    /**
+     * 创建由 run() 执行 runnable 完成的任务，结果为 value
+     */
+    public AsyncTask(Runnable runnable, T value) {
+        this(Executors.callable(runnable, value));
+    }
+
+    /**
+     * 返回已经以 value 完成的任务
+     */
+    public static <U> AsyncTask<U> completed(U value) {
+        AsyncTask<U> f = new AsyncTask<U>();
+        f.result = encodeValue(value);
+        return f;
+    }
+
+    /**
+     * 执行任务，任务已经完成(例如已被取消)时不再执行
+     */
+    public void run() {
+        Callable<T> c = callable;
+        if (c == null || result != null)
+            return;
+        Object r;
+        try {
+            r = encodeValue(c.call());
+        } catch (Throwable ex) {
+            r = new AltResult(ex);
+        }
+        completeWith(r);
+    }
+
+    /** -----------------完成----------------- **/
+
+    /**
+     * 异常结果，ex为null表示正常结果null
+     */
+    static final class AltResult {
+        final Throwable ex;
+
+        AltResult(Throwable ex) {
+            this.ex = ex;
+        }
+    }
+
+    static final AltResult NIL = new AltResult(null);
+
+    static Object encodeValue(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    /**
+     * CAS设置结果，成功后在当前线程执行所有后续操作
+     */
+    final boolean completeWith(Object r) {
+        if (!tryComplete(r))
+            return false;
+        postComplete();
+        return true;
+    }
+
+    /**
+     * 只CAS设置结果，不执行后续操作，由调用方执行 postComplete()
+     */
+    final boolean tryComplete(Object r) {
+        if (!U.compareAndSwapObject(this, RESULT, null, r))
+            return false;
+        callable = null;
+        return true;
+    }
+
+    /**
+     * 弹出并执行所有后续操作，每个Completion只会被一个线程弹出
+     *
+     * Completion完成依赖任务时返回该任务，接着执行它的后续操作(深度优先)，
+     * 当前任务还有剩余的后续操作时先放入pending，依赖任务的后续操作执行完再回来；
+     * 一条链只在这个循环中推进，不会随链长递归
+     */
+    final void postComplete() {
+        AsyncTask<?> f = this;
+        ArrayDeque<AsyncTask<?>> pending = null;
+        for (;;) {
+            Completion h = f.stack;
+            if (h == null) {
+                if (pending == null || (f = pending.poll()) == null)
+                    return;
+                continue;
+            }
+            if (U.compareAndSwapObject(f, STACK, h, h.next)) {
+                h.next = null;
+                AsyncTask<?> d = h.fire(f.result);
+                if (d != null) {
+                    if (f.stack != null) {
+                        if (pending == null)
+                            pending = new ArrayDeque<AsyncTask<?>>();
+                        pending.push(f);
+                    }
+                    f = d;
+                }
+            }
+        }
+    }
+
+    /**
+     * 从栈中删除已经失效的Completion(超时或被中断的get()留下的Signaller)，与 CompletableFuture.cleanStack 相同：
+     * 栈顶失效时CAS弹出，中间失效时修改前驱的next；前驱同时失效时从头重新扫描
+     */
+    final void cleanStack() {
+        for (Completion p = null, q = stack; q != null; ) {
+            Completion s = q.next;
+            if (q.isLive()) {
+                p = q;
+                q = s;
+            } else if (p == null) {
+                U.compareAndSwapObject(this, STACK, q, s);
+                q = stack;
+            } else {
+                p.next = s;
+                if (p.isLive())
+                    q = s;
+                else {
+                    p = null;
+                    q = stack;
+                }
+            }
+        }
+    }
+
+    /**
+     * 注册后续操作，已经完成时在当前线程立即执行
+     */
+    final void push(Completion c) {
+        for (;;) {
+            Object r = result;
+            if (r != null) {
+                AsyncTask<?> d = c.fire(r);
+                if (d != null)
+                    d.postComplete();
+                return;
+            }
+            Completion h = stack;
+            c.next = h;
+            if (U.compareAndSwapObject(this, STACK, h, c))
+                break;
+        }
+        /** 入栈时完成线程可能已经弹空了栈，由当前线程执行 **/
+        if (result != null)
+            postComplete();
+    }
+
+    /**
+     * 以 value 完成任务，任务已经完成返回false
+     */
+    public boolean complete(T value) {
+        return completeWith(encodeValue(value));
+    }
+
+    /**
+     * 以异常 ex 完成任务，任务已经完成返回false
+     */
+    public boolean completeExceptionally(Throwable ex) {
+        if (ex == null)
+            throw new NullPointerException();
+        return completeWith(new AltResult(ex));
+    }
+
+    /**
+     * 以CancellationException完成任务，还在workQueue中的任务被work取出后不再执行；
+     * 已经开始执行的任务不会被中断，mayInterruptIfRunning 被忽略
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = result == null &&
+                completeWith(new AltResult(new CancellationException()));
+        return cancelled || isCancelled();
+    }
+
+    public boolean isCancelled() {
+        Object r = result;
+        return r instanceof AltResult && ((AltResult) r).ex instanceof CancellationException;
+    }
+
+    public boolean isDone() {
+        return result != null;
+    }
+
+    /**
+     * 是否异常完成(包括取消和超时)
+     */
+    public boolean isCompletedExceptionally() {
+        Object r = result;
+        return r instanceof AltResult && r != NIL;
+    }
+
+    /** -----------------阻塞获取结果----------------- **/
+
+    public T get() throws InterruptedException, ExecutionException {
+        Object r = result;
+        if (r == null && (r = waitingGet(true, false, 0L)) == INTERRUPTED)
+            throw new InterruptedException();
+        return reportGet(r);
+    }
+
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        Object r = result;
+        if (r == null) {
+            r = waitingGet(true, true, unit.toNanos(timeout));
+            if (r == INTERRUPTED)
+                throw new InterruptedException();
+            if (r == null)
+                throw new TimeoutException();
+        }
+        return reportGet(r);
+    }
+
+    /**
+     * 等待任务完成，不响应中断，异常完成抛出CompletionException(取消抛出CancellationException)
+     */
+    public T join() {
+        Object r = result;
+        if (r == null)
+            r = waitingGet(false, false, 0L);
+        return reportJoin(r);
+    }
+
+    /**
+     * 已经完成返回结果(异常同join())，否则返回 valueIfAbsent
+     */
+    public T getNow(T valueIfAbsent) {
+        Object r = result;
+        return r == null ? valueIfAbsent : reportJoin(r);
+    }
+
+    /** waitingGet()被中断时的返回值 **/
+    private static final Object INTERRUPTED = new Object();
+
+    /**
+     * 以Signaller入栈后park，返回结果；超时返回null，interruptible为true时被中断返回INTERRUPTED
+     */
+    private Object waitingGet(boolean interruptible, boolean timed, long nanos) {
+        Signaller s = null;
+        boolean interrupted = false;
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        Object r;
+        while ((r = result) == null) {
+            if (s == null) {
+                s = new Signaller(Thread.currentThread());
+                push(s);
+            } else if (Thread.interrupted()) {
+                if (interruptible) {
+                    r = INTERRUPTED;
+                    break;
+                }
+                interrupted = true;
+            } else if (timed) {
+                if ((nanos = deadline - System.nanoTime()) <= 0L)
+                    break;
+                LockSupport.parkNanos(this, nanos);
+            } else
+                LockSupport.park(this);
+        }
+        if (s != null) {
+            s.thread = null;
+            /** 没有等到结果就返回，Signaller留在栈中直到任务完成，任务一直不完成时会不断堆积 **/
+            if (r == null || r == INTERRUPTED)
+                cleanStack();
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T reportGet(Object r) throws ExecutionException {
+        if (r instanceof AltResult) {
+            Throwable ex = ((AltResult) r).ex;
+            if (ex == null)
+                return null;
+            if (ex instanceof CancellationException)
+                throw (CancellationException) ex;
+            throw new ExecutionException(ex);
+        }
+        return (T) r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T reportJoin(Object r) {
+        if (r instanceof AltResult) {
+            Throwable ex = ((AltResult) r).ex;
+            if (ex == null)
+                return null;
+            if (ex instanceof CancellationException)
+                throw (CancellationException) ex;
+            if (ex instanceof CompletionException)
+                throw (CompletionException) ex;
+            throw new CompletionException(ex);
+        }
+        return (T) r;
+    }
+
+    /** -----------------组合----------------- **/
+
+    public <U> AsyncTask<U> thenApply(Function<? super T, ? extends U> fn) {
+        if (fn == null)
+            throw new NullPointerException();
+        AsyncTask<U> d = new AsyncTask<U>();
+        push(new UniApply<T, U>(d, fn));
+        return d;
+    }
+
+    public AsyncTask<Void> thenAccept(Consumer<? super T> action) {
+        if (action == null)
+            throw new NullPointerException();
+        AsyncTask<Void> d = new AsyncTask<Void>();
+        push(new UniAccept<T>(d, action));
+        return d;
+    }
+
+    public <U> AsyncTask<U> thenCompose(Function<? super T, ? extends AsyncTask<U>> fn) {
+        if (fn == null)
+            throw new NullPointerException();
+        AsyncTask<U> d = new AsyncTask<U>();
+        push(new UniCompose<T, U>(d, fn));
+        return d;
+    }
+
+    public AsyncTask<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        if (action == null)
+            throw new NullPointerException();
+        AsyncTask<T> d = new AsyncTask<T>();
+        push(new UniWhenComplete<T>(d, action));
+        return d;
+    }
+
+    public AsyncTask<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        if (fn == null)
+            throw new NullPointerException();
+        AsyncTask<T> d = new AsyncTask<T>();
+        push(new UniExceptionally<T>(d, fn));
+        return d;
+    }
+
+    /**
+     * 超过 timeout 还没有完成时以TimeoutException完成，返回当前任务
+     */
+    public AsyncTask<T> orTimeout(long timeout, TimeUnit unit) {
+        if (unit == null)
+            throw new NullPointerException();
+        if (result == null)
+            push(new Canceller(Delayer.delay(new Timeout(this, null, true), timeout, unit)));
+        return this;
+    }
+
+    /**
+     * 超过 timeout 还没有完成时以 value 完成，返回当前任务
+     */
+    public AsyncTask<T> completeOnTimeout(T value, long timeout, TimeUnit unit) {
+        if (unit == null)
+            throw new NullPointerException();
+        if (result == null)
+            push(new Canceller(Delayer.delay(new Timeout(this, value, false), timeout, unit)));
+        return this;
+    }
+
+    /**
+     * 所有任务都完成后完成：全部正常完成时结果为null，否则以其中一个任务的异常完成
+     */
+    public static AsyncTask<Void> allOf(AsyncTask<?>... tasks) {
+        AsyncTask<Void> d = new AsyncTask<Void>();
+        AllOf all = new AllOf(d, tasks.length);
+        if (tasks.length == 0)
+            d.completeWith(NIL);
+        for (AsyncTask<?> f : tasks)
+            f.push(new AllOfMember(all));
+        return d;
+    }
+
+    /**
+     * 见 allOf(AsyncTask...)
+     */
+    public static AsyncTask<Void> allOf(Collection<? extends AsyncTask<?>> tasks) {
+        return allOf(tasks.toArray(new AsyncTask<?>[0]));
+    }
+
+    /** -----------------后续操作----------------- **/
+
+    /**
+     * 等待完成的后续操作，fire()在完成线程中以完成结果调用，每个Completion只调用一次
+     * fire()只用tryComplete()设置依赖任务的结果，设置成功时返回依赖任务，由调用方执行它的后续操作
+     */
+    abstract static class Completion {
+        Completion next;
+
+        abstract AsyncTask<?> fire(Object r);
+
+        /** 为false时可以从栈中删除 **/
+        boolean isLive() {
+            return true;
+        }
+    }
+
+    /**
+     * 以r完成dep，成功返回dep
+     */
+    static AsyncTask<?> completeDep(AsyncTask<?> dep, Object r) {
+        return dep.tryComplete(r) ? dep : null;
+    }
+
+    static Throwable exceptionOf(Object r) {
+        return r instanceof AltResult ? ((AltResult) r).ex : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T valueOf(Object r) {
+        return r instanceof AltResult ? null : (T) r;
+    }
+
+    static final class UniApply<T, U> extends Completion {
+        final AsyncTask<U> dep;
+        final Function<? super T, ? extends U> fn;
+
+        UniApply(AsyncTask<U> dep, Function<? super T, ? extends U> fn) {
+            this.dep = dep;
+            this.fn = fn;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            if (exceptionOf(r) != null)
+                return completeDep(dep, r);
+            Object v;
+            try {
+                v = encodeValue(fn.apply(AsyncTask.<T>valueOf(r)));
+            } catch (Throwable ex) {
+                v = new AltResult(ex);
+            }
+            return completeDep(dep, v);
+        }
+    }
+
+    static final class UniAccept<T> extends Completion {
+        final AsyncTask<Void> dep;
+        final Consumer<? super T> action;
+
+        UniAccept(AsyncTask<Void> dep, Consumer<? super T> action) {
+            this.dep = dep;
+            this.action = action;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            if (exceptionOf(r) != null)
+                return completeDep(dep, r);
+            Object v = NIL;
+            try {
+                action.accept(AsyncTask.<T>valueOf(r));
+            } catch (Throwable ex) {
+                v = new AltResult(ex);
+            }
+            return completeDep(dep, v);
+        }
+    }
+
+    static final class UniCompose<T, U> extends Completion {
+        final AsyncTask<U> dep;
+        final Function<? super T, ? extends AsyncTask<U>> fn;
+
+        UniCompose(AsyncTask<U> dep, Function<? super T, ? extends AsyncTask<U>> fn) {
+            this.dep = dep;
+            this.fn = fn;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            if (exceptionOf(r) != null)
+                return completeDep(dep, r);
+            AsyncTask<U> g;
+            try {
+                g = fn.apply(AsyncTask.<T>valueOf(r));
+                if (g == null)
+                    throw new NullPointerException();
+            } catch (Throwable ex) {
+                return completeDep(dep, new AltResult(ex));
+            }
+            /** g已经完成时直接传递结果，不经过push()，避免嵌套执行postComplete() **/
+            Object gr = g.result;
+            if (gr != null)
+                return completeDep(dep, gr);
+            g.push(new Relay(dep));
+            return null;
+        }
+    }
+
+    /**
+     * 把结果原样传给dep
+     */
+    static final class Relay extends Completion {
+        final AsyncTask<?> dep;
+
+        Relay(AsyncTask<?> dep) {
+            this.dep = dep;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            return completeDep(dep, r);
+        }
+    }
+
+    static final class UniWhenComplete<T> extends Completion {
+        final AsyncTask<T> dep;
+        final BiConsumer<? super T, ? super Throwable> action;
+
+        UniWhenComplete(AsyncTask<T> dep, BiConsumer<? super T, ? super Throwable> action) {
+            this.dep = dep;
+            this.action = action;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            Throwable x = exceptionOf(r);
+            try {
+                action.accept(AsyncTask.<T>valueOf(r), x);
+            } catch (Throwable ex) {
+                /** 任务本身异常时保留任务的异常 **/
+                if (x == null)
+                    r = new AltResult(ex);
+            }
+            return completeDep(dep, r);
+        }
+    }
+
+    static final class UniExceptionally<T> extends Completion {
+        final AsyncTask<T> dep;
+        final Function<Throwable, ? extends T> fn;
+
+        UniExceptionally(AsyncTask<T> dep, Function<Throwable, ? extends T> fn) {
+            this.dep = dep;
+            this.fn = fn;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            Throwable x = exceptionOf(r);
+            if (x != null) {
+                try {
+                    r = encodeValue(fn.apply(x));
+                } catch (Throwable ex) {
+                    r = new AltResult(ex);
+                }
+            }
+            return completeDep(dep, r);
+        }
+    }
+
+    /**
+     * allOf() 的共享计数，最后一个完成的任务完成dep
+     */
+    static final class AllOf {
+        final AsyncTask<Void> dep;
+        final AtomicInteger remaining;
+        /** 其中一个任务的异常，在递减remaining之前写入，最后一个任务递减后可见 **/
+        volatile Throwable ex;
+
+        AllOf(AsyncTask<Void> dep, int n) {
+            this.dep = dep;
+            this.remaining = new AtomicInteger(n);
+        }
+    }
+
+    static final class AllOfMember extends Completion {
+        final AllOf all;
+
+        AllOfMember(AllOf all) {
+            this.all = all;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            Throwable x = exceptionOf(r);
+            if (x != null && all.ex == null)
+                all.ex = x;
+            if (all.remaining.decrementAndGet() == 0) {
+                Throwable ex = all.ex;
+                return completeDep(all.dep, ex == null ? NIL : new AltResult(ex));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 唤醒get()/join()中park的线程
+     */
+    static final class Signaller extends Completion {
+        volatile Thread thread;
+
+        Signaller(Thread thread) {
+            this.thread = thread;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            Thread t = thread;
+            if (t != null) {
+                thread = null;
+                LockSupport.unpark(t);
+            }
+            return null;
+        }
+
+        boolean isLive() {
+            return thread != null;
+        }
+    }
+
+    /** -----------------超时----------------- **/
+
+    /**
+     * 超时任务，在delayer线程中执行
+     */
+    static final class Timeout implements Runnable {
+        final AsyncTask<?> f;
+        final Object value;
+        final boolean exceptional;
+
+        Timeout(AsyncTask<?> f, Object value, boolean exceptional) {
+            this.f = f;
+            this.value = value;
+            this.exceptional = exceptional;
+        }
+
+        public void run() {
+            if (f.result == null)
+                f.completeWith(exceptional ? new AltResult(new TimeoutException()) : encodeValue(value));
+        }
+    }
+
+    /**
+     * 任务在超时前完成时取消超时任务，避免delayer队列中堆积
+     */
+    static final class Canceller extends Completion {
+        final ScheduledFuture<?> future;
+
+        Canceller(ScheduledFuture<?> future) {
+            this.future = future;
+        }
+
+        AsyncTask<?> fire(Object r) {
+            if (!future.isDone())
+                future.cancel(false);
+            return null;
+        }
+    }
+
+    /**
+     * 所有AsyncTask共享的超时线程(守护线程)，第一次使用时创建
+     */
+    static final class Delayer {
+        static final ScheduledThreadPoolExecutor delayer;
+
+        static {
+            delayer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "async-task-delayer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            delayer.setRemoveOnCancelPolicy(true);
+        }
+
+        static ScheduledFuture<?> delay(Runnable command, long delay, TimeUnit unit) {
+            return delayer.schedule(command, delay, unit);
+        }
+    }
+
+    public String toString() {
+        Object r = result;
+        String status = r == null ? "[Incomplete]" :
+                r instanceof AltResult && r != NIL ? "[Completed exceptionally: " + ((AltResult) r).ex + "]" :
+                "[Completed normally]";
+        return super.toString() + status;
+    }
+
+    /** -----------------Unsafe----------------- **/
+
+    private static final sun.misc.Unsafe U;
+    private static final long RESULT;
+    private static final long STACK;
+
+    static {
+        try {
+            U = getUnsafe();
+            RESULT = U.objectFieldOffset(AsyncTask.class.getDeclaredField("result"));
+            STACK = U.objectFieldOffset(AsyncTask.class.getDeclaredField("stack"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -181,6 +181,68 @@ public class AtomicInteger extends Number implements java.io.Serializable {
         return next;
     }
 
+    /**
+     * 同getAndUpdate，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回旧值
+     */
+    public final int getAndUpdate(IntUnaryOperator updateFunction,
+                                  ContentionStrategy contention) {
+        int prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = updateFunction.applyAsInt(prev);
+            if (compareAndSet(prev, next))
+                return prev;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同updateAndGet，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回新值
+     */
+    public final int updateAndGet(IntUnaryOperator updateFunction,
+                                  ContentionStrategy contention) {
+        int prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = updateFunction.applyAsInt(prev);
+            if (compareAndSet(prev, next))
+                return next;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同getAndAccumulate，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回旧值
+     */
+    public final int getAndAccumulate(int x,
+                                      IntBinaryOperator accumulatorFunction,
+                                      ContentionStrategy contention) {
+        int prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = accumulatorFunction.applyAsInt(prev, x);
+            if (compareAndSet(prev, next))
+                return prev;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同accumulateAndGet，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回新值
+     */
+    public final int accumulateAndGet(int x,
+                                      IntBinaryOperator accumulatorFunction,
+                                      ContentionStrategy contention) {
+        int prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = accumulatorFunction.applyAsInt(prev, x);
+            if (compareAndSet(prev, next))
+                return next;
+            contention.onFailure(++failures);
+        }
+    }
+
 
     public String toString() {
         return Integer.toString(get());
@@ -0,0 +1,245 @@
+package sourcecode;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 原子AtomicLongArray 实现，所有操作都具有 '原子性" 线程安全，与 AtomicIntegerArray 相同，元素类型为long
+ */
+public class AtomicLongArray implements java.io.Serializable {
+    private static final long serialVersionUID = -2308431214976778248L;
+
+    private static final sun.misc.Unsafe unsafe = getUnsafe();
+    /** 获取该类型的数组，在对象存储时，存放第一个元素的内存地址 **/
+    private static final int base = unsafe.arrayBaseOffset(long[].class);
+    /** 用于计算数组中每个元素的偏移位置 **/
+    private static final int shift;
+    /** 操作对象 **/
+    private final long[] array;
+
+    static {
+        /** 返回数组中每一个元素占用的大小(long类型返回8)**/
+        int scale = unsafe.arrayIndexScale(long[].class);
+        if ((scale & (scale - 1)) != 0)
+            throw new Error("data type scale not a power of two");
+        /** 返回 scale 高位连续0的个数(long 类型返回3) **/
+        shift = 31 - Integer.numberOfLeadingZeros(scale);
+    }
+
+    /**
+     * 获取数组中每个元素的偏移位置（存在校验）
+     */
+    private long checkedByteOffset(int i) {
+        if (i < 0 || i >= array.length)
+            throw new IndexOutOfBoundsException("index " + i);
+
+        return byteOffset(i);
+    }
+
+    /**
+     * 获取数组中每个元素的偏移位置
+     */
+    private static long byteOffset(int i) {
+        return ((long) i << shift) + base;
+    }
+
+    /**
+     * 实例化一个AtomicLongArray，设置数组大小
+     */
+    public AtomicLongArray(int length) {
+        array = new long[length];
+    }
+
+    /**
+     * 创建一个新的AtomicLongArray，并给定一个数组初始化
+     */
+    public AtomicLongArray(long[] array) {
+        // Visibility guaranteed by final field guarantees
+        this.array = array.clone();
+    }
+
+    /**
+     * 返回数组的长度
+     */
+    public final int length() {
+        return array.length;
+    }
+
+    /**
+     * 获取位置{@code i}的当前值。
+     */
+    public final long get(int i) {
+        return getRaw(checkedByteOffset(i));
+    }
+
+    private long getRaw(long offset) {
+        return unsafe.getLongVolatile(array, offset);
+    }
+
+    /**
+     * 将位置{@code i}的元素设置为给定值。
+     */
+    public final void set(int i, long newValue) {
+        unsafe.putLongVolatile(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 将位置{@code i}的元素设置为给定值newValue（不保证其他线程立刻看到），见 AtomicIntegerArray.lazySet
+     */
+    public final void lazySet(int i, long newValue) {
+        unsafe.putOrderedLong(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 原子方式将位置{@code i}的元素设置为给定值newValue并返回旧值。(内部使用CAS乐观锁+循环)
+     */
+    public final long getAndSet(int i, long newValue) {
+        return unsafe.getAndSetLong(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 使用CAS将位置{@code i}的元素设置为给定值newValue，成功返回true,失败返回false
+     */
+    public final boolean compareAndSet(int i, long expect, long update) {
+        return compareAndSetRaw(checkedByteOffset(i), expect, update);
+    }
+
+    private boolean compareAndSetRaw(long offset, long expect, long update) {
+        return unsafe.compareAndSwapLong(array, offset, expect, update);
+    }
+
+    /**
+     * 使用CAS将位置{@code i}的元素设置为给定值newValue，成功返回true,失败返回false
+     */
+    public final boolean weakCompareAndSet(int i, long expect, long update) {
+        return compareAndSet(i, expect, update);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+1。(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndIncrement(int i) {
+        return getAndAdd(i, 1);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素-1。(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndDecrement(int i) {
+        return getAndAdd(i, -1);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+delta。这里传入负数就是减少|delta|(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndAdd(int i, long delta) {
+        return unsafe.getAndAddLong(array, checkedByteOffset(i), delta);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+1。(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long incrementAndGet(int i) {
+        return getAndAdd(i, 1) + 1;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素-1。(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long decrementAndGet(int i) {
+        return getAndAdd(i, -1) - 1;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+delta。这里传入负数就是减少|delta|(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long addAndGet(int i, long delta) {
+        return getAndAdd(i, delta) + delta;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongUnaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final long getAndUpdate(int i, LongUnaryOperator updateFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongUnaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final long updateAndGet(int i, LongUnaryOperator updateFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return next;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongBinaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final long getAndAccumulate(int i, long x,
+                                       LongBinaryOperator accumulatorFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongBinaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final long accumulateAndGet(int i, long x,
+                                       LongBinaryOperator accumulatorFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return next;
+    }
+
+    /**
+     * Returns the String representation of the current values of array.
+     * @return the String representation of the current values of array
+     */
+    public String toString() {
+        int iMax = array.length - 1;
+        if (iMax == -1)
+            return "[]";
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0; ; i++) {
+            b.append(getRaw(byteOffset(i)));
+            if (i == iMax)
+                return b.append(']').toString();
+            b.append(',').append(' ');
+        }
+    }
+
+    /**
+     * Unsafe.getUnsafe()只允许启动类加载器加载的类调用，这里通过反射获取，普通classpath下也可以使用
+     */
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -137,6 +137,68 @@ public class AtomicReference<V> implements java.io.Serializable {
         return next;
     }
 
+    /**
+     * 同getAndUpdate，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回旧值
+     */
+    public final V getAndUpdate(UnaryOperator<V> updateFunction,
+                                ContentionStrategy contention) {
+        V prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = updateFunction.apply(prev);
+            if (compareAndSet(prev, next))
+                return prev;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同updateAndGet，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回新值
+     */
+    public final V updateAndGet(UnaryOperator<V> updateFunction,
+                                ContentionStrategy contention) {
+        V prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = updateFunction.apply(prev);
+            if (compareAndSet(prev, next))
+                return next;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同getAndAccumulate，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回旧值
+     */
+    public final V getAndAccumulate(V x,
+                                    BinaryOperator<V> accumulatorFunction,
+                                    ContentionStrategy contention) {
+        V prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = accumulatorFunction.apply(prev, x);
+            if (compareAndSet(prev, next))
+                return prev;
+            contention.onFailure(++failures);
+        }
+    }
+
+    /**
+     * 同accumulateAndGet，CAS失败后由contention决定重试前的等待(退避/onSpinWait/yield)，返回新值
+     */
+    public final V accumulateAndGet(V x,
+                                    BinaryOperator<V> accumulatorFunction,
+                                    ContentionStrategy contention) {
+        V prev, next;
+        for (int failures = 0; ; ) {
+            prev = get();
+            next = accumulatorFunction.apply(prev, x);
+            if (compareAndSet(prev, next))
+                return next;
+            contention.onFailure(++failures);
+        }
+    }
+
 
 
     public String toString() {
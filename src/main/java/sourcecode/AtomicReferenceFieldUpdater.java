@@ -110,6 +110,53 @@ public abstract class AtomicReferenceFieldUpdater<T,V> {
      */
     public abstract V get(T obj);
 
+    /**
+     * acquire读：之后的读写不会重排到这次读取之前
+     * JDK 8 没有单独的acquire读，使用volatile读；JDK 9+ 的多版本实现使用VarHandle.getAcquire
+     */
+    public V getAcquire(T obj) {
+        return get(obj);
+    }
+
+    /**
+     * release写：之前的读写不会重排到这次写入之后，与lazySet相同
+     */
+    public void setRelease(T obj, V newValue) {
+        lazySet(obj, newValue);
+    }
+
+    /**
+     * opaque读：保证读到的是内存中的值(不会被编译器缓存)，不提供顺序保证
+     * JDK 8 使用volatile读；JDK 9+ 的多版本实现使用VarHandle.getOpaque
+     */
+    public V getOpaque(T obj) {
+        return get(obj);
+    }
+
+    /**
+     * opaque写：保证写入最终对其他线程可见，不提供顺序保证
+     * JDK 8 使用volatile写；JDK 9+ 的多版本实现使用VarHandle.setOpaque
+     */
+    public void setOpaque(T obj, V newValue) {
+        set(obj, newValue);
+    }
+
+    /**
+     * 成功时具有acquire语义的CAS，可能虚假失败
+     * JDK 8 使用compareAndSet；JDK 9+ 的多版本实现使用VarHandle.weakCompareAndSetAcquire
+     */
+    public boolean weakCompareAndSetAcquire(T obj, V expect, V update) {
+        return compareAndSet(obj, expect, update);
+    }
+
+    /**
+     * 成功时具有release语义的CAS，可能虚假失败
+     * JDK 8 使用compareAndSet；JDK 9+ 的多版本实现使用VarHandle.weakCompareAndSetRelease
+     */
+    public boolean weakCompareAndSetRelease(T obj, V expect, V update) {
+        return compareAndSet(obj, expect, update);
+    }
+
     /**
      * 原子设置AtomicReferenceFieldUpdater表示的属性值为给定值并返回旧值。(内部使用CAS乐观锁+循环)
      */
@@ -0,0 +1,146 @@
+package sourcecode;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * CAS重试循环的竞争管理策略
+ *
+ * 原子类的 getAndUpdate/updateAndGet/accumulateAndGet 等方法在CAS失败后立即重试，
+ * 高竞争时大量线程同时读取、CAS同一个缓存行，失败的CAS同样占用总线/缓存一致性流量，
+ * 线程越多成功率越低，CPU被白白消耗。CAS失败后由策略决定等待多久再重试
+ *
+ * 策略本身不保存状态，失败次数由调用方的重试循环维护，同一个策略实例可以被多个线程共享
+ *
+ * 内置策略：
+ *
+ * none()                             失败后立即重试(原来的紧凑循环)
+ *
+ * spinWait()                         每次失败执行一次Thread.onSpinWait()(JDK9+，x86上为PAUSE指令)
+ *
+ * yieldAfter(n)                      前n次失败onSpinWait，之后每次失败Thread.yield()让出CPU
+ *
+ * exponentialBackoff(min, max)       指数退避+随机抖动：第k次失败自旋 [0, min*2^(k-1)) 中的随机次数，上限max，
+ *                                    随机抖动让同时失败的线程错开重试时间；达到上限后每次额外yield
+ *
+ * 单核CPU上自旋等待不可能等到其他线程修改，spinWait/yieldAfter/exponentialBackoff 直接yield
+ */
+public abstract class ContentionStrategy {
+
+    private static final ContentionStrategy NONE = new ContentionStrategy() {
+        @Override
+        public void onFailure(int failures) {
+        }
+
+        @Override
+        public String toString() {
+            return "none";
+        }
+    };
+
+    private static final ContentionStrategy SPIN_WAIT = new YieldAfter(Integer.MAX_VALUE);
+
+    protected ContentionStrategy() {
+    }
+
+    /**
+     * CAS失败后、重试前调用
+     * @param failures 本次操作已经失败的次数，从1开始
+     */
+    public abstract void onFailure(int failures);
+
+    /**
+     * 失败后立即重试
+     */
+    public static ContentionStrategy none() {
+        return NONE;
+    }
+
+    /**
+     * 每次失败执行一次onSpinWait
+     */
+    public static ContentionStrategy spinWait() {
+        return SPIN_WAIT;
+    }
+
+    /**
+     * 前spins次失败onSpinWait，之后每次失败yield
+     */
+    public static ContentionStrategy yieldAfter(int spins) {
+        if (spins < 0)
+            throw new IllegalArgumentException();
+        return new YieldAfter(spins);
+    }
+
+    /**
+     * 指数退避+随机抖动
+     * @param minSpins 第一次失败的自旋上限
+     * @param maxSpins 自旋上限的最大值
+     */
+    public static ContentionStrategy exponentialBackoff(int minSpins, int maxSpins) {
+        if (minSpins <= 0 || maxSpins < minSpins)
+            throw new IllegalArgumentException();
+        return new ExponentialBackoff(minSpins, maxSpins);
+    }
+
+    /**
+     * 前spins次失败onSpinWait，之后yield
+     */
+    static final class YieldAfter extends ContentionStrategy {
+        private final int spins;
+
+        YieldAfter(int spins) {
+            this.spins = spins;
+        }
+
+        @Override
+        public void onFailure(int failures) {
+            if (failures <= spins && AbstractQueuedSynchronizer.MULTIPROCESSOR)
+                AbstractQueuedSynchronizer.onSpinWait();
+            else
+                Thread.yield();
+        }
+
+        @Override
+        public String toString() {
+            return spins == Integer.MAX_VALUE ? "spinWait" : "yieldAfter(" + spins + ")";
+        }
+    }
+
+    /**
+     * 指数退避：自旋上限 min*2^(failures-1) 封顶max，实际自旋次数在[0,上限)中随机选择(full jitter)
+     */
+    static final class ExponentialBackoff extends ContentionStrategy {
+        private final int minSpins;
+        private final int maxSpins;
+        /** 上限从minSpins翻倍到maxSpins需要的次数，超过后不再移位，避免溢出 **/
+        private final int maxShift;
+
+        ExponentialBackoff(int minSpins, int maxSpins) {
+            this.minSpins = minSpins;
+            this.maxSpins = maxSpins;
+            int shift = 0;
+            while (shift < 31 && ((long) minSpins << shift) < maxSpins)
+                shift++;
+            this.maxShift = shift;
+        }
+
+        @Override
+        public void onFailure(int failures) {
+            if (!AbstractQueuedSynchronizer.MULTIPROCESSOR) {
+                Thread.yield();
+                return;
+            }
+            int shift = failures - 1;
+            int bound = shift >= maxShift ? maxSpins : minSpins << shift;
+            for (int spins = ThreadLocalRandom.current().nextInt(bound); spins > 0; spins--)
+                AbstractQueuedSynchronizer.onSpinWait();
+            if (shift >= maxShift)
+                Thread.yield();
+        }
+
+        @Override
+        public String toString() {
+            return "exponentialBackoff(" + minSpins + ", " + maxSpins + ")";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package sourcecode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadPoolExecutor.drain() 的结果：截止时间内没有执行的任务(按优先级排序)
+ *
+ * 可以序列化后持久化，在新的线程池中调用 replay() 重新提交：
+ *  tasks               实现了Serializable的剩余任务，PrioritizedTask记录通道和截止时间，
+ *                      截止时间保存为墙上时间(System.currentTimeMillis())，跨进程仍然有效，存储期间同样计时
+ *  unserializableTasks 没有实现Serializable的剩余任务(例如submit()/supplyAsync()返回的Future)，
+ *                      不参与序列化，只能在当前进程中处理
+ */
+public final class DrainResult implements Serializable {
+    private static final long serialVersionUID = -3208427191750393648L;
+
+    /** 截止时间前所有排队的任务都已经执行完成，线程池已经TERMINATED **/
+    private final boolean completed;
+
+    private final List<Entry> tasks;
+
+    private final transient List<Runnable> unserializableTasks;
+
+    /**
+     * 一个可以序列化的剩余任务
+     */
+    public static final class Entry implements Serializable {
+        private static final long serialVersionUID = 5826379460139587212L;
+
+        /** 通道，不是PrioritizedTask时为-1 **/
+        private final int lane;
+
+        private final boolean hasDeadline;
+
+        /** 截止时间(System.currentTimeMillis()) **/
+        private final long deadlineMillis;
+
+        /** 原始任务，实现了Serializable **/
+        private final Runnable task;
+
+        Entry(int lane, boolean hasDeadline, long deadlineMillis, Runnable task) {
+            this.lane = lane;
+            this.hasDeadline = hasDeadline;
+            this.deadlineMillis = deadlineMillis;
+            this.task = task;
+        }
+
+        public int getLane() {
+            return lane;
+        }
+
+        public boolean hasDeadline() {
+            return hasDeadline;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public Runnable getTask() {
+            return task;
+        }
+
+        /**
+         * 还原为提交时的任务，截止时间按剩余时间重新计算，已经过期的任务执行前会被丢弃
+         */
+        Runnable toRunnable() {
+            if (lane < 0)
+                return task;
+            if (!hasDeadline)
+                return new PrioritizedTask(task, lane);
+            return new PrioritizedTask(task, lane,
+                    deadlineMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public String toString() {
+            return "[lane=" + lane + (hasDeadline ? ", deadlineMillis=" + deadlineMillis : "") +
+                   ", task=" + task + "]";
+        }
+    }
+
+    /**
+     * leftovers 为已经按优先级排序的剩余任务
+     */
+    DrainResult(boolean completed, List<Runnable> leftovers) {
+        List<Entry> tasks = new ArrayList<Entry>();
+        List<Runnable> unserializable = new ArrayList<Runnable>();
+        long now = System.currentTimeMillis();
+        for (Runnable r : leftovers) {
+            int lane = -1;
+            boolean hasDeadline = false;
+            long deadlineMillis = 0L;
+            Runnable task = r;
+            if (r instanceof PrioritizedTask) {
+                PrioritizedTask p = (PrioritizedTask) r;
+                lane = p.getLane();
+                task = p.getTask();
+                hasDeadline = p.hasDeadline();
+                if (hasDeadline)
+                    deadlineMillis = now + p.getDelay(TimeUnit.MILLISECONDS);
+            }
+            if (task instanceof Serializable)
+                tasks.add(new Entry(lane, hasDeadline, deadlineMillis, task));
+            else
+                unserializable.add(r);
+        }
+        this.completed = completed;
+        this.tasks = Collections.unmodifiableList(tasks);
+        this.unserializableTasks = Collections.unmodifiableList(unserializable);
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 可以序列化的剩余任务，按优先级排序
+     */
+    public List<Entry> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * 不能序列化的剩余任务，按优先级排序，反序列化后为空
+     */
+    public List<Runnable> getUnserializableTasks() {
+        return unserializableTasks == null ? Collections.<Runnable>emptyList() : unserializableTasks;
+    }
+
+    /**
+     * 按原来的优先级顺序将可以序列化的剩余任务提交给 pool，返回提交的任务数
+     */
+    public int replay(ThreadPoolExecutor pool) {
+        for (Entry e : tasks)
+            pool.execute(e.toRunnable());
+        return tasks.size();
+    }
+
+    public String toString() {
+        return "[completed=" + completed +
+               ", tasks=" + tasks.size() +
+               ", unserializableTasks=" + getUnserializableTasks().size() + "]";
+    }
+}
@@ -0,0 +1,133 @@
+package sourcecode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ThreadPoolExecutor 运行指标
+ *
+ * 默认不开启，ThreadPoolExecutor.setMetricsEnabled(true)后才创建，
+ * 所有指标使用LongAdder/LatencyHistogram无锁累加，读取时不需要获取mainLock，也不需要遍历workers。
+ *
+ * submittedTasks  execute()接收的任务数(进入队列或直接交给新work)
+ * completedTasks  执行结束的任务数(包括抛出异常的任务)
+ * queueWait       任务从进入workQueue到被work取出执行的等待时间(纳秒)，直接交给新work的任务不记录
+ * execution       task.run()的执行时间(纳秒)
+ * rejections      按拒绝策略(RejectedExecutionHandler的类名)分别统计的拒绝次数
+ */
+public final class ExecutorMetrics {
+
+    final LongAdder submittedTasks = new LongAdder();
+    final LongAdder completedTasks = new LongAdder();
+    final LatencyHistogram queueWait = new LatencyHistogram();
+    final LatencyHistogram execution = new LatencyHistogram();
+    final ConcurrentHashMap<String, LongAdder> rejections = new ConcurrentHashMap<String, LongAdder>();
+
+    ExecutorMetrics() {
+    }
+
+    /**
+     * 记录一次被handler拒绝的任务
+     */
+    void recordRejection(RejectedExecutionHandler handler) {
+        String key = handler == null ? "null" : handler.getClass().getName();
+        LongAdder n = rejections.get(key);
+        if (n == null) {
+            LongAdder created = new LongAdder();
+            n = rejections.putIfAbsent(key, created);
+            if (n == null)
+                n = created;
+        }
+        n.increment();
+    }
+
+    /**
+     * 返回当前指标快照
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> r = new HashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> e : rejections.entrySet())
+            r.put(e.getKey(), e.getValue().sum());
+        return new Snapshot(submittedTasks.sum(), completedTasks.sum(),
+                            queueWait.snapshot(), execution.snapshot(), r);
+    }
+
+    /**
+     * 清零所有指标
+     */
+    public void reset() {
+        submittedTasks.reset();
+        completedTasks.reset();
+        queueWait.reset();
+        execution.reset();
+        rejections.clear();
+    }
+
+    /**
+     * 指标快照，不可变
+     */
+    public static final class Snapshot implements java.io.Serializable {
+        private static final long serialVersionUID = 7716404412781906617L;
+
+        private final long submittedTasks;
+        private final long completedTasks;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot execution;
+        private final Map<String, Long> rejections;
+
+        Snapshot(long submittedTasks, long completedTasks,
+                 LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot execution,
+                 Map<String, Long> rejections) {
+            this.submittedTasks = submittedTasks;
+            this.completedTasks = completedTasks;
+            this.queueWait = queueWait;
+            this.execution = execution;
+            this.rejections = Collections.unmodifiableMap(rejections);
+        }
+
+        public long getSubmittedTasks() {
+            return submittedTasks;
+        }
+
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot getExecution() {
+            return execution;
+        }
+
+        /**
+         * 拒绝策略类名 -> 拒绝次数
+         */
+        public Map<String, Long> getRejections() {
+            return rejections;
+        }
+
+        /**
+         * 所有拒绝策略的拒绝次数之和
+         */
+        public long getRejectedTasks() {
+            long n = 0;
+            for (Long v : rejections.values())
+                n += v;
+            return n;
+        }
+
+        public String toString() {
+            return "[submittedTasks=" + submittedTasks +
+                   ", completedTasks=" + completedTasks +
+                   ", queueWait=" + queueWait +
+                   ", execution=" + execution +
+                   ", rejections=" + rejections + "]";
+        }
+    }
+}
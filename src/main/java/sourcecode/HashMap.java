@@ -49,6 +49,32 @@ public class HashMap<K,V>
      */
     static final float DEFAULT_LOAD_FACTOR = 0.75f;
 
+    /**
+     * 链表转换为红黑树的阀值，链表长度达到8时将该桶转换为红黑树(TreeNode)，
+     * 保证大量hash冲突时get/put/remove最坏为O(log n)
+     */
+    static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * 红黑树退化为链表的阀值，扩容拆分后桶中节点数量小于等于6时退化为链表
+     */
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * 允许树化的最小容量，Entry结构数组长度小于64时优先扩容而不是树化
+     */
+    static final int MIN_TREEIFY_CAPACITY = 64;
+
+    /**
+     * 渐进式扩容时，每次put/get/remove最多检查的旧数组桶数量
+     */
+    static final int INCREMENTAL_RESIZE_STEP = 16;
+
+    /**
+     * 允许渐进式扩容的最小容量，容量较小时一次性迁移的代价可以忽略
+     */
+    static final int MIN_INCREMENTAL_RESIZE_CAPACITY = 64;
+
     /**
      * 空的哈希表
      */
@@ -59,6 +85,17 @@ public class HashMap<K,V>
      */
     transient Entry<K,V>[] table = (Entry<K,V>[]) EMPTY_TABLE;
 
+    /**
+     * 渐进式扩容中尚未迁移完成的旧数组，不在扩容中时为null
+     * 旧数组中的桶迁移后置为null，因此旧数组中非null的桶一定还未迁移
+     */
+    transient Entry<K,V>[] oldTable;
+
+    /**
+     * 渐进式扩容中，旧数组下一个按顺序迁移的桶下标
+     */
+    transient int transferIndex;
+
     /**
      * Map中存储Entry数量
      */
@@ -80,6 +117,12 @@ public class HashMap<K,V>
      */
     transient int modCount;
 
+    /**
+     * 是否开启渐进式扩容
+     * 开启后扩容只创建新数组，旧数组的桶分摊到之后的put/get/remove中迁移，避免单次put承担全部迁移代价
+     */
+    final boolean incrementalResize;
+
     /**
      * 映射容量的默认阈值，在该阈值之上，对字符串键使用可选散列。由于字符串键的散列代码计算能力较弱，可选散列可以减少冲突的发生率。
      */
@@ -148,6 +191,16 @@ public class HashMap<K,V>
      * @param  loadFactor      装载因子
      */
     public HashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, false);
+    }
+
+    /**
+     * 用指定的初始容量,装载因子实例化一个空的哈希映射，并指定是否开启渐进式扩容
+     * @param  initialCapacity   初始值
+     * @param  loadFactor        装载因子
+     * @param  incrementalResize 是否开启渐进式扩容
+     */
+    public HashMap(int initialCapacity, float loadFactor, boolean incrementalResize) {
         if (initialCapacity < 0)
             throw new IllegalArgumentException("Illegal initial capacity: " +
                                                initialCapacity);
@@ -158,6 +211,7 @@ public class HashMap<K,V>
                                                loadFactor);
         /** 设置装载因子（默认0.75f） **/
         this.loadFactor = loadFactor;
+        this.incrementalResize = incrementalResize;
         /** 设置扩容阀值  **/
         threshold = initialCapacity;
         /** jdk1.7中hashMap的init方法是空实现，并没有创建存储Entry结构数组**/
@@ -201,7 +255,7 @@ public class HashMap<K,V>
     /**
      * 用来返回大于等于最接近number的2的冪数
      */
-    private static int roundUpToPowerOf2(int number) {
+    static int roundUpToPowerOf2(int number) {
         // assert number >= 0 : "number must be non-negative";
         return number >= MAXIMUM_CAPACITY
                 ? MAXIMUM_CAPACITY
@@ -233,6 +287,14 @@ public class HashMap<K,V>
             return sun.misc.Hashing.stringHash32((String) k);
         }
         h ^= k.hashCode();
+        return supplementalHash(h);
+    }
+
+    /**
+     * 对hashCode做二次扰动，让高位参与到下标计算中，减少低位相同导致的冲突
+     * (LongHashMap/IntHashMap 也使用该扰动函数)
+     */
+    static int supplementalHash(int h) {
         h ^= (h >>> 20) ^ (h >>> 12);
         return h ^ (h >>> 7) ^ (h >>> 4);
     }
@@ -275,14 +337,30 @@ public class HashMap<K,V>
 
         /** 计算对象hash值**/
         int hash = hash(key);
+        /** 渐进式扩容中，迁移key所在的旧桶及后续若干个桶 **/
+        advanceResize(hash);
         /** 计算hash对应Entry结构数组下标 **/
         int i = indexFor(hash, table.length);
+        /** table[i]已经转换为红黑树，在树中查找key，找到则覆盖Entry.value **/
+        if (table[i] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[i]).getTreeNode(hash, key);
+            if (p != null) {
+                V oldValue = p.value;
+                p.value = value;
+                p.recordAccess(this);
+                return oldValue;
+            }
+            modCount++;
+            addEntry(hash, key, value, i);
+            return null;
+        }
         /**
          * 判断table[i]是否存在元素Entry，
          * 如果存在则从Entry开始，作为链表的头部元素，向后遍历查找key&hash相同元素Entry(用来表示插入的key-value以存在于Map中).
          * 如果找到则覆盖Entry.value
          */
-        for (Entry<K,V> e = table[i]; e != null; e = e.next) {
+        int binCount = 0;
+        for (Entry<K,V> e = table[i]; e != null; e = e.next, ++binCount) {
             Object k;
             if (e.hash == hash && ((k = e.key) == key || key.equals(k))) {
                 V oldValue = e.value;
@@ -295,6 +373,9 @@ public class HashMap<K,V>
         modCount++;
         /** 创建一个Entry，存储在Entry类型数组指定下标位置，该方法支持扩容 **/
         addEntry(hash, key, value, i);
+        /** 链表长度达到TREEIFY_THRESHOLD，将链表转换为红黑树 **/
+        if (binCount >= TREEIFY_THRESHOLD - 1)
+            treeifyBin(indexFor(hash, table.length));
         return null;
     }
 
@@ -302,12 +383,27 @@ public class HashMap<K,V>
      * 向Map添加一个key-value结构，其key为null
      */
     private V putForNullKey(V value) {
+        advanceResize(0);
+        /** table[0]已经转换为红黑树，在树中查找key=null的Entry **/
+        if (table[0] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[0]).getTreeNode(0, null);
+            if (p != null) {
+                V oldValue = p.value;
+                p.value = value;
+                p.recordAccess(this);
+                return oldValue;
+            }
+            modCount++;
+            addEntry(0, null, value, 0);
+            return null;
+        }
         /**
          * 判断table[0]是否存在元素Entry，
          * 如果存在则从Entry开始，作为链表的头部元素，向后遍历查找key=null元素Entry(用来表示插入的key-value以存在于Map中).
          * 如果找到则覆盖Entry.value,并返回原始value
          */
-        for (Entry<K,V> e = table[0]; e != null; e = e.next) {
+        int binCount = 0;
+        for (Entry<K,V> e = table[0]; e != null; e = e.next, ++binCount) {
             if (e.key == null) {
                 V oldValue = e.value;
                 e.value = value;
@@ -319,6 +415,8 @@ public class HashMap<K,V>
         modCount++;
         /** 创建一个Entry，存储在Entry类型数组指定下标位置，该方法支持扩容 **/
         addEntry(0, null, value, 0);
+        if (binCount >= TREEIFY_THRESHOLD - 1)
+            treeifyBin(0);
         return null;
     }
 
@@ -332,9 +430,17 @@ public class HashMap<K,V>
             resize(2 * table.length);
             /** 重新计算hash **/
             hash = (null != key) ? hash(key) : 0;
+            /** 扩容开始渐进式迁移，先迁移hash对应的旧桶，新节点才能直接放入table **/
+            migrateBucket(hash);
             /** 重新计算hash对应Entry结构数组下标bucketIndex **/
             bucketIndex = indexFor(hash, table.length);
         }
+        /** table[bucketIndex]为红黑树，将新节点插入树中 **/
+        if (table[bucketIndex] instanceof TreeNode) {
+            ((TreeNode<K,V>)table[bucketIndex]).putTreeVal(this, table, hash, key, value);
+            size++;
+            return;
+        }
         /** 创建一个Entry，next指向的原始table[bucketIndex]，存储到table[bucketIndex]位置，作为链表的新头部元素**/
         createEntry(hash, key, value, bucketIndex);
     }
@@ -358,12 +464,22 @@ public class HashMap<K,V>
         /** 计算hash对应Entry结构数组下标bucketIndex **/
         int i = indexFor(hash, table.length);
 
+        /** table[i]为红黑树，在树中查找或插入 **/
+        if (table[i] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[i]).putTreeVal(this, table, hash, key, value);
+            if (p != null)
+                p.value = value;
+            else
+                size++;
+            return;
+        }
         /**
          * 判断table[i]是否存在元素Entry，
          * 如果存在则从Entry开始，作为链表的头部元素，向后遍历查找key&hash相同元素Entry(用来表示插入的key-value以存在于Map中).
          * 如果找到则覆盖Entry.value
          */
-        for (Entry<K,V> e = table[i]; e != null; e = e.next) {
+        int binCount = 0;
+        for (Entry<K,V> e = table[i]; e != null; e = e.next, ++binCount) {
             Object k;
             if (e.hash == hash &&
                 ((k = e.key) == key || (key != null && key.equals(k)))) {
@@ -373,6 +489,8 @@ public class HashMap<K,V>
         }
         /** 创建一个Entry，next指向的原始table[bucketIndex]，存储到table[bucketIndex]位置，作为链表的新头部元素  **/
         createEntry(hash, key, value, i);
+        if (binCount >= TREEIFY_THRESHOLD - 1)
+            treeifyBin(i);
     }
 
 
@@ -392,16 +510,29 @@ public class HashMap<K,V>
      * 扩容
      */
     void resize(int newCapacity) {
-        Entry[] oldTable = table;
+        /** 上一次渐进式扩容还未完成，先迁移剩余的旧桶 **/
+        finishResize();
+        Entry<K,V>[] oldTable = table;
         int oldCapacity = oldTable.length;
         if (oldCapacity == MAXIMUM_CAPACITY) {
             threshold = Integer.MAX_VALUE;
             return;
         }
         /** 创建2倍大小的新数组 **/
-        Entry[] newTable = new Entry[newCapacity];
-        /** 将旧数组的链表转移到新数组，就是这个方法导致的hashMap不安全 **/
-        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        Entry<K,V>[] newTable = new Entry[newCapacity];
+        boolean rehash = initHashSeedAsNeeded(newCapacity);
+        /**
+         * 渐进式扩容：只有容量翻倍且无需重新计算hash时，旧桶j中的节点才只会迁移到新桶j和j+oldCapacity，
+         * 此时新旧数组可以共存，旧桶在之后的put/get/remove中逐步迁移
+         */
+        if (incrementalResize && !rehash && newCapacity == oldCapacity << 1
+                && oldCapacity >= MIN_INCREMENTAL_RESIZE_CAPACITY) {
+            this.oldTable = oldTable;
+            transferIndex = 0;
+        } else {
+            /** 将旧数组的链表转移到新数组，就是这个方法导致的hashMap不安全 **/
+            transfer(newTable, rehash);
+        }
         /** 设置新的Entry数组**/
         table = newTable;
         /** 重新计算扩容阀值**/
@@ -411,25 +542,149 @@ public class HashMap<K,V>
     /**
      * 将旧数组的链表转移到新数组，就是这个方法导致的hashMap不安全
      */
-    void transfer(Entry[] newTable, boolean rehash) {
-        int newCapacity = newTable.length;
+    void transfer(Entry<K,V>[] newTable, boolean rehash) {
+        Entry<K,V>[] src = table;
         /** 遍历原始table中所有Entry **/
-        for (Entry<K,V> e : table) {
-            /** 遍历table数组中每一个Entry对应的链表中所有Entry **/
-            while(null != e) {
-                Entry<K,V> next = e.next;
-                /** 是否重新计算hash **/
-                if (rehash) {
-                    e.hash = null == e.key ? 0 : hash(e.key);
-                }
-                /** 计算hash对应Entry结构数组下标 **/
-                int i = indexFor(e.hash, newCapacity);
-                /** 将当前Entry.next指向的原始table[i]，存储到table[i]位置,作为链表的新头部元素**/
-                e.next = newTable[i];
-                newTable[i] = e;
-                e = next;
+        for (int j = 0; j < src.length; j++) {
+            if (src[j] != null)
+                transferBucket(src, j, newTable, rehash);
+        }
+    }
+
+    /**
+     * 将src[j]桶中的所有Entry转移到新数组，转移后src[j]置为null
+     */
+    void transferBucket(Entry<K,V>[] src, int j, Entry<K,V>[] newTable, boolean rehash) {
+        int newCapacity = newTable.length;
+        int oldCapacity = src.length;
+        Entry<K,V> e = src[j];
+        src[j] = null;
+        /**
+         * 红黑树桶：容量翻倍且无需重新计算hash时，按hash新增的高位拆分为高低两个桶(table[j]和table[j+oldCapacity])，
+         * 拆分后节点数量不超过UNTREEIFY_THRESHOLD则退化为链表。
+         * 其他情况(重新计算hash或一次扩容多倍)直接按链表迁移，退化为普通Entry
+         */
+        if (e instanceof TreeNode && !rehash && newCapacity == oldCapacity << 1) {
+            ((TreeNode<K,V>)e).split(this, newTable, j, oldCapacity);
+            return;
+        }
+        /** 遍历Entry对应的链表中所有Entry **/
+        while(null != e) {
+            Entry<K,V> next = e.next;
+            /** 树节点退化为普通Entry **/
+            if (e instanceof TreeNode)
+                e = replacementEntry(e);
+            /** 是否重新计算hash **/
+            if (rehash) {
+                e.hash = null == e.key ? 0 : hash(e.key);
             }
+            /** 计算hash对应Entry结构数组下标 **/
+            int i = indexFor(e.hash, newCapacity);
+            /** 将当前Entry.next指向的原始table[i]，存储到table[i]位置,作为链表的新头部元素**/
+            e.next = newTable[i];
+            newTable[i] = e;
+            e = next;
+        }
+    }
+
+    /**
+     * 渐进式扩容中迁移hash对应的旧桶，保证之后对该hash只需访问table
+     */
+    private void migrateBucket(int hash) {
+        Entry<K,V>[] old = oldTable;
+        if (old != null) {
+            int j = indexFor(hash, old.length);
+            if (old[j] != null)
+                transferBucket(old, j, table, false);
+        }
+    }
+
+    /**
+     * 渐进式扩容的一次推进：先迁移hash对应的旧桶，再从transferIndex开始按顺序最多检查INCREMENTAL_RESIZE_STEP个旧桶，
+     * 旧桶全部迁移完成后丢弃旧数组
+     */
+    private void advanceResize(int hash) {
+        Entry<K,V>[] old = oldTable;
+        if (old == null)
+            return;
+        migrateBucket(hash);
+        int i = transferIndex;
+        int bound = Math.min(i + INCREMENTAL_RESIZE_STEP, old.length);
+        for (; i < bound; i++) {
+            if (old[i] != null)
+                transferBucket(old, i, table, false);
+        }
+        transferIndex = i;
+        if (i == old.length)
+            oldTable = null;
+    }
+
+    /**
+     * 迁移渐进式扩容剩余的全部旧桶
+     * 遍历(迭代器/containsValue)前调用，保证所有Entry都在table中
+     */
+    final void finishResize() {
+        Entry<K,V>[] old = oldTable;
+        if (old == null)
+            return;
+        for (int i = transferIndex; i < old.length; i++) {
+            if (old[i] != null)
+                transferBucket(old, i, table, false);
+        }
+        oldTable = null;
+    }
+
+    /**
+     * 返回table[bucketIndex]链表长度
+     */
+    private int binCountAt(int bucketIndex) {
+        int n = 0;
+        for (Entry<K,V> e = table[bucketIndex]; e != null; e = e.next)
+            ++n;
+        return n;
+    }
+
+    /**
+     * 将table[bucketIndex]链表转换为红黑树，
+     * 如果Entry结构数组长度小于MIN_TREEIFY_CAPACITY，说明冲突是容量太小导致，优先扩容
+     */
+    final void treeifyBin(int bucketIndex) {
+        Entry<K,V> e = table[bucketIndex];
+        if (e == null || e instanceof TreeNode || binCountAt(bucketIndex) < TREEIFY_THRESHOLD)
+            return;
+        if (table.length < MIN_TREEIFY_CAPACITY) {
+            resize(2 * table.length);
+            return;
         }
+        /** 将链表中的Entry替换为TreeNode，保持next顺序并建立prev双向链接 **/
+        TreeNode<K,V> hd = null, tl = null;
+        do {
+            TreeNode<K,V> p = replacementTreeNode(e);
+            if (tl == null)
+                hd = p;
+            else {
+                p.prev = tl;
+                tl.next = p;
+            }
+            tl = p;
+        } while ((e = e.next) != null);
+        /** 构建红黑树，树的根节点放到table[bucketIndex] **/
+        table[bucketIndex] = hd;
+        hd.treeify(table);
+    }
+
+    /**
+     * 将树节点替换为普通Entry(next置空)
+     */
+    Entry<K,V> replacementEntry(Entry<K,V> p) {
+        return new Entry<>(p.hash, p.key, p.value, null);
+    }
+
+    /**
+     * 将普通Entry替换为树节点(next置空)
+     */
+    TreeNode<K,V> replacementTreeNode(Entry<K,V> p) {
+        return new TreeNode<>(p.hash, p.key, p.value, null);
     }
 
     /**
@@ -444,13 +699,33 @@ public class HashMap<K,V>
      * 从Map获取删除指定的key对应Entry，并将Entry从存储结构中剔除
      */
     final Entry<K,V> removeEntryForKey(Object key) {
+        return removeEntryForKey(key, true);
+    }
+
+    /**
+     * 从Map获取删除指定的key对应Entry
+     * movable=false时红黑树删除节点不移动根节点(也不退化为链表)，用于迭代器删除，保证迭代的next链不被打乱
+     */
+    final Entry<K,V> removeEntryForKey(Object key, boolean movable) {
         if (size == 0) {
             return null;
         }
         /** 计算hash **/
         int hash = (key == null) ? 0 : hash(key);
+        advanceResize(hash);
         /** 计算hash对应Entry结构数组下标bucketIndex **/
         int i = indexFor(hash, table.length);
+        /** table[i]为红黑树，在树中查找并删除 **/
+        if (table[i] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[i]).getTreeNode(hash, key);
+            if (p != null) {
+                modCount++;
+                size--;
+                p.removeTreeNode(this, table, movable);
+                p.recordRemoval(this);
+            }
+            return p;
+        }
         Entry<K,V> prev = table[i];
         Entry<K,V> e = prev;
 
@@ -495,6 +770,11 @@ public class HashMap<K,V>
         if (size == 0) {
             return null;
         }
+        advanceResize(0);
+        if (table[0] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[0]).getTreeNode(0, null);
+            return p == null ? null : p.value;
+        }
         for (Entry<K,V> e = table[0]; e != null; e = e.next) {
             if (e.key == null)
                 return e.value;
@@ -518,8 +798,13 @@ public class HashMap<K,V>
         }
         /** 获取key对应的hash **/
         int hash = (key == null) ? 0 : hash(key);
+        advanceResize(hash);
+        Entry<K,V> first = table[indexFor(hash, table.length)];
+        /** 桶已经转换为红黑树，在树中查找O(log n) **/
+        if (first instanceof TreeNode)
+            return ((TreeNode<K,V>)first).getTreeNode(hash, key);
         /** 获取hash对应存在Entry结构的下标，并遍历此下标为开始节点链表，找到存在在key相同Entry，并返回**/
-        for (Entry<K,V> e = table[indexFor(hash, table.length)];
+        for (Entry<K,V> e = first;
              e != null;
              e = e.next) {
             Object k;
@@ -573,7 +858,19 @@ public class HashMap<K,V>
         Map.Entry<K,V> entry = (Map.Entry<K,V>) o;
         Object key = entry.getKey();
         int hash = (key == null) ? 0 : hash(key);
+        advanceResize(hash);
         int i = indexFor(hash, table.length);
+        if (table[i] instanceof TreeNode) {
+            TreeNode<K,V> p = ((TreeNode<K,V>)table[i]).getTreeNode(hash, key);
+            if (p != null && p.equals(entry)) {
+                modCount++;
+                size--;
+                p.removeTreeNode(this, table, true);
+                p.recordRemoval(this);
+                return p;
+            }
+            return null;
+        }
         Entry<K,V> prev = table[i];
         Entry<K,V> e = prev;
 
@@ -599,11 +896,13 @@ public class HashMap<K,V>
     public void clear() {
         modCount++;
         Arrays.fill(table, null);
+        oldTable = null;
         size = 0;
     }
 
 
     public boolean containsValue(Object value) {
+        finishResize();
         if (value == null)
             return containsNullValue();
 
@@ -631,6 +930,7 @@ public class HashMap<K,V>
         } catch (CloneNotSupportedException e) {
             // assert false;
         }
+        result.oldTable = null;
         if (result.table != EMPTY_TABLE) {
             result.inflateTable(Math.min(
                 (int) Math.min(
@@ -717,6 +1017,594 @@ public class HashMap<K,V>
         }
     }
 
+    /**
+     * 返回x的Class，如果x的类型是"class C implements Comparable<C>"，否则返回null
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c; java.lang.reflect.Type[] ts, as; java.lang.reflect.Type t;
+            java.lang.reflect.ParameterizedType p;
+            if ((c = x.getClass()) == String.class) // bypass checks
+                return c;
+            if ((ts = c.getGenericInterfaces()) != null) {
+                for (int i = 0; i < ts.length; ++i) {
+                    if (((t = ts[i]) instanceof java.lang.reflect.ParameterizedType) &&
+                        ((p = (java.lang.reflect.ParameterizedType)t).getRawType() ==
+                         Comparable.class) &&
+                        (as = p.getActualTypeArguments()) != null &&
+                        as.length == 1 && as[0] == c) // type arg is c
+                        return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 如果x的类型为kc，返回k.compareTo(x)，否则返回0
+     */
+    @SuppressWarnings({"rawtypes","unchecked"})
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return (x == null || x.getClass() != kc ? 0 :
+                ((Comparable)k).compareTo(x));
+    }
+
+    /**
+     * 红黑树节点
+     *
+     * 链表长度达到TREEIFY_THRESHOLD时，桶中Entry被替换为TreeNode。
+     * 树节点按hash排序，hash相同时按Comparable排序，都无法区分时按tieBreakOrder排序。
+     * 同时保留next(以及prev)链，迭代器和containsValue仍按链表遍历，
+     * table[i]始终指向树的根节点(moveRootToFront)
+     */
+    static final class TreeNode<K,V> extends Entry<K,V> {
+        TreeNode<K,V> parent;  // red-black tree links
+        TreeNode<K,V> left;
+        TreeNode<K,V> right;
+        TreeNode<K,V> prev;    // needed to unlink next upon deletion
+        boolean red;
+
+        TreeNode(int hash, K key, V val, Entry<K,V> next) {
+            super(hash, key, val, next);
+        }
+
+        /**
+         * 返回树的根节点
+         */
+        final TreeNode<K,V> root() {
+            for (TreeNode<K,V> r = this, p;;) {
+                if ((p = r.parent) == null)
+                    return r;
+                r = p;
+            }
+        }
+
+        /**
+         * 确保根节点是桶中链表的第一个节点
+         */
+        static <K,V> void moveRootToFront(Entry<K,V>[] tab, TreeNode<K,V> root) {
+            int n;
+            if (root != null && tab != null && (n = tab.length) > 0) {
+                int index = (n - 1) & root.hash;
+                TreeNode<K,V> first = (TreeNode<K,V>)tab[index];
+                if (root != first) {
+                    Entry<K,V> rn;
+                    tab[index] = root;
+                    TreeNode<K,V> rp = root.prev;
+                    if ((rn = root.next) != null)
+                        ((TreeNode<K,V>)rn).prev = rp;
+                    if (rp != null)
+                        rp.next = rn;
+                    if (first != null)
+                        first.prev = root;
+                    root.next = first;
+                    root.prev = null;
+                }
+            }
+        }
+
+        /**
+         * 从当前节点开始查找hash为h，key为k的节点，kc为k的Comparable类型(首次使用时计算)
+         */
+        final TreeNode<K,V> find(int h, Object k, Class<?> kc) {
+            TreeNode<K,V> p = this;
+            do {
+                int ph, dir; K pk;
+                TreeNode<K,V> pl = p.left, pr = p.right, q;
+                if ((ph = p.hash) > h)
+                    p = pl;
+                else if (ph < h)
+                    p = pr;
+                else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                    return p;
+                else if (pl == null)
+                    p = pr;
+                else if (pr == null)
+                    p = pl;
+                else if ((kc != null ||
+                          (kc = comparableClassFor(k)) != null) &&
+                         (dir = compareComparables(kc, k, pk)) != 0)
+                    p = (dir < 0) ? pl : pr;
+                else if ((q = pr.find(h, k, kc)) != null)
+                    return q;
+                else
+                    p = pl;
+            } while (p != null);
+            return null;
+        }
+
+        /**
+         * 从根节点开始查找
+         */
+        final TreeNode<K,V> getTreeNode(int h, Object k) {
+            return ((parent != null) ? root() : this).find(h, k, null);
+        }
+
+        /**
+         * hash相同且无法通过Comparable比较时，用类名和identityHashCode决定插入顺序，
+         * 只需要保证插入时顺序一致，不要求全序
+         */
+        static int tieBreakOrder(Object a, Object b) {
+            int d;
+            if (a == null || b == null ||
+                (d = a.getClass().getName().
+                 compareTo(b.getClass().getName())) == 0)
+                d = (System.identityHashCode(a) <= System.identityHashCode(b) ?
+                     -1 : 1);
+            return d;
+        }
+
+        /**
+         * 以当前节点开始的链表构建红黑树
+         */
+        final void treeify(Entry<K,V>[] tab) {
+            TreeNode<K,V> root = null;
+            for (TreeNode<K,V> x = this, next; x != null; x = next) {
+                next = (TreeNode<K,V>)x.next;
+                x.left = x.right = null;
+                if (root == null) {
+                    x.parent = null;
+                    x.red = false;
+                    root = x;
+                }
+                else {
+                    K k = x.key;
+                    int h = x.hash;
+                    Class<?> kc = null;
+                    for (TreeNode<K,V> p = root;;) {
+                        int dir, ph;
+                        K pk = p.key;
+                        if ((ph = p.hash) > h)
+                            dir = -1;
+                        else if (ph < h)
+                            dir = 1;
+                        else if ((kc == null &&
+                                  (kc = comparableClassFor(k)) == null) ||
+                                 (dir = compareComparables(kc, k, pk)) == 0)
+                            dir = tieBreakOrder(k, pk);
+
+                        TreeNode<K,V> xp = p;
+                        if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                            x.parent = xp;
+                            if (dir <= 0)
+                                xp.left = x;
+                            else
+                                xp.right = x;
+                            root = balanceInsertion(root, x);
+                            break;
+                        }
+                    }
+                }
+            }
+            moveRootToFront(tab, root);
+        }
+
+        /**
+         * 将当前节点开始的树节点链表退化为普通Entry链表
+         */
+        final Entry<K,V> untreeify(HashMap<K,V> map) {
+            Entry<K,V> hd = null, tl = null;
+            for (Entry<K,V> q = this; q != null; q = q.next) {
+                Entry<K,V> p = map.replacementEntry(q);
+                if (tl == null)
+                    hd = p;
+                else
+                    tl.next = p;
+                tl = p;
+            }
+            return hd;
+        }
+
+        /**
+         * 在树中插入key-value，key已存在返回对应节点(不覆盖value)，插入成功返回null
+         */
+        final TreeNode<K,V> putTreeVal(HashMap<K,V> map, Entry<K,V>[] tab,
+                                       int h, K k, V v) {
+            Class<?> kc = null;
+            boolean searched = false;
+            TreeNode<K,V> root = (parent != null) ? root() : this;
+            for (TreeNode<K,V> p = root;;) {
+                int dir, ph; K pk;
+                if ((ph = p.hash) > h)
+                    dir = -1;
+                else if (ph < h)
+                    dir = 1;
+                else if ((pk = p.key) == k || (k != null && k.equals(pk)))
+                    return p;
+                else if ((kc == null &&
+                          (kc = comparableClassFor(k)) == null) ||
+                         (dir = compareComparables(kc, k, pk)) == 0) {
+                    if (!searched) {
+                        TreeNode<K,V> q, ch;
+                        searched = true;
+                        if (((ch = p.left) != null &&
+                             (q = ch.find(h, k, kc)) != null) ||
+                            ((ch = p.right) != null &&
+                             (q = ch.find(h, k, kc)) != null))
+                            return q;
+                    }
+                    dir = tieBreakOrder(k, pk);
+                }
+
+                TreeNode<K,V> xp = p;
+                if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                    Entry<K,V> xpn = xp.next;
+                    TreeNode<K,V> x = new TreeNode<>(h, k, v, xpn);
+                    if (dir <= 0)
+                        xp.left = x;
+                    else
+                        xp.right = x;
+                    xp.next = x;
+                    x.parent = x.prev = xp;
+                    if (xpn != null)
+                        ((TreeNode<K,V>)xpn).prev = x;
+                    moveRootToFront(tab, balanceInsertion(root, x));
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * 从树中删除当前节点(调用前必须确认节点存在)
+         * 树节点太少时(根节点的左右子树不完整)退化为链表
+         * movable=false时不退化、不移动根节点，用于迭代器删除
+         */
+        final void removeTreeNode(HashMap<K,V> map, Entry<K,V>[] tab,
+                                  boolean movable) {
+            int n;
+            if (tab == null || (n = tab.length) == 0)
+                return;
+            int index = (n - 1) & hash;
+            TreeNode<K,V> first = (TreeNode<K,V>)tab[index], root = first, rl;
+            TreeNode<K,V> succ = (TreeNode<K,V>)next, pred = prev;
+            if (pred == null)
+                tab[index] = first = succ;
+            else
+                pred.next = succ;
+            if (succ != null)
+                succ.prev = pred;
+            if (first == null)
+                return;
+            if (root.parent != null)
+                root = root.root();
+            if (root == null
+                || (movable
+                    && (root.right == null
+                        || (rl = root.left) == null
+                        || rl.left == null))) {
+                tab[index] = first.untreeify(map);  // too small
+                return;
+            }
+            TreeNode<K,V> p = this, pl = left, pr = right, replacement;
+            if (pl != null && pr != null) {
+                TreeNode<K,V> s = pr, sl;
+                while ((sl = s.left) != null) // find successor
+                    s = sl;
+                boolean c = s.red; s.red = p.red; p.red = c; // swap colors
+                TreeNode<K,V> sr = s.right;
+                TreeNode<K,V> pp = p.parent;
+                if (s == pr) { // p was s's direct parent
+                    p.parent = s;
+                    s.right = p;
+                }
+                else {
+                    TreeNode<K,V> sp = s.parent;
+                    if ((p.parent = sp) != null) {
+                        if (s == sp.left)
+                            sp.left = p;
+                        else
+                            sp.right = p;
+                    }
+                    if ((s.right = pr) != null)
+                        pr.parent = s;
+                }
+                p.left = null;
+                if ((p.right = sr) != null)
+                    sr.parent = p;
+                if ((s.left = pl) != null)
+                    pl.parent = s;
+                if ((s.parent = pp) == null)
+                    root = s;
+                else if (p == pp.left)
+                    pp.left = s;
+                else
+                    pp.right = s;
+                if (sr != null)
+                    replacement = sr;
+                else
+                    replacement = p;
+            }
+            else if (pl != null)
+                replacement = pl;
+            else if (pr != null)
+                replacement = pr;
+            else
+                replacement = p;
+            if (replacement != p) {
+                TreeNode<K,V> pp = replacement.parent = p.parent;
+                if (pp == null)
+                    (root = replacement).red = false;
+                else if (p == pp.left)
+                    pp.left = replacement;
+                else
+                    pp.right = replacement;
+                p.left = p.right = p.parent = null;
+            }
+
+            TreeNode<K,V> r = p.red ? root : balanceDeletion(root, replacement);
+
+            if (replacement == p) {  // detach
+                TreeNode<K,V> pp = p.parent;
+                p.parent = null;
+                if (pp != null) {
+                    if (p == pp.left)
+                        pp.left = null;
+                    else if (p == pp.right)
+                        pp.right = null;
+                }
+            }
+            if (movable)
+                moveRootToFront(tab, r);
+        }
+
+        /**
+         * 扩容(容量翻倍)时将树拆分到tab[index]和tab[index + bit]两个桶，保持原有next顺序，
+         * 拆分后节点数量不超过UNTREEIFY_THRESHOLD的桶退化为链表
+         */
+        final void split(HashMap<K,V> map, Entry<K,V>[] tab, int index, int bit) {
+            TreeNode<K,V> b = this;
+            // Relink into lo and hi lists, preserving order
+            TreeNode<K,V> loHead = null, loTail = null;
+            TreeNode<K,V> hiHead = null, hiTail = null;
+            int lc = 0, hc = 0;
+            for (TreeNode<K,V> e = b, next; e != null; e = next) {
+                next = (TreeNode<K,V>)e.next;
+                e.next = null;
+                if ((e.hash & bit) == 0) {
+                    if ((e.prev = loTail) == null)
+                        loHead = e;
+                    else
+                        loTail.next = e;
+                    loTail = e;
+                    ++lc;
+                }
+                else {
+                    if ((e.prev = hiTail) == null)
+                        hiHead = e;
+                    else
+                        hiTail.next = e;
+                    hiTail = e;
+                    ++hc;
+                }
+            }
+
+            if (loHead != null) {
+                if (lc <= UNTREEIFY_THRESHOLD)
+                    tab[index] = loHead.untreeify(map);
+                else {
+                    tab[index] = loHead;
+                    if (hiHead != null) // (else is already treeified)
+                        loHead.treeify(tab);
+                }
+            }
+            if (hiHead != null) {
+                if (hc <= UNTREEIFY_THRESHOLD)
+                    tab[index + bit] = hiHead.untreeify(map);
+                else {
+                    tab[index + bit] = hiHead;
+                    if (loHead != null)
+                        hiHead.treeify(tab);
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        // Red-black tree methods, all adapted from CLR
+
+        static <K,V> TreeNode<K,V> rotateLeft(TreeNode<K,V> root,
+                                              TreeNode<K,V> p) {
+            TreeNode<K,V> r, pp, rl;
+            if (p != null && (r = p.right) != null) {
+                if ((rl = p.right = r.left) != null)
+                    rl.parent = p;
+                if ((pp = r.parent = p.parent) == null)
+                    (root = r).red = false;
+                else if (pp.left == p)
+                    pp.left = r;
+                else
+                    pp.right = r;
+                r.left = p;
+                p.parent = r;
+            }
+            return root;
+        }
+
+        static <K,V> TreeNode<K,V> rotateRight(TreeNode<K,V> root,
+                                               TreeNode<K,V> p) {
+            TreeNode<K,V> l, pp, lr;
+            if (p != null && (l = p.left) != null) {
+                if ((lr = p.left = l.right) != null)
+                    lr.parent = p;
+                if ((pp = l.parent = p.parent) == null)
+                    (root = l).red = false;
+                else if (pp.right == p)
+                    pp.right = l;
+                else
+                    pp.left = l;
+                l.right = p;
+                p.parent = l;
+            }
+            return root;
+        }
+
+        static <K,V> TreeNode<K,V> balanceInsertion(TreeNode<K,V> root,
+                                                    TreeNode<K,V> x) {
+            x.red = true;
+            for (TreeNode<K,V> xp, xpp, xppl, xppr;;) {
+                if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                }
+                else if (!xp.red || (xpp = xp.parent) == null)
+                    return root;
+                if (xp == (xppl = xpp.left)) {
+                    if ((xppr = xpp.right) != null && xppr.red) {
+                        xppr.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    }
+                    else {
+                        if (x == xp.right) {
+                            root = rotateLeft(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateRight(root, xpp);
+                            }
+                        }
+                    }
+                }
+                else {
+                    if (xppl != null && xppl.red) {
+                        xppl.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    }
+                    else {
+                        if (x == xp.left) {
+                            root = rotateRight(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateLeft(root, xpp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        static <K,V> TreeNode<K,V> balanceDeletion(TreeNode<K,V> root,
+                                                   TreeNode<K,V> x) {
+            for (TreeNode<K,V> xp, xpl, xpr;;) {
+                if (x == null || x == root)
+                    return root;
+                else if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                }
+                else if (x.red) {
+                    x.red = false;
+                    return root;
+                }
+                else if ((xpl = xp.left) == x) {
+                    if ((xpr = xp.right) != null && xpr.red) {
+                        xpr.red = false;
+                        xp.red = true;
+                        root = rotateLeft(root, xp);
+                        xpr = (xp = x.parent) == null ? null : xp.right;
+                    }
+                    if (xpr == null)
+                        x = xp;
+                    else {
+                        TreeNode<K,V> sl = xpr.left, sr = xpr.right;
+                        if ((sr == null || !sr.red) &&
+                            (sl == null || !sl.red)) {
+                            xpr.red = true;
+                            x = xp;
+                        }
+                        else {
+                            if (sr == null || !sr.red) {
+                                if (sl != null)
+                                    sl.red = false;
+                                xpr.red = true;
+                                root = rotateRight(root, xpr);
+                                xpr = (xp = x.parent) == null ?
+                                    null : xp.right;
+                            }
+                            if (xpr != null) {
+                                xpr.red = (xp == null) ? false : xp.red;
+                                if ((sr = xpr.right) != null)
+                                    sr.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateLeft(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+                else { // symmetric
+                    if (xpl != null && xpl.red) {
+                        xpl.red = false;
+                        xp.red = true;
+                        root = rotateRight(root, xp);
+                        xpl = (xp = x.parent) == null ? null : xp.left;
+                    }
+                    if (xpl == null)
+                        x = xp;
+                    else {
+                        TreeNode<K,V> sl = xpl.left, sr = xpl.right;
+                        if ((sl == null || !sl.red) &&
+                            (sr == null || !sr.red)) {
+                            xpl.red = true;
+                            x = xp;
+                        }
+                        else {
+                            if (sl == null || !sl.red) {
+                                if (sr != null)
+                                    sr.red = false;
+                                xpl.red = true;
+                                root = rotateLeft(root, xpl);
+                                xpl = (xp = x.parent) == null ?
+                                    null : xp.left;
+                            }
+                            if (xpl != null) {
+                                xpl.red = (xp == null) ? false : xp.red;
+                                if ((sl = xpl.left) != null)
+                                    sl.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateRight(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
 
 
     private abstract class HashIterator<E> implements Iterator<E> {
@@ -726,6 +1614,8 @@ public class HashMap<K,V>
         Entry<K,V> current;     // current entry
 
         HashIterator() {
+            /** 渐进式扩容中先完成迁移，迭代过程中只需遍历table **/
+            finishResize();
             expectedModCount = modCount;
             if (size > 0) { // advance to first entry
                 Entry[] t = table;
@@ -761,7 +1651,7 @@ public class HashMap<K,V>
                 throw new ConcurrentModificationException();
             Object k = current.key;
             current = null;
-            HashMap.this.removeEntryForKey(k);
+            HashMap.this.removeEntryForKey(k, false);
             expectedModCount = modCount;
         }
     }
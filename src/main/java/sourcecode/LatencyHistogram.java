@@ -0,0 +1,148 @@
+package sourcecode;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁延迟直方图(HDR风格，对数-线性分桶)
+ *
+ * 小于 SUB_BUCKETS 的值每个值一个桶；更大的值按2的幂分段，每段再线性分成 SUB_BUCKETS 个桶，
+ * 因此任意值的相对误差不超过 1/SUB_BUCKETS(约3%)，整个long范围只需要不到2000个桶。
+ * record() 只做一次桶下标计算和几次原子累加，不加锁，可以在任务执行路径上调用；
+ * snapshot() 复制当前计数，读取期间与record()并发时快照是近似值。
+ */
+public final class LatencyHistogram {
+
+    /** 每个2的幂分段内的线性子桶数量为 2^SUB_BUCKET_BITS **/
+    static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** 桶数量，覆盖 [0, Long.MAX_VALUE] **/
+    static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder totalValue = new LongAdder();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * 记录一个值(纳秒)，负数按0记录
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.getAndIncrement(bucketIndex(value));
+        totalValue.add(value);
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value))
+            ;
+    }
+
+    /**
+     * 清零
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0L);
+        totalValue.reset();
+        maxValue.set(0L);
+    }
+
+    /**
+     * 返回当前分布快照
+     */
+    public Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += (c[i] = counts.get(i));
+        return new Snapshot(c, n, totalValue.sum(), maxValue.get());
+    }
+
+    /**
+     * 计算值所在的桶
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶能表示的最大值
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        int shift = exp - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图快照，不可变
+     */
+    public static final class Snapshot implements java.io.Serializable {
+        private static final long serialVersionUID = 3504846233431876917L;
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /** 记录的值个数 **/
+        public long getCount() {
+            return count;
+        }
+
+        /** 最大值 **/
+        public long getMax() {
+            return max;
+        }
+
+        /** 平均值 **/
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) total / count;
+        }
+
+        /**
+         * 返回百分位对应的值(percentile 取值 0~100)，结果是所在桶能表示的最大值，不超过实际最大值
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0L;
+            double p = Math.min(Math.max(percentile, 0.0), 100.0);
+            long target = Math.max(1L, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target)
+                    return Math.min(highestEquivalentValue(i), max);
+            }
+            return max;
+        }
+
+        public String toString() {
+            return "[count=" + count +
+                   ", mean=" + (long) getMean() +
+                   ", p50=" + getValueAtPercentile(50) +
+                   ", p90=" + getValueAtPercentile(90) +
+                   ", p99=" + getValueAtPercentile(99) +
+                   ", p999=" + getValueAtPercentile(99.9) +
+                   ", max=" + max + "]";
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package sourcecode;
+
+/**
+ * 基于多字CAS(MultiWordCAS)的无锁双向链表双端队列
+ *
+ * 双向链表插入/删除一个节点需要同时修改相邻两个节点的 next/prev，单字CAS做不到，
+ * 通常只能像 LinkedList + ReentrantLock 那样加锁。这里每个节点的 prev/next 都是 MCASReference，
+ * 一次修改涉及的所有链接在同一个多字CAS中完成：
+ *
+ * addFirst：head.next first->node，first.prev head->node
+ *
+ * pollFirst：head.next first->second，second.prev first->head，first.next second->null
+ *
+ * addLast/pollLast 对称。被删除节点的 next(或prev) 置为null作为删除标记，
+ * 依赖该节点链接的并发操作的多字CAS都会失败后重试，因此两端的并发修改之间不需要加锁
+ *
+ * head/tail 为哨兵节点，不允许null元素(poll返回null表示队列为空)
+ *
+ * size() 需要遍历链表，并发修改时结果只是一个近似值
+ */
+public class LockFreeLinkedDeque<E> {
+
+    static final class Node<E> {
+        final E item;
+        final MCASReference<Node<E>> prev;
+        final MCASReference<Node<E>> next;
+
+        Node(E item, Node<E> prev, Node<E> next) {
+            this.item = item;
+            this.prev = new MCASReference<Node<E>>(prev);
+            this.next = new MCASReference<Node<E>>(next);
+        }
+    }
+
+    /** 哨兵节点 **/
+    private final Node<E> head;
+
+    private final Node<E> tail;
+
+    public LockFreeLinkedDeque() {
+        head = new Node<E>(null, null, null);
+        tail = new Node<E>(null, head, null);
+        head.next.set(tail);
+    }
+
+    /**
+     * 插入队头
+     */
+    public void addFirst(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        Node<E> node = new Node<E>(e, head, null);
+        for (;;) {
+            Node<E> first = head.next.get();
+            node.next.set(first);
+            if (MultiWordCAS.compareAndSet(head.next, first, node,
+                                           first.prev, head, node))
+                return;
+        }
+    }
+
+    /**
+     * 插入队尾
+     */
+    public void addLast(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        Node<E> node = new Node<E>(e, null, tail);
+        for (;;) {
+            Node<E> last = tail.prev.get();
+            node.prev.set(last);
+            if (MultiWordCAS.compareAndSet(tail.prev, last, node,
+                                           last.next, tail, node))
+                return;
+        }
+    }
+
+    public boolean offerFirst(E e) {
+        addFirst(e);
+        return true;
+    }
+
+    public boolean offerLast(E e) {
+        addLast(e);
+        return true;
+    }
+
+    /**
+     * 移除并返回队头元素，队列为空返回null
+     */
+    public E pollFirst() {
+        for (;;) {
+            Node<E> first = head.next.get();
+            if (first == tail)
+                return null;
+            Node<E> second = first.next.get();
+            /** first已经被其他线程删除，head.next已经改变，重新读取 **/
+            if (second == null)
+                continue;
+            if (MultiWordCAS.compareAndSet(head.next, first, second,
+                                           second.prev, first, head,
+                                           first.next, second, null))
+                return first.item;
+        }
+    }
+
+    /**
+     * 移除并返回队尾元素，队列为空返回null
+     */
+    public E pollLast() {
+        for (;;) {
+            Node<E> last = tail.prev.get();
+            if (last == head)
+                return null;
+            Node<E> pred = last.prev.get();
+            if (pred == null)
+                continue;
+            if (MultiWordCAS.compareAndSet(tail.prev, last, pred,
+                                           pred.next, last, tail,
+                                           last.prev, pred, null))
+                return last.item;
+        }
+    }
+
+    /**
+     * 返回队头元素，队列为空返回null
+     */
+    public E peekFirst() {
+        Node<E> first = head.next.get();
+        return first == tail ? null : first.item;
+    }
+
+    /**
+     * 返回队尾元素，队列为空返回null
+     */
+    public E peekLast() {
+        Node<E> last = tail.prev.get();
+        return last == head ? null : last.item;
+    }
+
+    /**
+     * 栈操作，等价于addFirst
+     */
+    public void push(E e) {
+        addFirst(e);
+    }
+
+    /**
+     * 栈操作，等价于pollFirst
+     */
+    public E pop() {
+        return pollFirst();
+    }
+
+    public boolean isEmpty() {
+        return head.next.get() == tail;
+    }
+
+    /**
+     * 从队头遍历计数，遇到遍历中被删除的节点时从头重新开始
+     */
+    public int size() {
+        restart:
+        for (;;) {
+            int count = 0;
+            for (Node<E> p = head.next.get(); p != tail; count++) {
+                p = p.next.get();
+                if (p == null)
+                    continue restart;
+            }
+            return count;
+        }
+    }
+}
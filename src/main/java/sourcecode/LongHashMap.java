@@ -0,0 +1,422 @@
+package sourcecode;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+/**
+ * key为long的哈希映射，开放寻址(线性探测)实现
+ *
+ * 和HashMap相比：
+ * 1 key直接存放在long[]中，不需要装箱为Long
+ * 2 value存放在Object[]中，不需要为每个映射创建Entry对象
+ * 3 冲突时向后探测下一个空槽，删除时将后续节点前移(backward shift)，不使用删除标记
+ *
+ * key=0 作为空槽标识，因此key为0的映射单独存放在zeroValue中
+ * 非线程安全
+ */
+public class LongHashMap<V> {
+
+    /**
+     * 默认的初始容量为16
+     */
+    static final int DEFAULT_INITIAL_CAPACITY = HashMap.DEFAULT_INITIAL_CAPACITY;
+
+    /**
+     * 最大的容量为2的30次方
+     */
+    static final int MAXIMUM_CAPACITY = HashMap.MAXIMUM_CAPACITY;
+
+    /**
+     * 默认的装载因子
+     */
+    static final float DEFAULT_LOAD_FACTOR = HashMap.DEFAULT_LOAD_FACTOR;
+
+    /**
+     * 空槽标识
+     */
+    private static final long FREE_KEY = 0L;
+
+    /**
+     * 存储key的数组，长度必须始终是2的幂
+     */
+    long[] keys;
+
+    /**
+     * 存储value的数组，和keys下标一一对应
+     */
+    Object[] values;
+
+    /**
+     * 是否存在key为0的映射
+     */
+    boolean hasZeroKey;
+
+    /**
+     * key为0对应的value
+     */
+    V zeroValue;
+
+    /**
+     * Map中存储映射数量
+     */
+    int size;
+
+    /**
+     * 扩容阀值 计算公式=(capacity * loadFactor).
+     */
+    int threshold;
+
+    /**
+     * 装载因子
+     */
+    final float loadFactor;
+
+    /**
+     * 数据修改次数
+     */
+    int modCount;
+
+    /**
+     * 用默认初始容量,默认装载因子实例化一个空的哈希映射
+     */
+    public LongHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 用指定的初始容量和默认装载因子实例化一个空的哈希映射
+     */
+    public LongHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * 用指定的初始容量,装载因子实例化一个空的哈希映射
+     * 开放寻址必须保留空槽，装载因子必须小于1
+     */
+    public LongHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                                               initialCapacity);
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                                               loadFactor);
+        this.loadFactor = loadFactor;
+        /** 保证initialCapacity个映射放入后不会扩容 **/
+        int capacity = HashMap.roundUpToPowerOf2(
+                (int) Math.min((long) Math.ceil(initialCapacity / loadFactor), MAXIMUM_CAPACITY));
+        allocate(Math.max(capacity, 2));
+    }
+
+    /**
+     * 实例化存储数组，并计算扩容阀值(至少保留一个空槽)
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        threshold = Math.min((int) (capacity * loadFactor), capacity - 1);
+    }
+
+    /**
+     * 计算key的hash值，高32位与低32位异或后使用HashMap的扰动函数
+     */
+    static int hash(long key) {
+        return HashMap.supplementalHash((int) (key ^ (key >>> 32)));
+    }
+
+    /**
+     * 查找key所在下标，不存在返回-1
+     */
+    private int indexOf(long key) {
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        long k;
+        /** 从hash对应下标开始向后探测，遇到空槽说明key不存在 **/
+        while ((k = ks[i]) != FREE_KEY) {
+            if (k == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 返回Map中存储映射数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 返回Map中存储映射数量是否为0
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 返回存储数组的长度
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * 获取key对应值value，不存在返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE_KEY)
+            return hasZeroKey ? zeroValue : null;
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    /**
+     * 判断指定key是否存储在Map
+     */
+    public boolean containsKey(long key) {
+        return key == FREE_KEY ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * 向Map添加一个key-value,如果key存在，会覆盖value返回原始值
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == FREE_KEY)
+            return putForZeroKey(value);
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        int i = hash(key) & mask;
+        long k;
+        /** 向后探测，找到key则覆盖value **/
+        while ((k = ks[i]) != FREE_KEY) {
+            if (k == key) {
+                V oldValue = (V) values[i];
+                values[i] = value;
+                return oldValue;
+            }
+            i = (i + 1) & mask;
+        }
+        /** 放入探测到的空槽 **/
+        modCount++;
+        ks[i] = key;
+        values[i] = value;
+        /** 超过扩容阀值，容量翻倍 **/
+        if (++size > threshold)
+            resize(ks.length << 1);
+        return null;
+    }
+
+    /**
+     * 添加key为0的映射
+     */
+    private V putForZeroKey(V value) {
+        V oldValue = zeroValue;
+        zeroValue = value;
+        if (!hasZeroKey) {
+            modCount++;
+            hasZeroKey = true;
+            size++;
+        }
+        return oldValue;
+    }
+
+    /**
+     * 从Map删除指定的key，返回原始值
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasZeroKey)
+                return null;
+            V oldValue = zeroValue;
+            modCount++;
+            hasZeroKey = false;
+            zeroValue = null;
+            size--;
+            return oldValue;
+        }
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V oldValue = (V) values[i];
+        modCount++;
+        size--;
+        shiftKeys(i);
+        return oldValue;
+    }
+
+    /**
+     * 删除pos位置的映射，将之后同一探测序列中的节点前移填补空槽，
+     * 保证查找时遇到空槽即可判定key不存在
+     */
+    private void shiftKeys(int pos) {
+        long[] ks = keys;
+        Object[] vs = values;
+        int mask = ks.length - 1;
+        int last, slot;
+        long curr;
+        for (;;) {
+            pos = ((last = pos) + 1) & mask;
+            for (;;) {
+                if ((curr = ks[pos]) == FREE_KEY) {
+                    ks[last] = FREE_KEY;
+                    vs[last] = null;
+                    return;
+                }
+                /** curr的理想下标slot不在(last, pos]区间内，说明curr可以前移到last **/
+                slot = hash(curr) & mask;
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos)
+                    break;
+                pos = (pos + 1) & mask;
+            }
+            ks[last] = curr;
+            vs[last] = vs[pos];
+        }
+    }
+
+    /**
+     * 扩容，将所有映射重新计算下标放入新数组
+     */
+    void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        if (oldKeys.length == MAXIMUM_CAPACITY) {
+            if (size >= MAXIMUM_CAPACITY - 1)
+                throw new IllegalStateException("LongHashMap is full");
+            threshold = MAXIMUM_CAPACITY - 1;
+            return;
+        }
+        allocate(newCapacity);
+        long[] ks = keys;
+        Object[] vs = values;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != FREE_KEY) {
+                int i = hash(k) & mask;
+                while (ks[i] != FREE_KEY)
+                    i = (i + 1) & mask;
+                ks[i] = k;
+                vs[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * 清空Map
+     */
+    public void clear() {
+        modCount++;
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        hasZeroKey = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * 遍历所有映射，遍历过程中不创建任何对象
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        if (hasZeroKey)
+            action.accept(FREE_KEY, zeroValue);
+        long[] ks = keys;
+        Object[] vs = values;
+        for (int i = 0; i < ks.length && mc == modCount; i++) {
+            if (ks[i] != FREE_KEY)
+                action.accept(ks[i], (V) vs[i]);
+        }
+        if (mc != modCount)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * 返回一个游标，游标可以通过reset()重复使用
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 映射遍历回调
+     */
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    /**
+     * 游标，按下标遍历存储数组，key/value直接从数组读取，不创建Entry对象
+     *
+     * while (cursor.advance()) {
+     *     cursor.key(); cursor.value();
+     * }
+     */
+    public final class Cursor {
+        /** 当前下标，下标等于keys.length时表示key为0的映射 **/
+        int index;
+        long key;
+        V value;
+        int expectedModCount;
+
+        Cursor() {
+            reset();
+        }
+
+        /**
+         * 重置游标到起始位置
+         */
+        public void reset() {
+            index = -1;
+            key = FREE_KEY;
+            value = null;
+            expectedModCount = modCount;
+        }
+
+        /**
+         * 移动到下一个映射，不存在返回false
+         */
+        @SuppressWarnings("unchecked")
+        public boolean advance() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            long[] ks = keys;
+            if (index >= ks.length)
+                return false;
+            while (++index < ks.length) {
+                if (ks[index] != FREE_KEY) {
+                    key = ks[index];
+                    value = (V) values[index];
+                    return true;
+                }
+            }
+            if (hasZeroKey) {
+                key = FREE_KEY;
+                value = zeroValue;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 当前映射的key
+         */
+        public long key() {
+            return key;
+        }
+
+        /**
+         * 当前映射的value
+         */
+        public V value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package sourcecode;
+
+/**
+ * 可以参与多字CAS(MultiWordCAS)的原子引用
+ *
+ * 与 AtomicReference 的区别：多字CAS进行中，value 里暂存的是 MultiWordCAS 的描述符，
+ * get/set/compareAndSet 遇到描述符时先帮助对应的多字CAS完成，再读取/修改真实值，
+ * 因此这里的单字操作与同时进行的多字CAS之间也是线性一致的
+ *
+ * 每个实例有一个全局递增的id，多字CAS按id顺序安装描述符，避免两个多字CAS互相帮助形成环
+ *
+ * compareAndSet 比较的是引用(==)，与 AtomicReference 相同
+ */
+public class MCASReference<V> {
+
+    /** id生成器 **/
+    private static final java.util.concurrent.atomic.AtomicLong SEQUENCE =
+        new java.util.concurrent.atomic.AtomicLong();
+
+    /** 多字CAS安装描述符的顺序 **/
+    final long id = SEQUENCE.getAndIncrement();
+
+    /** 真实值，或者进行中的多字CAS描述符 **/
+    volatile Object value;
+
+    /**
+     * 使用指定初始值实例化
+     */
+    public MCASReference(V initialValue) {
+        value = initialValue;
+    }
+
+    /**
+     * 实例化一个初始值为null的MCASReference
+     */
+    public MCASReference() {
+    }
+
+    /**
+     * 获取当前值，遇到进行中的多字CAS时先帮助它完成
+     */
+    @SuppressWarnings("unchecked")
+    public final V get() {
+        return (V) MultiWordCAS.read(this);
+    }
+
+    /**
+     * 设置为新值newValue
+     */
+    public final void set(V newValue) {
+        for (;;) {
+            Object c = value;
+            if (MultiWordCAS.isDescriptor(c))
+                MultiWordCAS.help(this, c);
+            else if (casValue(c, newValue))
+                return;
+        }
+    }
+
+    /**
+     * 使用CAS设置新值update，成功返回true,失败返回false
+     */
+    public final boolean compareAndSet(V expect, V update) {
+        for (;;) {
+            Object c = value;
+            if (MultiWordCAS.isDescriptor(c))
+                MultiWordCAS.help(this, c);
+            else if (c != expect)
+                return false;
+            else if (casValue(c, update))
+                return true;
+        }
+    }
+
+    /**
+     * 原子方式设置为新值newValue，并返回旧值
+     */
+    public final V getAndSet(V newValue) {
+        V prev;
+        do {
+            prev = get();
+        } while (!compareAndSet(prev, newValue));
+        return prev;
+    }
+
+    /**
+     * 对value原始内容(真实值或描述符)的CAS
+     */
+    final boolean casValue(Object expect, Object update) {
+        return U.compareAndSwapObject(this, VALUE, expect, update);
+    }
+
+    public String toString() {
+        return String.valueOf(get());
+    }
+
+    /** -----------------Unsafe----------------- **/
+
+    private static final sun.misc.Unsafe U;
+    private static final long VALUE;
+
+    static {
+        try {
+            U = getUnsafe();
+            VALUE = U.objectFieldOffset(MCASReference.class.getDeclaredField("value"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package sourcecode;
+
+/**
+ * 多字CAS(MCAS/CASN)：原子地比较并替换多个 MCASReference，全部等于期望值时全部替换，否则都不修改
+ *
+ * 无锁实现(Harris, Fraser, Pratt 的 CASN 算法)，不使用锁：
+ *
+ * 1 创建描述符 CASNDescriptor(全部引用、期望值、新值、状态UNDECIDED)，引用按 MCASReference.id 排序
+ *
+ * 2 按顺序把每个引用的值从期望值替换为描述符本身。这一步必须在描述符仍为UNDECIDED时才能生效，
+ *   因此用 RDCSS(双比较单交换) 完成：先CAS安装一个 RDCSSDescriptor，再根据描述符状态把它换成
+ *   CASNDescriptor(仍为UNDECIDED) 或换回期望值(已经结束)。某个引用的值不等于期望值时失败
+ *
+ * 3 CAS 描述符状态 UNDECIDED -> SUCCEEDED/FAILED，这是整个多字CAS的线性化点
+ *
+ * 4 根据状态把每个引用上的描述符换成新值(成功)或期望值(失败)
+ *
+ * 任何线程(包括单字的 get/set/compareAndSet)遇到描述符时，都可以按相同的步骤帮助它完成，
+ * 所以持有描述符的线程被挂起也不会阻塞其他线程；按id顺序安装保证互相帮助不会形成环
+ *
+ * 每次多字CAS分配一个描述符，每个引用最多分配一个 RDCSSDescriptor，由GC回收，不需要额外的内存回收机制
+ */
+public final class MultiWordCAS {
+
+    private MultiWordCAS() {
+    }
+
+    /** 描述符状态 **/
+    static final int UNDECIDED = 0;
+    static final int SUCCEEDED = 1;
+    static final int FAILED = 2;
+
+    /**
+     * 暂存在 MCASReference.value 中的描述符
+     */
+    abstract static class Descriptor {
+    }
+
+    /**
+     * 多字CAS描述符，refs按id升序
+     */
+    static final class CASNDescriptor extends Descriptor {
+        final MCASReference<?>[] refs;
+        final Object[] expected;
+        final Object[] updates;
+        volatile int status;
+
+        CASNDescriptor(MCASReference<?>[] refs, Object[] expected, Object[] updates) {
+            this.refs = refs;
+            this.expected = expected;
+            this.updates = updates;
+        }
+
+        boolean casStatus(int expect, int update) {
+            return U.compareAndSwapInt(this, STATUS, expect, update);
+        }
+    }
+
+    /**
+     * RDCSS描述符：parent仍为UNDECIDED时把 parent.refs[index] 从 parent.expected[index] 换成 parent
+     */
+    static final class RDCSSDescriptor extends Descriptor {
+        final CASNDescriptor parent;
+        final int index;
+
+        RDCSSDescriptor(CASNDescriptor parent, int index) {
+            this.parent = parent;
+            this.index = index;
+        }
+    }
+
+    /**
+     * 双字CAS
+     */
+    public static <A, B> boolean compareAndSet(MCASReference<A> a, A expectA, A updateA,
+                                               MCASReference<B> b, B expectB, B updateB) {
+        return sortAndRun(new MCASReference<?>[] {a, b},
+                          new Object[] {expectA, expectB},
+                          new Object[] {updateA, updateB});
+    }
+
+    /**
+     * 三字CAS
+     */
+    public static <A, B, C> boolean compareAndSet(MCASReference<A> a, A expectA, A updateA,
+                                                  MCASReference<B> b, B expectB, B updateB,
+                                                  MCASReference<C> c, C expectC, C updateC) {
+        return sortAndRun(new MCASReference<?>[] {a, b, c},
+                          new Object[] {expectA, expectB, expectC},
+                          new Object[] {updateA, updateB, updateC});
+    }
+
+    /**
+     * k字CAS：refs[i]全部等于expected[i]时，原子地把refs[i]全部设置为updates[i]，成功返回true
+     * 值的类型由调用方保证与对应的引用一致
+     *
+     * @throws IllegalArgumentException 数组长度不一致或者同一个引用出现多次
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean compareAndSet(MCASReference<?>[] refs, Object[] expected, Object[] updates) {
+        int n = refs.length;
+        if (expected.length != n || updates.length != n)
+            throw new IllegalArgumentException("length mismatch");
+        if (n == 0)
+            return true;
+        if (n == 1)
+            return ((MCASReference<Object>) refs[0]).compareAndSet(expected[0], updates[0]);
+        /** 描述符持有数组，复制一份，调用方之后修改数组不影响进行中的多字CAS **/
+        return sortAndRun(refs.clone(), expected.clone(), updates.clone());
+    }
+
+    /**
+     * 三个数组按refs的id升序原地插入排序(k通常很小)，然后执行多字CAS
+     */
+    private static boolean sortAndRun(MCASReference<?>[] r, Object[] e, Object[] u) {
+        for (int i = 0; i < r.length; i++) {
+            MCASReference<?> ref = r[i];
+            Object ev = e[i], uv = u[i];
+            if (ref == null)
+                throw new NullPointerException();
+            int j = i - 1;
+            for (; j >= 0 && r[j].id > ref.id; j--) {
+                r[j + 1] = r[j];
+                e[j + 1] = e[j];
+                u[j + 1] = u[j];
+            }
+            if (j >= 0 && r[j] == ref)
+                throw new IllegalArgumentException("duplicate reference");
+            r[j + 1] = ref;
+            e[j + 1] = ev;
+            u[j + 1] = uv;
+        }
+        return casn(new CASNDescriptor(r, e, u));
+    }
+
+    /**
+     * 执行(或帮助执行)多字CAS，返回是否成功
+     */
+    static boolean casn(CASNDescriptor cd) {
+        if (cd.status == UNDECIDED) {
+            int status = SUCCEEDED;
+            for (int i = 0; i < cd.refs.length && status == SUCCEEDED; ) {
+                Object v = rdcss(cd, i);
+                if (v instanceof CASNDescriptor && v != cd) {
+                    /** 被其他多字CAS占用，帮助它完成后重试当前引用 **/
+                    casn((CASNDescriptor) v);
+                    continue;
+                }
+                if (v != cd && v != cd.expected[i])
+                    status = FAILED;
+                i++;
+            }
+            cd.casStatus(UNDECIDED, status);
+        }
+        boolean succeeded = cd.status == SUCCEEDED;
+        for (int i = 0; i < cd.refs.length; i++)
+            cd.refs[i].casValue(cd, succeeded ? cd.updates[i] : cd.expected[i]);
+        return succeeded;
+    }
+
+    /**
+     * 仅当cd为UNDECIDED时把 cd.refs[i] 从 cd.expected[i] 换成cd，返回换之前看到的值
+     * (等于期望值表示安装成功，等于cd表示已经被其他线程安装)
+     */
+    private static Object rdcss(CASNDescriptor cd, int i) {
+        MCASReference<?> ref = cd.refs[i];
+        Object expected = cd.expected[i];
+        RDCSSDescriptor d = null;
+        for (;;) {
+            Object c = ref.value;
+            if (c instanceof RDCSSDescriptor) {
+                completeRdcss(ref, (RDCSSDescriptor) c);
+                continue;
+            }
+            if (c != expected)
+                return c;
+            if (d == null)
+                d = new RDCSSDescriptor(cd, i);
+            if (ref.casValue(c, d)) {
+                completeRdcss(ref, d);
+                return c;
+            }
+        }
+    }
+
+    /**
+     * 根据父描述符的状态，把RDCSS描述符换成父描述符或者换回期望值
+     */
+    private static void completeRdcss(MCASReference<?> ref, RDCSSDescriptor d) {
+        CASNDescriptor p = d.parent;
+        ref.casValue(d, p.status == UNDECIDED ? p : p.expected[d.index]);
+    }
+
+    static boolean isDescriptor(Object o) {
+        return o instanceof Descriptor;
+    }
+
+    /**
+     * 帮助暂存在ref中的描述符完成
+     */
+    static void help(MCASReference<?> ref, Object descriptor) {
+        if (descriptor instanceof RDCSSDescriptor)
+            completeRdcss(ref, (RDCSSDescriptor) descriptor);
+        else
+            casn((CASNDescriptor) descriptor);
+    }
+
+    /**
+     * 读取ref的真实值，遇到描述符先帮助完成
+     */
+    static Object read(MCASReference<?> ref) {
+        for (;;) {
+            Object c = ref.value;
+            if (!(c instanceof Descriptor))
+                return c;
+            help(ref, c);
+        }
+    }
+
+    /** -----------------Unsafe----------------- **/
+
+    private static final sun.misc.Unsafe U;
+    private static final long STATUS;
+
+    static {
+        try {
+            U = getUnsafe();
+            STATUS = U.objectFieldOffset(CASNDescriptor.class.getDeclaredField("status"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
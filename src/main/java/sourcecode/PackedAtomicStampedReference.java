@@ -0,0 +1,227 @@
+package sourcecode;
+
+/**
+ * 不分配对象的 AtomicStampedReference
+ *
+ * AtomicStampedReference 每次 compareAndSet/set 都要创建一个新的 Pair(引用 + 时间戳)，
+ * 在无锁栈这类每次操作都要CAS的结构中，Pair 的分配成为主要的GC压力。
+ *
+ * 这里把引用换成槽位数组 slots 中的下标，与时间戳一起打包进一个long：
+ *  state = 下标(高32位) | 时间戳(低32位)
+ * 对引用和时间戳的原子操作变成对 state 的一次CAS，不再分配对象。
+ *
+ * 引用第一次出现时登记到 slots(按System.identityHashCode开放寻址，CAS占用空槽位)，之后一直复用同一个下标，
+ * 槽位不会被回收，因此只适合引用集合有界的场景，例如预先分配或循环复用节点的无锁栈/对象池；
+ * 不同引用超过 maxReferences 时抛出IllegalStateException，这种场景应当使用 AtomicStampedReference。
+ * 下标0固定表示null。
+ *
+ * getReference/getStamp/get/compareAndSet/weakCompareAndSet/set/attemptStamp 的语义与 AtomicStampedReference 相同。
+ */
+public class PackedAtomicStampedReference<V> {
+
+    /** 默认最多登记的不同引用数量 **/
+    static final int DEFAULT_MAX_REFERENCES = 256;
+
+    /** 引用槽位，下标0为null，其他槽位登记后不再改变 **/
+    private final Object[] slots;
+
+    private final int mask;
+
+    /** 最多登记的不同引用数量 **/
+    private final int maxReferences;
+
+    /** 已经登记(包括正在登记)的引用数量，不超过 maxReferences **/
+    private volatile int registered;
+
+    /** 下标(高32位) | 时间戳(低32位) **/
+    private volatile long state;
+
+    /**
+     * 最多登记 DEFAULT_MAX_REFERENCES 个不同引用
+     */
+    public PackedAtomicStampedReference(V initialRef, int initialStamp) {
+        this(initialRef, initialStamp, DEFAULT_MAX_REFERENCES);
+    }
+
+    /**
+     * 最多登记 maxReferences 个不同引用，槽位数组为 maxReferences 两倍向上取整为2的幂，保证开放寻址的探测长度
+     */
+    public PackedAtomicStampedReference(V initialRef, int initialStamp, int maxReferences) {
+        if (maxReferences <= 0 || maxReferences > (1 << 29))
+            throw new IllegalArgumentException();
+        int n = 2;
+        while (n < maxReferences * 2)
+            n <<= 1;
+        this.slots = new Object[n];
+        this.mask = n - 1;
+        this.maxReferences = maxReferences;
+        this.state = pack(slotOf(initialRef), initialStamp);
+    }
+
+    static long pack(int index, int stamp) {
+        return ((long) index << 32) | (stamp & 0xffffffffL);
+    }
+
+    static int indexOf(long s) {
+        return (int) (s >>> 32);
+    }
+
+    static int stampOf(long s) {
+        return (int) s;
+    }
+
+    /**
+     * state是volatile读，槽位在发布state之前已经登记，普通读即可看到
+     */
+    @SuppressWarnings("unchecked")
+    private V referenceAt(int index) {
+        return (V) slots[index];
+    }
+
+    /**
+     * 返回引用对象
+     */
+    public V getReference() {
+        return referenceAt(indexOf(state));
+    }
+
+    /**
+     * 返回时间戳
+     */
+    public int getStamp() {
+        return stampOf(state);
+    }
+
+    /**
+     * 返回引用对象和时间戳(放入参数中)，两者来自同一次读取
+     */
+    public V get(int[] stampHolder) {
+        long s = state;
+        stampHolder[0] = stampOf(s);
+        return referenceAt(indexOf(s));
+    }
+
+    public boolean weakCompareAndSet(V expectedReference, V newReference,
+                                     int expectedStamp, int newStamp) {
+        return compareAndSet(expectedReference, newReference, expectedStamp, newStamp);
+    }
+
+    /**
+     * 引用和时间戳都等于期望值时原子的更新为新值，与 AtomicStampedReference 一样，新值与当前值相同时直接返回true
+     */
+    public boolean compareAndSet(V expectedReference, V newReference,
+                                 int expectedStamp, int newStamp) {
+        long s = state;
+        int index = indexOf(s);
+        if (referenceAt(index) != expectedReference || stampOf(s) != expectedStamp)
+            return false;
+        if (newReference == expectedReference) {
+            return newStamp == expectedStamp ||
+                   U.compareAndSwapLong(this, STATE, s, pack(index, newStamp));
+        }
+        return U.compareAndSwapLong(this, STATE, s, pack(slotOf(newReference), newStamp));
+    }
+
+    /**
+     * 设置引用对象和时间戳
+     */
+    public void set(V newReference, int newStamp) {
+        long s = state;
+        if (newReference != referenceAt(indexOf(s)) || newStamp != stampOf(s))
+            state = pack(slotOf(newReference), newStamp);
+    }
+
+    /**
+     * 引用等于期望值时原子的更新时间戳
+     */
+    public boolean attemptStamp(V expectedReference, int newStamp) {
+        long s = state;
+        int index = indexOf(s);
+        return referenceAt(index) == expectedReference &&
+               (newStamp == stampOf(s) ||
+                U.compareAndSwapLong(this, STATE, s, pack(index, newStamp)));
+    }
+
+    /**
+     * 返回引用登记的下标，第一次出现时先占用一个登记名额，再CAS占用一个空槽位
+     * 两个线程同时登记同一个引用会竞争同一个空槽位，失败方归还名额，重新读取后找到对方登记的结果，不会重复登记
+     * 槽位只增不删，线性探测遇到空槽位说明引用还没有登记
+     */
+    private int slotOf(Object ref) {
+        if (ref == null)
+            return 0;
+        final Object[] slots = this.slots;
+        final int mask = this.mask;
+        int h = System.identityHashCode(ref);
+        int i = (h ^ (h >>> 16)) & mask;
+        for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+            if (i == 0)
+                continue;
+            Object o = U.getObjectVolatile(slots, slotOffset(i));
+            if (o == null) {
+                if (!reserve()) {
+                    /** 名额已满，同一个引用可能正被其他线程登记到这个槽位 **/
+                    if (U.getObjectVolatile(slots, slotOffset(i)) == ref)
+                        return i;
+                    break;
+                }
+                if (U.compareAndSwapObject(slots, slotOffset(i), null, ref))
+                    return i;
+                U.getAndAddInt(this, REGISTERED, -1);
+                o = U.getObjectVolatile(slots, slotOffset(i));
+            }
+            if (o == ref)
+                return i;
+        }
+        throw new IllegalStateException("too many distinct references, max " + maxReferences);
+    }
+
+    /**
+     * 占用一个登记名额，已满返回false
+     */
+    private boolean reserve() {
+        for (int c; (c = registered) < maxReferences; )
+            if (U.compareAndSwapInt(this, REGISTERED, c, c + 1))
+                return true;
+        return false;
+    }
+
+    public String toString() {
+        long s = state;
+        return super.toString() + "[reference=" + referenceAt(indexOf(s)) + ", stamp=" + stampOf(s) + "]";
+    }
+
+    /** -----------------Unsafe----------------- **/
+
+    private static final sun.misc.Unsafe U;
+    private static final long STATE;
+    private static final long REGISTERED;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            U = getUnsafe();
+            STATE = U.objectFieldOffset(PackedAtomicStampedReference.class.getDeclaredField("state"));
+            REGISTERED = U.objectFieldOffset(PackedAtomicStampedReference.class.getDeclaredField("registered"));
+            ABASE = U.arrayBaseOffset(Object[].class);
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(U.arrayIndexScale(Object[].class));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static long slotOffset(int i) {
+        return ((long) i << ASHIFT) + ABASE;
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
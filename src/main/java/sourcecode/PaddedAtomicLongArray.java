@@ -0,0 +1,282 @@
+package sourcecode;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 缓存行填充的 AtomicLongArray
+ *
+ * AtomicLongArray 的元素紧密排列(byteOffset(i) = base + i * 8)，一个64字节缓存行放8个元素，
+ * 用作每个work/线程一个计数槽位时，不同线程修改相邻下标会反复使对方的缓存行失效(伪共享 false sharing)。
+ *
+ * 这里每个逻辑下标相隔 stride 字节：
+ *  byteOffset(i) = base + (i + 1) * stride
+ *  数组前后各留出 stride 字节，第一个/最后一个元素也不会与数组头或相邻对象共享缓存行
+ * stride 默认为 DEFAULT_STRIDE(128)：部分CPU的相邻行预取以两个缓存行为单位加载，只隔开一个缓存行仍然会互相干扰；
+ * 内存占用为 (length + 2) * stride 字节，适合长度与线程数相当的小数组。
+ *
+ * 操作与 AtomicLongArray 相同，另外提供 sum() 汇总所有槽位。
+ */
+public class PaddedAtomicLongArray implements java.io.Serializable {
+    private static final long serialVersionUID = 3791634851926404547L;
+
+    /** 默认相邻元素间隔的字节数 **/
+    public static final int DEFAULT_STRIDE = 128;
+
+    private static final sun.misc.Unsafe unsafe = getUnsafe();
+    /** 获取该类型的数组，在对象存储时，存放第一个元素的内存地址 **/
+    private static final int base = unsafe.arrayBaseOffset(long[].class);
+    /** 数组中每一个元素占用的大小(long类型返回8) **/
+    private static final int scale = unsafe.arrayIndexScale(long[].class);
+
+    /** 操作对象，只使用 (i + 1) * stride / scale 位置的元素 **/
+    private final long[] array;
+
+    /** 逻辑长度 **/
+    private final int length;
+
+    /** log2(stride)，用于计算元素的偏移位置 **/
+    private final int strideShift;
+
+    /**
+     * 实例化一个PaddedAtomicLongArray，相邻元素间隔 DEFAULT_STRIDE 字节
+     */
+    public PaddedAtomicLongArray(int length) {
+        this(length, DEFAULT_STRIDE);
+    }
+
+    /**
+     * 实例化一个PaddedAtomicLongArray，相邻元素间隔 stride 字节，stride 必须是2的幂且不小于8
+     */
+    public PaddedAtomicLongArray(int length, int stride) {
+        if (length < 0)
+            throw new IllegalArgumentException("length " + length);
+        if (stride < scale || (stride & (stride - 1)) != 0)
+            throw new IllegalArgumentException("stride " + stride);
+        long slots = ((long) length + 2) * (stride / scale);
+        if (slots > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("length " + length + " too large for stride " + stride);
+        this.array = new long[(int) slots];
+        this.length = length;
+        this.strideShift = 31 - Integer.numberOfLeadingZeros(stride);
+    }
+
+    /**
+     * 获取数组中每个元素的偏移位置（存在校验）
+     */
+    private long checkedByteOffset(int i) {
+        if (i < 0 || i >= length)
+            throw new IndexOutOfBoundsException("index " + i);
+
+        return byteOffset(i);
+    }
+
+    /**
+     * 获取数组中每个元素的偏移位置
+     */
+    private long byteOffset(int i) {
+        return ((long) (i + 1) << strideShift) + base;
+    }
+
+    /**
+     * 返回数组的长度
+     */
+    public final int length() {
+        return length;
+    }
+
+    /**
+     * 返回相邻元素间隔的字节数
+     */
+    public final int stride() {
+        return 1 << strideShift;
+    }
+
+    /**
+     * 获取位置{@code i}的当前值。
+     */
+    public final long get(int i) {
+        return getRaw(checkedByteOffset(i));
+    }
+
+    private long getRaw(long offset) {
+        return unsafe.getLongVolatile(array, offset);
+    }
+
+    /**
+     * 将位置{@code i}的元素设置为给定值。
+     */
+    public final void set(int i, long newValue) {
+        unsafe.putLongVolatile(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 将位置{@code i}的元素设置为给定值newValue（不保证其他线程立刻看到），见 AtomicIntegerArray.lazySet
+     */
+    public final void lazySet(int i, long newValue) {
+        unsafe.putOrderedLong(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 原子方式将位置{@code i}的元素设置为给定值newValue并返回旧值。(内部使用CAS乐观锁+循环)
+     */
+    public final long getAndSet(int i, long newValue) {
+        return unsafe.getAndSetLong(array, checkedByteOffset(i), newValue);
+    }
+
+    /**
+     * 使用CAS将位置{@code i}的元素设置为给定值newValue，成功返回true,失败返回false
+     */
+    public final boolean compareAndSet(int i, long expect, long update) {
+        return compareAndSetRaw(checkedByteOffset(i), expect, update);
+    }
+
+    private boolean compareAndSetRaw(long offset, long expect, long update) {
+        return unsafe.compareAndSwapLong(array, offset, expect, update);
+    }
+
+    /**
+     * 使用CAS将位置{@code i}的元素设置为给定值newValue，成功返回true,失败返回false
+     */
+    public final boolean weakCompareAndSet(int i, long expect, long update) {
+        return compareAndSet(i, expect, update);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+1。(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndIncrement(int i) {
+        return getAndAdd(i, 1);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素-1。(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndDecrement(int i) {
+        return getAndAdd(i, -1);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+delta。这里传入负数就是减少|delta|(内部使用CAS乐观锁+循环),返回旧值
+     */
+    public final long getAndAdd(int i, long delta) {
+        return unsafe.getAndAddLong(array, checkedByteOffset(i), delta);
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+1。(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long incrementAndGet(int i) {
+        return getAndAdd(i, 1) + 1;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素-1。(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long decrementAndGet(int i) {
+        return getAndAdd(i, -1) - 1;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+delta。这里传入负数就是减少|delta|(内部使用CAS乐观锁+循环),返回新值
+     */
+    public final long addAndGet(int i, long delta) {
+        return getAndAdd(i, delta) + delta;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongUnaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final long getAndUpdate(int i, LongUnaryOperator updateFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongUnaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final long updateAndGet(int i, LongUnaryOperator updateFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = updateFunction.applyAsLong(prev);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return next;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongBinaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final long getAndAccumulate(int i, long x,
+                                      LongBinaryOperator accumulatorFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将位置{@code i}的元素+执行LongBinaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final long accumulateAndGet(int i, long x,
+                                      LongBinaryOperator accumulatorFunction) {
+        long offset = checkedByteOffset(i);
+        long prev, next;
+        do {
+            prev = getRaw(offset);
+            next = accumulatorFunction.applyAsLong(prev, x);
+        } while (!compareAndSetRaw(offset, prev, next));
+        return next;
+    }
+
+    /**
+     * 所有槽位之和，逐个volatile读取，并发修改时不是某一时刻的快照
+     */
+    public final long sum() {
+        long sum = 0L;
+        for (int i = 0; i < length; i++)
+            sum += getRaw(byteOffset(i));
+        return sum;
+    }
+
+    /**
+     * Returns the String representation of the current values of array.
+     * @return the String representation of the current values of array
+     */
+    public String toString() {
+        int iMax = length - 1;
+        if (iMax == -1)
+            return "[]";
+
+        StringBuilder b = new StringBuilder();
+        b.append('[');
+        for (int i = 0; ; i++) {
+            b.append(getRaw(byteOffset(i)));
+            if (i == iMax)
+                return b.append(']').toString();
+            b.append(',').append(' ');
+        }
+    }
+
+    /**
+     * Unsafe.getUnsafe()只允许启动类加载器加载的类调用，这里通过反射获取，普通classpath下也可以使用
+     */
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package sourcecode;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadPoolExecutor 线程数自动调节器
+ *
+ * 每个采样周期读取线程池的运行指标(ExecutorMetrics，构造时自动开启)：
+ *  arrivalRate  任务到达速率 = 本周期提交任务数 / 周期时长
+ *  throughput   任务完成速率 = 本周期完成任务数 / 周期时长
+ *  serviceTime  本周期任务平均执行时间
+ *  queueDepth   周期结束时workQueue中排队的任务数
+ *  utilization  work利用率 = 本周期任务执行总时长 / (线程数 * 周期时长)
+ *
+ * 按 Little 定律计算需要的线程数：
+ *  target = (arrivalRate * serviceTime + queueDepth * serviceTime / 周期时长) / targetUtilization
+ * 第一项是稳态下同时在执行的任务数，第二项用来在一个周期内消化积压的任务。
+ * 积压消化期间 throughput 会高于 arrivalRate，这部分已经由第二项体现，第一项不使用 throughput，避免重复计算导致过冲。
+ *
+ * 防止振荡的措施：
+ *  1 target 做指数平滑(smoothing)
+ *  2 死区：平滑后的目标与当前corePoolSize相差不到 max(1, deadBand * corePoolSize) 不调整
+ *  3 单次调整步长不超过 max(1, maxStepRatio * corePoolSize)
+ *  4 调整后 cooldownTicks 个周期内只采样不调整
+ *  5 线程数限制在 [minPoolSize, maxPoolSize]
+ *
+ * 调整内容：
+ *  corePoolSize     为上面计算的结果
+ *  maximumPoolSize  为 min(maxPoolSize, 2 * corePoolSize)，有界队列满时留出突发余量
+ *  keepAliveTime    为非核心work的空闲回收时间，缩容后很快又扩容(振荡)时加倍，稳定时逐步减半，
+ *                   范围 [采样周期, 64 * 采样周期]，避免线程反复创建销毁
+ */
+public class PoolSizeController implements Runnable {
+
+    private final ThreadPoolExecutor pool;
+
+    private final int minPoolSize;
+
+    private final int maxPoolSize;
+
+    /** 目标利用率，留出余量应对突发 **/
+    private volatile double targetUtilization = 0.8;
+
+    /** 指数平滑系数，越大越跟随最新采样 **/
+    private volatile double smoothing = 0.5;
+
+    /** 死区比例 **/
+    private volatile double deadBand = 0.1;
+
+    /** 单次调整最大步长比例 **/
+    private volatile double maxStepRatio = 0.5;
+
+    /** 调整后冷却的采样周期数 **/
+    private volatile int cooldownTicks = 2;
+
+    /** 采样线程，start()后创建 **/
+    private ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> future;
+
+    /** 采样周期(纳秒)，未start()时由相邻两次run()的间隔得出 **/
+    private long periodNanos;
+
+    /** -----------------以下字段只在采样线程中读写----------------- **/
+
+    private ExecutorMetrics.Snapshot last;
+
+    private long lastNanos;
+
+    private double smoothedTarget = -1;
+
+    private int cooldown;
+
+    /** 上一次调整的方向，1扩容 -1缩容 **/
+    private int lastDirection;
+
+    /** 上一次缩容发生在第几个周期 **/
+    private long lastShrinkTick = Long.MIN_VALUE;
+
+    private long ticks;
+
+    /** 最近一次采样结果，供观察 **/
+    private volatile double lastArrivalRate;
+    private volatile double lastThroughput;
+    private volatile double lastServiceNanos;
+    private volatile int lastQueueDepth;
+    private volatile double lastUtilization;
+    private volatile double lastTarget;
+
+    /**
+     * 创建调节器，线程数在 [minPoolSize, maxPoolSize] 之间调整
+     */
+    public PoolSizeController(ThreadPoolExecutor pool, int minPoolSize, int maxPoolSize) {
+        if (pool == null)
+            throw new NullPointerException();
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize)
+            throw new IllegalArgumentException();
+        this.pool = pool;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        pool.setMetricsEnabled(true);
+    }
+
+    /**
+     * 以固定周期启动采样线程(守护线程)
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (future != null)
+            throw new IllegalStateException("already started");
+        periodNanos = unit.toNanos(period);
+        if (periodNanos <= 0)
+            throw new IllegalArgumentException();
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pool-size-controller");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        future = scheduler.scheduleAtFixedRate(this, period, period, unit);
+    }
+
+    /**
+     * 停止采样，线程池保持当前大小
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            scheduler.shutdown();
+            future = null;
+            scheduler = null;
+        }
+    }
+
+    /**
+     * 一次采样和调整，由采样线程周期调用，也可以由调用方自行周期调用
+     */
+    public void run() {
+        ExecutorMetrics.Snapshot now = pool.getMetrics();
+        long nanos = System.nanoTime();
+        if (now == null) {
+            /** 运行指标被关闭，重新开启并从头采样 **/
+            pool.setMetricsEnabled(true);
+            last = null;
+            return;
+        }
+        ExecutorMetrics.Snapshot prev = last;
+        long prevNanos = lastNanos;
+        last = now;
+        lastNanos = nanos;
+        if (prev == null || nanos - prevNanos <= 0)
+            return;
+        tick(prev, now, nanos - prevNanos, pool.getQueue().size());
+    }
+
+    /**
+     * 根据两次快照之间的变化计算本周期的统计数据并调整
+     */
+    void tick(ExecutorMetrics.Snapshot prev, ExecutorMetrics.Snapshot now, long elapsedNanos, int queueDepth) {
+        long submitted = now.getSubmittedTasks() - prev.getSubmittedTasks();
+        long completed = now.getCompletedTasks() - prev.getCompletedTasks();
+        LatencyHistogram.Snapshot e0 = prev.getExecution(), e1 = now.getExecution();
+        long executed = e1.getCount() - e0.getCount();
+        double busyNanos = e1.getMean() * e1.getCount() - e0.getMean() * e0.getCount();
+        sample(submitted, completed, executed, busyNanos, elapsedNanos, queueDepth);
+    }
+
+    /**
+     * 输入一个采样周期的统计数据，计算目标线程数并调整
+     * run()由相邻两次指标快照的差值得出这些数据，调用方也可以自行提供(例如回放采集到的指标)，
+     * 不能与start()启动的采样线程同时调用
+     *
+     * @param submitted    本周期提交的任务数
+     * @param completed    本周期完成的任务数
+     * @param executed     本周期统计了执行时间的任务数
+     * @param busyNanos    本周期任务执行总时长
+     * @param elapsedNanos 周期时长
+     * @param queueDepth   周期结束时workQueue中排队的任务数
+     */
+    public void sample(long submitted, long completed, long executed, double busyNanos,
+                       long elapsedNanos, int queueDepth) {
+        if (elapsedNanos <= 0)
+            throw new IllegalArgumentException();
+        if (periodNanos <= 0)
+            periodNanos = elapsedNanos;
+        ticks++;
+        double seconds = elapsedNanos / 1e9;
+        double serviceNanos = executed > 0 ? busyNanos / executed : lastServiceNanos;
+        int core = pool.getCorePoolSize();
+
+        double arrivalRate = submitted / seconds;
+        double throughput = completed / seconds;
+        double utilization = Math.min(1.0, busyNanos / ((double) Math.max(core, 1) * elapsedNanos));
+        double concurrency = arrivalRate * serviceNanos / 1e9;
+        double backlog = queueDepth * serviceNanos / elapsedNanos;
+        double target = (concurrency + backlog) / targetUtilization;
+
+        lastArrivalRate = arrivalRate;
+        lastThroughput = throughput;
+        lastServiceNanos = serviceNanos;
+        lastQueueDepth = queueDepth;
+        lastUtilization = utilization;
+
+        double a = smoothing;
+        smoothedTarget = smoothedTarget < 0 ? target : a * target + (1 - a) * smoothedTarget;
+        lastTarget = smoothedTarget;
+
+        if (cooldown > 0) {
+            cooldown--;
+            return;
+        }
+        int desired = clamp((int) Math.ceil(smoothedTarget));
+        int diff = desired - core;
+        if (Math.abs(diff) < Math.max(1.0, deadBand * core))
+            return;
+        int maxStep = Math.max(1, (int) (maxStepRatio * core));
+        if (diff > maxStep)
+            diff = maxStep;
+        else if (diff < -maxStep)
+            diff = -maxStep;
+        resize(clamp(core + diff), diff > 0 ? 1 : -1);
+    }
+
+    /**
+     * 调整corePoolSize、maximumPoolSize、keepAliveTime
+     */
+    private void resize(int newCore, int direction) {
+        int oldCore = pool.getCorePoolSize();
+        if (newCore == oldCore)
+            return;
+        int newMax = Math.min(maxPoolSize, 2 * newCore);
+        if (newCore > oldCore) {
+            /** 扩容先放大maximumPoolSize，保证 corePoolSize <= maximumPoolSize **/
+            if (newMax > pool.getMaximumPoolSize())
+                pool.setMaximumPoolSize(newMax);
+            pool.setCorePoolSize(newCore);
+            if (newMax < pool.getMaximumPoolSize())
+                pool.setMaximumPoolSize(newMax);
+        } else {
+            pool.setCorePoolSize(newCore);
+            pool.setMaximumPoolSize(newMax);
+        }
+        adjustKeepAlive(direction);
+        lastDirection = direction;
+        cooldown = cooldownTicks;
+    }
+
+    /**
+     * 缩容后 4 * cooldownTicks 个周期内又扩容，认为在振荡，keepAliveTime加倍让线程留得更久；
+     * 否则逐步减半，尽快回收非核心线程
+     */
+    private void adjustKeepAlive(int direction) {
+        long period = periodNanos;
+        if (period <= 0)
+            return;
+        long keepAlive = pool.getKeepAliveTime(TimeUnit.NANOSECONDS);
+        boolean oscillating = direction > 0 && lastDirection < 0 &&
+                ticks - lastShrinkTick <= 4L * Math.max(1, cooldownTicks);
+        if (direction < 0)
+            lastShrinkTick = ticks;
+        long next = oscillating ? keepAlive * 2 : keepAlive / 2;
+        next = Math.max(period, Math.min(64 * period, next));
+        if (next != keepAlive)
+            pool.setKeepAliveTime(next, TimeUnit.NANOSECONDS);
+    }
+
+    private int clamp(int n) {
+        return Math.max(minPoolSize, Math.min(maxPoolSize, n));
+    }
+
+    public void setTargetUtilization(double targetUtilization) {
+        if (!(targetUtilization > 0 && targetUtilization <= 1))
+            throw new IllegalArgumentException();
+        this.targetUtilization = targetUtilization;
+    }
+
+    public void setSmoothing(double smoothing) {
+        if (!(smoothing > 0 && smoothing <= 1))
+            throw new IllegalArgumentException();
+        this.smoothing = smoothing;
+    }
+
+    public void setDeadBand(double deadBand) {
+        if (!(deadBand >= 0 && deadBand < 1))
+            throw new IllegalArgumentException();
+        this.deadBand = deadBand;
+    }
+
+    public void setMaxStepRatio(double maxStepRatio) {
+        if (!(maxStepRatio > 0))
+            throw new IllegalArgumentException();
+        this.maxStepRatio = maxStepRatio;
+    }
+
+    public void setCooldownTicks(int cooldownTicks) {
+        if (cooldownTicks < 0)
+            throw new IllegalArgumentException();
+        this.cooldownTicks = cooldownTicks;
+    }
+
+    public double getLastArrivalRate() {
+        return lastArrivalRate;
+    }
+
+    public double getLastThroughput() {
+        return lastThroughput;
+    }
+
+    public double getLastUtilization() {
+        return lastUtilization;
+    }
+
+    public double getLastTarget() {
+        return lastTarget;
+    }
+
+    public String toString() {
+        return super.toString() +
+            "[core=" + pool.getCorePoolSize() +
+            ", max=" + pool.getMaximumPoolSize() +
+            ", keepAliveMs=" + pool.getKeepAliveTime(TimeUnit.MILLISECONDS) +
+            ", arrivalRate=" + (long) lastArrivalRate +
+            ", throughput=" + (long) lastThroughput +
+            ", serviceUs=" + (long) (lastServiceNanos / 1000) +
+            ", queueDepth=" + lastQueueDepth +
+            ", utilization=" + String.format("%.2f", lastUtilization) +
+            ", target=" + String.format("%.1f", lastTarget) + "]";
+    }
+}
@@ -0,0 +1,113 @@
+package sourcecode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带优先级通道(lane)和截止时间(deadline)的任务
+ *
+ * lane 越小优先级越高，由 PriorityTaskQueue 按通道权重调度；
+ * deadline 为任务最晚开始执行的时间，work取出任务时已经过期的任务不再执行，交给线程池 reject()。
+ *
+ * 通道内按 key 从小到大执行(最早截止优先，EDF)：
+ *  有截止时间的任务 key = deadline
+ *  没有截止时间的任务 key = 提交时间，相当于"提交时就应该执行"，按提交顺序执行，不会被后来的任务饿死
+ * key 相同时按入队顺序执行
+ */
+public class PrioritizedTask implements Runnable {
+
+    private final Runnable task;
+
+    private final int lane;
+
+    private final long submitNanos;
+
+    /** 截止时间(System.nanoTime())，hasDeadline为false时无意义 **/
+    private final long deadlineNanos;
+
+    private final boolean hasDeadline;
+
+    /**
+     * 创建没有截止时间的任务
+     */
+    public PrioritizedTask(Runnable task, int lane) {
+        if (task == null)
+            throw new NullPointerException();
+        if (lane < 0)
+            throw new IllegalArgumentException();
+        this.task = task;
+        this.lane = lane;
+        this.submitNanos = System.nanoTime();
+        this.deadlineNanos = 0L;
+        this.hasDeadline = false;
+    }
+
+    /**
+     * 创建截止时间为 现在 + timeout 的任务
+     */
+    public PrioritizedTask(Runnable task, int lane, long timeout, TimeUnit unit) {
+        if (task == null || unit == null)
+            throw new NullPointerException();
+        if (lane < 0)
+            throw new IllegalArgumentException();
+        this.task = task;
+        this.lane = lane;
+        this.submitNanos = System.nanoTime();
+        this.deadlineNanos = submitNanos + unit.toNanos(timeout);
+        this.hasDeadline = true;
+    }
+
+    public void run() {
+        task.run();
+    }
+
+    /**
+     * 返回包装的原始任务
+     */
+    public Runnable getTask() {
+        return task;
+    }
+
+    public int getLane() {
+        return lane;
+    }
+
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * 距离截止时间的剩余时间，没有截止时间返回Long.MAX_VALUE
+     */
+    public long getDelay(TimeUnit unit) {
+        if (!hasDeadline)
+            return Long.MAX_VALUE;
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 是否已经超过截止时间
+     */
+    public boolean isExpired() {
+        return hasDeadline && deadlineNanos - System.nanoTime() < 0;
+    }
+
+    /**
+     * r 是否为已经过期的 PrioritizedTask
+     */
+    static boolean isExpired(Runnable r) {
+        return r instanceof PrioritizedTask && ((PrioritizedTask) r).isExpired();
+    }
+
+    /**
+     * 通道内排序的key
+     */
+    long key() {
+        return hasDeadline ? deadlineNanos : submitNanos;
+    }
+
+    public String toString() {
+        return super.toString() + "[lane=" + lane +
+            (hasDeadline ? ", delayMs=" + getDelay(TimeUnit.MILLISECONDS) : "") +
+            ", task=" + task + "]";
+    }
+}
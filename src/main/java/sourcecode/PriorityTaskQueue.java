@@ -0,0 +1,498 @@
+package sourcecode;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多通道优先级任务队列，作为 ThreadPoolExecutor 的 workQueue 使用
+ *
+ * 队列由若干通道(lane)组成，通道0优先级最高：
+ *  1 PrioritizedTask 进入 getLane() 对应的通道(超出通道数量时进入最后一个通道)，
+ *    其他任务进入 defaultLane
+ *  2 通道内按截止时间最早优先(EDF)出队，没有截止时间的任务按提交时间排序，见 PrioritizedTask
+ *  3 通道之间按权重做平滑加权轮询(smooth weighted round-robin)：
+ *    多个通道都有任务时，通道i出队的比例为 weights[i] / 非空通道权重之和，
+ *    高优先级通道持续积压时低优先级通道仍然能按比例执行，不会被饿死；
+ *    只有一个通道有任务时直接从该通道出队
+ *  4 每个通道容量为 laneCapacity，通道满时offer()返回false，线程池走创建非核心work或reject()流程
+ *
+ * 过期任务在出队时不做处理，由线程池在执行前丢弃(见 ThreadPoolExecutor.runTask)，
+ * 因为EDF排序下过期任务总是在通道头部，会被尽快取出丢弃。
+ *
+ * 所有操作使用一把锁，与 ArrayBlockingQueue 相同
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable>
+        implements BlockingQueue<Runnable> {
+
+    /**
+     * 通道中的节点
+     */
+    static final class Node {
+        final Runnable item;
+        final long key;
+        final long seq;
+
+        Node(Runnable item, long key, long seq) {
+            this.item = item;
+            this.key = key;
+            this.seq = seq;
+        }
+    }
+
+    /** 通道内排序：key小的优先，nanoTime可能溢出，用差值比较；key相同按入队顺序 **/
+    private static final Comparator<Node> ORDER = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            long d = a.key - b.key;
+            if (d != 0)
+                return d < 0 ? -1 : 1;
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    private final PriorityQueue<Node>[] lanes;
+
+    private final int[] weights;
+
+    /** 平滑加权轮询的当前权重 **/
+    private final int[] current;
+
+    private final int laneCapacity;
+
+    private final int defaultLane;
+
+    /** 所有通道的元素总数 **/
+    private int count;
+
+    /** 入队序号 **/
+    private long seq;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /** 任意通道有空位，通道各自满，所以用signalAll唤醒 **/
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * 创建两个通道的队列：通道0(交互任务)权重8，通道1(批量任务)权重1，
+     * 普通任务进入通道1，容量不限
+     */
+    public PriorityTaskQueue() {
+        this(new int[] {8, 1}, Integer.MAX_VALUE, 1);
+    }
+
+    /**
+     * 创建队列
+     * @param weights 每个通道的权重，数组长度为通道数量
+     * @param laneCapacity 每个通道的容量
+     * @param defaultLane 不是 PrioritizedTask 的任务进入的通道
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityTaskQueue(int[] weights, int laneCapacity, int defaultLane) {
+        if (weights == null)
+            throw new NullPointerException();
+        if (weights.length == 0 || laneCapacity <= 0 ||
+                defaultLane < 0 || defaultLane >= weights.length)
+            throw new IllegalArgumentException();
+        for (int w : weights)
+            if (w <= 0)
+                throw new IllegalArgumentException();
+        this.weights = weights.clone();
+        this.current = new int[weights.length];
+        this.laneCapacity = laneCapacity;
+        this.defaultLane = defaultLane;
+        this.lanes = (PriorityQueue<Node>[]) new PriorityQueue<?>[weights.length];
+        for (int i = 0; i < lanes.length; i++)
+            lanes[i] = new PriorityQueue<Node>(16, ORDER);
+    }
+
+    /**
+     * 通道数量
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * 任务所在的通道，开启运行指标时任务被包装为QueuedTask，按原始任务计算
+     */
+    int laneOf(Runnable r) {
+        Runnable task = ThreadPoolExecutor.unwrap(r);
+        if (task instanceof PrioritizedTask)
+            return Math.min(((PrioritizedTask) task).getLane(), lanes.length - 1);
+        return defaultLane;
+    }
+
+    private Node newNode(Runnable r) {
+        Runnable task = ThreadPoolExecutor.unwrap(r);
+        long key = (task instanceof PrioritizedTask) ?
+                ((PrioritizedTask) task).key() : System.nanoTime();
+        return new Node(r, key, seq++);
+    }
+
+    /**
+     * 入队，调用前已加锁且通道未满
+     */
+    private void enqueue(int lane, Runnable r) {
+        lanes[lane].add(newNode(r));
+        count++;
+        notEmpty.signal();
+    }
+
+    /**
+     * 按平滑加权轮询选择出队的通道，commit为false时只计算不修改当前权重(用于peek)
+     * 所有通道为空返回-1
+     */
+    private int selectLane(boolean commit) {
+        int best = -1, bestWeight = 0, total = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].isEmpty())
+                continue;
+            int w = current[i] + weights[i];
+            total += weights[i];
+            if (best < 0 || w > bestWeight) {
+                best = i;
+                bestWeight = w;
+            }
+            if (commit)
+                current[i] = w;
+        }
+        if (commit && best >= 0)
+            current[best] -= total;
+        return best;
+    }
+
+    /**
+     * 出队，调用前已加锁且队列不为空
+     */
+    private Runnable dequeue() {
+        int lane = selectLane(true);
+        Node n = lanes[lane].poll();
+        /** 通道为空时清除累积的权重，下次有任务时从头开始轮询 **/
+        if (lanes[lane].isEmpty())
+            current[lane] = 0;
+        count--;
+        signalNotFull();
+        return n.item;
+    }
+
+    /**
+     * 唤醒等待通道空位的put/offer，容量不限时不会有等待的线程
+     */
+    private void signalNotFull() {
+        if (laneCapacity != Integer.MAX_VALUE)
+            notFull.signalAll();
+    }
+
+    public boolean offer(Runnable r) {
+        if (r == null)
+            throw new NullPointerException();
+        int lane = laneOf(r);
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (lanes[lane].size() >= laneCapacity)
+                return false;
+            enqueue(lane, r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(Runnable r) throws InterruptedException {
+        if (r == null)
+            throw new NullPointerException();
+        int lane = laneOf(r);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (lanes[lane].size() >= laneCapacity)
+                notFull.await();
+            enqueue(lane, r);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        if (r == null)
+            throw new NullPointerException();
+        int lane = laneOf(r);
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (lanes[lane].size() >= laneCapacity) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(lane, r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable poll() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return (count == 0) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable take() throws InterruptedException {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0)
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回下一个会被poll()取出的任务
+     */
+    public Runnable peek() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int lane = selectLane(false);
+            return lane < 0 ? null : lanes[lane].peek().item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出r将要进入的通道的头部任务，DiscardOldestPolicy 用它为r腾出位置。
+     * 通道容量互相独立，丢弃其他通道的任务无法让r入队，所以不使用poll()
+     */
+    public Runnable pollOldest(Runnable r) {
+        int lane = laneOf(r);
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Node n = lanes[lane].poll();
+            if (n == null)
+                return null;
+            if (lanes[lane].isEmpty())
+                current[lane] = 0;
+            count--;
+            signalNotFull();
+            return n.item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 通道中的任务数量
+     */
+    public int size(int lane) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            return lanes[lane].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 所有通道剩余容量之和，容量不限时返回Integer.MAX_VALUE
+     */
+    public int remainingCapacity() {
+        if (laneCapacity == Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long n = (long) laneCapacity * lanes.length - count;
+            return (int) Math.min(n, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Object o) {
+        return o != null && removeNode(o, false);
+    }
+
+    public boolean contains(Object o) {
+        if (o == null)
+            return false;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (PriorityQueue<Node> q : lanes)
+                for (Node n : q)
+                    if (o.equals(n.item))
+                        return true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i].clear();
+                current[i] = 0;
+            }
+            count = 0;
+            signalNotFull();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 按出队顺序取出最多maxElements个任务
+     */
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Object[] toArray() {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            Object[] a = new Object[count];
+            int k = 0;
+            for (PriorityQueue<Node> q : lanes)
+                for (Node n : q)
+                    a[k++] = n.item;
+            return a;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 弱一致迭代器，遍历创建时的快照(按通道顺序，通道内不保证出队顺序)，
+     * remove()从队列中删除对应任务
+     */
+    public Iterator<Runnable> iterator() {
+        return new Itr(toArray());
+    }
+
+    private class Itr implements Iterator<Runnable> {
+        final Object[] array;
+        int cursor;
+        int lastRet = -1;
+
+        Itr(Object[] array) {
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        public Runnable next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            lastRet = cursor;
+            return (Runnable) array[cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            removeNode(array[lastRet], true);
+            lastRet = -1;
+        }
+    }
+
+    /**
+     * 删除第一个等于o的任务，identity为true时按引用比较(迭代器删除快照中的元素)
+     */
+    private boolean removeNode(Object o, boolean identity) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            for (int i = 0; i < lanes.length; i++) {
+                for (Iterator<Node> it = lanes[i].iterator(); it.hasNext(); ) {
+                    Runnable item = it.next().item;
+                    if (identity ? item == o : o.equals(item)) {
+                        it.remove();
+                        if (lanes[i].isEmpty())
+                            current[i] = 0;
+                        count--;
+                        signalNotFull();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
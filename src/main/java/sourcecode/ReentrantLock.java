@@ -37,7 +37,6 @@ package sourcecode;
 
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
@@ -166,9 +165,10 @@ public class ReentrantLock implements Lock, java.io.Serializable {
          */
         final void lock() {
             /** 使用CAS 将同步状态设置为1，成功则将当前线程设置为exclusiveOwnerThread**/
-            if (compareAndSetState(0, 1))
+            if (compareAndSetState(0, 1)) {
                 setExclusiveOwnerThread(Thread.currentThread());
-            else
+                recordFastPathAcquire();
+            } else
                 /** 调用AQS 获取锁 **/
                 acquire(1);
         }
@@ -234,6 +234,15 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         sync = fair ? new FairSync() : new NonfairSync();
     }
 
+    /**
+     * 实例化一个ReentrantLock，设置是否为公平锁，以及是否开启自适应自旋
+     * 开启后等待锁的线程阻塞前先自旋重试，适合临界区很短的锁
+     */
+    public ReentrantLock(boolean fair, boolean adaptiveSpin) {
+        this(fair);
+        sync.setAdaptiveSpin(adaptiveSpin);
+    }
+
     /**
      * 获取锁，失败则进入同步队列，并阻塞
      */
@@ -374,6 +383,21 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         return sync.getWaitingThreads((AbstractQueuedSynchronizer.ConditionObject)condition);
     }
 
+    /**
+     * 开启/关闭锁的运行指标统计(默认关闭)
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        sync.setMetricsEnabled(enabled);
+    }
+
+    /**
+     * 返回锁的运行指标快照，未开启返回null
+     */
+    public SynchronizerMetrics.Snapshot getMetrics() {
+        SynchronizerMetrics m = sync.getMetrics();
+        return m == null ? null : m.snapshot();
+    }
+
     /**
      *
      */
@@ -0,0 +1,1067 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+/*
+ *
+ *
+ *
+ *
+ *
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package sourcecode;
+
+import sun.misc.Unsafe;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+
+
+/**
+ * 可重入读写锁
+ *
+ * 同步状态state拆成两部分：高16位表示读锁持有数量，低16位表示写锁重入次数
+ * 写锁是独占锁(acquire/release)，读锁是共享锁(acquireShared/releaseShared)
+ * 持有写锁的线程可以再获取读锁(锁降级)，持有读锁的线程获取写锁会死锁(不支持锁升级)
+ *
+ * 分段读模式(readerStriped)：
+ * 普通模式下每次获取/释放读锁都要CAS同一个state，读多写少时所有读线程竞争同一个缓存行。
+ * 分段读模式下读线程按线程id哈希到不同的计数单元(ReaderStripe)上累加，互不干扰；
+ * 写线程先获取state上的写锁，使新的读线程退回到同步队列排队，再等待所有计数单元清零后才返回，
+ * tryLock(timeout)/lockInterruptibly的等待同样受超时和中断约束，失败时释放已经获取的写锁。
+ * 读线程先累加计数单元再检查写锁，写线程先设置写锁再检查计数单元，两边都是volatile读写，
+ * 因此不会出现读写同时进入临界区的情况。
+ * 分段读模式让写锁的获取变慢(需要扫描所有计数单元并等待读线程退出)，只适合读远多于写的场景。
+ */
+public class ReentrantReadWriteLock implements ReadWriteLock, java.io.Serializable {
+    private static final long serialVersionUID = -6992448646407690164L;
+
+    private final ReentrantReadWriteLock.ReadLock readerLock;
+
+    private final ReentrantReadWriteLock.WriteLock writerLock;
+
+    final Sync sync;
+
+    /**
+     * 实例化ReentrantReadWriteLock 默认非公平的锁
+     */
+    public ReentrantReadWriteLock() {
+        this(false);
+    }
+
+    /**
+     * 实例化一个ReentrantReadWriteLock，设置是否为公平锁
+     */
+    public ReentrantReadWriteLock(boolean fair) {
+        this(fair, false);
+    }
+
+    /**
+     * 实例化一个ReentrantReadWriteLock，设置是否为公平锁，以及是否开启分段读模式
+     */
+    public ReentrantReadWriteLock(boolean fair, boolean readerStriped) {
+        sync = fair ? new FairSync(readerStriped) : new NonfairSync(readerStriped);
+        readerLock = new ReadLock(this);
+        writerLock = new WriteLock(this);
+    }
+
+    public ReentrantReadWriteLock.WriteLock writeLock() { return writerLock; }
+    public ReentrantReadWriteLock.ReadLock  readLock()  { return readerLock; }
+
+    /**
+     * Sync 继承 AbstractQueuedSynchronizer 抽象类
+     */
+    abstract static class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 6317671515068378041L;
+
+        /** 高16位为读锁数量，低16位为写锁重入次数 **/
+        static final int SHARED_SHIFT   = 16;
+        static final int SHARED_UNIT    = (1 << SHARED_SHIFT);
+        static final int MAX_COUNT      = (1 << SHARED_SHIFT) - 1;
+        static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+        /** 读锁数量 **/
+        static int sharedCount(int c)    { return c >>> SHARED_SHIFT; }
+        /** 写锁重入次数 **/
+        static int exclusiveCount(int c) { return c & EXCLUSIVE_MASK; }
+
+        /**
+         * 每个线程持有读锁的次数，使用线程id而不是Thread引用，避免ThreadLocal之外还持有线程对象
+         */
+        static final class HoldCounter {
+            int count = 0;
+            final long tid = getThreadId(Thread.currentThread());
+        }
+
+        /**
+         * 同一个包下的sourcecode.ThreadLocal只是源码注释副本，这里必须使用java.lang.ThreadLocal
+         */
+        static final class ThreadLocalHoldCounter
+            extends java.lang.ThreadLocal<HoldCounter> {
+            public HoldCounter initialValue() {
+                return new HoldCounter();
+            }
+        }
+
+        /**
+         * 当前线程持有读锁的次数，读锁释放到0时删除
+         */
+        private transient ThreadLocalHoldCounter readHolds;
+
+        /**
+         * 最后一个成功获取读锁线程的HoldCounter，通常下一个释放读锁的就是它，可以省掉一次ThreadLocal查找
+         */
+        private transient HoldCounter cachedHoldCounter;
+
+        /**
+         * 第一个获取读锁的线程及其持有次数，没有竞争时完全不需要ThreadLocal
+         */
+        private transient Thread firstReader = null;
+        private transient int firstReaderHoldCount;
+
+        /** 是否开启分段读模式 **/
+        private final boolean readerStriped;
+
+        /** 分段读模式下的读计数单元，普通模式为null **/
+        private transient ReaderStripes stripes;
+
+        Sync(boolean readerStriped) {
+            this.readerStriped = readerStriped;
+            readHolds = new ThreadLocalHoldCounter();
+            if (readerStriped)
+                stripes = new ReaderStripes();
+            setState(getState()); // ensures visibility of readHolds
+        }
+
+        /**
+         * 获取读锁时是否应该阻塞(排队)，公平锁与非公平锁的区别
+         */
+        abstract boolean readerShouldBlock();
+
+        /**
+         * 获取写锁时是否应该阻塞(排队)，公平锁与非公平锁的区别
+         */
+        abstract boolean writerShouldBlock();
+
+        /**
+         * 释放写锁，写锁重入次数为0时返回true
+         * Condition.await时会一次性释放全部重入次数
+         */
+        protected final boolean tryRelease(int releases) {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            int nextc = getState() - releases;
+            boolean free = exclusiveCount(nextc) == 0;
+            if (free)
+                setExclusiveOwnerThread(null);
+            setState(nextc);
+            return free;
+        }
+
+        /**
+         * 获取写锁
+         * 1 存在读锁，或存在其他线程持有的写锁，失败
+         * 2 当前线程持有写锁，重入
+         * 3 锁空闲时按公平策略判断是否需要排队，不需要则CAS设置state
+         * 分段读模式下设置state成功后还要等待分段计数单元上的读线程全部退出，
+         * 当前线程设置了deferDrain时由调用方(tryAcquireWrite)负责等待
+         */
+        protected final boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            int w = exclusiveCount(c);
+            if (c != 0) {
+                /** c != 0 且 w == 0 说明存在读锁 **/
+                if (w == 0 || current != getExclusiveOwnerThread())
+                    return false;
+                if (w + exclusiveCount(acquires) > MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                setState(c + acquires);
+                return true;
+            }
+            if (writerShouldBlock() ||
+                !compareAndSetState(c, c + acquires))
+                return false;
+            setExclusiveOwnerThread(current);
+            /** 此时新的读线程已经看到写锁而排队，只需等待已经进入的读线程退出 **/
+            if (stripes != null && !stripes.hold().deferDrain)
+                stripes.awaitDrained();
+            return true;
+        }
+
+        /**
+         * 分段读模式下可中断/可超时地获取写锁
+         * 先在state上获取写锁(此时不等待计数单元)，再在剩余时间内等待计数单元上的读线程退出，
+         * 超时或被中断时释放刚获取的写锁，唤醒期间排队的读线程
+         *
+         * @param timed 是否超时等待，false时一直等待直到成功或者被中断
+         */
+        final boolean tryAcquireWrite(boolean timed, long nanos) throws InterruptedException {
+            final long deadline = timed ? System.nanoTime() + nanos : 0L;
+            ReaderStripes.Hold h = stripes.hold();
+            boolean acquired;
+            h.deferDrain = true;
+            try {
+                if (timed)
+                    acquired = tryAcquireNanos(1, nanos);
+                else {
+                    acquireInterruptibly(1);
+                    acquired = true;
+                }
+            } finally {
+                h.deferDrain = false;
+            }
+            if (!acquired)
+                return false;
+            boolean drained = false;
+            try {
+                drained = stripes.awaitDrained(timed, deadline);
+            } finally {
+                if (!drained)
+                    release(1);
+            }
+            return drained;
+        }
+
+        /**
+         * 释放读锁，读锁数量为0时返回true，唤醒同步队列中等待写锁的线程
+         */
+        protected final boolean tryReleaseShared(int unused) {
+            Thread current = Thread.currentThread();
+            if (firstReader == current) {
+                if (firstReaderHoldCount == 1)
+                    firstReader = null;
+                else
+                    firstReaderHoldCount--;
+            } else {
+                HoldCounter rh = cachedHoldCounter;
+                if (rh == null || rh.tid != getThreadId(current))
+                    rh = readHolds.get();
+                int count = rh.count;
+                if (count <= 1) {
+                    readHolds.remove();
+                    if (count <= 0)
+                        throw unmatchedUnlockException();
+                }
+                --rh.count;
+            }
+            for (;;) {
+                int c = getState();
+                int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc))
+                    return nextc == 0;
+            }
+        }
+
+        private IllegalMonitorStateException unmatchedUnlockException() {
+            return new IllegalMonitorStateException(
+                "attempt to unlock read lock, not locked by current thread");
+        }
+
+        /**
+         * 获取读锁
+         * 1 其他线程持有写锁，失败
+         * 2 按公平策略判断是否需要排队，不需要则CAS累加读锁数量，并记录当前线程持有次数
+         * 3 2失败(需要排队/CAS失败/数量溢出)时进入fullTryAcquireShared循环重试，
+         *   重入的读锁即使需要排队也不能阻塞，否则会和等待中的写锁死锁
+         */
+        protected final int tryAcquireShared(int unused) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (exclusiveCount(c) != 0 &&
+                getExclusiveOwnerThread() != current)
+                return -1;
+            int r = sharedCount(c);
+            if (!readerShouldBlock() &&
+                r < MAX_COUNT &&
+                compareAndSetState(c, c + SHARED_UNIT)) {
+                if (r == 0) {
+                    firstReader = current;
+                    firstReaderHoldCount = 1;
+                } else if (firstReader == current) {
+                    firstReaderHoldCount++;
+                } else {
+                    HoldCounter rh = cachedHoldCounter;
+                    if (rh == null || rh.tid != getThreadId(current))
+                        cachedHoldCounter = rh = readHolds.get();
+                    else if (rh.count == 0)
+                        readHolds.set(rh);
+                    rh.count++;
+                }
+                return 1;
+            }
+            return fullTryAcquireShared(current);
+        }
+
+        /**
+         * 获取读锁的完整版本，处理CAS失败和重入读锁
+         */
+        final int fullTryAcquireShared(Thread current) {
+            HoldCounter rh = null;
+            for (;;) {
+                int c = getState();
+                if (exclusiveCount(c) != 0) {
+                    if (getExclusiveOwnerThread() != current)
+                        return -1;
+                } else if (readerShouldBlock()) {
+                    /** 需要排队，只有重入的读锁可以继续获取 **/
+                    if (firstReader == current) {
+                    } else {
+                        if (rh == null) {
+                            rh = cachedHoldCounter;
+                            if (rh == null || rh.tid != getThreadId(current)) {
+                                rh = readHolds.get();
+                                if (rh.count == 0)
+                                    readHolds.remove();
+                            }
+                        }
+                        if (rh.count == 0)
+                            return -1;
+                    }
+                }
+                if (sharedCount(c) == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (sharedCount(c) == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        if (rh == null)
+                            rh = cachedHoldCounter;
+                        if (rh == null || rh.tid != getThreadId(current))
+                            rh = readHolds.get();
+                        else if (rh.count == 0)
+                            readHolds.set(rh);
+                        rh.count++;
+                        cachedHoldCounter = rh; // cache for release
+                    }
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * 尝试获取写锁，不考虑公平策略，也不等待分段读线程退出
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c != 0) {
+                int w = exclusiveCount(c);
+                if (w == 0 || current != getExclusiveOwnerThread())
+                    return false;
+                if (w == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+            }
+            if (!compareAndSetState(c, c + 1))
+                return false;
+            setExclusiveOwnerThread(current);
+            return true;
+        }
+
+        /**
+         * 尝试获取读锁，不考虑公平策略
+         */
+        final boolean tryReadLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                int c = getState();
+                if (exclusiveCount(c) != 0 &&
+                    getExclusiveOwnerThread() != current)
+                    return false;
+                int r = sharedCount(c);
+                if (r == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (r == 0) {
+                        firstReader = current;
+                        firstReaderHoldCount = 1;
+                    } else if (firstReader == current) {
+                        firstReaderHoldCount++;
+                    } else {
+                        HoldCounter rh = cachedHoldCounter;
+                        if (rh == null || rh.tid != getThreadId(current))
+                            cachedHoldCounter = rh = readHolds.get();
+                        else if (rh.count == 0)
+                            readHolds.set(rh);
+                        rh.count++;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 分段读模式下获取读锁，成功返回true，返回false时需要走state上的读锁
+         * 当前线程已经在计数单元上持有读锁时直接重入，不再访问计数单元；
+         * 否则只有没有写锁、且按公平策略不需要排队时才累加计数单元，累加后再次检查写锁，
+         * 发现写锁则撤销累加退回到state，由同步队列负责阻塞和唤醒
+         */
+        final boolean tryStripedReadLock() {
+            ReaderStripes.Hold h = stripes.hold();
+            if (h.count > 0) {
+                h.count++;
+                return true;
+            }
+            if (exclusiveCount(getState()) != 0 || readerShouldBlock())
+                return false;
+            ReaderStripe s = h.stripe;
+            s.add(1L);
+            if (exclusiveCount(getState()) != 0) {
+                s.add(-1L);
+                return false;
+            }
+            h.count = 1;
+            recordFastPathAcquire();
+            return true;
+        }
+
+        /**
+         * 分段读模式下释放读锁，当前线程没有在计数单元上持有读锁时返回false，需要释放state上的读锁
+         */
+        final boolean tryStripedReadUnlock() {
+            ReaderStripes.Hold h = stripes.hold();
+            if (h.count == 0)
+                return false;
+            if (--h.count == 0)
+                h.stripe.add(-1L);
+            return true;
+        }
+
+        /**
+         * 分段计数单元上是否没有读线程
+         */
+        final boolean readersDrained() {
+            return stripes == null || stripes.sum() == 0L;
+        }
+
+        final boolean isReaderStriped() {
+            return stripes != null;
+        }
+
+        /**
+         * 判断当前线程是否获取写锁
+         */
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        /**
+         * 创建一个条件队列(只有写锁支持)
+         */
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        /**
+         * 返回持有写锁的线程
+         */
+        final Thread getOwner() {
+            return ((exclusiveCount(getState()) == 0) ?
+                    null :
+                    getExclusiveOwnerThread());
+        }
+
+        /**
+         * 读锁总数量，分段读模式下包括计数单元上的读锁
+         */
+        final int getReadLockCount() {
+            int r = sharedCount(getState());
+            if (stripes != null)
+                r += (int) stripes.sum();
+            return r;
+        }
+
+        final boolean isWriteLocked() {
+            return exclusiveCount(getState()) != 0;
+        }
+
+        /**
+         * 当前线程写锁的重入次数
+         */
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        /**
+         * 当前线程持有读锁的次数
+         */
+        final int getReadHoldCount() {
+            int striped = stripes == null ? 0 : stripes.hold().count;
+            if (sharedCount(getState()) == 0)
+                return striped;
+            Thread current = Thread.currentThread();
+            if (firstReader == current)
+                return striped + firstReaderHoldCount;
+            HoldCounter rh = cachedHoldCounter;
+            if (rh != null && rh.tid == getThreadId(current))
+                return striped + rh.count;
+            int count = readHolds.get().count;
+            if (count == 0) readHolds.remove();
+            return striped + count;
+        }
+
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            readHolds = new ThreadLocalHoldCounter();
+            if (readerStriped)
+                stripes = new ReaderStripes();
+            setState(0); // reset to unlocked state
+        }
+
+        final int getCount() { return getState(); }
+    }
+
+    /**
+     * NonfairSync（非公平锁） 继承 Sync 抽象类。
+     */
+    static final class NonfairSync extends Sync {
+        private static final long serialVersionUID = -8159625535654395037L;
+
+        NonfairSync(boolean readerStriped) {
+            super(readerStriped);
+        }
+
+        /**
+         * 写锁总是可以插队
+         */
+        final boolean writerShouldBlock() {
+            return false;
+        }
+
+        /**
+         * 同步队列第一个等待的线程是写线程时，新的读线程排队，避免写线程饥饿
+         */
+        final boolean readerShouldBlock() {
+            return apparentlyFirstQueuedIsExclusive();
+        }
+    }
+
+    /**
+     * FairSync（公平锁） 继承 Sync 抽象类。
+     */
+    static final class FairSync extends Sync {
+        private static final long serialVersionUID = -2274990926593161451L;
+
+        FairSync(boolean readerStriped) {
+            super(readerStriped);
+        }
+
+        final boolean writerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+
+        final boolean readerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+    }
+
+    /**
+     * 读锁
+     */
+    public static class ReadLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -5992448646407690164L;
+        private final Sync sync;
+
+        protected ReadLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * 获取读锁，存在其他线程持有的写锁时进入同步队列阻塞
+         */
+        public void lock() {
+            if (sync.isReaderStriped() && sync.tryStripedReadLock())
+                return;
+            sync.acquireShared(1);
+        }
+
+        /**
+         * 功能同lock()，阻塞响应中断
+         */
+        public void lockInterruptibly() throws InterruptedException {
+            if (sync.isReaderStriped() && sync.tryStripedReadLock())
+                return;
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        /**
+         * 尝试获取读锁，成功返回true,失败返回false
+         */
+        public boolean tryLock() {
+            if (sync.isReaderStriped() && sync.tryStripedReadLock())
+                return true;
+            return sync.tryReadLock();
+        }
+
+        /**
+         * 功能同lockInterruptibly(),阻塞可以设置超时
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            if (sync.isReaderStriped() && sync.tryStripedReadLock())
+                return true;
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+        }
+
+        /**
+         * 释放读锁，读锁全部释放后唤醒等待写锁的线程
+         */
+        public void unlock() {
+            if (sync.isReaderStriped() && sync.tryStripedReadUnlock())
+                return;
+            sync.releaseShared(1);
+        }
+
+        /**
+         * 读锁不支持条件队列
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            int r = sync.getReadLockCount();
+            return super.toString() +
+                "[Read locks = " + r + "]";
+        }
+    }
+
+    /**
+     * 写锁
+     * 分段读模式下获取写锁后需要等待计数单元上的读线程退出，
+     * lockInterruptibly/tryLock(timeout)的等待响应中断并计入超时时间，lock()的等待不响应中断
+     */
+    public static class WriteLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -4992448646407690164L;
+        private final Sync sync;
+
+        protected WriteLock(ReentrantReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * 获取写锁，存在读锁或其他线程持有的写锁时进入同步队列阻塞
+         */
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        /**
+         * 功能同lock()，阻塞响应中断
+         */
+        public void lockInterruptibly() throws InterruptedException {
+            if (sync.isReaderStriped())
+                sync.tryAcquireWrite(false, 0L);
+            else
+                sync.acquireInterruptibly(1);
+        }
+
+        /**
+         * 尝试获取写锁，成功返回true,失败返回false
+         * 分段读模式下计数单元上还有读线程时释放刚获取的写锁(唤醒期间排队的读线程)并返回false
+         */
+        public boolean tryLock( ) {
+            if (!sync.tryWriteLock())
+                return false;
+            if (sync.readersDrained())
+                return true;
+            sync.release(1);
+            return false;
+        }
+
+        /**
+         * 功能同lockInterruptibly(),阻塞可以设置超时
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            if (sync.isReaderStriped())
+                return sync.tryAcquireWrite(true, unit.toNanos(timeout));
+            return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+        }
+
+        /**
+         * 释放写锁，重入次数为0时唤醒同步队列中等待的线程
+         */
+        public void unlock() {
+            sync.release(1);
+        }
+
+        /**
+         * 获取条件队列
+         */
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        public String toString() {
+            Thread o = sync.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        /**
+         * 判断当前线程是否获取写锁
+         */
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        /**
+         * 获取当前线程写锁的重入次数
+         */
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+    /**
+     * 判断当前对象是否是公平锁
+     */
+    public final boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    /**
+     * 判断是否开启分段读模式
+     */
+    public final boolean isReaderStriped() {
+        return sync.isReaderStriped();
+    }
+
+    /**
+     * 返回持有写锁的线程
+     */
+    protected Thread getOwner() {
+        return sync.getOwner();
+    }
+
+    /**
+     * 获取读锁总数量
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    /**
+     * 判断是否存在写锁
+     */
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    /**
+     * 判断当前线程是否获取写锁
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    /**
+     * 获取当前线程写锁的重入次数
+     */
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    /**
+     * 获取当前线程持有读锁的次数
+     */
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    /**
+     * 获取同步队列中等待写锁的线程集合
+     */
+    protected Collection<Thread> getQueuedWriterThreads() {
+        return sync.getExclusiveQueuedThreads();
+    }
+
+    /**
+     * 获取同步队列中等待读锁的线程集合
+     */
+    protected Collection<Thread> getQueuedReaderThreads() {
+        return sync.getSharedQueuedThreads();
+    }
+
+    /**
+     * 判断同步队列是否初始化
+     */
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * 判断是否有线程在同步队列等待锁
+     */
+    public final boolean hasQueuedThread(Thread thread) {
+        return sync.isQueued(thread);
+    }
+
+    /**
+     * 获取等待锁的线程数量
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * 获取等待锁的线程集合
+     */
+    protected Collection<Thread> getQueuedThreads() {
+        return sync.getQueuedThreads();
+    }
+
+    /**
+     * 获取条件等待队列是否存在等待线程
+     */
+    public boolean hasWaiters(Condition condition) {
+        if (condition == null)
+            throw new NullPointerException();
+        if (!(condition instanceof AbstractQueuedSynchronizer.ConditionObject))
+            throw new IllegalArgumentException("not owner");
+        return sync.hasWaiters((AbstractQueuedSynchronizer.ConditionObject)condition);
+    }
+
+    /**
+     * 获取条件等待队列等待线程数量
+     */
+    public int getWaitQueueLength(Condition condition) {
+        if (condition == null)
+            throw new NullPointerException();
+        if (!(condition instanceof AbstractQueuedSynchronizer.ConditionObject))
+            throw new IllegalArgumentException("not owner");
+        return sync.getWaitQueueLength((AbstractQueuedSynchronizer.ConditionObject)condition);
+    }
+
+    /**
+     * 获取条件等待队列等待线程集合
+     */
+    protected Collection<Thread> getWaitingThreads(Condition condition) {
+        if (condition == null)
+            throw new NullPointerException();
+        if (!(condition instanceof AbstractQueuedSynchronizer.ConditionObject))
+            throw new IllegalArgumentException("not owner");
+        return sync.getWaitingThreads((AbstractQueuedSynchronizer.ConditionObject)condition);
+    }
+
+    /**
+     * 开启/关闭锁的运行指标统计(默认关闭)
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        sync.setMetricsEnabled(enabled);
+    }
+
+    /**
+     * 返回锁的运行指标快照，未开启返回null
+     */
+    public SynchronizerMetrics.Snapshot getMetrics() {
+        SynchronizerMetrics m = sync.getMetrics();
+        return m == null ? null : m.snapshot();
+    }
+
+    public String toString() {
+        int c = sync.getCount();
+        int w = Sync.exclusiveCount(c);
+        int r = sync.getReadLockCount();
+        return super.toString() +
+            "[Write locks = " + w + ", Read locks = " + r + "]";
+    }
+
+    /**
+     * 分段读模式下的读计数单元集合
+     * 单元数量为大于等于CPU核数的2的幂，线程第一次获取读锁时按线程id哈希选定单元，之后不再变化
+     */
+    static final class ReaderStripes {
+
+        /** 写线程等待读线程退出时，先自旋，再让出CPU，最后阻塞(阻塞时间倍增到上限) **/
+        private static final int SPINS = 64;
+        private static final int YIELDS = 16;
+        private static final long MAX_PARK_NANOS = 1000L * 1000L;
+
+        private final ReaderStripe[] stripes;
+
+        /** 当前线程选定的计数单元和在计数单元上持有读锁的次数 **/
+        private final java.lang.ThreadLocal<Hold> holds = new java.lang.ThreadLocal<Hold>() {
+            protected Hold initialValue() {
+                return new Hold(stripeFor(Thread.currentThread()));
+            }
+        };
+
+        ReaderStripes() {
+            int ncpu = Runtime.getRuntime().availableProcessors();
+            int n = 1;
+            while (n < ncpu)
+                n <<= 1;
+            stripes = new ReaderStripe[n];
+            for (int i = 0; i < n; i++)
+                stripes[i] = new ReaderStripe();
+        }
+
+        static final class Hold {
+            final ReaderStripe stripe;
+            int count;
+            /** 当前线程获取写锁时不在tryAcquire中等待计数单元，由tryAcquireWrite按超时/中断等待 **/
+            boolean deferDrain;
+
+            Hold(ReaderStripe stripe) {
+                this.stripe = stripe;
+            }
+        }
+
+        Hold hold() {
+            return holds.get();
+        }
+
+        /**
+         * 线程id乘以黄金分割数取高位，连续的线程id分散到不同单元
+         */
+        private ReaderStripe stripeFor(Thread t) {
+            int h = (int) ((getThreadId(t) * 0x9E3779B97F4A7C15L) >>> 32);
+            return stripes[h & (stripes.length - 1)];
+        }
+
+        /**
+         * 所有计数单元上读锁数量之和
+         */
+        long sum() {
+            long sum = 0L;
+            for (ReaderStripe s : stripes)
+                sum += s.readers;
+            return sum;
+        }
+
+        /**
+         * 等待计数单元上的读线程全部退出
+         */
+        void awaitDrained() {
+            long parkNanos = 1000L;
+            for (int i = 0; sum() != 0L; i++) {
+                if (i < SPINS)
+                    AbstractQueuedSynchronizer.onSpinWait();
+                else if (i < SPINS + YIELDS)
+                    Thread.yield();
+                else {
+                    LockSupport.parkNanos(this, parkNanos);
+                    parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                }
+            }
+        }
+
+        /**
+         * 可中断地等待计数单元上的读线程全部退出，全部退出返回true，超过deadline(System.nanoTime)返回false
+         *
+         * @param timed false时忽略deadline
+         */
+        boolean awaitDrained(boolean timed, long deadline) throws InterruptedException {
+            long parkNanos = 1000L;
+            for (int i = 0; sum() != 0L; i++) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+                if (remaining <= 0L)
+                    return false;
+                if (i < SPINS)
+                    AbstractQueuedSynchronizer.onSpinWait();
+                else if (i < SPINS + YIELDS)
+                    Thread.yield();
+                else {
+                    LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+                    parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 填充readers之前的120字节，父类字段在子类字段之前布局，因此填充不会被字段重排打乱
+     */
+    static class ReaderStripeLhsPadding {
+        long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+    }
+
+    static class ReaderStripeValue extends ReaderStripeLhsPadding {
+        volatile long readers;
+    }
+
+    /**
+     * 读计数单元，readers之后同样填充120字节，保证不同单元不在同一缓存行
+     */
+    static final class ReaderStripe extends ReaderStripeValue {
+        long q01, q02, q03, q04, q05, q06, q07, q08, q09, q10, q11, q12, q13, q14, q15;
+
+        /**
+         * getAndAddLong带有完整的内存屏障，保证累加先于之后对state的读取
+         */
+        void add(long x) {
+            UNSAFE.getAndAddLong(this, READERS_OFFSET, x);
+        }
+    }
+
+    /**
+     * 获取线程id，Thread.getId()可以被子类重写，这里直接读取tid字段
+     */
+    static final long getThreadId(Thread thread) {
+        return UNSAFE.getLongVolatile(thread, TID_OFFSET);
+    }
+
+    private static final Unsafe UNSAFE;
+    private static final long TID_OFFSET;
+    private static final long READERS_OFFSET;
+    static {
+        try {
+            UNSAFE = getUnsafe();
+            Class<?> tk = Thread.class;
+            TID_OFFSET = UNSAFE.objectFieldOffset
+                (tk.getDeclaredField("tid"));
+            READERS_OFFSET = UNSAFE.objectFieldOffset
+                (ReaderStripeValue.class.getDeclaredField("readers"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
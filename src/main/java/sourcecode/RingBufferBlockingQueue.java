@@ -0,0 +1,478 @@
+package sourcecode;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 填充tail之前的120字节，父类字段在子类字段之前布局，因此填充不会被字段重排打乱
+ */
+abstract class RingBufferLhsPadding<E> extends AbstractQueue<E> {
+    long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class RingBufferTail<E> extends RingBufferLhsPadding<E> {
+    /** 下一个入队位置，生产者CAS递增 **/
+    volatile long tail;
+}
+
+/**
+ * 填充tail与head之间的120字节，生产者和消费者修改的计数不在同一缓存行
+ */
+abstract class RingBufferMidPadding<E> extends RingBufferTail<E> {
+    long q01, q02, q03, q04, q05, q06, q07, q08, q09, q10, q11, q12, q13, q14, q15;
+}
+
+abstract class RingBufferHead<E> extends RingBufferMidPadding<E> {
+    /** 下一个出队位置，消费者CAS递增 **/
+    volatile long head;
+}
+
+/**
+ * 填充head之后的120字节
+ */
+abstract class RingBufferRhsPadding<E> extends RingBufferHead<E> {
+    long r01, r02, r03, r04, r05, r06, r07, r08, r09, r10, r11, r12, r13, r14, r15;
+}
+
+/**
+ * 有界无锁多生产者多消费者(MPMC)环形队列，作为 ThreadPoolExecutor 的 workQueue 使用
+ *
+ * 基于序号的数组环形缓冲(Dmitry Vyukov bounded MPMC queue)：
+ *  1 容量向上取整为2的幂，每个槽位有一个序号 sequences[i]，初始为 i
+ *  2 入队：读取tail，槽位序号 == tail 表示槽位空闲，CAS tail+1 占有槽位，
+ *    写入元素后将序号设置为 tail+1 发布给消费者；序号 < tail 表示队列已满
+ *  3 出队：读取head，槽位序号 == head+1 表示元素已发布，CAS head+1 占有槽位，
+ *    取走元素后将序号设置为 head+容量 交还给下一轮生产者；序号 < head+1 表示队列为空
+ * 入队出队都只有一次CAS，不加锁，也不像LinkedBlockingQueue那样每个元素分配一个节点。
+ * head和tail分别填充到独立的缓存行，生产者和消费者互不干扰。
+ *
+ * 阻塞操作(put/take/带超时的offer/poll)先自旋重试，仍然失败才加锁在Condition上等待；
+ * 只有存在等待线程时非阻塞操作才会加锁唤醒，ThreadPoolExecutor 的 execute()->offer() 和
+ * 常驻work的 take() 在队列不空时都不会碰到锁。
+ *
+ * remove(Object)把槽位中的元素CAS为REMOVED标记，消费者出队时跳过，
+ * 因此 ThreadPoolExecutor.remove()/purge() 可以正常使用。还未被跳过的标记数量记录在removed中，
+ * size()/isEmpty()把它们扣除，否则线程池会认为队列中还有任务而无法终止。
+ */
+public class RingBufferBlockingQueue<E> extends RingBufferRhsPadding<E>
+        implements BlockingQueue<E> {
+
+    /** 多核时阻塞前自旋重试的次数，单核自旋没有意义 **/
+    static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    /** 被remove()删除的元素的占位标记 **/
+    static final Object REMOVED = new Object();
+
+    private final Object[] buffer;
+
+    private final long[] sequences;
+
+    private final int mask;
+
+    /** 阻塞等待的线程数量，为0时入队出队不需要加锁唤醒 **/
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    /** 已经被remove()标记、还没有被消费者跳过的槽位数量 **/
+    private final AtomicInteger removed = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * 创建队列，容量向上取整为2的幂，最小为2：
+     * 容量为1时位置t发布后的序号t+1与位置t+1空闲时的序号相同，生产者会覆盖还没有被取走的元素
+     */
+    public RingBufferBlockingQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException();
+        int n = 2;
+        while (n < capacity)
+            n <<= 1;
+        this.buffer = new Object[n];
+        this.sequences = new long[n];
+        this.mask = n - 1;
+        for (int i = 0; i < n; i++)
+            sequences[i] = i;
+    }
+
+    /**
+     * 队列容量(2的幂)
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** -----------------无锁入队出队----------------- **/
+
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        if (!tryEnqueue(e))
+            return false;
+        if (waitingConsumers.get() > 0)
+            signal(notEmpty);
+        return true;
+    }
+
+    public E poll() {
+        E e = tryDequeue();
+        if (e != null && waitingProducers.get() > 0)
+            signal(notFull);
+        return e;
+    }
+
+    private boolean tryEnqueue(Object e) {
+        final long[] seqs = sequences;
+        final int mask = this.mask;
+        for (;;) {
+            long t = tail;
+            int i = (int) t & mask;
+            long seq = U.getLongVolatile(seqs, seqOffset(i));
+            long dif = seq - t;
+            if (dif == 0) {
+                if (U.compareAndSwapLong(this, TAIL, t, t + 1)) {
+                    U.putOrderedObject(buffer, bufOffset(i), e);
+                    /**
+                     * volatile写发布元素，与等待线程 waitingConsumers 递增后再次 poll() 构成 Dekker 式的先写后读，
+                     * 保证要么消费者看到元素，要么这里看到 waitingConsumers > 0 去唤醒
+                     */
+                    U.putLongVolatile(seqs, seqOffset(i), t + 1);
+                    return true;
+                }
+            }
+            /** 槽位还没有被上一轮消费者交还，队列已满 **/
+            else if (dif < 0)
+                return false;
+            /** dif > 0 其他生产者已经占有这个位置，重新读取tail **/
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E tryDequeue() {
+        final long[] seqs = sequences;
+        final Object[] buf = buffer;
+        final int mask = this.mask;
+        for (;;) {
+            long h = head;
+            int i = (int) h & mask;
+            long seq = U.getLongVolatile(seqs, seqOffset(i));
+            long dif = seq - (h + 1);
+            if (dif == 0) {
+                if (U.compareAndSwapLong(this, HEAD, h, h + 1)) {
+                    /** getAndSet与remove()的CAS竞争，只有一方能拿到元素 **/
+                    Object e = U.getAndSetObject(buf, bufOffset(i), null);
+                    U.putLongVolatile(seqs, seqOffset(i), h + mask + 1);
+                    if (e != REMOVED)
+                        return (E) e;
+                    /** 被remove()删除的元素，跳过继续出队，交还的槽位同样要唤醒等待的生产者 **/
+                    removed.decrementAndGet();
+                    if (waitingProducers.get() > 0)
+                        signal(notFull);
+                }
+            }
+            /** 元素还没有发布，队列为空 **/
+            else if (dif < 0)
+                return null;
+            /** dif > 0 其他消费者已经取走这个位置，重新读取head **/
+        }
+    }
+
+    /** -----------------阻塞操作：先自旋再加锁等待----------------- **/
+
+    public void put(E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        for (int spins = SPINS; ; --spins) {
+            if (offer(e))
+                return true;
+            if (spins <= 0)
+                break;
+        }
+        long nanos = unit.toNanos(timeout);
+        boolean timed = nanos != Long.MAX_VALUE;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                while (!tryEnqueue(e)) {
+                    if (!timed)
+                        notFull.await();
+                    else if (nanos <= 0)
+                        return false;
+                    else
+                        nanos = notFull.awaitNanos(nanos);
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (waitingConsumers.get() > 0)
+            signal(notEmpty);
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e;
+        for (int spins = SPINS; ; --spins) {
+            if ((e = poll()) != null)
+                return e;
+            if (spins <= 0)
+                break;
+        }
+        long nanos = unit.toNanos(timeout);
+        boolean timed = nanos != Long.MAX_VALUE;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try {
+            waitingConsumers.incrementAndGet();
+            try {
+                while ((e = tryDequeue()) == null) {
+                    if (!timed)
+                        notEmpty.await();
+                    else if (nanos <= 0)
+                        return null;
+                    else
+                        nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (waitingProducers.get() > 0)
+            signal(notFull);
+        return e;
+    }
+
+    /**
+     * 加锁唤醒一个等待线程。等待线程在锁内先递增计数、再重试、最后await，
+     * 所以这里拿到锁时它要么还没有重试(会看到新元素/空位)，要么已经在await中
+     */
+    private void signal(Condition cond) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            cond.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** -----------------其他操作，并发修改时结果是近似值----------------- **/
+
+    /**
+     * 元素数量，不包括被remove()标记、还没有被跳过的槽位
+     */
+    public int size() {
+        for (;;) {
+            long h = head;
+            long t = tail;
+            int r = removed.get();
+            if (h == head) {
+                long n = t - h - r;
+                return n <= 0 ? 0 : (int) Math.min(n, mask + 1);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int remainingCapacity() {
+        return mask + 1 - size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        for (long p = head, t = tail; p - t < 0; p++) {
+            int i = (int) p & mask;
+            if (U.getLongVolatile(sequences, seqOffset(i)) != p + 1)
+                continue;
+            Object e = U.getObjectVolatile(buffer, bufOffset(i));
+            if (e != null && e != REMOVED)
+                return (E) e;
+        }
+        return null;
+    }
+
+    /**
+     * 删除一个等于o的元素：将槽位中的元素CAS为REMOVED，出队时跳过
+     */
+    public boolean remove(Object o) {
+        if (o == null)
+            return false;
+        final Object[] buf = buffer;
+        for (long p = head, t = tail; p - t < 0; p++) {
+            int i = (int) p & mask;
+            if (U.getLongVolatile(sequences, seqOffset(i)) != p + 1)
+                continue;
+            Object e = U.getObjectVolatile(buf, bufOffset(i));
+            if (e != null && e != REMOVED && o.equals(e) &&
+                    U.compareAndSwapObject(buf, bufOffset(i), e, REMOVED)) {
+                removed.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(Object o) {
+        if (o == null)
+            return false;
+        for (Object e : toArray())
+            if (o.equals(e))
+                return true;
+        return false;
+    }
+
+    public Object[] toArray() {
+        java.util.ArrayList<Object> list = new java.util.ArrayList<Object>();
+        for (long p = head, t = tail; p - t < 0; p++) {
+            int i = (int) p & mask;
+            if (U.getLongVolatile(sequences, seqOffset(i)) != p + 1)
+                continue;
+            Object e = U.getObjectVolatile(buffer, bufOffset(i));
+            if (e != null && e != REMOVED)
+                list.add(e);
+        }
+        return list.toArray();
+    }
+
+    public void clear() {
+        while (poll() != null)
+            ;
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = tryDequeue()) != null) {
+            c.add(e);
+            n++;
+        }
+        if (n > 0 && waitingProducers.get() > 0)
+            signalAll(notFull);
+        return n;
+    }
+
+    private void signalAll(Condition cond) {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            cond.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 弱一致迭代器，遍历创建时的快照，remove()删除对应元素
+     */
+    public Iterator<E> iterator() {
+        return new Itr(toArray());
+    }
+
+    private class Itr implements Iterator<E> {
+        final Object[] array;
+        int cursor;
+        int lastRet = -1;
+
+        Itr(Object[] array) {
+            this.array = array;
+        }
+
+        public boolean hasNext() {
+            return cursor < array.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (cursor >= array.length)
+                throw new NoSuchElementException();
+            lastRet = cursor;
+            return (E) array[cursor++];
+        }
+
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            RingBufferBlockingQueue.this.remove(array[lastRet]);
+            lastRet = -1;
+        }
+    }
+
+    /** -----------------Unsafe----------------- **/
+
+    private static final sun.misc.Unsafe U;
+    private static final long TAIL;
+    private static final long HEAD;
+    private static final long BBASE;
+    private static final int BSHIFT;
+    private static final long SBASE;
+    private static final int SSHIFT;
+
+    static {
+        try {
+            U = getUnsafe();
+            TAIL = U.objectFieldOffset(RingBufferTail.class.getDeclaredField("tail"));
+            HEAD = U.objectFieldOffset(RingBufferHead.class.getDeclaredField("head"));
+            BBASE = U.arrayBaseOffset(Object[].class);
+            BSHIFT = 31 - Integer.numberOfLeadingZeros(U.arrayIndexScale(Object[].class));
+            SBASE = U.arrayBaseOffset(long[].class);
+            SSHIFT = 31 - Integer.numberOfLeadingZeros(U.arrayIndexScale(long[].class));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private static long bufOffset(int i) {
+        return ((long) i << BSHIFT) + BBASE;
+    }
+
+    private static long seqOffset(int i) {
+        return ((long) i << SSHIFT) + SBASE;
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -36,7 +36,6 @@
 package sourcecode;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
 
 public class Semaphore implements java.io.Serializable {
@@ -177,6 +176,12 @@ public class Semaphore implements java.io.Serializable {
         sync = fair ? new FairSync(permits) : new NonfairSync(permits);
     }
 
+    /**  创建具有给定的许可数和给定的公平设置的 Semaphore，并设置是否开启自适应自旋(等待许可的线程阻塞前先自旋重试)。 **/
+    public Semaphore(int permits, boolean fair, boolean adaptiveSpin) {
+        this(permits, fair);
+        sync.setAdaptiveSpin(adaptiveSpin);
+    }
+
 
 
     /** 获取一个许可，获取失败将线程添加到同步队列，并阻塞，等待归还唤醒  **/
@@ -296,6 +301,23 @@ public class Semaphore implements java.io.Serializable {
     }
 
 
+    /**
+     * 开启/关闭信号量的运行指标统计(默认关闭)
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        sync.setMetricsEnabled(enabled);
+    }
+
+
+    /**
+     * 返回信号量的运行指标快照，未开启返回null
+     */
+    public SynchronizerMetrics.Snapshot getMetrics() {
+        SynchronizerMetrics m = sync.getMetrics();
+        return m == null ? null : m.snapshot();
+    }
+
+
     public String toString() {
         return super.toString() + "[Permits = " + sync.getPermits() + "]";
     }
@@ -0,0 +1,132 @@
+package sourcecode;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AQS 同步器运行指标
+ *
+ * 默认不开启，AbstractQueuedSynchronizer.setMetricsEnabled(true)后才创建，
+ * 未开启时每个埋点只多一次字段读取和判空，开启后使用LongAdder累加，避免计数本身成为新的竞争点。
+ *
+ * fastPathAcquires  第一次tryAcquire/CAS就获取成功，没有进入同步队列的次数
+ * queuedAcquires    获取失败进入同步队列(addWaiter)的次数
+ * spinAcquires      开启自适应自旋后，在同步队列中自旋获取成功(没有阻塞)的次数
+ * enqCasFailures    入队时compareAndSetTail失败重试的次数
+ * parks             同步队列中线程阻塞的次数
+ * parkNanos         同步队列中线程阻塞的总时长
+ * cancelledNodes    超时/中断导致cancelAcquire取消的节点数量
+ */
+public final class SynchronizerMetrics {
+
+    final LongAdder fastPathAcquires = new LongAdder();
+    final LongAdder queuedAcquires = new LongAdder();
+    final LongAdder spinAcquires = new LongAdder();
+    final LongAdder enqCasFailures = new LongAdder();
+    final LongAdder parks = new LongAdder();
+    final LongAdder parkNanos = new LongAdder();
+    final LongAdder cancelledNodes = new LongAdder();
+
+    SynchronizerMetrics() {
+    }
+
+    /**
+     * 记录一次阻塞及阻塞时长
+     */
+    void recordPark(long nanos) {
+        parks.increment();
+        parkNanos.add(nanos);
+    }
+
+    /**
+     * 返回当前指标快照
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(fastPathAcquires.sum(), queuedAcquires.sum(), spinAcquires.sum(), enqCasFailures.sum(),
+                            parks.sum(), parkNanos.sum(), cancelledNodes.sum());
+    }
+
+    /**
+     * 清零所有指标
+     */
+    public void reset() {
+        fastPathAcquires.reset();
+        queuedAcquires.reset();
+        spinAcquires.reset();
+        enqCasFailures.reset();
+        parks.reset();
+        parkNanos.reset();
+        cancelledNodes.reset();
+    }
+
+    /**
+     * 指标快照，不可变
+     */
+    public static final class Snapshot implements java.io.Serializable {
+        private static final long serialVersionUID = -2894176326384620245L;
+
+        private final long fastPathAcquires;
+        private final long queuedAcquires;
+        private final long spinAcquires;
+        private final long enqCasFailures;
+        private final long parks;
+        private final long parkNanos;
+        private final long cancelledNodes;
+
+        Snapshot(long fastPathAcquires, long queuedAcquires, long spinAcquires, long enqCasFailures,
+                 long parks, long parkNanos, long cancelledNodes) {
+            this.fastPathAcquires = fastPathAcquires;
+            this.queuedAcquires = queuedAcquires;
+            this.spinAcquires = spinAcquires;
+            this.enqCasFailures = enqCasFailures;
+            this.parks = parks;
+            this.parkNanos = parkNanos;
+            this.cancelledNodes = cancelledNodes;
+        }
+
+        public long getFastPathAcquires() {
+            return fastPathAcquires;
+        }
+
+        public long getQueuedAcquires() {
+            return queuedAcquires;
+        }
+
+        public long getSpinAcquires() {
+            return spinAcquires;
+        }
+
+        public long getEnqCasFailures() {
+            return enqCasFailures;
+        }
+
+        public long getParks() {
+            return parks;
+        }
+
+        public long getParkNanos() {
+            return parkNanos;
+        }
+
+        public long getCancelledNodes() {
+            return cancelledNodes;
+        }
+
+        /**
+         * 进入同步队列的获取次数占总获取次数的比例，用来判断锁的竞争程度
+         */
+        public double getContentionRatio() {
+            long total = fastPathAcquires + queuedAcquires;
+            return total == 0 ? 0.0 : (double) queuedAcquires / total;
+        }
+
+        public String toString() {
+            return "[fastPathAcquires=" + fastPathAcquires +
+                   ", queuedAcquires=" + queuedAcquires +
+                   ", spinAcquires=" + spinAcquires +
+                   ", enqCasFailures=" + enqCasFailures +
+                   ", parks=" + parks +
+                   ", parkNanos=" + parkNanos +
+                   ", cancelledNodes=" + cancelledNodes + "]";
+        }
+    }
+}
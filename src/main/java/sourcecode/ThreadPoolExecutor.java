@@ -1,8 +1,11 @@
 package sourcecode;
 
 import java.util.*;
+import java.util.ArrayList;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -122,12 +125,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
 
     /**
      * 存放worker线程的集合
+     *
+     * 使用并发集合，addWorker/processWorkerExit 增删work和统计方法遍历work都不需要获取mainLock，
+     * work频繁创建销毁(keepAliveTime很短、突发负载)时不会在全局锁上排队。
+     * 遍历是弱一致的，统计结果是近似值(与JDK ThreadPoolExecutor的说明一致)
      */
-    private final HashSet<Worker> workers = new HashSet<Worker>();
+    private final Set<Worker> workers = ConcurrentHashMap.<Worker>newKeySet();
 
 
     /**
      * 控制ThreadPoolExecutor的全局可重入锁
+     * 只用于 shutdown/shutdownNow 互斥，以及 tryTerminate 设置TERMINATED状态和 awaitTermination 等待
      */
     private final ReentrantLock mainLock = new ReentrantLock();
 
@@ -142,13 +150,13 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     /**
      * 记录work数量（片段值）
      */
-    private int largestPoolSize;
+    private final AtomicInteger largestPoolSize = new AtomicInteger();
 
 
     /**
      * 完成任务数量
      */
-    private long completedTaskCount;
+    private final AtomicLong completedTaskCount = new AtomicLong();
 
 
     /**
@@ -175,6 +183,24 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     private volatile boolean allowCoreThreadTimeOut;
 
 
+    /**
+     * work每次访问workQueue最多取出的任务数，默认1即逐个获取
+     */
+    private volatile int drainBatchSize = 1;
+
+
+    /**
+     * 虚拟线程模式下限制同时执行任务数量的信号量，平台线程模式为null
+     */
+    private final Semaphore concurrencyLimit;
+
+
+    /**
+     * 运行指标，setMetricsEnabled(true)后才创建，未开启为null
+     */
+    private volatile ExecutorMetrics metrics;
+
+
     /**
      * 线程池中核心work线程的数量。
      */
@@ -216,6 +242,12 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         Runnable firstTask;
         /** 每个work执行的任务数量 */
         volatile long completedTasks;
+        /** 批量模式下从workQueue取出、尚未执行的任务，shutdownNow()可以从中取走任务 */
+        volatile AtomicReferenceArray<Runnable> batch;
+        /** 批量模式下drainTo()使用的缓冲 */
+        ArrayList<Runnable> drained;
+        /** 虚拟线程模式下等待许可的任务，shutdownNow()可以从中取走任务，其他模式为null */
+        final java.util.concurrent.atomic.AtomicReference<Runnable> waiting;
 
         /**
          * 实例化Worker
@@ -223,6 +255,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         Worker(Runnable firstTask) {
             setState(-1);
             this.firstTask = firstTask;
+            this.waiting = concurrencyLimit == null ? null :
+                    new java.util.concurrent.atomic.AtomicReference<Runnable>();
             this.thread = getThreadFactory().newThread(this);
         }
 
@@ -280,6 +314,11 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
          */
         public boolean isLocked() { return isHeldExclusively(); }
 
+        /**
+         * 判断work是否正在执行任务，同步状态-1(还没有启动)不算
+         */
+        boolean isRunningTask() { return getState() > 0; }
+
         /**
          * 中断work正在执行任务
          */
@@ -292,6 +331,63 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                 }
             }
         }
+
+        /**
+         * 从workQueue中取出最多max个任务放入batch，返回取出的任务数
+         */
+        int fillBatch(BlockingQueue<Runnable> q, int max) {
+            ArrayList<Runnable> buf = drained;
+            if (buf == null)
+                drained = buf = new ArrayList<Runnable>(max);
+            int n = q.drainTo(buf, max);
+            if (n > 0) {
+                AtomicReferenceArray<Runnable> b = batch;
+                if (b == null || b.length() < n)
+                    batch = b = new AtomicReferenceArray<Runnable>(Math.max(n, max));
+                for (int i = 0; i < n; i++)
+                    b.lazySet(i, buf.get(i));
+                buf.clear();
+            }
+            return n;
+        }
+
+        /**
+         * 认领batch中第i个任务，已经被drainBatch()取走返回null
+         */
+        Runnable claim(int i) {
+            return batch.getAndSet(i, null);
+        }
+
+        /**
+         * batch中尚未执行的任务数
+         */
+        int batchedTasks() {
+            AtomicReferenceArray<Runnable> b = batch;
+            int n = 0;
+            if (b != null) {
+                for (int i = 0; i < b.length(); i++)
+                    if (b.get(i) != null)
+                        n++;
+            }
+            return n;
+        }
+
+        /**
+         * 取走batch中所有尚未执行的任务
+         */
+        void drainBatch(List<Runnable> taskList) {
+            AtomicReferenceArray<Runnable> b = batch;
+            if (b != null) {
+                for (int i = 0; i < b.length(); i++) {
+                    Runnable r = b.getAndSet(i, null);
+                    if (r != null)
+                        taskList.add(r);
+                }
+            }
+            Runnable r;
+            if (waiting != null && (r = waiting.getAndSet(null)) != null)
+                taskList.add(r);
+        }
     }
 
 
@@ -374,14 +470,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         SecurityManager security = System.getSecurityManager();
         if (security != null) {
             security.checkPermission(shutdownPerm);
-            final ReentrantLock mainLock = this.mainLock;
-            mainLock.lock();
-            try {
-                for (Worker w : workers)
-                    security.checkAccess(w.thread);
-            } finally {
-                mainLock.unlock();
-            }
+            for (Worker w : workers)
+                security.checkAccess(w.thread);
         }
     }
 
@@ -390,14 +480,8 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * (in which case some threads may remain uninterrupted).
      */
     private void interruptWorkers() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            for (Worker w : workers)
-                w.interruptIfStarted();
-        } finally {
-            mainLock.unlock();
-        }
+        for (Worker w : workers)
+            w.interruptIfStarted();
     }
 
     /**
@@ -406,30 +490,21 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * onlyOne=false 表示中断所有空闲的work
      */
     private void interruptIdleWorkers(boolean onlyOne) {
-        /** 获取主锁：mainLock **/
-        final ReentrantLock mainLock = this.mainLock;
-        /** 获取锁 **/
-        mainLock.lock();
-        try {
-            /** 遍历所有work **/
-            for (Worker w : workers) {
-                Thread t = w.thread;
-                /** 判断work工作线程是否没有被中断，且能获取独占同步状态（空闲） **/
-                if (!t.isInterrupted() && w.tryLock()) {
-                    try {
-                        /**  中断work工作线程 **/
-                        t.interrupt();
-                    } catch (SecurityException ignore) {
-                    } finally {
-                        w.unlock();
-                    }
+        /** 遍历所有work，workers是并发集合不需要加锁 **/
+        for (Worker w : workers) {
+            Thread t = w.thread;
+            /** 判断work工作线程是否没有被中断，且能获取独占同步状态（空闲） **/
+            if (!t.isInterrupted() && w.tryLock()) {
+                try {
+                    /**  中断work工作线程 **/
+                    t.interrupt();
+                } catch (SecurityException ignore) {
+                } finally {
+                    w.unlock();
                 }
-                if (onlyOne)
-                    break;
             }
-        } finally {
-            /** 释放锁 **/
-            mainLock.unlock();
+            if (onlyOne)
+                break;
         }
     }
 
@@ -448,7 +523,55 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * 调用handler拒绝策略
      */
     final void reject(Runnable command) {
-        //handler.rejectedExecution(command, this);
+        RejectedExecutionHandler h = handler;
+        ExecutorMetrics m = metrics;
+        if (m != null)
+            m.recordRejection(h);
+        policyFor(h).rejectedExecution(command, this);
+    }
+
+    /**
+     * RejectedExecutionHandler的参数是java.util.concurrent.ThreadPoolExecutor，无法传入当前线程池，
+     * 实现了RejectionPolicy的handler(内置的四种策略都实现了)直接调用；
+     * java.util.concurrent.ThreadPoolExecutor的四种内置策略按同名的本地策略处理；
+     * 其他handler无法调用，按AbortPolicy处理，保证被拒绝的任务不会被静默丢弃(submit返回的Future永远不完成)
+     */
+    static RejectionPolicy policyFor(RejectedExecutionHandler h) {
+        if (h instanceof RejectionPolicy)
+            return (RejectionPolicy) h;
+        Class<?> c = h == null ? null : h.getClass();
+        if (c == java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy.class)
+            return CALLER_RUNS;
+        if (c == java.util.concurrent.ThreadPoolExecutor.DiscardPolicy.class)
+            return DISCARD;
+        if (c == java.util.concurrent.ThreadPoolExecutor.DiscardOldestPolicy.class)
+            return DISCARD_OLDEST;
+        return ABORT;
+    }
+
+    private static final RejectionPolicy CALLER_RUNS = new CallerRunsPolicy();
+    private static final RejectionPolicy ABORT = new AbortPolicy();
+    private static final RejectionPolicy DISCARD = new DiscardPolicy();
+    private static final RejectionPolicy DISCARD_OLDEST = new DiscardOldestPolicy();
+
+    /**
+     * 在work线程中调用reject()，没有调用方接收AbortPolicy抛出的RejectedExecutionException，忽略
+     */
+    private void rejectQuietly(Runnable command) {
+        try {
+            reject(command);
+        } catch (RejectedExecutionException ignore) {
+        }
+    }
+
+    /**
+     * 丢弃已经超过截止时间的任务：Future任务先取消(调用方get()抛出CancellationException)，再交给reject()
+     */
+    private void shed(PrioritizedTask task) {
+        Runnable r = task.getTask();
+        if (r instanceof Future)
+            ((Future<?>) r).cancel(false);
+        rejectQuietly(task);
     }
 
     /**
@@ -481,6 +604,12 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                     taskList.add(r);
             }
         }
+        /** 批量模式下work已经取出但还没有执行的任务，虚拟线程模式下等待许可的任务 **/
+        for (Worker w : workers)
+            w.drainBatch(taskList);
+        /** 返回原始任务 **/
+        for (int i = 0; i < taskList.size(); i++)
+            taskList.set(i, unwrap(taskList.get(i)));
         return taskList;
     }
 
@@ -542,30 +671,28 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             final Thread t = w.thread;
             /** work中工作线程不为null **/
             if (t != null) {
-                /** 获取主锁：mainLock **/
-                final ReentrantLock mainLock = this.mainLock;
-                /** 加锁  **/
-                mainLock.lock();
-                try {
-                    /** 获取当前线程池状态 **/
-                    int rs = runStateOf(ctl.get());
-
-                    /** 当前线程池状态为运行，或当前线程池状态为SHUTDOWN，提交是null任务
-                     *  将创建的work添加到workers集合中
-                     * **/
-                    if (rs < SHUTDOWN ||
-                            (rs == SHUTDOWN && firstTask == null)) {
-                        if (t.isAlive()) // precheck that t is startable
-                            throw new IllegalThreadStateException();
-                        workers.add(w);
-                        int s = workers.size();
-                        if (s > largestPoolSize)
-                            largestPoolSize = s;
-                        workerAdded = true;
-                    }
-                } finally {
-                    /** 释放锁  **/
-                    mainLock.unlock();
+                if (t.isAlive()) // precheck that t is startable
+                    throw new IllegalThreadStateException();
+                /**
+                 * 先将work添加到workers集合，再检查线程池状态，不需要mainLock：
+                 * shutdown()/shutdownNow() 先修改状态再遍历workers，
+                 * 两边都是volatile读写，要么这里读到新状态撤销添加，要么shutdown遍历时能看到这个work
+                 */
+                workers.add(w);
+                /** 获取当前线程池状态 **/
+                int rs = runStateOf(ctl.get());
+
+                /** 当前线程池状态为运行，或当前线程池状态为SHUTDOWN，提交是null任务
+                 *  保留添加到workers集合中的work
+                 * **/
+                if (rs < SHUTDOWN ||
+                        (rs == SHUTDOWN && firstTask == null)) {
+                    /**
+                     * 按ctl中的work数量计算，workers中可能还有已经减少计数、正在退出的work，
+                     * 用workers.size()会超过maximumPoolSize
+                     */
+                    updateLargestPoolSize(workerCountOf(ctl.get()));
+                    workerAdded = true;
                 }
                 /** 创建成功，启动work执行任务 **/
                 if (workerAdded) {
@@ -586,22 +713,23 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * 失败创建work只能当前线程池状态不是运行状态
      */
     private void addWorkerFailed(Worker w) {
-        /** 获取主锁：mainLock **/
-        final ReentrantLock mainLock = this.mainLock;
-        /** 加锁 **/
-        mainLock.lock();
-        try {
-            /** 尝试从workers删除，感觉没啥用， **/
-            if (w != null)
-                workers.remove(w);
-            /** 将work数量-1 **/
-            decrementWorkerCount();
-            /** 尝试将线程池状态设置为Terminate **/
-            tryTerminate();
-        } finally {
-            /** 释放 **/
-            mainLock.unlock();
-        }
+        /** 从workers删除(addWorker检查状态失败或线程启动失败时已经添加) **/
+        if (w != null)
+            workers.remove(w);
+        /** 将work数量-1 **/
+        decrementWorkerCount();
+        /** 尝试将线程池状态设置为Terminate **/
+        tryTerminate();
+    }
+
+    /**
+     * CAS更新largestPoolSize
+     */
+    private void updateLargestPoolSize(int s) {
+        int largest;
+        while (s > (largest = largestPoolSize.get()) &&
+                !largestPoolSize.compareAndSet(largest, s))
+            ;
     }
 
     /**
@@ -612,19 +740,37 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      *  runWorker 执行出现异常 completedAbruptly 为true
      */
     private void processWorkerExit(Worker w, boolean completedAbruptly) {
-        if (completedAbruptly) // If abrupt, then workerCount wasn't adjusted
+        if (completedAbruptly) { // If abrupt, then workerCount wasn't adjusted
             decrementWorkerCount();
-
-        /** 从workers 集合中移除worker **/
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            completedTaskCount += w.completedTasks;
-            workers.remove(w);
-        } finally {
-            mainLock.unlock();
+            /**
+             * 批量模式下任务异常导致work退出，将还没有执行的任务放回workQueue
+             * 与shutdownNow()一样持有mainLock：已经STOP时drainQueue()已经取走了batch中的任务，不再放回，
+             * 否则放回的任务留在已经终止的线程池的队列中，既不执行也不返回给调用者
+             */
+            if (w.batch != null) {
+                final ReentrantLock mainLock = this.mainLock;
+                mainLock.lock();
+                try {
+                    if (runStateLessThan(ctl.get(), STOP)) {
+                        List<Runnable> left = new ArrayList<Runnable>();
+                        w.drainBatch(left);
+                        for (Runnable r : left)
+                            if (!workQueue.offer(r))
+                                rejectQuietly(r);
+                    }
+                } finally {
+                    mainLock.unlock();
+                }
+            }
         }
 
+        /**
+         * 从workers 集合中移除worker，再累加完成任务数
+         * 两步之间并发读取的完成任务数会暂时少算这个work，但不会多算
+         */
+        workers.remove(w);
+        completedTaskCount.addAndGet(w.completedTasks);
+
         /** 尝试将线程池状态设置为Terminate **/
         tryTerminate();
 
@@ -730,47 +876,36 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
              * getTask()！=null 时work永远不停止
              *  **/
             while (task != null || (task = getTask()) != null) {
+                /** 虚拟线程模式：先获取许可再加锁，等待许可的work不计入getActiveCount() **/
+                final Semaphore limit = concurrencyLimit;
+                if (limit != null && !acquirePermit(w, limit, task)) {
+                    /** 线程池已经STOP，任务被shutdownNow()取走或者不再执行，getTask()会返回null **/
+                    task = null;
+                    continue;
+                }
                 /** 获取work独占同步状态 **/
                 w.lock();
-
-                               /** 如果当前线程池的状态为STOP，将work中工作线程标记为中断
-                 * 1、如果线程池状态>=stop，且当前线程没有设置中断状态，wt.interrupt()
-                 2、如果一开始判断线程池状态<stop，但Thread.interrupted()为true，即线程已经被中断，又清除了中断标示，再次判断线程池状态是否>=stop
-                 是，再次设置中断标示，wt.interrupt()
-                 *    否，不做操作，清除中断标示后进行后续步骤
-                 *
-                 * **/
-                if ((runStateAtLeast(ctl.get(), STOP) ||
-                        (Thread.interrupted() &&
-                                runStateAtLeast(ctl.get(), STOP))) &&
-                        !wt.isInterrupted())
-                    wt.interrupt();
-
-
                 try {
-                    /** 模板方法给子类扩展 **/
-                    beforeExecute(wt, task);
-                    Throwable thrown = null;
-                    try {
-                        /** 处理任务 **/
-                        task.run();
-                    } catch (RuntimeException x) {
-                        thrown = x; throw x;
-                    } catch (Error x) {
-                        thrown = x; throw x;
-                    } catch (Throwable x) {
-                        thrown = x; throw new Error(x);
-                    } finally {
-                        /** 模板方法给子类扩展 **/
-                        afterExecute(task, thrown);
+                    /**
+                     * 批量模式：再从workQueue取出最多drainBatchSize-1个任务，
+                     * 在这一次work加锁期间依次执行
+                     */
+                    int batchSize = drainBatchSize;
+                    int n = batchSize > 1 ? w.fillBatch(workQueue, batchSize - 1) : 0;
+                    runTask(w, wt, task);
+                    for (int i = 0; i < n; i++) {
+                        Runnable r = w.claim(i);
+                        /** 为null表示已经被shutdownNow()取走 **/
+                        if (r != null)
+                            runTask(w, wt, r);
                     }
                 } finally {
                     /** 重置任务 **/
                     task = null;
-                    /** work执行的任务数量  **/
-                    w.completedTasks++;
                     /** 释放work独占同步状态 **/
                     w.unlock();
+                    if (limit != null)
+                        limit.release();
                 }
             }
             completedAbruptly = false;
@@ -780,6 +915,92 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     }
 
 
+    /**
+     * 虚拟线程模式下执行任务前获取许可
+     * 需要等待时先把任务登记到work.waiting，shutdownNow()可以像批量模式的batch一样把它取走并返回给调用者；
+     * 获取许可后认领任务，已经被取走则归还许可并返回false，该任务不再执行。
+     * 获取许可后线程池已经是STOP状态(包括shutdownNow()时work还没有启动、任务对它不可见的情况)，
+     * 同样不再执行，任务是Future时取消它，避免调用者永远等待
+     */
+    private boolean acquirePermit(Worker w, Semaphore limit, Runnable task) {
+        if (!limit.tryAcquire()) {
+            w.waiting.set(task);
+            limit.acquireUninterruptibly();
+            if (!w.waiting.compareAndSet(task, null)) {
+                limit.release();
+                return false;
+            }
+        }
+        if (runStateAtLeast(ctl.get(), STOP)) {
+            limit.release();
+            Runnable r = unwrap(task);
+            if (r instanceof Future)
+                ((Future<?>) r).cancel(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 在work加锁期间执行一个任务
+     */
+    private void runTask(Worker w, Thread wt, Runnable task) {
+        final ExecutorMetrics m = metrics;
+        /** 还原原始任务，开启运行指标时记录排队等待时间 **/
+        if (task instanceof QueuedTask) {
+            QueuedTask q = (QueuedTask) task;
+            task = q.task;
+            if (m != null)
+                m.queueWait.record(System.nanoTime() - q.enqueueNanos);
+        }
+        /** 已经超过截止时间的任务不再执行，交给拒绝策略 **/
+        if (PrioritizedTask.isExpired(task)) {
+            shed((PrioritizedTask) task);
+            return;
+        }
+        /** 如果当前线程池的状态为STOP，将work中工作线程标记为中断
+         * 1、如果线程池状态>=stop，且当前线程没有设置中断状态，wt.interrupt()
+         * 2、如果一开始判断线程池状态<stop，但Thread.interrupted()为true，即线程已经被中断，又清除了中断标示，再次判断线程池状态是否>=stop
+         *    是，再次设置中断标示，wt.interrupt()
+         *    否，不做操作，清除中断标示后进行后续步骤
+         *
+         * **/
+        if ((runStateAtLeast(ctl.get(), STOP) ||
+                (Thread.interrupted() &&
+                        runStateAtLeast(ctl.get(), STOP))) &&
+                !wt.isInterrupted())
+            wt.interrupt();
+
+
+        try {
+            /** 模板方法给子类扩展 **/
+            beforeExecute(wt, task);
+            Throwable thrown = null;
+            long start = (m != null) ? System.nanoTime() : 0L;
+            try {
+                /** 处理任务 **/
+                task.run();
+            } catch (RuntimeException x) {
+                thrown = x; throw x;
+            } catch (Error x) {
+                thrown = x; throw x;
+            } catch (Throwable x) {
+                thrown = x; throw new Error(x);
+            } finally {
+                if (m != null)
+                    m.execution.record(System.nanoTime() - start);
+                /** 模板方法给子类扩展 **/
+                afterExecute(task, thrown);
+            }
+        } finally {
+            /** work执行的任务数量  **/
+            w.completedTasks++;
+            if (m != null)
+                m.completedTasks.increment();
+        }
+    }
+
+
     /**
      * 创建一个线程池,使用默认线程池的拒绝策略和创建work工厂
      * @param corePoolSize 线程池中核心work线程的数量。
@@ -852,6 +1073,21 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                               BlockingQueue<Runnable> workQueue,
                               ThreadFactory threadFactory,
                               RejectedExecutionHandler handler) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+                threadFactory, handler, null);
+    }
+
+    /**
+     * 创建一个线程池，concurrencyLimit 不为null时为虚拟线程模式
+     */
+    private ThreadPoolExecutor(int corePoolSize,
+                               int maximumPoolSize,
+                               long keepAliveTime,
+                               TimeUnit unit,
+                               BlockingQueue<Runnable> workQueue,
+                               ThreadFactory threadFactory,
+                               RejectedExecutionHandler handler,
+                               Semaphore concurrencyLimit) {
         if (corePoolSize < 0 ||
                 maximumPoolSize <= 0 ||
                 maximumPoolSize < corePoolSize ||
@@ -865,8 +1101,112 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         this.keepAliveTime = unit.toNanos(keepAliveTime);
         this.threadFactory = threadFactory;
         this.handler = handler;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * 创建一个虚拟线程模式的线程池(JDK21+)，子类可以通过它使用beforeExecute/afterExecute钩子
+     *
+     * 每个任务创建一个虚拟线程work执行(核心work为0，最大work不限，SynchronousQueue，keepAliveTime为0)，
+     * 不再通过线程池大小控制并发，而是由work在执行任务前获取信号量许可，
+     * 同时执行的任务最多 maxConcurrency 个，其余work阻塞在信号量上(虚拟线程阻塞代价很小)。
+     * beforeExecute/afterExecute 钩子和 getActiveCount/getCompletedTaskCount 等统计方法不变，
+     * 等待许可的work不计入 getActiveCount()，shutdownNow()会取走并返回它们的任务，
+     * shutdownNow()之后才拿到许可的任务不再执行(Future会被取消)。
+     *
+     * 当前JDK不支持虚拟线程时抛出UnsupportedOperationException
+     */
+    protected ThreadPoolExecutor(int maxConcurrency) {
+        this(0, Integer.MAX_VALUE, 0L, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(),
+                requireVirtualThreadFactory(), defaultHandler, newConcurrencyLimit(maxConcurrency));
     }
 
+    /**
+     * 创建一个虚拟线程模式的线程池，见 ThreadPoolExecutor(int maxConcurrency)
+     * 运行时检测JDK是否支持虚拟线程，不支持时退化为 maxConcurrency 个平台线程的固定大小线程池
+     */
+    public static ThreadPoolExecutor newVirtualThreadExecutor(int maxConcurrency) {
+        if (!isVirtualThreadSupported())
+            return new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        return new ThreadPoolExecutor(maxConcurrency);
+    }
+
+    private static ThreadFactory requireVirtualThreadFactory() {
+        ThreadFactory factory = newVirtualThreadFactory();
+        if (factory == null)
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+");
+        return factory;
+    }
+
+    private static Semaphore newConcurrencyLimit(int maxConcurrency) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException();
+        return new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported() {
+        return newVirtualThreadFactory() != null;
+    }
+
+    /**
+     * 通过反射调用 Thread.ofVirtual().name("virtual-pool-worker-", 0).factory()，
+     * JDK21以下(或未开启预览特性的JDK19/20)返回null
+     */
+    private static ThreadFactory newVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "virtual-pool-worker-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 是否为虚拟线程模式
+     */
+    public boolean isVirtualThreadMode() {
+        return concurrencyLimit != null;
+    }
+
+
+    /**
+     * 开启运行指标时放入workQueue的任务，记录入队时间用来统计排队等待时间，
+     * work取出后在runTask()中还原为原始任务，beforeExecute/afterExecute看到的是原始任务
+     */
+    static final class QueuedTask implements Runnable {
+        final Runnable task;
+        final long enqueueNanos;
+
+        QueuedTask(Runnable task) {
+            this.task = task;
+            this.enqueueNanos = System.nanoTime();
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * 开启运行指标时包装为QueuedTask，否则返回原始任务
+     */
+    private static Runnable queuedTask(Runnable command, ExecutorMetrics m) {
+        return m == null ? command : new QueuedTask(command);
+    }
+
+    /**
+     * 还原QueuedTask包装的原始任务
+     */
+    static Runnable unwrap(Runnable r) {
+        return (r instanceof QueuedTask) ? ((QueuedTask) r).task : r;
+    }
 
     /**
      * 执行任务
@@ -875,6 +1215,9 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         /** 提交任务为null 抛出异常。 **/
         if (command == null)
             throw new NullPointerException();
+        ExecutorMetrics m = metrics;
+        if (m != null)
+            m.submittedTasks.increment();
 
         /** 获取ctl **/
         int c = ctl.get();
@@ -889,10 +1232,11 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         /** 进入此逻辑表示work线程数量大于corePoolSize或者前一步执行失败 **/
 
         /** 判断线程池是Running运行状态，将任务添加到workQueue尾部成功（队列满了返回false） **/
-        if (isRunning(c) && workQueue.offer(command)) {
+        Runnable queued;
+        if (isRunning(c) && workQueue.offer(queued = queuedTask(command, m))) {
             int recheck = ctl.get();
             /** Double Check下当前线程状态是不是Running运行状态，不是就删除刚刚添加的任务，执行拒绝任务 **/
-            if (! isRunning(recheck) && remove(command))
+            if (! isRunning(recheck) && remove(queued))
                 reject(command);
             /** 异常情况 前面workerCountOf(c) < corePoolSize说明当时还存在大量work，说明线程池突然停止，为保证任务都能处理，
              * 创建一个临时work去处理当前workQueue中的任务  **/
@@ -906,6 +1250,99 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
             reject(command);
     }
 
+    /**
+     * 按优先级通道和截止时间执行任务，相当于 execute(new PrioritizedTask(command, lane, timeout, unit))
+     * workQueue为PriorityTaskQueue时按通道和截止时间调度，其他队列只在执行前检查截止时间，
+     * 开始执行前已经超过截止时间的任务不再执行，交给reject()
+     */
+    public void execute(Runnable command, int lane, long timeout, TimeUnit unit) {
+        execute(new PrioritizedTask(command, lane, timeout, unit));
+    }
+
+    /**
+     * 按优先级通道和截止时间提交任务，见 execute(Runnable, int, long, TimeUnit)
+     * 过期被丢弃的任务返回的Future被取消
+     */
+    public <T> Future<T> submit(Callable<T> task, int lane, long timeout, TimeUnit unit) {
+        if (task == null)
+            throw new NullPointerException();
+        RunnableFuture<T> f = newTaskFor(task);
+        execute(f, lane, timeout, unit);
+        return f;
+    }
+
+    /**
+     * 提交任务，返回可以组合的AsyncTask，
+     * 通过 thenApply/thenCompose/allOf 等注册的后续操作在执行完任务的work中直接执行，不再重新提交
+     */
+    public <T> AsyncTask<T> supplyAsync(Callable<T> task) {
+        if (task == null)
+            throw new NullPointerException();
+        AsyncTask<T> f = new AsyncTask<T>(task);
+        execute(f);
+        return f;
+    }
+
+    /**
+     * 见 supplyAsync(Callable)，任务正常完成时结果为null
+     */
+    public AsyncTask<Void> runAsync(Runnable task) {
+        if (task == null)
+            throw new NullPointerException();
+        AsyncTask<Void> f = new AsyncTask<Void>(task, null);
+        execute(f);
+        return f;
+    }
+
+    /**
+     * 批量执行任务，规则与逐个调用execute()相同
+     * 整批任务只在开始时读取一次ctl，全部入队后再做一次Double Check，
+     * 只有创建work或队列满时才重新读取ctl
+     */
+    public void executeAll(Collection<? extends Runnable> commands) {
+        if (commands == null)
+            throw new NullPointerException();
+        for (Runnable command : commands)
+            if (command == null)
+                throw new NullPointerException();
+
+        ExecutorMetrics m = metrics;
+        if (m != null)
+            m.submittedTasks.add(commands.size());
+        int c = ctl.get();
+        boolean queued = false;
+        for (Runnable command : commands) {
+            /** work线程数量少于corePoolSize，创建核心work执行任务 **/
+            if (workerCountOf(c) < corePoolSize) {
+                boolean added = addWorker(command, true);
+                c = ctl.get();
+                if (added)
+                    continue;
+            }
+            /** 线程池是Running运行状态，将任务添加到workQueue尾部 **/
+            if (isRunning(c) && workQueue.offer(queuedTask(command, m))) {
+                queued = true;
+                continue;
+            }
+            /** 队列满了或线程池不在运行，创建一个非核心work执行任务，失败执行拒绝任务 **/
+            c = ctl.get();
+            if (!addWorker(command, false))
+                reject(command);
+        }
+
+        if (queued) {
+            int recheck = ctl.get();
+            /** 入队期间线程池被关闭，删除还在队列中的任务，执行拒绝任务 **/
+            if (! isRunning(recheck)) {
+                for (Runnable command : commands)
+                    if (remove(command))
+                        reject(command);
+            }
+            else if (workerCountOf(recheck) == 0)
+                addWorker(null, false);
+        }
+    }
+
     /**
      * 温柔的终止线程池
      */
@@ -957,6 +1394,75 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         return tasks;
     }
 
+    /**
+     * 在截止时间内优雅的终止线程池，用于滚动发布等需要限制停止耗时的场景
+     *
+     * 1 workQueue中的任务按优先级执行：PriorityTaskQueue本身按通道和截止时间调度，
+     *   其他队列重新排序为 通道从小到大、通道内截止时间(或提交时间)从早到晚，不是PrioritizedTask的任务排在最后并保持原顺序
+     * 2 shutdown()，不再接收新任务
+     * 3 等待线程池终止，最多等到 timeout
+     * 4 超时后 shutdownNow()，中断正在执行的任务，返回还没有执行的任务(同样按优先级排序)
+     * 返回的DrainResult可以序列化，在新的线程池中 replay() 重新提交
+     *
+     * 重新排序在shutdown()之前进行：SHUTDOWN状态下队列被取空的瞬间work就会退出，线程池可能在任务放回之前终止。
+     * 无法放回队列的任务，以及线程池终止后仍留在队列中的任务，都作为剩余任务返回，不会丢失
+     */
+    public DrainResult drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Runnable> stranded = Collections.emptyList();
+        if (!(workQueue instanceof PriorityTaskQueue) && isRunning(ctl.get()))
+            stranded = reorderQueue();
+        shutdown();
+        boolean terminated = awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        /** 已经终止时只取出残留在队列中的任务 **/
+        List<Runnable> leftovers = shutdownNow();
+        leftovers.addAll(stranded);
+        if (terminated && leftovers.isEmpty())
+            return new DrainResult(true, leftovers);
+        Collections.sort(leftovers, PRIORITY_ORDER);
+        return new DrainResult(isTerminated() && leftovers.isEmpty(), leftovers);
+    }
+
+    /**
+     * 将workQueue中的任务按PRIORITY_ORDER重新入队，返回无法放回队列的任务(原始任务)
+     * 在RUNNING状态下调用，取出期间work阻塞在getTask()中等待，不会退出；
+     * 期间提交的新任务可能排在放回的任务之前，有界队列被新任务占满时放不回的任务交给drain()返回
+     */
+    private List<Runnable> reorderQueue() {
+        BlockingQueue<Runnable> q = workQueue;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        q.drainTo(tasks);
+        if (tasks.isEmpty())
+            return Collections.emptyList();
+        Collections.sort(tasks, PRIORITY_ORDER);
+        List<Runnable> stranded = new ArrayList<Runnable>();
+        for (Runnable r : tasks)
+            if (!q.offer(r))
+                stranded.add(unwrap(r));
+        int wanted = Math.max(1, Math.min(corePoolSize, q.size()));
+        while (workerCountOf(ctl.get()) < wanted && addWorker(null, false))
+            ;
+        return stranded;
+    }
+
+    /**
+     * drain()使用的优先级顺序：通道小的在前，同一通道内key小的在前，不是PrioritizedTask的任务排在最后
+     * Collections.sort是稳定排序，相同优先级保持原来的顺序
+     */
+    static final Comparator<Runnable> PRIORITY_ORDER = new Comparator<Runnable>() {
+        public int compare(Runnable a, Runnable b) {
+            Runnable x = unwrap(a), y = unwrap(b);
+            boolean px = x instanceof PrioritizedTask, py = y instanceof PrioritizedTask;
+            if (!px || !py)
+                return px == py ? 0 : (px ? -1 : 1);
+            PrioritizedTask tx = (PrioritizedTask) x, ty = (PrioritizedTask) y;
+            if (tx.getLane() != ty.getLane())
+                return tx.getLane() < ty.getLane() ? -1 : 1;
+            long d = tx.key() - ty.key();
+            return d < 0 ? -1 : (d > 0 ? 1 : 0);
+        }
+    };
+
     /**
      * 判断当前线程池状态是非运行状态
      */
@@ -1107,6 +1613,46 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         return n;
     }
 
+    /**
+     * 开启/关闭运行指标统计(默认关闭)，关闭后之前的统计数据丢弃
+     * 开启后记录任务排队等待时间、执行时间直方图和拒绝次数，读取不需要获取mainLock
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled) {
+            if (metrics == null)
+                metrics = new ExecutorMetrics();
+        } else {
+            metrics = null;
+        }
+    }
+
+    /**
+     * 返回运行指标快照，未开启返回null
+     */
+    public ExecutorMetrics.Snapshot getMetrics() {
+        ExecutorMetrics m = metrics;
+        return m == null ? null : m.snapshot();
+    }
+
+    /**
+     * 设置work每次访问workQueue最多取出的任务数，默认1即每次getTask()只获取一个任务
+     * 大于1时work在getTask()获取到任务后再用drainTo()取出最多drainBatchSize-1个任务，
+     * 在一次work加锁期间依次执行，减少队列加锁、ctl读取和work加锁的次数。
+     * 取出的任务只能由这个work执行，其他空闲work无法分担，适合大量极小任务
+     */
+    public void setDrainBatchSize(int drainBatchSize) {
+        if (drainBatchSize < 1)
+            throw new IllegalArgumentException();
+        this.drainBatchSize = drainBatchSize;
+    }
+
+    /**
+     * 返回drainBatchSize
+     */
+    public int getDrainBatchSize() {
+        return drainBatchSize;
+    }
+
     /**
      * 返回 allowCoreThreadTimeOut
      */
@@ -1175,6 +1721,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
 
     /**
      * 返回workQueue
+     * 开启运行指标时队列中的元素是包装过的QueuedTask
      */
     public BlockingQueue<Runnable> getQueue() {
         return workQueue;
@@ -1185,6 +1732,15 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     public boolean remove(Runnable task) {
         boolean removed = workQueue.remove(task);
+        /** 开启运行指标时队列中是QueuedTask，按原始任务查找 **/
+        if (!removed && !(task instanceof QueuedTask)) {
+            for (Runnable r : workQueue) {
+                if (r instanceof QueuedTask && ((QueuedTask) r).task == task) {
+                    removed = workQueue.remove(r);
+                    break;
+                }
+            }
+        }
         tryTerminate(); // In case SHUTDOWN and now empty
         return removed;
     }
@@ -1197,15 +1753,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
         try {
             Iterator<Runnable> it = q.iterator();
             while (it.hasNext()) {
-                Runnable r = it.next();
+                Runnable r = unwrap(it.next());
                 if (r instanceof Future<?> && ((Future<?>)r).isCancelled())
                     it.remove();
             }
         } catch (ConcurrentModificationException fallThrough) {
 
-            for (Object r : q.toArray())
-                if (r instanceof Future<?> && ((Future<?>)r).isCancelled())
+            for (Runnable r : q.toArray(new Runnable[0])) {
+                Runnable t = unwrap(r);
+                if (t instanceof Future<?> && ((Future<?>)t).isCancelled())
                     q.remove(r);
+            }
         }
 
         tryTerminate();
@@ -1217,79 +1775,61 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * 获取work数量
      */
     public int getPoolSize() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            return runStateAtLeast(ctl.get(), TIDYING) ? 0
-                    : workers.size();
-        } finally {
-            mainLock.unlock();
-        }
+        return runStateAtLeast(ctl.get(), TIDYING) ? 0
+                : workers.size();
     }
 
     /**
      * 获取正在执行任务work
      */
     public int getActiveCount() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            int n = 0;
-            for (Worker w : workers)
-                if (w.isLocked())
-                    ++n;
-            return n;
-        } finally {
-            mainLock.unlock();
-        }
+        /**
+         * 与getPoolSize()相同，TIDYING之后没有正在执行的任务，
+         * 已经退出的work可能还没有从workers中移除，或者正被interruptIdleWorkers()短暂加锁
+         */
+        if (runStateAtLeast(ctl.get(), TIDYING))
+            return 0;
+        int n = 0;
+        /**
+         * 同步状态-1 表示work还没有启动(runWorker()之前)，不算正在执行任务，
+         * 虚拟线程模式下大量work处于这个状态
+         */
+        for (Worker w : workers)
+            if (w.isRunningTask())
+                ++n;
+        return n;
     }
 
     /**
      * 获取work数量
      */
     public int getLargestPoolSize() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            return largestPoolSize;
-        } finally {
-            mainLock.unlock();
-        }
+        return largestPoolSize.get();
     }
 
     /**
      * 获取待完成任务
      */
     public long getTaskCount() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            long n = completedTaskCount;
-            for (Worker w : workers) {
-                n += w.completedTasks;
-                if (w.isLocked())
-                    ++n;
-            }
-            return n + workQueue.size();
-        } finally {
-            mainLock.unlock();
+        long n = completedTaskCount.get();
+        for (Worker w : workers) {
+            n += w.completedTasks;
+            if (w.isLocked())
+                ++n;
+            /** 批量模式下已经从workQueue取出、还没有执行的任务 **/
+            n += w.batchedTasks();
         }
+        return n + workQueue.size();
     }
 
     /**
      * 获取线程池完成任务总理
      */
     public long getCompletedTaskCount() {
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            long n = completedTaskCount;
-            for (Worker w : workers)
-                n += w.completedTasks;
-            return n;
-        } finally {
-            mainLock.unlock();
-        }
+        long n = completedTaskCount.get();
+        for (Worker w : workers)
+            n += w.completedTasks;
+        return n;
     }
 
     /**
@@ -1298,19 +1838,13 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
     public String toString() {
         long ncompleted;
         int nworkers, nactive;
-        final ReentrantLock mainLock = this.mainLock;
-        mainLock.lock();
-        try {
-            ncompleted = completedTaskCount;
-            nactive = 0;
-            nworkers = workers.size();
-            for (Worker w : workers) {
-                ncompleted += w.completedTasks;
-                if (w.isLocked())
-                    ++nactive;
-            }
-        } finally {
-            mainLock.unlock();
+        ncompleted = completedTaskCount.get();
+        nactive = 0;
+        nworkers = workers.size();
+        for (Worker w : workers) {
+            ncompleted += w.completedTasks;
+            if (w.isLocked())
+                ++nactive;
         }
         int c = ctl.get();
         String rs = (runStateLessThan(c, SHUTDOWN) ? "Running" :
@@ -1342,6 +1876,17 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      */
     protected void terminated() { }
 
+    /**
+     * sourcecode.ThreadPoolExecutor 的拒绝策略
+     *
+     * RejectedExecutionHandler 的参数是 java.util.concurrent.ThreadPoolExecutor，
+     * reject() 调用同时实现了此接口的handler，其他handler按 policyFor() 换成对应的内置策略或AbortPolicy。
+     * 被拒绝的任务可能是在work中因超过截止时间被丢弃的 PrioritizedTask，此时调用线程是work线程
+     */
+    public interface RejectionPolicy {
+        void rejectedExecution(Runnable r, ThreadPoolExecutor e);
+    }
+
     /* Predefined RejectedExecutionHandlers */
 
     /**
@@ -1350,7 +1895,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * unless the executor has been shut down, in which case the task
      * is discarded.
      */
-    public static class CallerRunsPolicy implements RejectedExecutionHandler {
+    public static class CallerRunsPolicy implements RejectedExecutionHandler, RejectionPolicy {
         /**
          * Creates a {@code CallerRunsPolicy}.
          */
@@ -1368,13 +1913,24 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                 r.run();
             }
         }
+
+        /**
+         * Executes task r in the caller's thread, unless the executor
+         * has been shut down or r has passed its deadline, in which
+         * case the task is discarded.
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (!e.isShutdown() && !PrioritizedTask.isExpired(r)) {
+                r.run();
+            }
+        }
     }
 
     /**
      * A handler for rejected tasks that throws a
      * {@code RejectedExecutionException}.
      */
-    public static class AbortPolicy implements RejectedExecutionHandler {
+    public static class AbortPolicy implements RejectedExecutionHandler, RejectionPolicy {
         /**
          * Creates an {@code AbortPolicy}.
          */
@@ -1392,13 +1948,22 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                     " rejected from " +
                     e.toString());
         }
+
+        /**
+         * Always throws RejectedExecutionException.
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            throw new RejectedExecutionException("Task " + r.toString() +
+                    " rejected from " +
+                    e.toString());
+        }
     }
 
     /**
      * A handler for rejected tasks that silently discards the
      * rejected task.
      */
-    public static class DiscardPolicy implements RejectedExecutionHandler {
+    public static class DiscardPolicy implements RejectedExecutionHandler, RejectionPolicy {
         /**
          * Creates a {@code DiscardPolicy}.
          */
@@ -1412,6 +1977,12 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
          */
         public void rejectedExecution(Runnable r, java.util.concurrent.ThreadPoolExecutor e) {
         }
+
+        /**
+         * Does nothing, which has the effect of discarding task r.
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+        }
     }
 
     /**
@@ -1419,7 +1990,7 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
      * request and then retries {@code execute}, unless the executor
      * is shut down, in which case the task is discarded.
      */
-    public static class DiscardOldestPolicy implements RejectedExecutionHandler {
+    public static class DiscardOldestPolicy implements RejectedExecutionHandler, RejectionPolicy {
         /**
          * Creates a {@code DiscardOldestPolicy} for the given executor.
          */
@@ -1440,5 +2011,22 @@ public class ThreadPoolExecutor extends AbstractExecutorService {
                 e.execute(r);
             }
         }
+
+        /**
+         * Discards the oldest queued task and retries r. With a
+         * PriorityTaskQueue the victim is the head of the lane r
+         * belongs to, since lanes have separate capacities.
+         * A task past its deadline is discarded without a retry.
+         */
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (!e.isShutdown() && !PrioritizedTask.isExpired(r)) {
+                BlockingQueue<Runnable> q = e.getQueue();
+                if (q instanceof PriorityTaskQueue)
+                    ((PriorityTaskQueue) q).pollOldest(r);
+                else
+                    q.poll();
+                e.execute(r);
+            }
+        }
     }
 }
@@ -0,0 +1,1116 @@
+package sourcecode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 工作窃取线程池
+ *
+ * ThreadPoolExecutor 中所有work都在getTask()中从同一个workQueue获取任务，任务提交频率很高时
+ * 队列头部的锁成为瓶颈。这里每个work槽位拥有一个本地双端队列(TaskDeque)：
+ *  1 work线程内部提交的任务压入自己队列的尾部，自己从尾部弹出(LIFO)
+ *  2 外部线程提交的任务按提交线程id哈希到一组共享提交队列
+ *  3 work本地队列为空时随机选择起点扫描其他队列，从头部窃取任务(FIFO)
+ *  4 所有队列都为空的work压入空闲栈后阻塞，提交任务时从空闲栈弹出一个work唤醒
+ *
+ * ctl 的状态/work数量编码以及 execute/shutdown/shutdownNow/awaitTermination 生命周期与
+ * ThreadPoolExecutor 保持一致，可以直接替换固定大小(corePoolSize == maximumPoolSize)的线程池。
+ * 不同之处：
+ *  1 线程数固定为poolSize，不支持keepAlive回收
+ *  2 任务不保证按提交顺序执行
+ *  3 线程池关闭后提交任务直接抛出RejectedExecutionException
+ */
+public class WorkStealingThreadPoolExecutor extends AbstractExecutorService {
+
+    /**
+     * 用于记录线程池池的 状态和当前待work线程数量
+     * 前3位记录线程池状态
+     * 后29位记录运行work数量
+     */
+    private final AtomicInteger ctl = new AtomicInteger(ctlOf(RUNNING, 0));
+
+    private static final int COUNT_BITS = Integer.SIZE - 3;
+
+    private static final int CAPACITY   = (1 << COUNT_BITS) - 1;
+
+    /** -----------------线程池状态，与ThreadPoolExecutor相同----------------- **/
+
+    private static final int RUNNING    = -1 << COUNT_BITS;
+    private static final int SHUTDOWN   =  0 << COUNT_BITS;
+    private static final int STOP       =  1 << COUNT_BITS;
+    private static final int TIDYING    =  2 << COUNT_BITS;
+    private static final int TERMINATED =  3 << COUNT_BITS;
+
+    /** 计算获取当前线程池状态 **/
+    private static int runStateOf(int c)     { return c & ~CAPACITY; }
+
+    /** 计算获取当前运行work数量**/
+    private static int workerCountOf(int c)  { return c & CAPACITY; }
+
+    /** 即根据线程池的状态和worker数量合并成整形 ctl **/
+    private static int ctlOf(int rs, int wc) { return rs | wc; }
+
+    private static boolean runStateLessThan(int c, int s) {
+        return c < s;
+    }
+
+    private static boolean runStateAtLeast(int c, int s) {
+        return c >= s;
+    }
+
+    private static boolean isRunning(int c) {
+        return c < SHUTDOWN;
+    }
+
+    private boolean compareAndIncrementWorkerCount(int expect) {
+        return ctl.compareAndSet(expect, expect + 1);
+    }
+
+    private void decrementWorkerCount() {
+        do {} while (! ctl.compareAndSet(ctl.get(), ctl.get() - 1));
+    }
+
+    /**
+     * remove()移除任务时用它替换队列中的任务，work取到后直接跳过
+     */
+    private static final Runnable REMOVED = new Runnable() {
+        public void run() {
+        }
+    };
+
+    /** 线程数量(固定) **/
+    private final int poolSize;
+
+    /** 每个work槽位一个本地队列，work退出后队列保留，由补充的work继承 **/
+    private final TaskDeque[] workerQueues;
+
+    /** 外部线程提交任务使用的共享队列，数量为大于等于poolSize的2的幂 **/
+    private final TaskDeque[] submissionQueues;
+
+    /** 按槽位保存work，访问需要持有mainLock **/
+    private final Worker[] workers;
+
+    /**
+     * 空闲work栈(Treiber栈)
+     * 高32位为版本号，每次入栈出栈加1，避免ABA问题
+     * 低32位为栈顶work槽位下标+1，0表示栈为空
+     */
+    private final AtomicLong idleWorkers = new AtomicLong();
+
+    /** 当前线程对应的work，用来判断execute()是否由本线程池的work调用 **/
+    private final java.lang.ThreadLocal<Worker> currentWorker = new java.lang.ThreadLocal<Worker>();
+
+    /** 主锁，对workers、largestPoolSize、completedTaskCount、stealCount 访问需要加锁 **/
+    private final ReentrantLock mainLock = new ReentrantLock();
+
+    /** awaitTermination()等待的条件 **/
+    private final Condition termination = mainLock.newCondition();
+
+    /** 线程池中曾经出现过的最大线程数 **/
+    private int largestPoolSize;
+
+    /** 已退出work完成的任务数 **/
+    private long completedTaskCount;
+
+    /** 已退出work从其他work队列窃取的任务数 **/
+    private long stealCount;
+
+    /** 创建work线程的工厂 **/
+    private volatile ThreadFactory threadFactory;
+
+    /**
+     * 实例化一个工作窃取线程池
+     */
+    public WorkStealingThreadPoolExecutor(int poolSize) {
+        this(poolSize, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * 实例化一个工作窃取线程池，指定线程工厂
+     */
+    public WorkStealingThreadPoolExecutor(int poolSize, ThreadFactory threadFactory) {
+        if (poolSize <= 0 || poolSize > CAPACITY)
+            throw new IllegalArgumentException();
+        if (threadFactory == null)
+            throw new NullPointerException();
+        this.poolSize = poolSize;
+        this.threadFactory = threadFactory;
+        this.workers = new Worker[poolSize];
+        this.workerQueues = new TaskDeque[poolSize];
+        for (int i = 0; i < poolSize; i++)
+            workerQueues[i] = new TaskDeque();
+        int n = 1;
+        while (n < poolSize)
+            n <<= 1;
+        this.submissionQueues = new TaskDeque[n];
+        for (int i = 0; i < n; i++)
+            submissionQueues[i] = new TaskDeque();
+    }
+
+    /**
+     * work，与ThreadPoolExecutor.Worker相同，利用AQS实现不可重入的独占锁，
+     * 执行任务时加锁，空闲时未加锁，shutdown()据此只中断空闲的work
+     */
+    private final class Worker
+            extends AbstractQueuedSynchronizer
+            implements Runnable
+    {
+        private static final long serialVersionUID = 6138294804551838833L;
+
+        /** work 工作线程 **/
+        final Thread thread;
+
+        /** 槽位下标 **/
+        final int index;
+
+        /** 槽位对应的本地队列 **/
+        final TaskDeque queue;
+
+        /** work 的第一个任务 **/
+        Runnable firstTask;
+
+        /** 完成任务数 **/
+        volatile long completedTasks;
+
+        /** 从其他work队列窃取的任务数 **/
+        volatile long steals;
+
+        Worker(Runnable firstTask, int index) {
+            setState(-1); // inhibit interrupts until runWorker
+            this.firstTask = firstTask;
+            this.index = index;
+            this.queue = workerQueues[index];
+            this.thread = getThreadFactory().newThread(this);
+        }
+
+        public void run() {
+            runWorker(this);
+        }
+
+        protected boolean isHeldExclusively() {
+            return getState() != 0;
+        }
+
+        protected boolean tryAcquire(int unused) {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        protected boolean tryRelease(int unused) {
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        public void lock()        { acquire(1); }
+        public boolean tryLock()  { return tryAcquire(1); }
+        public void unlock()      { release(1); }
+        public boolean isLocked() { return isHeldExclusively(); }
+
+        void interruptIfStarted() {
+            Thread t;
+            if (getState() >= 0 && (t = thread) != null && !t.isInterrupted()) {
+                try {
+                    t.interrupt();
+                } catch (SecurityException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 任务双端队列，简化自ForkJoinPool.WorkQueue
+     *
+     * 环形数组 + base/top 两个下标：
+     *  push()/pop() 在top端操作，work队列只允许所属work调用，提交队列通过qlock互斥后调用push()
+     *  poll() 在base端操作，任意线程通过CAS数组元素窃取
+     *
+     * 同时记录所属槽位在空闲栈中的状态
+     */
+    static final class TaskDeque {
+
+        /** 数组初始容量 **/
+        static final int INITIAL_QUEUE_CAPACITY = 1 << 13;
+
+        /** 数组最大容量 **/
+        static final int MAXIMUM_QUEUE_CAPACITY = 1 << 26;
+
+        /** 下一个被poll()的位置 **/
+        volatile int base;
+
+        /** 下一个被push()的位置 **/
+        int top;
+
+        /** 任务数组，长度为2的幂 **/
+        Runnable[] array;
+
+        /** 提交队列多个外部线程push()时的互斥锁，1表示锁定 **/
+        volatile int qlock;
+
+        /** 槽位是否在空闲栈中，1表示在栈中 **/
+        volatile int idle;
+
+        /** 空闲栈中下一个槽位下标+1 **/
+        volatile int nextIdle;
+
+        /** 阻塞等待任务的work线程 **/
+        volatile Thread parker;
+
+        TaskDeque() {
+            base = top = INITIAL_QUEUE_CAPACITY >>> 1;
+            array = new Runnable[INITIAL_QUEUE_CAPACITY];
+        }
+
+        /** 队列中任务数量(近似值) **/
+        final int queueSize() {
+            int n = base - top;
+            return (n >= 0) ? 0 : -n;
+        }
+
+        /** 队列是否为空(近似值) **/
+        final boolean isEmpty() {
+            return base - top >= 0;
+        }
+
+        /**
+         * 向top端添加任务，只能由所属work或持有qlock的线程调用
+         * 返回添加前队列中的任务数
+         */
+        final int push(Runnable task) {
+            Runnable[] a = array;
+            int s = top, m = a.length - 1, n;
+            U.putOrderedObject(a, ((m & s) << ASHIFT) + ABASE, task);
+            U.putOrderedInt(this, QTOP, s + 1);
+            if ((n = s - base) >= m)
+                growArray();
+            return n;
+        }
+
+        /**
+         * 外部线程向提交队列添加任务，qlock互斥
+         */
+        final int externalPush(Runnable task) {
+            while (!U.compareAndSwapInt(this, QLOCK, 0, 1))
+                Thread.yield();
+            try {
+                return push(task);
+            } finally {
+                qlock = 0;
+            }
+        }
+
+        /**
+         * 数组扩容为原来的2倍，按poll()的方式把旧数组中的任务搬到新数组
+         */
+        final void growArray() {
+            Runnable[] oldA = array;
+            int size = oldA.length << 1;
+            if (size > MAXIMUM_QUEUE_CAPACITY)
+                throw new RejectedExecutionException("Queue capacity exceeded");
+            Runnable[] a = array = new Runnable[size];
+            int oldMask = oldA.length - 1, mask = size - 1, t = top, b = base;
+            if (t - b > 0) {
+                do {
+                    Runnable x;
+                    long oldj = ((b & oldMask) << ASHIFT) + ABASE;
+                    long j    = ((b &    mask) << ASHIFT) + ABASE;
+                    x = (Runnable) U.getObjectVolatile(oldA, oldj);
+                    if (x != null && U.compareAndSwapObject(oldA, oldj, x, null))
+                        U.putObjectVolatile(a, j, x);
+                } while (++b != t);
+            }
+        }
+
+        /**
+         * 所属work从top端取出任务(LIFO)
+         */
+        final Runnable pop() {
+            Runnable[] a = array;
+            int m = a.length - 1;
+            for (int s; (s = top - 1) - base >= 0;) {
+                long j = ((m & s) << ASHIFT) + ABASE;
+                Runnable t = (Runnable) U.getObject(a, j);
+                if (t == null)
+                    break;
+                if (U.compareAndSwapObject(a, j, t, null)) {
+                    U.putOrderedInt(this, QTOP, s);
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 任意线程从base端窃取任务(FIFO)
+         */
+        final Runnable poll() {
+            Runnable[] a; int b; Runnable t;
+            while ((b = base) - top < 0 && (a = array) != null) {
+                long j = (((a.length - 1) & b) << ASHIFT) + ABASE;
+                t = (Runnable) U.getObjectVolatile(a, j);
+                if (base == b) {
+                    if (t != null) {
+                        if (U.compareAndSwapObject(a, j, t, null)) {
+                            base = b + 1;
+                            return t;
+                        }
+                    }
+                    else if (b + 1 == top) // now empty
+                        break;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 将队列中的task替换为REMOVED，替换成功返回true
+         */
+        final boolean tryRemove(Runnable task) {
+            Runnable[] a = array;
+            int m = a.length - 1;
+            for (int b = base; b - top < 0; b++) {
+                long j = ((m & b) << ASHIFT) + ABASE;
+                if (U.getObjectVolatile(a, j) == task &&
+                    U.compareAndSwapObject(a, j, task, REMOVED))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * 取出队列中所有任务
+         */
+        final void drainTo(List<Runnable> taskList) {
+            for (Runnable t; (t = poll()) != null;) {
+                if (t != REMOVED)
+                    taskList.add(t);
+            }
+        }
+
+        private static final sun.misc.Unsafe U;
+        private static final long QTOP;
+        private static final long QLOCK;
+        private static final int  ABASE;
+        private static final int  ASHIFT;
+        static {
+            try {
+                U = getUnsafe();
+                Class<?> k = TaskDeque.class;
+                Class<?> ak = Runnable[].class;
+                QTOP = U.objectFieldOffset
+                    (k.getDeclaredField("top"));
+                QLOCK = U.objectFieldOffset
+                    (k.getDeclaredField("qlock"));
+                ABASE = U.arrayBaseOffset(ak);
+                int scale = U.arrayIndexScale(ak);
+                if ((scale & (scale - 1)) != 0)
+                    throw new Error("data type scale not a power of two");
+                ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * 提交任务
+     */
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        int c = ctl.get();
+        /** work线程数量 < poolSize 创建一个work，将command作为work的第一个任务 **/
+        if (workerCountOf(c) < poolSize) {
+            if (addWorker(command))
+                return;
+            c = ctl.get();
+        }
+        if (isRunning(c)) {
+            /** 将任务添加到队列 **/
+            int n = enqueue(command);
+            int recheck = ctl.get();
+            /** 入队后线程池不在运行状态，从队列中移除任务并拒绝 **/
+            if (! isRunning(recheck) && remove(command))
+                reject(command);
+            /** 线程池中没有work，创建一个没有初始任务的work处理队列中的任务 **/
+            else if (workerCountOf(recheck) == 0)
+                addWorker(null);
+            /**
+             * 队列原本为空时唤醒一个空闲work，队列中已有任务说明已经有work被唤醒，
+             * 被唤醒的work在scan()中发现队列还有任务会继续唤醒其他work
+             */
+            else if (n <= 1)
+                signalWork();
+        }
+        else
+            reject(command);
+    }
+
+    /**
+     * 本线程池的work提交任务压入自己的队列，外部线程提交任务按线程id选择提交队列
+     * 返回入队前队列中的任务数
+     */
+    private int enqueue(Runnable command) {
+        Worker w = currentWorker.get();
+        if (w != null)
+            return w.queue.push(command);
+        TaskDeque[] qs = submissionQueues;
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return qs[(h ^ (h >>> 16)) & (qs.length - 1)].externalPush(command);
+    }
+
+    /**
+     * 从空闲栈弹出一个work并唤醒，栈为空返回false
+     */
+    private boolean signalWork() {
+        for (;;) {
+            long h = idleWorkers.get();
+            int top = (int) h;
+            if (top == 0)
+                return false;
+            TaskDeque q = workerQueues[top - 1];
+            long next = (((h >>> 32) + 1) << 32) | (q.nextIdle & 0xFFFFFFFFL);
+            if (idleWorkers.compareAndSet(h, next)) {
+                /** 先出栈再清除标识，work被唤醒后发现标识为0会重新入栈 **/
+                q.idle = 0;
+                Thread t = q.parker;
+                if (t != null)
+                    LockSupport.unpark(t);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 离开空闲栈：依次弹出栈顶直到自己出栈，弹出的其他work被唤醒一起处理任务(参考ForkJoinPool.tryRelease)
+     * 仍在栈中的work执行任务时，signalWork()可能弹出它并做一次无效的唤醒，而在它下面阻塞的work继续等待，
+     * 新提交的任务只能等正在执行的任务结束，任务之间有依赖时会死锁
+     */
+    private void leaveIdleStack(Worker w) {
+        TaskDeque q = w.queue;
+        while (q.idle != 0 && signalWork())
+            ;
+    }
+
+    /**
+     * 将work所在槽位压入空闲栈
+     */
+    private void pushIdle(Worker w) {
+        TaskDeque q = w.queue;
+        long h;
+        do {
+            h = idleWorkers.get();
+            q.nextIdle = (int) h;
+        } while (!idleWorkers.compareAndSet(h, (((h >>> 32) + 1) << 32) | (w.index + 1)));
+    }
+
+    /**
+     * 是否存在未处理的任务
+     */
+    private boolean hasQueuedTasks() {
+        for (TaskDeque q : submissionQueues)
+            if (!q.isEmpty())
+                return true;
+        for (TaskDeque q : workerQueues)
+            if (!q.isEmpty())
+                return true;
+        return false;
+    }
+
+    /**
+     * 从随机位置开始扫描所有提交队列和其他work的队列，窃取一个任务
+     */
+    private Runnable scan(Worker w) {
+        TaskDeque[] ss = submissionQueues, ws = workerQueues;
+        int n = ss.length + ws.length;
+        int origin = ThreadLocalRandom.current().nextInt(n);
+        for (int k = 0; k < n; k++) {
+            int i = origin + k;
+            if (i >= n)
+                i -= n;
+            TaskDeque q = (i < ss.length) ? ss[i] : ws[i - ss.length];
+            if (q == w.queue)
+                continue;
+            Runnable t = q.poll();
+            if (t != null) {
+                if (i >= ss.length)
+                    w.steals++;
+                /** 队列中还有任务，唤醒另一个空闲work一起处理 **/
+                if (!q.isEmpty())
+                    signalWork();
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 所有队列都为空时阻塞等待
+     * 先将work压入空闲栈再重新检查队列，避免与execute()之间丢失唤醒
+     */
+    private void awaitWork(Worker w) {
+        TaskDeque q = w.queue;
+        if (q.idle == 0) {
+            q.idle = 1;
+            pushIdle(w);
+        }
+        if (hasQueuedTasks() || runStateAtLeast(ctl.get(), SHUTDOWN))
+            return;
+        LockSupport.park(this);
+        /** 清除shutdown()用来唤醒空闲work的中断标识 **/
+        Thread.interrupted();
+    }
+
+    /**
+     * 获取任务，返回null表示work需要退出
+     */
+    private Runnable getTask(Worker w) {
+        for (;;) {
+            int c = ctl.get();
+            int rs = runStateOf(c);
+            /** 线程池STOP状态，work退出 **/
+            if (rs >= STOP) {
+                decrementWorkerCount();
+                return null;
+            }
+            /** 先从自己的队列获取，再从其他队列窃取 **/
+            Runnable r = w.queue.pop();
+            if (r == null)
+                r = scan(w);
+            if (r == REMOVED)
+                continue;
+            if (r != null) {
+                /** awaitWork()发现有任务没有阻塞，或者被意外唤醒时，work仍在空闲栈中 **/
+                if (w.queue.idle != 0)
+                    leaveIdleStack(w);
+                return r;
+            }
+            /** 线程池SHUTDOWN状态且没有任务，work退出 **/
+            if (rs == SHUTDOWN) {
+                decrementWorkerCount();
+                return null;
+            }
+            awaitWork(w);
+        }
+    }
+
+    /**
+     * 添加work，与ThreadPoolExecutor.addWorker相同，work数量上限为poolSize，
+     * 需要在mainLock下为work分配空闲槽位
+     */
+    private boolean addWorker(Runnable firstTask) {
+        retry:
+        for (;;) {
+            int c = ctl.get();
+            int rs = runStateOf(c);
+
+            if (rs >= SHUTDOWN &&
+                ! (rs == SHUTDOWN &&
+                   firstTask == null &&
+                   hasQueuedTasks()))
+                return false;
+
+            for (;;) {
+                int wc = workerCountOf(c);
+                if (wc >= poolSize)
+                    return false;
+                if (compareAndIncrementWorkerCount(c))
+                    break retry;
+                c = ctl.get();
+                if (runStateOf(c) != rs)
+                    continue retry;
+            }
+        }
+
+        boolean workerStarted = false;
+        boolean workerAdded = false;
+        Worker w = null;
+        try {
+            final ReentrantLock mainLock = this.mainLock;
+            mainLock.lock();
+            try {
+                int rs = runStateOf(ctl.get());
+                if (rs < SHUTDOWN ||
+                    (rs == SHUTDOWN && firstTask == null)) {
+                    /** 退出的work可能还没有释放槽位，此时添加失败 **/
+                    int slot = -1;
+                    for (int i = 0; i < workers.length; i++) {
+                        if (workers[i] == null) {
+                            slot = i;
+                            break;
+                        }
+                    }
+                    if (slot >= 0) {
+                        w = new Worker(firstTask, slot);
+                        final Thread t = w.thread;
+                        if (t != null) {
+                            if (t.isAlive())
+                                throw new IllegalThreadStateException();
+                            workers[slot] = w;
+                            int s = getPoolSizeLocked();
+                            if (s > largestPoolSize)
+                                largestPoolSize = s;
+                            workerAdded = true;
+                        }
+                    }
+                }
+            } finally {
+                mainLock.unlock();
+            }
+            if (workerAdded) {
+                w.thread.start();
+                workerStarted = true;
+            }
+        } finally {
+            if (! workerStarted)
+                addWorkerFailed(w);
+        }
+        return workerStarted;
+    }
+
+    /**
+     * 添加work失败回滚
+     */
+    private void addWorkerFailed(Worker w) {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            if (w != null && workers[w.index] == w)
+                workers[w.index] = null;
+            decrementWorkerCount();
+            tryTerminate();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * work退出，释放槽位，槽位的本地队列保留给其他work窃取
+     */
+    private void processWorkerExit(Worker w, boolean completedAbruptly) {
+        if (completedAbruptly)
+            decrementWorkerCount();
+
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            completedTaskCount += w.completedTasks;
+            stealCount += w.steals;
+            if (workers[w.index] == w)
+                workers[w.index] = null;
+        } finally {
+            mainLock.unlock();
+        }
+
+        tryTerminate();
+
+        int c = ctl.get();
+        if (runStateLessThan(c, STOP)) {
+            if (!completedAbruptly) {
+                int min = hasQueuedTasks() ? 1 : 0;
+                if (workerCountOf(c) >= min)
+                    return; // replacement not needed
+            }
+            addWorker(null);
+        }
+    }
+
+    /**
+     * work 执行任务，与ThreadPoolExecutor.runWorker相同
+     */
+    final void runWorker(Worker w) {
+        Thread wt = Thread.currentThread();
+        Runnable task = w.firstTask;
+        w.firstTask = null;
+        currentWorker.set(w);
+        w.queue.parker = wt;
+        w.unlock(); // allow interrupts
+        boolean completedAbruptly = true;
+        try {
+            while (task != null || (task = getTask(w)) != null) {
+                w.lock();
+                if ((runStateAtLeast(ctl.get(), STOP) ||
+                     (Thread.interrupted() &&
+                      runStateAtLeast(ctl.get(), STOP))) &&
+                    !wt.isInterrupted())
+                    wt.interrupt();
+                try {
+                    beforeExecute(wt, task);
+                    Throwable thrown = null;
+                    try {
+                        task.run();
+                    } catch (RuntimeException x) {
+                        thrown = x; throw x;
+                    } catch (Error x) {
+                        thrown = x; throw x;
+                    } catch (Throwable x) {
+                        thrown = x; throw new Error(x);
+                    } finally {
+                        afterExecute(task, thrown);
+                    }
+                } finally {
+                    task = null;
+                    w.completedTasks++;
+                    w.unlock();
+                }
+            }
+            completedAbruptly = false;
+        } finally {
+            currentWorker.remove();
+            processWorkerExit(w, completedAbruptly);
+        }
+    }
+
+    /**
+     * CAS+循环设置线程池状态
+     */
+    private void advanceRunState(int targetState) {
+        for (;;) {
+            int c = ctl.get();
+            if (runStateAtLeast(c, targetState) ||
+                ctl.compareAndSet(c, ctlOf(targetState, workerCountOf(c))))
+                break;
+        }
+    }
+
+    /**
+     * 尝试将线程池状态设置为TERMINATED，与ThreadPoolExecutor.tryTerminate相同
+     */
+    final void tryTerminate() {
+        for (;;) {
+            int c = ctl.get();
+            if (isRunning(c) ||
+                runStateAtLeast(c, TIDYING) ||
+                (runStateOf(c) == SHUTDOWN && hasQueuedTasks()))
+                return;
+            if (workerCountOf(c) != 0) { // Eligible to terminate
+                interruptIdleWorkers(ONLY_ONE);
+                return;
+            }
+
+            final ReentrantLock mainLock = this.mainLock;
+            mainLock.lock();
+            try {
+                if (ctl.compareAndSet(c, ctlOf(TIDYING, 0))) {
+                    try {
+                        terminated();
+                    } finally {
+                        ctl.set(ctlOf(TERMINATED, 0));
+                        termination.signalAll();
+                    }
+                    return;
+                }
+            } finally {
+                mainLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 中断所有已启动的work
+     */
+    private void interruptWorkers() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (Worker w : workers)
+                if (w != null)
+                    w.interruptIfStarted();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 中断空闲的work，阻塞在awaitWork()中的work被唤醒
+     */
+    private void interruptIdleWorkers(boolean onlyOne) {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (Worker w : workers) {
+                if (w == null)
+                    continue;
+                Thread t = w.thread;
+                if (!t.isInterrupted() && w.tryLock()) {
+                    try {
+                        t.interrupt();
+                    } catch (SecurityException ignore) {
+                    } finally {
+                        w.unlock();
+                    }
+                }
+                if (onlyOne)
+                    break;
+            }
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    private static final boolean ONLY_ONE = true;
+
+    /**
+     * 拒绝任务
+     */
+    final void reject(Runnable command) {
+        throw new RejectedExecutionException("Task " + command.toString() +
+                                             " rejected from " +
+                                             toString());
+    }
+
+    /**
+     * 取出所有队列中未执行的任务
+     */
+    private List<Runnable> drainQueue() {
+        ArrayList<Runnable> taskList = new ArrayList<Runnable>();
+        for (TaskDeque q : submissionQueues)
+            q.drainTo(taskList);
+        for (TaskDeque q : workerQueues)
+            q.drainTo(taskList);
+        return taskList;
+    }
+
+    /**
+     * 温柔的终止线程池，已提交的任务继续执行
+     */
+    public void shutdown() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            advanceRunState(SHUTDOWN);
+            interruptIdleWorkers(false);
+        } finally {
+            mainLock.unlock();
+        }
+        tryTerminate();
+    }
+
+    /**
+     * 强硬的终止线程池
+     * 返回在队列中没有执行的任务
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks;
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            advanceRunState(STOP);
+            interruptWorkers();
+            tasks = drainQueue();
+        } finally {
+            mainLock.unlock();
+        }
+        tryTerminate();
+        return tasks;
+    }
+
+    public boolean isShutdown() {
+        return ! isRunning(ctl.get());
+    }
+
+    public boolean isTerminating() {
+        int c = ctl.get();
+        return ! isRunning(c) && runStateLessThan(c, TERMINATED);
+    }
+
+    public boolean isTerminated() {
+        return runStateAtLeast(ctl.get(), TERMINATED);
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            for (;;) {
+                if (runStateAtLeast(ctl.get(), TERMINATED))
+                    return true;
+                if (nanos <= 0)
+                    return false;
+                nanos = termination.awaitNanos(nanos);
+            }
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    protected void finalize() {
+        shutdown();
+    }
+
+    /**
+     * 从队列中移除任务
+     */
+    public boolean remove(Runnable task) {
+        boolean removed = false;
+        for (TaskDeque q : submissionQueues)
+            if (removed = q.tryRemove(task))
+                break;
+        if (!removed) {
+            for (TaskDeque q : workerQueues)
+                if (removed = q.tryRemove(task))
+                    break;
+        }
+        tryTerminate(); // In case SHUTDOWN and now empty
+        return removed;
+    }
+
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null)
+            throw new NullPointerException();
+        this.threadFactory = threadFactory;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * 预先启动所有work
+     */
+    public int prestartAllCoreThreads() {
+        int n = 0;
+        while (addWorker(null))
+            ++n;
+        return n;
+    }
+
+    /** -----------------统计信息----------------- **/
+
+    public int getMaximumPoolSize() {
+        return poolSize;
+    }
+
+    private int getPoolSizeLocked() {
+        int n = 0;
+        for (Worker w : workers)
+            if (w != null)
+                ++n;
+        return n;
+    }
+
+    public int getPoolSize() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            return runStateAtLeast(ctl.get(), TIDYING) ? 0 : getPoolSizeLocked();
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    public int getActiveCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            int n = 0;
+            for (Worker w : workers)
+                if (w != null && w.isLocked())
+                    ++n;
+            return n;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    public int getLargestPoolSize() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            return largestPoolSize;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    public long getCompletedTaskCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            long n = completedTaskCount;
+            for (Worker w : workers)
+                if (w != null)
+                    n += w.completedTasks;
+            return n;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 从其他work队列窃取的任务总数
+     */
+    public long getStealCount() {
+        final ReentrantLock mainLock = this.mainLock;
+        mainLock.lock();
+        try {
+            long n = stealCount;
+            for (Worker w : workers)
+                if (w != null)
+                    n += w.steals;
+            return n;
+        } finally {
+            mainLock.unlock();
+        }
+    }
+
+    /**
+     * 所有队列中等待执行的任务数(近似值)
+     */
+    public long getQueuedTaskCount() {
+        long n = 0;
+        for (TaskDeque q : submissionQueues)
+            n += q.queueSize();
+        for (TaskDeque q : workerQueues)
+            n += q.queueSize();
+        return n;
+    }
+
+    public String toString() {
+        long ncompleted = getCompletedTaskCount();
+        int nactive = getActiveCount();
+        int nworkers = getPoolSize();
+        int c = ctl.get();
+        String rs = (runStateLessThan(c, SHUTDOWN) ? "Running" :
+                     (runStateAtLeast(c, TERMINATED) ? "Terminated" :
+                      "Shutting down"));
+        return super.toString() +
+            "[" + rs +
+            ", pool size = " + nworkers +
+            ", active threads = " + nactive +
+            ", queued tasks = " + getQueuedTaskCount() +
+            ", completed tasks = " + ncompleted +
+            ", steals = " + getStealCount() +
+            "]";
+    }
+
+    /** -----------------钩子方法----------------- **/
+
+    protected void beforeExecute(Thread t, Runnable r) { }
+
+    protected void afterExecute(Runnable r, Throwable t) { }
+
+    protected void terminated() { }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            java.lang.reflect.Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
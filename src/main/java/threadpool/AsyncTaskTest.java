@@ -0,0 +1,248 @@
+package threadpool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sourcecode.AsyncTask;
+import sourcecode.ThreadPoolExecutor;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * AsyncTask 组合、超时、取消测试
+ */
+public class AsyncTaskTest {
+
+    private ThreadPoolExecutor pool;
+
+    @Before
+    public void init() {
+        pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    @After
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static final Function<Integer, Integer> INC = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer x) {
+            return x + 1;
+        }
+    };
+
+    /**
+     * 很长的 thenApply 链，完成时不会随链长递归
+     */
+    @Test
+    public void longThenApplyChainDoesNotOverflow() {
+        AsyncTask<Integer> root = new AsyncTask<Integer>();
+        AsyncTask<Integer> last = root;
+        for (int i = 0; i < 20000; i++)
+            last = last.thenApply(INC);
+        root.complete(0);
+        Assert.assertEquals(Integer.valueOf(20000), last.join());
+    }
+
+    /**
+     * 很长的 thenCompose 链，每一步返回已经完成的任务
+     */
+    @Test
+    public void longThenComposeChainDoesNotOverflow() {
+        Function<Integer, AsyncTask<Integer>> next = new Function<Integer, AsyncTask<Integer>>() {
+            @Override
+            public AsyncTask<Integer> apply(Integer x) {
+                return AsyncTask.completed(x + 1);
+            }
+        };
+        AsyncTask<Integer> root = new AsyncTask<Integer>();
+        AsyncTask<Integer> last = root;
+        for (int i = 0; i < 20000; i++)
+            last = last.thenCompose(next);
+        root.complete(0);
+        Assert.assertEquals(Integer.valueOf(20000), last.join());
+    }
+
+    @Test
+    public void thenComposeRunsNextTaskOnPool() throws Exception {
+        AsyncTask<Integer> f = pool.supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 20;
+            }
+        }).thenCompose(new Function<Integer, AsyncTask<Integer>>() {
+            @Override
+            public AsyncTask<Integer> apply(final Integer x) {
+                return pool.supplyAsync(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return x * 2 + 2;
+                    }
+                });
+            }
+        });
+        Assert.assertEquals(Integer.valueOf(42), f.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 组合函数抛出异常时依赖任务以该异常完成
+     */
+    @Test
+    public void thenComposeFunctionFailure() throws Exception {
+        AsyncTask<Integer> f = AsyncTask.completed(1).thenCompose(new Function<Integer, AsyncTask<Integer>>() {
+            @Override
+            public AsyncTask<Integer> apply(Integer x) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        try {
+            f.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * allOf 等所有任务都完成后才完成，其中一个失败时以它的异常完成
+     */
+    @Test
+    public void allOfWithFailure() throws Exception {
+        AsyncTask<Integer> a = new AsyncTask<Integer>();
+        AsyncTask<Integer> b = new AsyncTask<Integer>();
+        AsyncTask<Integer> c = new AsyncTask<Integer>();
+        AsyncTask<Void> all = AsyncTask.allOf(a, b, c);
+        a.complete(1);
+        b.completeExceptionally(new IllegalStateException("b failed"));
+        Assert.assertFalse(all.isDone());
+        c.complete(3);
+        Assert.assertTrue(all.isCompletedExceptionally());
+        try {
+            all.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(AsyncTask.allOf().isDone());
+    }
+
+    @Test
+    public void orTimeout() throws Exception {
+        AsyncTask<Integer> never = new AsyncTask<Integer>().orTimeout(20, TimeUnit.MILLISECONDS);
+        try {
+            never.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        AsyncTask<Integer> fallback = new AsyncTask<Integer>().completeOnTimeout(7, 20, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(Integer.valueOf(7), fallback.get(5, TimeUnit.SECONDS));
+
+        /** 超时前完成，结果不变 **/
+        AsyncTask<Integer> inTime = new AsyncTask<Integer>().orTimeout(10, TimeUnit.SECONDS);
+        inTime.complete(1);
+        Assert.assertEquals(Integer.valueOf(1), inTime.get());
+    }
+
+    /**
+     * 取消后任务不再执行，get()抛出CancellationException，依赖任务异常完成
+     */
+    @Test
+    public void cancel() throws Exception {
+        final AtomicInteger ran = new AtomicInteger();
+        AsyncTask<Integer> f = new AsyncTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return ran.incrementAndGet();
+            }
+        });
+        AsyncTask<Integer> dep = f.thenApply(INC);
+        Assert.assertTrue(f.cancel(false));
+        Assert.assertTrue(f.isCancelled());
+        Assert.assertFalse(f.complete(1));
+        f.run();
+        Assert.assertEquals(0, ran.get());
+        try {
+            f.get();
+            Assert.fail();
+        } catch (CancellationException expected) {
+        }
+        Assert.assertTrue(dep.isCompletedExceptionally());
+
+        /** 还在workQueue中的任务被取消后，work取出时不再执行 **/
+        final CountDownLatch release = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            });
+        AsyncTask<Integer> queued = pool.supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return ran.incrementAndGet();
+            }
+        });
+        Assert.assertTrue(queued.cancel(true));
+        release.countDown();
+        release.countDown();
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ran.get());
+    }
+
+    /**
+     * 超时或被中断的get()不会把Signaller留在栈中
+     */
+    @Test
+    public void abandonedWaitersAreCleaned() throws Exception {
+        AsyncTask<Integer> never = new AsyncTask<Integer>();
+        for (int i = 0; i < 100; i++) {
+            try {
+                never.get(1, TimeUnit.MICROSECONDS);
+                Assert.fail();
+            } catch (TimeoutException expected) {
+            }
+        }
+        Thread.currentThread().interrupt();
+        try {
+            never.get();
+            Assert.fail();
+        } catch (InterruptedException expected) {
+        }
+        Assert.assertNull(stackOf(never));
+
+        /** 仍在等待的后续操作不会被清除 **/
+        AsyncTask<Integer> dep = never.thenApply(INC);
+        try {
+            never.get(1, TimeUnit.MICROSECONDS);
+            Assert.fail();
+        } catch (TimeoutException expected) {
+        }
+        Assert.assertNotNull(stackOf(never));
+        never.complete(1);
+        Assert.assertEquals(Integer.valueOf(2), dep.join());
+    }
+
+    private static Object stackOf(AsyncTask<?> f) throws Exception {
+        Field stack = AsyncTask.class.getDeclaredField("stack");
+        stack.setAccessible(true);
+        return stack.get(f);
+    }
+}
@@ -0,0 +1,129 @@
+package threadpool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量模式(setDrainBatchSize)测试：work一次从workQueue取出多个任务
+ */
+public class DrainBatchTest {
+
+    /** 任务异常导致work退出时不打印堆栈 **/
+    private static final ThreadFactory QUIET = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                }
+            });
+            return t;
+        }
+    };
+
+    /**
+     * 任务抛出异常的work把batch中的任务放回workQueue，同时shutdownNow()：
+     * 每个任务要么执行了，要么被shutdownNow()返回，终止后队列为空
+     */
+    @Test
+    public void throwingTasksAndShutdownNowLoseNothing() throws Exception {
+        final int submitted = 3000;
+        for (int round = 0; round < 100; round++) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), QUIET);
+            pool.setDrainBatchSize(16);
+            final AtomicInteger ran = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<Runnable>(submitted);
+            for (int i = 0; i < submitted; i++) {
+                final boolean fail = i % 7 == 0;
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.incrementAndGet();
+                        if (fail)
+                            throw new IllegalStateException("boom");
+                    }
+                });
+            }
+            pool.executeAll(tasks);
+            List<Runnable> returned = pool.shutdownNow();
+            Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals("round " + round + ": ran=" + ran.get() + " returned=" + returned.size() +
+                                " queue=" + pool.getQueue().size(),
+                    submitted, ran.get() + returned.size());
+            Assert.assertTrue(pool.getQueue().isEmpty());
+        }
+    }
+
+    /**
+     * getTaskCount() 包括已经取到batch中、还没有执行的任务
+     */
+    @Test
+    public void taskCountIncludesBatchedTasks() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.setDrainBatchSize(4);
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSecond = new CountDownLatch(1);
+        try {
+            /** 第一个任务开始执行时队列为空，batch为空 **/
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    firstStarted.countDown();
+                    await(releaseFirst);
+                }
+            });
+            Assert.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            /** 第二个任务被取出时再取出3个任务到batch，队列中剩下2个 **/
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    secondStarted.countDown();
+                    await(releaseSecond);
+                }
+            });
+            final AtomicInteger ran = new AtomicInteger();
+            for (int i = 0; i < 5; i++)
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.incrementAndGet();
+                    }
+                });
+            releaseFirst.countDown();
+            Assert.assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, pool.getQueue().size());
+            /** 完成1 + 正在执行1 + batch 3 + 队列2 **/
+            Assert.assertEquals(7, pool.getTaskCount());
+            releaseSecond.countDown();
+            pool.shutdown();
+            Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(5, ran.get());
+            Assert.assertEquals(7, pool.getTaskCount());
+        } finally {
+            releaseFirst.countDown();
+            releaseSecond.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignore) {
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package threadpool;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sourcecode.DrainResult;
+import sourcecode.PrioritizedTask;
+import sourcecode.ThreadPoolExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ThreadPoolExecutor.drain() 和 DrainResult.replay() 测试
+ */
+public class DrainTest {
+
+    /** Record 执行的顺序 **/
+    private static final List<String> RAN = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * 可以序列化的任务，执行时记录名称
+     */
+    static final class Record implements Runnable, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        Record(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            RAN.add(name);
+        }
+    }
+
+    /**
+     * 第一次取出任务后通知 drained，并停顿一段时间再返回，放大"队列被取空"的窗口
+     */
+    static final class SlowDrainQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        final CountDownLatch drained = new CountDownLatch(1);
+        private final AtomicBoolean first = new AtomicBoolean(true);
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c) {
+            int n = super.drainTo(c);
+            if (n > 0 && first.compareAndSet(true, false)) {
+                drained.countDown();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return n;
+        }
+    }
+
+    @Before
+    public void init() {
+        RAN.clear();
+    }
+
+    /**
+     * 重新排序取空队列期间正在执行的任务结束，work不会退出，放回的任务全部按优先级执行
+     */
+    @Test
+    public void reorderDoesNotLoseTasks() throws Exception {
+        final SlowDrainQueue q = new SlowDrainQueue();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, q);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    q.drained.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        pool.execute(new PrioritizedTask(new Record("c"), 2));
+        pool.execute(new PrioritizedTask(new Record("a"), 0));
+        pool.execute(new PrioritizedTask(new Record("b"), 1));
+
+        DrainResult result = pool.drain(5, TimeUnit.SECONDS);
+        Assert.assertTrue(result.isCompleted());
+        Assert.assertTrue(result.getTasks().isEmpty());
+        Assert.assertTrue(pool.isTerminated());
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), RAN);
+    }
+
+    /**
+     * 超时后剩余任务按优先级返回，序列化后在新的线程池中 replay() 按原来的顺序执行
+     */
+    @Test
+    public void leftoversReplayInPriorityOrder() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final CountDownLatch started = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        pool.execute(new PrioritizedTask(new Record("c"), 2));
+        pool.execute(new Record("plain"));
+        pool.execute(new PrioritizedTask(new Record("a"), 0, 1, TimeUnit.HOURS));
+        pool.execute(new PrioritizedTask(new Record("b"), 1));
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                RAN.add("unserializable");
+            }
+        });
+
+        DrainResult result = pool.drain(50, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(result.isCompleted());
+        Assert.assertTrue(RAN.isEmpty());
+        Assert.assertEquals(4, result.getTasks().size());
+        Assert.assertEquals(1, result.getUnserializableTasks().size());
+        Assert.assertEquals(0, result.getTasks().get(0).getLane());
+        Assert.assertTrue(result.getTasks().get(0).hasDeadline());
+        Assert.assertEquals(-1, result.getTasks().get(3).getLane());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(result);
+        out.close();
+        DrainResult restored = (DrainResult) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        Assert.assertFalse(restored.isCompleted());
+        Assert.assertTrue(restored.getUnserializableTasks().isEmpty());
+
+        ThreadPoolExecutor next = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        Assert.assertEquals(4, restored.replay(next));
+        next.shutdown();
+        Assert.assertTrue(next.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "plain"), RAN);
+    }
+}
@@ -0,0 +1,114 @@
+package threadpool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sourcecode.PoolSizeController;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PoolSizeController 调节测试
+ *
+ * 不真正提交任务，而是用一个排队模型生成每个采样周期的统计数据，通过 sample() 输入调节器：
+ * 到达速率 arrivalRate，每个任务执行 SERVICE_NANOS，每个周期最多执行 corePoolSize * 周期时长 / SERVICE_NANOS 个任务，
+ * 执行不完的任务留在队列中。结果不受机器速度影响，每次运行都相同。
+ *
+ * 按 Little 定律需要的线程数 = 到达速率 * 执行时间 / 目标利用率(0.8)
+ */
+public class PoolSizeControllerTest {
+
+    private static final long SERVICE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private ThreadPoolExecutor pool;
+
+    private PoolSizeController controller;
+
+    /** 模型中排队的任务数 **/
+    private long backlog;
+
+    @Before
+    public void init() {
+        pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        controller = new PoolSizeController(pool, 1, 64);
+        backlog = 0;
+    }
+
+    @After
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * 负载 高 -> 低 -> 高，每个阶段最后20个周期 corePoolSize 保持不变，并且在理论值的死区内
+     */
+    @Test
+    public void convergesAndSettles() {
+        /** 2000/s * 5ms / 0.8 = 12.5 **/
+        runPhase(2000, 12.5);
+        /** 400/s * 5ms / 0.8 = 2.5 **/
+        runPhase(400, 2.5);
+        runPhase(2000, 12.5);
+        /** 积压已经消化 **/
+        Assert.assertEquals(0, backlog);
+    }
+
+    /**
+     * 需要的线程数超过上限时停在 maxPoolSize 附近(死区内)，maximumPoolSize 不超过上限
+     */
+    @Test
+    public void clampedToMaxPoolSize() {
+        /** 20000/s * 5ms / 0.8 = 125 > 64 **/
+        for (int i = 0; i < 60; i++)
+            tick(20000);
+        Assert.assertTrue(pool.getCorePoolSize() <= 64 && pool.getCorePoolSize() > 64 * 0.9);
+        Assert.assertEquals(64, pool.getMaximumPoolSize());
+    }
+
+    /**
+     * 没有任务时缩到 minPoolSize
+     */
+    @Test
+    public void shrinksToMinPoolSizeWhenIdle() {
+        for (int i = 0; i < 40; i++)
+            tick(2000);
+        Assert.assertTrue(pool.getCorePoolSize() > 1);
+        for (int i = 0; i < 60; i++)
+            tick(0);
+        Assert.assertEquals(1, pool.getCorePoolSize());
+    }
+
+    private void runPhase(int ratePerSecond, double expected) {
+        int ticks = 60, tail = 20;
+        int minTail = Integer.MAX_VALUE, maxTail = 0;
+        for (int i = 0; i < ticks; i++) {
+            tick(ratePerSecond);
+            if (i >= ticks - tail) {
+                minTail = Math.min(minTail, pool.getCorePoolSize());
+                maxTail = Math.max(maxTail, pool.getCorePoolSize());
+            }
+        }
+        Assert.assertEquals("pool size did not settle", minTail, maxTail);
+        /** 与目标相差不到 max(1, 10%) 时不再调整(死区) **/
+        Assert.assertTrue("pool size " + minTail + " too far from " + expected,
+                Math.abs(minTail - Math.ceil(expected)) <= Math.max(1.0, 0.1 * minTail));
+        Assert.assertTrue(pool.getMaximumPoolSize() >= pool.getCorePoolSize());
+    }
+
+    /**
+     * 模拟一个采样周期并输入调节器
+     */
+    private void tick(int ratePerSecond) {
+        long arrivals = ratePerSecond * PERIOD_NANOS / TimeUnit.SECONDS.toNanos(1);
+        long capacity = pool.getCorePoolSize() * PERIOD_NANOS / SERVICE_NANOS;
+        long executed = Math.min(backlog + arrivals, capacity);
+        backlog += arrivals - executed;
+        controller.sample(arrivals, executed, executed, (double) executed * SERVICE_NANOS,
+                PERIOD_NANOS, (int) backlog);
+    }
+}
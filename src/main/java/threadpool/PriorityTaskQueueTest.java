@@ -0,0 +1,216 @@
+package threadpool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.PrioritizedTask;
+import sourcecode.PriorityTaskQueue;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PriorityTaskQueue 通道权重/截止时间 和 ThreadPoolExecutor 过期丢弃/拒绝策略测试
+ */
+public class PriorityTaskQueueTest {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * 两个通道都有积压时按权重 3:1 出队，只剩一个通道时直接从该通道出队
+     */
+    @Test
+    public void laneWeighting() {
+        PriorityTaskQueue q = new PriorityTaskQueue(new int[] {3, 1}, Integer.MAX_VALUE, 1);
+        for (int i = 0; i < 40; i++) {
+            q.offer(new PrioritizedTask(NOOP, 0));
+            q.offer(new PrioritizedTask(NOOP, 1));
+        }
+        int[] polled = new int[2];
+        for (int i = 0; i < 40; i++)
+            polled[((PrioritizedTask) q.poll()).getLane()]++;
+        Assert.assertEquals(30, polled[0]);
+        Assert.assertEquals(10, polled[1]);
+        /** 剩余 通道0:10 通道1:30 **/
+        Assert.assertEquals(10, q.size(0));
+        Assert.assertEquals(30, q.size(1));
+        q.clear();
+        q.offer(new PrioritizedTask(NOOP, 1));
+        q.offer(new PrioritizedTask(NOOP, 1));
+        Assert.assertEquals(1, ((PrioritizedTask) q.poll()).getLane());
+        Assert.assertEquals(1, ((PrioritizedTask) q.poll()).getLane());
+        Assert.assertNull(q.poll());
+    }
+
+    /**
+     * 通道内截止时间早的先出队，普通任务进入defaultLane，超出通道数量的任务进入最后一个通道
+     */
+    @Test
+    public void earliestDeadlineFirstWithinLane() {
+        PriorityTaskQueue q = new PriorityTaskQueue(new int[] {1, 1}, Integer.MAX_VALUE, 1);
+        PrioritizedTask late = new PrioritizedTask(NOOP, 0, 10, TimeUnit.SECONDS);
+        PrioritizedTask early = new PrioritizedTask(NOOP, 0, 1, TimeUnit.SECONDS);
+        PrioritizedTask middle = new PrioritizedTask(NOOP, 0, 5, TimeUnit.SECONDS);
+        q.offer(late);
+        q.offer(early);
+        q.offer(middle);
+        q.offer(NOOP);
+        PrioritizedTask overflow = new PrioritizedTask(NOOP, 7);
+        q.offer(overflow);
+        Assert.assertEquals(3, q.size(0));
+        Assert.assertEquals(2, q.size(1));
+        /** 权重1:1，两个通道轮流出队 **/
+        Assert.assertSame(early, q.poll());
+        Assert.assertSame(NOOP, q.poll());
+        Assert.assertSame(middle, q.poll());
+        Assert.assertSame(overflow, q.poll());
+        Assert.assertSame(late, q.poll());
+    }
+
+    /**
+     * 每个通道容量独立，一个通道满不影响其他通道
+     */
+    @Test
+    public void laneCapacity() {
+        PriorityTaskQueue q = new PriorityTaskQueue(new int[] {8, 1}, 2, 1);
+        Assert.assertTrue(q.offer(new PrioritizedTask(NOOP, 1)));
+        Assert.assertTrue(q.offer(new PrioritizedTask(NOOP, 1)));
+        Assert.assertFalse(q.offer(new PrioritizedTask(NOOP, 1)));
+        Assert.assertTrue(q.offer(new PrioritizedTask(NOOP, 0)));
+        Assert.assertEquals(3, q.size());
+    }
+
+    /**
+     * 排队期间超过截止时间的任务不执行：Future被取消，任务交给拒绝策略
+     */
+    @Test
+    public void expiredTaskIsShed() throws Exception {
+        final AtomicInteger rejected = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new PriorityTaskQueue(), new ThreadPoolExecutor.DiscardPolicy() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                rejected.incrementAndGet();
+            }
+        });
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            /** 占住唯一的work **/
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            });
+            final AtomicInteger ran = new AtomicInteger();
+            Future<Integer> expired = pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return ran.incrementAndGet();
+                }
+            }, 0, 1, TimeUnit.MILLISECONDS);
+            Future<Integer> alive = pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return 42;
+                }
+            }, 0, 10, TimeUnit.SECONDS);
+            TimeUnit.MILLISECONDS.sleep(20);
+            release.countDown();
+
+            Assert.assertEquals(Integer.valueOf(42), alive.get(5, TimeUnit.SECONDS));
+            try {
+                expired.get(5, TimeUnit.SECONDS);
+                Assert.fail("expired task should be cancelled");
+            } catch (CancellationException expected) {
+            }
+            Assert.assertEquals(0, ran.get());
+            Assert.assertEquals(1, rejected.get());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 只实现RejectedExecutionHandler的handler无法调用，按AbortPolicy处理：
+     * execute/submit抛出RejectedExecutionException，不会静默丢弃任务
+     */
+    @Test
+    public void foreignHandlerFallsBackToAbort() throws Exception {
+        final AtomicInteger called = new AtomicInteger();
+        RejectedExecutionHandler foreign = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, java.util.concurrent.ThreadPoolExecutor e) {
+                called.incrementAndGet();
+            }
+        };
+        ThreadPoolExecutor pool = newSaturatedPool(foreign);
+        try {
+            try {
+                pool.submit(NOOP);
+                Assert.fail("task should be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+            Assert.assertEquals(0, called.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * java.util.concurrent.ThreadPoolExecutor 的内置策略按同名的本地策略处理
+     */
+    @Test
+    public void jdkCallerRunsPolicyIsHonoured() throws Exception {
+        ThreadPoolExecutor pool = newSaturatedPool(new java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            final Thread caller = Thread.currentThread();
+            final AtomicInteger ranInCaller = new AtomicInteger();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (Thread.currentThread() == caller)
+                        ranInCaller.incrementAndGet();
+                }
+            });
+            Assert.assertEquals(1, ranInCaller.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 一个work被阻塞、队列容量为1且已满的线程池，再提交的任务会被拒绝
+     */
+    private ThreadPoolExecutor newSaturatedPool(RejectedExecutionHandler handler) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1), handler);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        pool.execute(NOOP);
+        return pool;
+    }
+}
@@ -0,0 +1,124 @@
+package threadpool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sourcecode.RingBufferBlockingQueue;
+import sourcecode.ThreadPoolExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RingBufferBlockingQueue 测试，重点是 remove() 留下的REMOVED标记
+ */
+public class RingBufferBlockingQueueTest {
+
+    @Test
+    public void offerPollInOrder() {
+        RingBufferBlockingQueue<Integer> q = new RingBufferBlockingQueue<Integer>(3);
+        Assert.assertEquals(4, q.capacity());
+        for (int i = 0; i < 4; i++)
+            Assert.assertTrue(q.offer(i));
+        Assert.assertFalse(q.offer(4));
+        Assert.assertEquals(4, q.size());
+        Assert.assertEquals(0, q.remainingCapacity());
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(Integer.valueOf(i), q.poll());
+        Assert.assertNull(q.poll());
+        Assert.assertTrue(q.isEmpty());
+    }
+
+    /**
+     * 被删除的元素不计入size()/isEmpty()，不论标记在队头还是队列中间
+     */
+    @Test
+    public void removedElementsAreNotCounted() {
+        RingBufferBlockingQueue<String> q = new RingBufferBlockingQueue<String>(8);
+        q.offer("a");
+        q.offer("b");
+        q.offer("c");
+        Assert.assertTrue(q.remove("b"));
+        Assert.assertFalse(q.remove("b"));
+        Assert.assertEquals(2, q.size());
+        Assert.assertTrue(q.remove("a"));
+        Assert.assertTrue(q.remove("c"));
+        Assert.assertEquals(0, q.size());
+        Assert.assertTrue(q.isEmpty());
+        Assert.assertNull(q.peek());
+        Assert.assertEquals(0, q.toArray().length);
+        Assert.assertNull(q.poll());
+
+        /** 跳过标记后计数归零，后续元素正常计数 **/
+        q.offer("d");
+        Assert.assertEquals(1, q.size());
+        Assert.assertEquals("d", q.peek());
+        Assert.assertEquals("d", q.poll());
+        Assert.assertTrue(q.isEmpty());
+    }
+
+    /**
+     * 标记占用的槽位被跳过后交还给生产者
+     */
+    @Test
+    public void removedSlotsAreReused() {
+        RingBufferBlockingQueue<Integer> q = new RingBufferBlockingQueue<Integer>(2);
+        q.offer(1);
+        q.offer(2);
+        Assert.assertTrue(q.remove(1));
+        Assert.assertEquals(1, q.size());
+        Assert.assertEquals(1, q.remainingCapacity());
+        Assert.assertEquals(Integer.valueOf(2), q.poll());
+        Assert.assertTrue(q.offer(3));
+        Assert.assertTrue(q.offer(4));
+        List<Integer> drained = new ArrayList<Integer>();
+        Assert.assertEquals(2, q.drainTo(drained));
+        Assert.assertEquals(3, drained.get(0).intValue());
+        Assert.assertEquals(4, drained.get(1).intValue());
+    }
+
+    /**
+     * ThreadPoolExecutor.remove()/purge() 之后线程池可以正常终止
+     */
+    @Test
+    public void poolTerminatesAfterRemoveAndPurge() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new RingBufferBlockingQueue<Runnable>(16));
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger ran = new AtomicInteger();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        Runnable removed = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+        pool.execute(removed);
+        Future<?> cancelled = pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        });
+        Assert.assertTrue(pool.remove(removed));
+        cancelled.cancel(false);
+        pool.purge();
+        Assert.assertTrue(pool.getQueue().isEmpty());
+
+        pool.shutdown();
+        release.countDown();
+        Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ran.get());
+    }
+}
@@ -0,0 +1,149 @@
+package threadpool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sourcecode.WorkStealingThreadPoolExecutor;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorkStealingThreadPoolExecutor 测试：任务之间互相等待、关闭和终止
+ */
+public class WorkStealingThreadPoolExecutorTest {
+
+    private static final int POOL_SIZE = 4;
+
+    private WorkStealingThreadPoolExecutor pool;
+
+    @Before
+    public void init() {
+        pool = new WorkStealingThreadPoolExecutor(POOL_SIZE);
+    }
+
+    @After
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 任务在work中提交子任务并等待结果，依赖链长度小于线程数时一定能完成：
+     * 子任务压入当前work的队列，需要由空闲work窃取执行，空闲work必须被唤醒
+     */
+    @Test
+    public void nestedTasksComplete() throws Exception {
+        for (int round = 0; round < 500; round++) {
+            Future<Integer> f = pool.submit(chain(POOL_SIZE - 1));
+            Assert.assertEquals("round " + round, Integer.valueOf(POOL_SIZE - 1), f.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 返回一个提交depth层子任务并等待的任务
+     */
+    private Callable<Integer> chain(final int depth) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                if (depth == 0)
+                    return 0;
+                return pool.submit(chain(depth - 1)).get(5, TimeUnit.SECONDS) + 1;
+            }
+        };
+    }
+
+    /**
+     * poolSize个任务在屏障上互相等待，只有所有work同时执行才能通过
+     */
+    @Test
+    public void allWorkersRunConcurrently() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final CyclicBarrier barrier = new CyclicBarrier(POOL_SIZE);
+            final CountDownLatch done = new CountDownLatch(POOL_SIZE);
+            for (int i = 0; i < POOL_SIZE; i++)
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            barrier.await(5, TimeUnit.SECONDS);
+                            done.countDown();
+                        } catch (Exception ignore) {
+                        }
+                    }
+                });
+            Assert.assertTrue("round " + round, done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * shutdown()后已经提交的任务全部执行，新任务被拒绝，线程池终止
+     */
+    @Test
+    public void shutdownRunsQueuedTasks() throws Exception {
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 10000; i++)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        pool.shutdown();
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            Assert.fail("task should be rejected after shutdown");
+        } catch (RejectedExecutionException expected) {
+        }
+        Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(pool.isTerminated());
+        Assert.assertEquals(10000, ran.get());
+        Assert.assertEquals(10000, pool.getCompletedTaskCount());
+    }
+
+    /**
+     * shutdownNow()中断正在执行的任务，返回还没有执行的任务，每个任务要么执行了要么被返回
+     */
+    @Test
+    public void shutdownNowReturnsUnstartedTasks() throws Exception {
+        final CountDownLatch started = new CountDownLatch(POOL_SIZE);
+        final AtomicInteger interrupted = new AtomicInteger();
+        for (int i = 0; i < POOL_SIZE; i++)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        Thread.sleep(Long.MAX_VALUE);
+                    } catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                    }
+                }
+            });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 1000; i++)
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        List<Runnable> left = pool.shutdownNow();
+        Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(POOL_SIZE, interrupted.get());
+        Assert.assertEquals(1000, ran.get() + left.size());
+    }
+}
@@ -0,0 +1,90 @@
+package unsafe;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * CAS失败后先等待再重试的计数器
+ *
+ * CASCounter失败后立即重试，线程多时所有线程反复读取、CAS同一个缓存行，失败的CAS同样占用缓存一致性流量。
+ * BackoffCASCounter每次CAS失败后调用onFailure(本次increment已经失败的次数，从1开始)，返回后再重试，
+ * 等待方式由构造方法传入，例如每次失败onSpinWait、前n次失败onSpinWait之后yield。
+ *
+ * 默认指数退避：第k次失败park [0, MIN_DELAY_NANOS*2^(k-1)) 中的随机纳秒数(上限MAX_DELAY_NANOS)，
+ * 随机抖动让同时失败的线程错开重试时间，park不占用CPU，单核CPU上同样适用。
+ */
+public class BackoffCASCounter {
+
+    /** 默认第一次失败的等待上限 **/
+    static final long MIN_DELAY_NANOS = 1 << 6;
+
+    /** 默认等待上限的最大值 **/
+    static final long MAX_DELAY_NANOS = 1 << 16;
+
+    /**
+     * 默认的失败处理：指数退避
+     */
+    public static final IntConsumer EXPONENTIAL_BACKOFF = new IntConsumer() {
+        @Override
+        public void accept(int failures) {
+            /** failures超过上限后不再移位，避免溢出 **/
+            long bound = failures > 10 ? MAX_DELAY_NANOS : Math.min(MIN_DELAY_NANOS << (failures - 1), MAX_DELAY_NANOS);
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(bound));
+        }
+    };
+
+    private static final Unsafe unsafe;
+    private static final long offset;
+
+    static {
+        try {
+            unsafe = getUnsafe();
+            offset = unsafe.objectFieldOffset(BackoffCASCounter.class.getDeclaredField("counter"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    private volatile long counter = 0;
+
+    private final IntConsumer onFailure;
+
+    public BackoffCASCounter() {
+        this(EXPONENTIAL_BACKOFF);
+    }
+
+    /**
+     * @param onFailure CAS失败后、重试前调用，参数为本次increment已经失败的次数
+     */
+    public BackoffCASCounter(IntConsumer onFailure) {
+        if (onFailure == null)
+            throw new NullPointerException();
+        this.onFailure = onFailure;
+    }
+
+    public void increment() {
+        long before = counter;
+        for (int failures = 0; !unsafe.compareAndSwapLong(this, offset, before, before + 1); ) {
+            onFailure.accept(++failures);
+            before = counter;
+        }
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    private static Unsafe getUnsafe() {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package unsafe;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 分段计数器(参考LongAdder/Striped64)
+ *
+ * CASCounter所有线程CAS同一个volatile字段，线程多时大部分CAS失败重试，吞吐量急剧下降。
+ * StripedCounter没有竞争时只CAS base，一旦CAS失败，线程按探针(probe)哈希到cells中不同的Cell上累加，
+ * 再次冲突时更换探针或将cells扩容(最多扩容到大于等于CPU核数)，sum()时累加base和所有Cell。
+ *
+ * Cell前后各填充120字节，保证不同Cell不在同一缓存行(也避开相邻缓存行预取)，避免伪共享。
+ */
+public class StripedCounter {
+
+    /** CPU核数，cells长度的上限 **/
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    private static final Unsafe unsafe;
+    private static final long baseOffset;
+    private static final long cellsBusyOffset;
+    /** Thread.threadLocalRandomProbe在内存中偏移位置，ThreadLocalRandom初始化后每个线程的探针不同 **/
+    private static final long probeOffset;
+
+    static {
+        try {
+            unsafe = getUnsafe();
+            baseOffset = unsafe.objectFieldOffset(StripedCounter.class.getDeclaredField("base"));
+            cellsBusyOffset = unsafe.objectFieldOffset(StripedCounter.class.getDeclaredField("cellsBusy"));
+            probeOffset = unsafe.objectFieldOffset(Thread.class.getDeclaredField("threadLocalRandomProbe"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * 没有竞争时直接累加到base
+     */
+    private volatile long base;
+
+    /**
+     * 出现竞争后初始化，长度为2的幂
+     */
+    private volatile Cell[] cells;
+
+    /**
+     * 初始化/扩容cells或创建Cell时使用的自旋锁，0未锁定 1锁定
+     */
+    private volatile int cellsBusy;
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void decrement() {
+        add(-1L);
+    }
+
+    /**
+     * 累加x
+     */
+    public void add(long x) {
+        Cell[] as; long b, v; int m; Cell a;
+        /** cells未初始化时先尝试CAS base，失败说明存在竞争 **/
+        if ((as = cells) != null || !casBase(b = base, b + x)) {
+            boolean uncontended = true;
+            /** 尝试CAS当前线程探针对应的Cell，失败进入accumulate处理 **/
+            if (as == null || (m = as.length - 1) < 0 ||
+                (a = as[getProbe() & m]) == null ||
+                !(uncontended = a.cas(v = a.value, v + x)))
+                accumulate(x, uncontended);
+        }
+    }
+
+    /**
+     * 返回当前计数，base与所有Cell之和
+     * 并发累加时返回的不是某一时刻的精确快照
+     */
+    public long sum() {
+        Cell[] as = cells; Cell a;
+        long sum = base;
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null)
+                    sum += a.value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 将base和所有Cell置为0
+     */
+    public void reset() {
+        Cell[] as = cells; Cell a;
+        base = 0L;
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null)
+                    a.value = 0L;
+            }
+        }
+    }
+
+    /**
+     * 返回当前计数并置为0，每个Cell使用getAndSet，不会丢失并发累加的值
+     */
+    public long sumThenReset() {
+        Cell[] as = cells; Cell a;
+        long sum = unsafe.getAndSetLong(this, baseOffset, 0L);
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null)
+                    sum += a.getAndReset();
+            }
+        }
+        return sum;
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    /**
+     * 处理存在竞争的累加：初始化cells、创建Cell、冲突时更换探针或扩容cells
+     * @param wasUncontended 调用前CAS Cell是否失败，false时先更换探针再重试
+     */
+    private void accumulate(long x, boolean wasUncontended) {
+        int h;
+        /** 线程探针未初始化，初始化ThreadLocalRandom为当前线程生成探针 **/
+        if ((h = getProbe()) == 0) {
+            ThreadLocalRandom.current();
+            h = getProbe();
+            wasUncontended = true;
+        }
+        /** 上一次选中的Cell不为空(发生冲突) **/
+        boolean collide = false;
+        for (;;) {
+            Cell[] as; Cell a; int n; long v;
+            if ((as = cells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    /** 探针对应的Cell为空，加锁创建Cell **/
+                    if (cellsBusy == 0) {
+                        Cell r = new Cell(x);
+                        if (cellsBusy == 0 && casCellsBusy()) {
+                            boolean created = false;
+                            try {
+                                Cell[] rs; int m, j;
+                                if ((rs = cells) != null &&
+                                    (m = rs.length) > 0 &&
+                                    rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue;
+                        }
+                    }
+                    collide = false;
+                }
+                else if (!wasUncontended)
+                    wasUncontended = true;
+                else if (a.cas(v = a.value, v + x))
+                    break;
+                /** cells已经达到上限或者已经被其他线程扩容，只更换探针 **/
+                else if (n >= NCPU || cells != as)
+                    collide = false;
+                else if (!collide)
+                    collide = true;
+                /** 连续两次冲突，扩容cells **/
+                else if (cellsBusy == 0 && casCellsBusy()) {
+                    try {
+                        if (cells == as) {
+                            Cell[] rs = new Cell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = as[i];
+                            cells = rs;
+                        }
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;
+                }
+                h = advanceProbe(h);
+            }
+            /** cells未初始化，加锁初始化长度为2的cells **/
+            else if (cellsBusy == 0 && cells == as && casCellsBusy()) {
+                boolean init = false;
+                try {
+                    if (cells == as) {
+                        Cell[] rs = new Cell[2];
+                        rs[h & 1] = new Cell(x);
+                        cells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            }
+            /** 其他线程正在初始化cells，退回CAS base **/
+            else if (casBase(v = base, v + x))
+                break;
+        }
+    }
+
+    private boolean casBase(long cmp, long val) {
+        return unsafe.compareAndSwapLong(this, baseOffset, cmp, val);
+    }
+
+    private boolean casCellsBusy() {
+        return unsafe.compareAndSwapInt(this, cellsBusyOffset, 0, 1);
+    }
+
+    /**
+     * 获取当前线程探针
+     */
+    static int getProbe() {
+        return unsafe.getInt(Thread.currentThread(), probeOffset);
+    }
+
+    /**
+     * xorshift生成新的探针并记录到当前线程
+     */
+    static int advanceProbe(int probe) {
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        unsafe.putInt(Thread.currentThread(), probeOffset, probe);
+        return probe;
+    }
+
+    /**
+     * 填充value之前的120字节，父类字段在子类字段之前布局，因此填充不会被字段重排打乱
+     */
+    static class CellLhsPadding {
+        long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+    }
+
+    static class CellValue extends CellLhsPadding {
+        volatile long value;
+    }
+
+    /**
+     * 计数单元，value之后同样填充120字节
+     */
+    static final class Cell extends CellValue {
+        long q01, q02, q03, q04, q05, q06, q07, q08, q09, q10, q11, q12, q13, q14, q15;
+
+        private static final long valueOffset;
+
+        static {
+            try {
+                valueOffset = unsafe.objectFieldOffset(CellValue.class.getDeclaredField("value"));
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+
+        Cell(long x) {
+            value = x;
+        }
+
+        boolean cas(long cmp, long val) {
+            return unsafe.compareAndSwapLong(this, valueOffset, cmp, val);
+        }
+
+        long getAndReset() {
+            return unsafe.getAndSetLong(this, valueOffset, 0L);
+        }
+    }
+
+    private static Unsafe getUnsafe() {
+        Field f = null;
+        Unsafe unsafe = null;
+        try {
+            f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = (Unsafe) f.get(null);
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return unsafe;
+    }
+}
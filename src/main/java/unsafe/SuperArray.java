@@ -2,32 +2,433 @@ package unsafe;
 
 import sun.misc.Unsafe;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
-public class SuperArray {
+/**
+ * 堆外大数组，容量可以超过Integer.MAX_VALUE，内存不受GC管理
+ *
+ * 两种模式：
+ * 1 new SuperArray(size)：使用Unsafe.allocateMemory分配堆外内存，close()或对象被回收时(Cleaner)释放
+ * 2 SuperArray.map(file, size)：使用FileChannel.map将文件映射到内存，数据直接持久化在文件中，
+ *   重新map同一个文件即可读取，不需要反序列化，文件可以大于物理内存(由操作系统按页换入换出)
+ *
+ * 下标都是按元素类型计算的下标(getLong(i)读取第i个long，即偏移i*8)，size()返回字节数
+ * 非线程安全
+ *
+ * Cleaner和解除映射在JDK 8与JDK 9+上的API不同(sun.misc.Cleaner/sun.nio.ch.DirectBuffer在JDK 9+不存在或不可访问)，
+ * 通过反射在运行时选择，见 Cleaners
+ */
+public class SuperArray implements Closeable {
 
     private final static int BYTE = 1;
+    private final static int INT = 4;
+    private final static int LONG = 8;
+    private final static int DOUBLE = 8;
 
+    /**
+     * 文件映射时每段的大小，FileChannel.map单次最多映射Integer.MAX_VALUE字节，按1G分段映射
+     * 段大小是2的幂，按类型对齐的元素不会跨段
+     */
+    private final static int SEGMENT_SHIFT = 30;
+
+    /**
+     * copyMemory单次拷贝的最大字节数，拷贝大块内存时分批进行，避免长时间无法进入安全点
+     */
+    private final static long UNSAFE_COPY_THRESHOLD = 1024L * 1024L;
+
+    private final static Unsafe UNSAFE = getUnsafe();
+
+    private final static long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+    private final static long LONG_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(long[].class);
+
+    /** Buffer.address在对象中的偏移，用来读取映射缓冲区的起始地址 **/
+    private final static long BUFFER_ADDRESS_OFFSET;
+
+    static {
+        try {
+            BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (NoSuchFieldException e) {
+            throw new Error(e);
+        }
+    }
+
+    /** 字节数，close后为0 **/
     private long size;
+
+    private boolean closed;
+
+    /** allocateMemory分配的内存起始地址，文件映射模式为0 **/
     private long address;
 
+    /** allocateMemory模式下负责释放内存，执行一次后不再重复释放 **/
+    private final Runnable cleaner;
+
+    /** 文件映射模式下每段的大小为 1 << segmentShift **/
+    private final int segmentShift;
+    private final long segmentSize;
+    private final long segmentMask;
+
+    /** 文件映射模式下每段映射的起始地址 **/
+    private final long[] segments;
+
+    /** 持有映射缓冲区的引用，避免被回收后自动解除映射 **/
+    private final MappedByteBuffer[] buffers;
+
+    private final RandomAccessFile file;
+
     public SuperArray(long size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Illegal size: " + size);
         this.size = size;
-        address = getUnsafe().allocateMemory(size * BYTE);
+        address = UNSAFE.allocateMemory(size * BYTE);
+        /** 和普通数组一样初始化为0 **/
+        UNSAFE.setMemory(address, size, (byte) 0);
+        /** Deallocator不能引用this，否则SuperArray永远不会被回收 **/
+        cleaner = Cleaners.register(this, new Deallocator(address));
+        segmentShift = 0;
+        segmentSize = 0;
+        segmentMask = 0;
+        segments = null;
+        buffers = null;
+        file = null;
+    }
+
+    private SuperArray(RandomAccessFile file, long size, int segmentShift) throws IOException {
+        this.size = size;
+        this.file = file;
+        this.cleaner = null;
+        this.segmentShift = segmentShift;
+        this.segmentSize = 1L << segmentShift;
+        this.segmentMask = segmentSize - 1;
+        int n = (int) ((size + segmentMask) >>> segmentShift);
+        segments = new long[n];
+        buffers = new MappedByteBuffer[n];
+        FileChannel channel = file.getChannel();
+        for (int i = 0; i < n; i++) {
+            long position = (long) i << segmentShift;
+            buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(segmentSize, size - position));
+            segments[i] = UNSAFE.getLong(buffers[i], BUFFER_ADDRESS_OFFSET);
+        }
+    }
+
+    /**
+     * 将文件映射为SuperArray，文件小于size时扩展文件(新增部分为0)
+     * size传入-1时使用文件当前长度，用于重新打开已经持久化的数组
+     */
+    public static SuperArray map(File f, long size) throws IOException {
+        return map(f, size, SEGMENT_SHIFT);
+    }
+
+    /**
+     * 指定分段大小(1 << segmentShift 字节)映射文件，用于测试分段逻辑时不需要创建超大文件
+     */
+    static SuperArray map(File f, long size, int segmentShift) throws IOException {
+        if (segmentShift < 3 || segmentShift > SEGMENT_SHIFT)
+            throw new IllegalArgumentException("Illegal segmentShift: " + segmentShift);
+        RandomAccessFile file = new RandomAccessFile(f, "rw");
+        try {
+            if (size < 0)
+                size = file.length();
+            else if (file.length() < size)
+                file.setLength(size);
+            return new SuperArray(file, size, segmentShift);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
     }
 
     public void set(long i, byte value) {
-        getUnsafe().putByte(address + i * BYTE, value);
+        UNSAFE.putByte(addressOf(i * BYTE, BYTE), value);
     }
 
     public int get(long idx) {
-        return getUnsafe().getByte(address + idx * BYTE);
+        return UNSAFE.getByte(addressOf(idx * BYTE, BYTE));
+    }
+
+    public void putInt(long i, int value) {
+        UNSAFE.putInt(addressOf(i * INT, INT), value);
+    }
+
+    public int getInt(long i) {
+        return UNSAFE.getInt(addressOf(i * INT, INT));
+    }
+
+    public void putLong(long i, long value) {
+        UNSAFE.putLong(addressOf(i * LONG, LONG), value);
+    }
+
+    public long getLong(long i) {
+        return UNSAFE.getLong(addressOf(i * LONG, LONG));
+    }
+
+    public void putDouble(long i, double value) {
+        UNSAFE.putDouble(addressOf(i * DOUBLE, DOUBLE), value);
+    }
+
+    public double getDouble(long i) {
+        return UNSAFE.getDouble(addressOf(i * DOUBLE, DOUBLE));
+    }
+
+    /**
+     * 从当前数组offset字节处拷贝bytes个字节到dest数组destOffset字节处
+     */
+    public void copyTo(long offset, SuperArray dest, long destOffset, long bytes) {
+        checkRange(offset, bytes);
+        dest.checkRange(destOffset, bytes);
+        while (bytes > 0) {
+            /** 文件映射模式下不能跨段拷贝，每次最多拷贝到两边段的末尾 **/
+            long n = Math.min(bytes, Math.min(remainingInSegment(offset), dest.remainingInSegment(destOffset)));
+            n = Math.min(n, UNSAFE_COPY_THRESHOLD);
+            UNSAFE.copyMemory(addressOf(offset, 0), dest.addressOf(destOffset, 0), n);
+            offset += n;
+            destOffset += n;
+            bytes -= n;
+        }
+    }
+
+    /**
+     * 读取offset字节处开始的length个字节到dst[dstIndex]
+     */
+    public void getBytes(long offset, byte[] dst, int dstIndex, int length) {
+        checkArray(dst.length, dstIndex, length);
+        copyMemory(offset, dst, BYTE_ARRAY_OFFSET + dstIndex, length, false);
+    }
+
+    /**
+     * 将src[srcIndex]开始的length个字节写入offset字节处
+     */
+    public void putBytes(long offset, byte[] src, int srcIndex, int length) {
+        checkArray(src.length, srcIndex, length);
+        copyMemory(offset, src, BYTE_ARRAY_OFFSET + srcIndex, length, true);
+    }
+
+    /**
+     * 读取第i个long开始的length个long到dst[dstIndex]
+     */
+    public void getLongs(long i, long[] dst, int dstIndex, int length) {
+        checkArray(dst.length, dstIndex, length);
+        copyMemory(i * LONG, dst, LONG_ARRAY_OFFSET + (long) dstIndex * LONG, (long) length * LONG, false);
+    }
+
+    /**
+     * 将src[srcIndex]开始的length个long写入第i个long处
+     */
+    public void putLongs(long i, long[] src, int srcIndex, int length) {
+        checkArray(src.length, srcIndex, length);
+        copyMemory(i * LONG, src, LONG_ARRAY_OFFSET + (long) srcIndex * LONG, (long) length * LONG, true);
+    }
+
+    /**
+     * 在堆外内存和堆内数组之间拷贝，toOffHeap为true时从数组拷贝到堆外
+     */
+    private void copyMemory(long offset, Object array, long arrayOffset, long bytes, boolean toOffHeap) {
+        checkRange(offset, bytes);
+        while (bytes > 0) {
+            long n = Math.min(Math.min(bytes, remainingInSegment(offset)), UNSAFE_COPY_THRESHOLD);
+            if (toOffHeap)
+                UNSAFE.copyMemory(array, arrayOffset, null, addressOf(offset, 0), n);
+            else
+                UNSAFE.copyMemory(null, addressOf(offset, 0), array, arrayOffset, n);
+            offset += n;
+            arrayOffset += n;
+            bytes -= n;
+        }
+    }
+
+    /**
+     * 文件映射模式下将修改刷新到磁盘
+     */
+    public void force() {
+        if (buffers != null && !closed) {
+            for (MappedByteBuffer buffer : buffers)
+                buffer.force();
+        }
     }
 
     public long size() {
         return size;
     }
 
+    /**
+     * 释放内存(文件映射模式解除映射并关闭文件)，重复调用无影响
+     * close之后再访问会抛出IllegalStateException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        size = 0;
+        if (cleaner != null) {
+            address = 0;
+            cleaner.run();
+        } else {
+            for (int i = 0; i < buffers.length; i++) {
+                segments[i] = 0;
+                Cleaners.unmap(buffers[i]);
+                buffers[i] = null;
+            }
+            file.close();
+        }
+    }
+
+    /**
+     * 计算offset字节处的内存地址，并检查[offset, offset + bytes)没有越界
+     */
+    private long addressOf(long offset, int bytes) {
+        if (offset < 0 || offset > size - bytes)
+            throw outOfRange(offset, bytes);
+        if (segments == null)
+            return address + offset;
+        return segments[(int) (offset >>> segmentShift)] + (offset & segmentMask);
+    }
+
+    /**
+     * offset所在段剩余的字节数
+     */
+    private long remainingInSegment(long offset) {
+        return segments == null ? Long.MAX_VALUE : segmentSize - (offset & segmentMask);
+    }
+
+    private void checkRange(long offset, long bytes) {
+        if (bytes < 0 || offset < 0 || offset > size - bytes)
+            throw outOfRange(offset, bytes);
+    }
+
+    private static void checkArray(int arrayLength, int index, int length) {
+        if (index < 0 || length < 0 || index > arrayLength - length)
+            throw new ArrayIndexOutOfBoundsException("index: " + index + ", length: " + length);
+    }
+
+    private RuntimeException outOfRange(long offset, long bytes) {
+        if (closed)
+            return new IllegalStateException("SuperArray is closed");
+        return new IndexOutOfBoundsException("offset: " + offset + ", bytes: " + bytes + ", size: " + size);
+    }
+
+    /**
+     * 释放allocateMemory分配的内存
+     */
+    private static class Deallocator implements Runnable {
+        private final long address;
+
+        Deallocator(long address) {
+            this.address = address;
+        }
+
+        public void run() {
+            UNSAFE.freeMemory(address);
+        }
+    }
+
+    /**
+     * JDK 8 与 JDK 9+ 的Cleaner/解除映射，类加载时通过反射选择一次：
+     *
+     * 注册Cleaner：JDK 9+ java.lang.ref.Cleaner.register，JDK 8 sun.misc.Cleaner.create
+     * 解除映射：JDK 9+ Unsafe.invokeCleaner(ByteBuffer)，JDK 8 ((sun.nio.ch.DirectBuffer) buffer).cleaner().clean()
+     */
+    static final class Cleaners {
+
+        /** (Object referent, Runnable action) -> Object cleanable **/
+        private static final MethodHandle REGISTER;
+        /** (Object cleanable) -> void **/
+        private static final MethodHandle CLEAN;
+        /** (ByteBuffer) -> void，JDK 8为null **/
+        private static final MethodHandle INVOKE_CLEANER;
+        /** (Object buffer) -> Object cleaner，JDK 9+为null **/
+        private static final MethodHandle DIRECT_BUFFER_CLEANER;
+
+        static {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType registerType = MethodType.methodType(Object.class, Object.class, Runnable.class);
+            MethodType cleanType = MethodType.methodType(void.class, Object.class);
+            try {
+                Class<?> cleanerClass;
+                try {
+                    cleanerClass = Class.forName("java.lang.ref.Cleaner");
+                } catch (ClassNotFoundException e) {
+                    cleanerClass = null;
+                }
+                if (cleanerClass != null) {
+                    /** JDK 9+，所有SuperArray共享一个Cleaner线程 **/
+                    Class<?> cleanableClass = Class.forName("java.lang.ref.Cleaner$Cleanable");
+                    Object cleaner = cleanerClass.getMethod("create").invoke(null);
+                    REGISTER = lookup.findVirtual(cleanerClass, "register",
+                            MethodType.methodType(cleanableClass, Object.class, Runnable.class))
+                            .bindTo(cleaner).asType(registerType);
+                    CLEAN = lookup.findVirtual(cleanableClass, "clean", MethodType.methodType(void.class))
+                            .asType(cleanType);
+                    INVOKE_CLEANER = lookup.findVirtual(Unsafe.class, "invokeCleaner",
+                            MethodType.methodType(void.class, ByteBuffer.class)).bindTo(UNSAFE);
+                    DIRECT_BUFFER_CLEANER = null;
+                } else {
+                    /** JDK 8 **/
+                    Class<?> sunCleaner = Class.forName("sun.misc.Cleaner");
+                    REGISTER = lookup.findStatic(sunCleaner, "create",
+                            MethodType.methodType(sunCleaner, Object.class, Runnable.class)).asType(registerType);
+                    CLEAN = lookup.findVirtual(sunCleaner, "clean", MethodType.methodType(void.class))
+                            .asType(cleanType);
+                    INVOKE_CLEANER = null;
+                    DIRECT_BUFFER_CLEANER = lookup.findVirtual(Class.forName("sun.nio.ch.DirectBuffer"), "cleaner",
+                            MethodType.methodType(sunCleaner)).asType(MethodType.methodType(Object.class, Object.class));
+                }
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+
+        /**
+         * referent不可达时执行action，返回的Runnable可以提前执行action(只会执行一次)
+         */
+        static Runnable register(Object referent, Runnable action) {
+            final Object cleanable;
+            try {
+                cleanable = REGISTER.invoke(referent, action);
+            } catch (Throwable t) {
+                throw new Error(t);
+            }
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        CLEAN.invoke(cleanable);
+                    } catch (Throwable t) {
+                        throw new Error(t);
+                    }
+                }
+            };
+        }
+
+        /**
+         * 立即解除映射，之后不能再访问buffer
+         */
+        static void unmap(MappedByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke((ByteBuffer) buffer);
+                } else {
+                    Object cleaner = DIRECT_BUFFER_CLEANER.invoke((Object) buffer);
+                    if (cleaner != null)
+                        CLEAN.invoke(cleaner);
+                }
+            } catch (Throwable t) {
+                throw new Error(t);
+            }
+        }
+    }
+
     private static Unsafe getUnsafe() {
         Field f = null;
         Unsafe unsafe = null;
@@ -1,9 +1,12 @@
 package unsafe;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.util.FileCopyUtils;
 import sun.misc.Unsafe;
+
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.concurrent.TimeUnit;
 
@@ -101,7 +104,7 @@ public class UnSafeTest {
     }
 
     @Test
-    public void createBigArray(){
+    public void createBigArray() throws Exception {
 
         long SUPER_SIZE = (long) Integer.MAX_VALUE * 2;
         SuperArray array = new SuperArray(SUPER_SIZE);
@@ -112,6 +115,36 @@ public class UnSafeTest {
             sum += array.get((long) Integer.MAX_VALUE + i);
         }
         System.out.println("Sum of 100 elements:" + sum);  //print 300
+        Assert.assertEquals(300, sum);
+        /** 释放堆外内存 **/
+        array.close();
+    }
+
+    @Test
+    public void mappedBigArray() throws Exception {
+        File f = File.createTempFile("super-array", ".dat");
+        f.deleteOnExit();
+        /** 映射3M文件，按1M分段(真实映射按1G分段，超过单个MappedByteBuffer的2G上限时同样分多段) **/
+        long SUPER_SIZE = 3L << 20;
+        int segmentShift = 20;
+        SuperArray array = SuperArray.map(f, SUPER_SIZE, segmentShift);
+        long last = SUPER_SIZE / 8 - 1;
+        /** 第二段的第一个long **/
+        long second = (1L << segmentShift) / 8;
+        array.putLong(last, 42L);
+        array.putLong(second, 7L);
+        array.putDouble(0, 3.14);
+        array.force();
+        array.close();
+
+        /** 重新映射同一个文件，直接读取之前写入的数据 **/
+        SuperArray reopened = SuperArray.map(f, -1, segmentShift);
+        Assert.assertEquals(SUPER_SIZE, reopened.size());
+        Assert.assertEquals(42L, reopened.getLong(last));
+        Assert.assertEquals(7L, reopened.getLong(second));
+        Assert.assertEquals(3.14, reopened.getDouble(0), 0.0);
+        reopened.close();
+        Assert.assertTrue(f.delete());
     }
 
     @Test
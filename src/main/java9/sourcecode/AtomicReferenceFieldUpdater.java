@@ -0,0 +1,418 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+/*
+ *
+ *
+ *
+ *
+ *
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package sourcecode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * AtomicReferenceFieldUpdater用来表示类中引用类型属性字段原子操作类（JDK 9+ 版本）
+ *
+ * 多版本jar(Multi-Release)中 META-INF/versions/9 下的实现，JDK 9 及以上运行时替换 src/main/java 中基于Unsafe的版本，
+ * 公开的API与JDK 8版本完全相同
+ *
+ * 与JDK 8版本的区别：
+ *
+ * 访问权限在newUpdater时以调用者的身份检查一次(MethodHandles.privateLookupIn + findVarHandle)，
+ * 不再依赖 sun.reflect.misc.ReflectUtil 和 Reflection.getCallerClass()
+ *
+ * getAcquire/setRelease/getOpaque/setOpaque/weakCompareAndSetAcquire/weakCompareAndSetRelease 使用VarHandle对应的访问模式，
+ * 而不是退化为volatile读写
+ *
+ * compareAndSet/weakCompareAndSet/get/set/lazySet/getAndSet 仍然使用Unsafe + 属性偏移地址：
+ * VarHandle保存在更新器的实例final字段中，JIT默认不把它当作常量，每次调用都要经过VarHandle的通用分派，
+ * CAS反而比JDK 8版本慢；偏移地址只是一个long，不需要常量折叠，每次调用只剩一次 isInstance 类型检查
+ *
+ * obj为null时抛出NullPointerException(JDK 8版本抛出ClassCastException)
+ *
+ * 有如下限制
+ *
+ * 字段必须是volatile类型的，在线程之间共享变量时保证立即可见
+ *
+ * 字段的描述类型（修饰符public/protected/default/private）是与调用者与操作对象字段的关系一致，
+ * 调用者所在的模块需要向本类所在模块开放(open)调用者的包，classpath下的类(未命名模块)满足该条件
+ *
+ * 只能是实例变量，不能是类变量
+ *
+ * 只能是可修改变量，不能使final变量，因为final的语义就是不可修改
+ *
+ */
+public abstract class AtomicReferenceFieldUpdater<T,V> {
+
+    /** 获取调用newUpdater的类，替代JDK 8版本中的Reflection.getCallerClass() **/
+    private static final StackWalker WALKER =
+        StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    /**
+     * 获取一个AtomicReferenceFieldUpdater实例（用来表示类中的一个属性字段）
+     * @param tclass  表示该字段所在的类
+     * @param vclass  vclass表示该字段的类型
+     * @param fieldName  表示要更新的字段名
+     */
+    public static <U,W> AtomicReferenceFieldUpdater<U,W> newUpdater(Class<U> tclass,
+                                                                    Class<W> vclass,
+                                                                    String fieldName) {
+        return new AtomicReferenceFieldUpdaterImpl<U,W>
+            (tclass, vclass, fieldName, WALKER.getCallerClass());
+    }
+
+
+    protected AtomicReferenceFieldUpdater() {
+    }
+
+
+    /**
+     * 使用CAS设置新值newValue，成功返回true,失败返回false
+     */
+    public abstract boolean compareAndSet(T obj, V expect, V update);
+
+    /**
+     * 使用CAS设置新值newValue，成功返回true,失败返回false
+     */
+    public abstract boolean weakCompareAndSet(T obj, V expect, V update);
+
+
+    /**
+     * 设置对象obj的AtomicReferenceFieldUpdater表示的属性值为新值newValue
+     */
+    public abstract void set(T obj, V newValue);
+
+    /**
+     * 设置对象obj的AtomicReferenceFieldUpdater指定的属性值为新值newValue（抛弃volatile特性）
+     */
+    public abstract void lazySet(T obj, V newValue);
+
+
+    /**
+     * 获取对象obj的AtomicReferenceFieldUpdater表示的属性值
+     */
+    public abstract V get(T obj);
+
+    /**
+     * acquire读：之后的读写不会重排到这次读取之前
+     * JDK 8 没有单独的acquire读，使用volatile读；JDK 9+ 的多版本实现使用VarHandle.getAcquire
+     */
+    public V getAcquire(T obj) {
+        return get(obj);
+    }
+
+    /**
+     * release写：之前的读写不会重排到这次写入之后，与lazySet相同
+     */
+    public void setRelease(T obj, V newValue) {
+        lazySet(obj, newValue);
+    }
+
+    /**
+     * opaque读：保证读到的是内存中的值(不会被编译器缓存)，不提供顺序保证
+     * JDK 8 使用volatile读；JDK 9+ 的多版本实现使用VarHandle.getOpaque
+     */
+    public V getOpaque(T obj) {
+        return get(obj);
+    }
+
+    /**
+     * opaque写：保证写入最终对其他线程可见，不提供顺序保证
+     * JDK 8 使用volatile写；JDK 9+ 的多版本实现使用VarHandle.setOpaque
+     */
+    public void setOpaque(T obj, V newValue) {
+        set(obj, newValue);
+    }
+
+    /**
+     * 成功时具有acquire语义的CAS，可能虚假失败
+     * JDK 8 使用compareAndSet；JDK 9+ 的多版本实现使用VarHandle.weakCompareAndSetAcquire
+     */
+    public boolean weakCompareAndSetAcquire(T obj, V expect, V update) {
+        return compareAndSet(obj, expect, update);
+    }
+
+    /**
+     * 成功时具有release语义的CAS，可能虚假失败
+     * JDK 8 使用compareAndSet；JDK 9+ 的多版本实现使用VarHandle.weakCompareAndSetRelease
+     */
+    public boolean weakCompareAndSetRelease(T obj, V expect, V update) {
+        return compareAndSet(obj, expect, update);
+    }
+
+    /**
+     * 原子设置AtomicReferenceFieldUpdater表示的属性值为给定值并返回旧值。(内部使用CAS乐观锁+循环)
+     */
+    public V getAndSet(T obj, V newValue) {
+        V prev;
+        do {
+            prev = get(obj);
+        } while (!compareAndSet(obj, prev, newValue));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将AtomicReferenceFieldUpdater表示的属性值执行IntUnaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final V getAndUpdate(T obj, UnaryOperator<V> updateFunction) {
+        V prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.apply(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将AtomicReferenceFieldUpdater表示的属性值执行IntUnaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final V updateAndGet(T obj, UnaryOperator<V> updateFunction) {
+        V prev, next;
+        do {
+            prev = get(obj);
+            next = updateFunction.apply(prev);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+
+    /**
+     * 以原子方式将AtomicReferenceFieldUpdater表示的属性值执行BinaryOperator函数处理，使用CAS乐观锁+循环，返回旧值
+     */
+    public final V getAndAccumulate(T obj, V x,
+                                    BinaryOperator<V> accumulatorFunction) {
+        V prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.apply(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return prev;
+    }
+
+    /**
+     * 以原子方式将AtomicReferenceFieldUpdater表示的属性值执行BinaryOperator函数处理，使用CAS乐观锁+循环，返回新值
+     */
+    public final V accumulateAndGet(T obj, V x,
+                                    BinaryOperator<V> accumulatorFunction) {
+        V prev, next;
+        do {
+            prev = get(obj);
+            next = accumulatorFunction.apply(prev, x);
+        } while (!compareAndSet(obj, prev, next));
+        return next;
+    }
+
+    private static final class AtomicReferenceFieldUpdaterImpl<T,V>
+        extends AtomicReferenceFieldUpdater<T,V> {
+
+        private static final sun.misc.Unsafe U = getUnsafe();
+
+        /**
+         * 操作属性的VarHandle，访问模式的类型为(tclass,vclass...)，
+         * protected属性被不同包的子类访问时，对象类型为调用者类型
+         */
+        private final VarHandle handle;
+
+        /**
+         * 属性在内存中的偏移地址
+         */
+        private final long offset;
+
+        /**
+         * 操作对象的类型，与VarHandle的对象类型相同
+         */
+        private final Class<?> cclass;
+
+        /**
+         * 操作类属性Class
+         */
+        private final Class<V> vclass;
+
+        AtomicReferenceFieldUpdaterImpl(final Class<T> tclass,
+                                        final Class<V> vclass,
+                                        final String fieldName,
+                                        final Class<?> caller) {
+
+            /** 操作类属性Field **/
+            final Field field;
+            try {
+                /** 使用反射获取对象的属性 field **/
+                field = AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<Field>() {
+                        public Field run() throws NoSuchFieldException {
+                            return tclass.getDeclaredField(fieldName);
+                        }
+                    });
+            } catch (PrivilegedActionException pae) {
+                throw new RuntimeException(pae.getException());
+            }
+
+            if (vclass != field.getType())
+                throw new ClassCastException();
+            if (vclass.isPrimitive())
+                throw new IllegalArgumentException("Must be reference type");
+
+            if (!Modifier.isVolatile(field.getModifiers()))
+                throw new IllegalArgumentException("Must be volatile type");
+
+            try {
+                /** 以调用者的身份查找属性，访问权限在这里检查一次 **/
+                this.handle = MethodHandles.privateLookupIn(caller, MethodHandles.lookup())
+                    .findVarHandle(tclass, fieldName, vclass);
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+            this.cclass = handle.coordinateTypes().get(0);
+            this.vclass = vclass;
+            this.offset = U.objectFieldOffset(field);
+        }
+
+        private static sun.misc.Unsafe getUnsafe() {
+            try {
+                Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                return (sun.misc.Unsafe) f.get(null);
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+
+        /**
+         * 检查传入对象是否为操作对象类型的实例，null抛出NullPointerException，类型不符抛出ClassCastException
+         */
+        private final void accessCheck(T obj) {
+            if (!cclass.isInstance(obj))
+                throwAccessCheckException(obj);
+        }
+
+        private final void throwAccessCheckException(T obj) {
+            if (obj == null)
+                throw new NullPointerException();
+            throw new ClassCastException(obj.getClass().getName() + " cannot be cast to " + cclass.getName());
+        }
+
+        /**
+         * 检查传入实例是否为属性类的实例，失败抛出异常
+         */
+        private final void valueCheck(V v) {
+            if (v != null && !(vclass.isInstance(v)))
+                throw new ClassCastException(v.getClass().getName() + " cannot be cast to " + vclass.getName());
+        }
+
+        /**
+         * 使用CAS设置对象属性的值
+         */
+        public final boolean compareAndSet(T obj, V expect, V update) {
+            accessCheck(obj);
+            valueCheck(update);
+            return U.compareAndSwapObject(obj, offset, expect, update);
+        }
+
+        /**
+         * 使用CAS设置对象属性的值（与compareAndSet相同）
+         */
+        public final boolean weakCompareAndSet(T obj, V expect, V update) {
+            accessCheck(obj);
+            valueCheck(update);
+            return U.compareAndSwapObject(obj, offset, expect, update);
+        }
+
+        /**
+         * 设置对象属性的值（其他线程可见）
+         */
+        public final void set(T obj, V newValue) {
+            accessCheck(obj);
+            valueCheck(newValue);
+            U.putObjectVolatile(obj, offset, newValue);
+        }
+
+        /**
+         * 设置对象属性的值（其他线程不一定可见）
+         */
+        public final void lazySet(T obj, V newValue) {
+            accessCheck(obj);
+            valueCheck(newValue);
+            U.putOrderedObject(obj, offset, newValue);
+        }
+
+        /**
+         * 获取对象属性的值（其他线程可见）
+         */
+        @SuppressWarnings("unchecked")
+        public final V get(T obj) {
+            accessCheck(obj);
+            return (V)U.getObjectVolatile(obj, offset);
+        }
+
+        /**
+         * 使用原子的方式设置对象属性的值，并返回旧值
+         */
+        @SuppressWarnings("unchecked")
+        public final V getAndSet(T obj, V newValue) {
+            accessCheck(obj);
+            valueCheck(newValue);
+            return (V)U.getAndSetObject(obj, offset, newValue);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final V getAcquire(T obj) {
+            return (V)handle.getAcquire(obj);
+        }
+
+        public final void setRelease(T obj, V newValue) {
+            handle.setRelease(obj, newValue);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final V getOpaque(T obj) {
+            return (V)handle.getOpaque(obj);
+        }
+
+        public final void setOpaque(T obj, V newValue) {
+            handle.setOpaque(obj, newValue);
+        }
+
+        public final boolean weakCompareAndSetAcquire(T obj, V expect, V update) {
+            return handle.weakCompareAndSetAcquire(obj, expect, update);
+        }
+
+        public final boolean weakCompareAndSetRelease(T obj, V expect, V update) {
+            return handle.weakCompareAndSetRelease(obj, expect, update);
+        }
+    }
+}